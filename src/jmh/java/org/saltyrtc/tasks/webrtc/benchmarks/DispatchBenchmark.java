@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.exceptions.SignalingException;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.client.signaling.SignalingInterface;
+import org.saltyrtc.client.signaling.SignalingRole;
+import org.saltyrtc.client.signaling.state.HandoverState;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.tasks.webrtc.WebRTCTask;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.events.MessageHandler;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Candidates;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full dispatch of incoming task messages via
+ * `WebRTCTask.onTaskMessage` to the application's message handler, i.e.
+ * the path every offer, answer and candidate message takes before the
+ * handover.
+ *
+ * Run via `./gradlew jmh`. The `gc` profiler is enabled by default and
+ * reports the bytes allocated per operation (`gc.alloc.rate.norm`).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    /**
+     * Implements the parts of the signalling instance used while
+     * dispatching task messages.
+     */
+    private static class BenchmarkSignaling implements SignalingInterface {
+        @NonNull private final HandoverState handoverState = new HandoverState();
+
+        @Override
+        public SignalingState getState() {
+            return SignalingState.TASK;
+        }
+
+        @Override
+        public void setState(SignalingState state) {}
+
+        @Override
+        public HandoverState getHandoverState() {
+            return this.handoverState;
+        }
+
+        @Override
+        public SignalingRole getRole() {
+            return SignalingRole.Responder;
+        }
+
+        @Override
+        public void sendTaskMessage(TaskMessage msg) throws SignalingException, ConnectionException {}
+
+        @Override
+        public Box encryptForPeer(byte[] data, byte[] nonce) throws CryptoException {
+            throw new CryptoException("Not supported");
+        }
+
+        @Override
+        public byte[] decryptFromPeer(Box box) throws CryptoException {
+            throw new CryptoException("Not supported");
+        }
+
+        @Override
+        public void onSignalingPeerMessage(byte[] decryptedBytes) {}
+
+        @Override
+        public void sendClose(int reason) {}
+
+        @Override
+        public void resetConnection(Integer reason) {}
+    }
+
+    /**
+     * Keeps the last message received, so the benchmarks can return it.
+     */
+    private static class LastMessageHandler implements MessageHandler {
+        Object last;
+
+        @Override
+        public void onOffer(@NonNull Offer offer) {
+            this.last = offer;
+        }
+
+        @Override
+        public void onAnswer(@NonNull Answer answer) {
+            this.last = answer;
+        }
+
+        @Override
+        public void onCandidates(@NonNull Candidate[] candidates) {
+            this.last = candidates;
+        }
+    }
+
+    @NonNull private static WebRTCTask createTask(
+        final boolean compactCandidates,
+        @NonNull final MessageHandler handler
+    ) throws ValidationError {
+        final WebRTCTask peer = new WebRTCTaskBuilder().withCompactCandidates(compactCandidates).build();
+        final WebRTCTask task = new WebRTCTaskBuilder().withCompactCandidates(compactCandidates).build();
+        task.init(new BenchmarkSignaling(), new HashMap<>(peer.getData()));
+        task.setMessageHandler(handler);
+        return task;
+    }
+
+    @State(Scope.Thread)
+    public static class SdpState {
+        @Param({ "audio", "multitrack", "simulcast" })
+        public String kind;
+
+        final LastMessageHandler handler = new LastMessageHandler();
+        WebRTCTask task;
+        TaskMessage offer;
+        TaskMessage answer;
+
+        @Setup
+        public void setUp() throws ValidationError {
+            this.task = createTask(false, this.handler);
+            final String sdp = SessionDescriptions.create(this.kind);
+            this.offer = new Offer(sdp).toTaskMessage();
+            this.answer = new Answer(sdp).toTaskMessage();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CandidatesState {
+        @Param({ "1", "10", "50", "200" })
+        public int count;
+
+        @Param({ "false", "true" })
+        public boolean compact;
+
+        final LastMessageHandler handler = new LastMessageHandler();
+        WebRTCTask task;
+        TaskMessage candidates;
+
+        @Setup
+        public void setUp() throws ValidationError {
+            this.task = createTask(this.compact, this.handler);
+            final Candidates candidates = new Candidates(SessionDescriptions.candidates(this.count));
+            this.candidates = this.compact ? candidates.toCompactTaskMessage() : candidates.toTaskMessage();
+        }
+    }
+
+    @Benchmark
+    public Object dispatchOffer(final SdpState state) {
+        state.task.onTaskMessage(state.offer);
+        return state.handler.last;
+    }
+
+    @Benchmark
+    public Object dispatchAnswer(final SdpState state) {
+        state.task.onTaskMessage(state.answer);
+        return state.handler.last;
+    }
+
+    @Benchmark
+    public Object dispatchCandidates(final CandidatesState state) {
+        state.task.onTaskMessage(state.candidates);
+        return state.handler.last;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.benchmarks;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+
+/**
+ * Generates realistic SDPs and ICE candidates, modelled after what browsers
+ * and the native WebRTC library produce.
+ */
+final class SessionDescriptions {
+    private SessionDescriptions() {
+        // Static only
+    }
+
+    /**
+     * Return an SDP of the given kind.
+     *
+     * @param kind One of
+     *   - `audio`: A single audio track.
+     *   - `multitrack`: An audio and two video tracks plus a data channel.
+     *   - `simulcast`: An audio track and a video track with three simulcast
+     *     layers plus a data channel.
+     */
+    @NonNull static String create(@NonNull final String kind) {
+        final StringBuilder sdp = new StringBuilder(8192);
+        sdp.append("v=0\r\n")
+            .append("o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n")
+            .append("s=-\r\n")
+            .append("t=0 0\r\n");
+        switch (kind) {
+            case "audio":
+                sdp.append("a=group:BUNDLE 0\r\n");
+                sdp.append("a=msid-semantic: WMS stream\r\n");
+                appendAudio(sdp, 0);
+                break;
+            case "multitrack":
+                sdp.append("a=group:BUNDLE 0 1 2 3\r\n");
+                sdp.append("a=msid-semantic: WMS stream\r\n");
+                appendAudio(sdp, 0);
+                appendVideo(sdp, 1, false);
+                appendVideo(sdp, 2, false);
+                appendApplication(sdp, 3);
+                break;
+            case "simulcast":
+                sdp.append("a=group:BUNDLE 0 1 2\r\n");
+                sdp.append("a=msid-semantic: WMS stream\r\n");
+                appendAudio(sdp, 0);
+                appendVideo(sdp, 1, true);
+                appendApplication(sdp, 2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown SDP kind: " + kind);
+        }
+        return sdp.toString();
+    }
+
+    /**
+     * Return a set of candidates with a mix of host, server reflexive and
+     * relay candidates.
+     *
+     * @param count The number of candidates.
+     */
+    @NonNull static Candidate[] candidates(final int count) {
+        final Candidate[] candidates = new Candidate[count];
+        for (int i = 0; i < count; i++) {
+            final String sdp;
+            final int port = 50000 + i;
+            switch (i % 4) {
+                case 0:
+                    sdp = "candidate:" + (842163049L + i) + " 1 udp 2122260223 192.168.1." + (i % 250 + 2) + " "
+                        + port + " typ host generation 0 ufrag EsAw network-id 1 network-cost 10";
+                    break;
+                case 1:
+                    sdp = "candidate:" + (1510613869L + i) + " 1 tcp 1518280447 192.168.1." + (i % 250 + 2)
+                        + " 9 typ host tcptype active generation 0 ufrag EsAw network-id 1 network-cost 10";
+                    break;
+                case 2:
+                    sdp = "candidate:" + (4209285208L + i) + " 1 udp 1686052607 203.0.113." + (i % 250 + 2) + " "
+                        + port + " typ srflx raddr 192.168.1." + (i % 250 + 2) + " rport " + port
+                        + " generation 0 ufrag EsAw network-id 1 network-cost 10";
+                    break;
+                default:
+                    sdp = "candidate:" + (3000000000L + i) + " 1 udp 41885439 198.51.100.7 " + port
+                        + " typ relay raddr 203.0.113." + (i % 250 + 2) + " rport " + port
+                        + " generation 0 ufrag EsAw network-id 1 network-cost 10";
+                    break;
+            }
+            candidates[i] = new Candidate(sdp, String.valueOf(i % 3), i % 3);
+        }
+        return candidates;
+    }
+
+    private static void appendTransport(@NonNull final StringBuilder sdp, final int mid) {
+        sdp.append("c=IN IP4 0.0.0.0\r\n")
+            .append("a=ice-ufrag:EsAw\r\n")
+            .append("a=ice-pwd:P2uYro0UCOQ4zxjKXaWCBui1\r\n")
+            .append("a=ice-options:trickle\r\n")
+            .append("a=fingerprint:sha-256 D2:FA:0E:C3:22:59:5E:14:95:69:92:3D:13:B4:84:24:2C:C2:A2:C0:3E:FD:")
+            .append("34:8E:5E:EA:6F:AF:52:CE:E6:0F\r\n")
+            .append("a=setup:actpass\r\n")
+            .append("a=mid:").append(mid).append("\r\n");
+    }
+
+    private static void appendAudio(@NonNull final StringBuilder sdp, final int mid) {
+        sdp.append("m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n");
+        appendTransport(sdp, mid);
+        sdp.append("a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n")
+            .append("a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n")
+            .append("a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n")
+            .append("a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n")
+            .append("a=sendrecv\r\n")
+            .append("a=msid:stream audio0\r\n")
+            .append("a=rtcp-mux\r\n")
+            .append("a=rtpmap:111 opus/48000/2\r\n")
+            .append("a=rtcp-fb:111 transport-cc\r\n")
+            .append("a=fmtp:111 minptime=10;useinbandfec=1\r\n")
+            .append("a=rtpmap:103 ISAC/16000\r\n")
+            .append("a=rtpmap:104 ISAC/32000\r\n")
+            .append("a=rtpmap:9 G722/8000\r\n")
+            .append("a=rtpmap:0 PCMU/8000\r\n")
+            .append("a=rtpmap:8 PCMA/8000\r\n")
+            .append("a=rtpmap:106 CN/32000\r\n")
+            .append("a=rtpmap:105 CN/16000\r\n")
+            .append("a=rtpmap:13 CN/8000\r\n")
+            .append("a=rtpmap:110 telephone-event/48000\r\n")
+            .append("a=rtpmap:112 telephone-event/32000\r\n")
+            .append("a=rtpmap:113 telephone-event/16000\r\n")
+            .append("a=rtpmap:126 telephone-event/8000\r\n")
+            .append("a=ssrc:1001").append(mid).append(" cname:K3k3Hk8nA0oHn4+b\r\n")
+            .append("a=ssrc:1001").append(mid).append(" msid:stream audio0\r\n");
+    }
+
+    private static void appendVideo(@NonNull final StringBuilder sdp, final int mid, final boolean simulcast) {
+        sdp.append("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 121 127 120 125 107 108 109\r\n");
+        appendTransport(sdp, mid);
+        sdp.append("a=extmap:14 urn:ietf:params:rtp-hdrext:toffset\r\n")
+            .append("a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n")
+            .append("a=extmap:13 urn:3gpp:video-orientation\r\n")
+            .append("a=extmap:3 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01\r\n")
+            .append("a=extmap:5 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay\r\n")
+            .append("a=extmap:6 http://www.webrtc.org/experiments/rtp-hdrext/video-content-type\r\n")
+            .append("a=extmap:7 http://www.webrtc.org/experiments/rtp-hdrext/video-timing\r\n")
+            .append("a=extmap:8 http://www.webrtc.org/experiments/rtp-hdrext/color-space\r\n")
+            .append("a=extmap:4 urn:ietf:params:rtp-hdrext:sdes:mid\r\n")
+            .append("a=extmap:10 urn:ietf:params:rtp-hdrext:sdes:rtp-stream-id\r\n")
+            .append("a=extmap:11 urn:ietf:params:rtp-hdrext:sdes:repaired-rtp-stream-id\r\n")
+            .append("a=sendrecv\r\n")
+            .append("a=msid:stream video").append(mid).append("\r\n")
+            .append("a=rtcp-mux\r\n")
+            .append("a=rtcp-rsize\r\n");
+        final String[] codecs = { "VP8/90000", "VP9/90000", "H264/90000", "H264/90000", "AV1X/90000" };
+        int payloadType = 96;
+        for (final String codec : codecs) {
+            sdp.append("a=rtpmap:").append(payloadType).append(' ').append(codec).append("\r\n")
+                .append("a=rtcp-fb:").append(payloadType).append(" goog-remb\r\n")
+                .append("a=rtcp-fb:").append(payloadType).append(" transport-cc\r\n")
+                .append("a=rtcp-fb:").append(payloadType).append(" ccm fir\r\n")
+                .append("a=rtcp-fb:").append(payloadType).append(" nack\r\n")
+                .append("a=rtcp-fb:").append(payloadType).append(" nack pli\r\n");
+            if (codec.startsWith("H264")) {
+                sdp.append("a=fmtp:").append(payloadType)
+                    .append(" level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n");
+            }
+            sdp.append("a=rtpmap:").append(payloadType + 1).append(" rtx/90000\r\n")
+                .append("a=fmtp:").append(payloadType + 1).append(" apt=").append(payloadType).append("\r\n");
+            payloadType += 2;
+        }
+        sdp.append("a=rtpmap:127 red/90000\r\n")
+            .append("a=rtpmap:120 rtx/90000\r\n")
+            .append("a=fmtp:120 apt=127\r\n")
+            .append("a=rtpmap:125 ulpfec/90000\r\n");
+        if (simulcast) {
+            final String[] rids = { "q", "h", "f" };
+            for (final String rid : rids) {
+                sdp.append("a=rid:").append(rid).append(" send\r\n");
+            }
+            sdp.append("a=simulcast:send q;h;f\r\n");
+            for (int layer = 0; layer < rids.length; layer++) {
+                final int ssrc = 2000 + mid * 10 + layer * 2;
+                sdp.append("a=ssrc-group:FID ").append(ssrc).append(' ').append(ssrc + 1).append("\r\n");
+            }
+            sdp.append("a=ssrc-group:SIM");
+            for (int layer = 0; layer < rids.length; layer++) {
+                sdp.append(' ').append(2000 + mid * 10 + layer * 2);
+            }
+            sdp.append("\r\n");
+            for (int layer = 0; layer < rids.length; layer++) {
+                final int ssrc = 2000 + mid * 10 + layer * 2;
+                appendSsrc(sdp, ssrc, mid);
+                appendSsrc(sdp, ssrc + 1, mid);
+            }
+        } else {
+            final int ssrc = 2000 + mid * 10;
+            sdp.append("a=ssrc-group:FID ").append(ssrc).append(' ').append(ssrc + 1).append("\r\n");
+            appendSsrc(sdp, ssrc, mid);
+            appendSsrc(sdp, ssrc + 1, mid);
+        }
+    }
+
+    private static void appendSsrc(@NonNull final StringBuilder sdp, final int ssrc, final int mid) {
+        sdp.append("a=ssrc:").append(ssrc).append(" cname:K3k3Hk8nA0oHn4+b\r\n")
+            .append("a=ssrc:").append(ssrc).append(" msid:stream video").append(mid).append("\r\n");
+    }
+
+    private static void appendApplication(@NonNull final StringBuilder sdp, final int mid) {
+        sdp.append("m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\n");
+        appendTransport(sdp, mid);
+        sdp.append("a=sctp-port:5000\r\n")
+            .append("a=max-message-size:262144\r\n");
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Candidates;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of task messages from and to the data maps
+ * exchanged with the signalling instance, which every message passes before
+ * the handover.
+ *
+ * Run via `./gradlew jmh`. The `gc` profiler is enabled by default and
+ * reports the bytes allocated per operation (`gc.alloc.rate.norm`).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskMessageBenchmark {
+    @State(Scope.Benchmark)
+    public static class SdpState {
+        @Param({ "audio", "multitrack", "simulcast" })
+        public String kind;
+
+        Offer offer;
+        Answer answer;
+        Map<String, Object> offerData;
+        Map<String, Object> answerData;
+
+        @Setup
+        public void setUp() {
+            final String sdp = SessionDescriptions.create(this.kind);
+            this.offer = new Offer(sdp);
+            this.answer = new Answer(sdp);
+            this.offerData = this.offer.toTaskMessage().getData();
+            this.answerData = this.answer.toTaskMessage().getData();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CandidatesState {
+        @Param({ "1", "10", "50", "200" })
+        public int count;
+
+        Candidate candidate;
+        Candidates candidates;
+        Map<String, Object> candidateData;
+        Map<String, Object> candidatesData;
+        Map<String, Object> compactCandidatesData;
+
+        @Setup
+        public void setUp() {
+            final Candidate[] candidates = SessionDescriptions.candidates(this.count);
+            this.candidate = candidates[0];
+            this.candidates = new Candidates(candidates);
+            this.candidateData = this.candidate.toMap();
+            this.candidatesData = this.candidates.toTaskMessage().getData();
+            this.compactCandidatesData = this.candidates.toCompactTaskMessage().getData();
+        }
+    }
+
+    @Benchmark
+    public Offer offerFromMap(final SdpState state) throws ValidationError {
+        return new Offer(state.offerData);
+    }
+
+    @Benchmark
+    public TaskMessage offerToTaskMessage(final SdpState state) {
+        return state.offer.toTaskMessage();
+    }
+
+    @Benchmark
+    public Answer answerFromMap(final SdpState state) throws ValidationError {
+        return new Answer(state.answerData);
+    }
+
+    @Benchmark
+    public TaskMessage answerToTaskMessage(final SdpState state) {
+        return state.answer.toTaskMessage();
+    }
+
+    @Benchmark
+    public Candidate candidateFromMap(final CandidatesState state) throws ValidationError {
+        return new Candidate(state.candidateData);
+    }
+
+    @Benchmark
+    public Map<String, Object> candidateToMap(final CandidatesState state) {
+        return state.candidate.toMap();
+    }
+
+    @Benchmark
+    public Candidates candidatesFromMap(final CandidatesState state) throws ValidationError {
+        return new Candidates(state.candidatesData);
+    }
+
+    @Benchmark
+    public TaskMessage candidatesToTaskMessage(final CandidatesState state) {
+        return state.candidates.toTaskMessage();
+    }
+
+    @Benchmark
+    public Candidates compactCandidatesFromMap(final CandidatesState state) throws ValidationError {
+        return new Candidates(state.compactCandidatesData, true);
+    }
+
+    @Benchmark
+    public TaskMessage compactCandidatesToTaskMessage(final CandidatesState state) {
+        return state.candidates.toCompactTaskMessage();
+    }
+}
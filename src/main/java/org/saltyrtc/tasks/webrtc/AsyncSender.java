@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.exceptions.SignalingException;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous variants of the send methods of a `WebRTCTask`.
+ *
+ * Each method returns immediately. The returned stage completes once the
+ * message has been handed to the transport (the server connection or the
+ * handed over data channel). If the task has been pinned to an event loop,
+ * messages are sent on that loop, so the stage completes on the loop once
+ * the transport accepted the message. If the message could not be sent, the stage
+ * completes exceptionally with the `SignalingException` or
+ * `ConnectionException`. Unlike the synchronous methods of the task, the
+ * connection is NOT reset in that case. The application decides how to
+ * handle the failure.
+ *
+ * Messages are sent one after another in the order they have been
+ * submitted, regardless of the executor: Submitted messages are queued and
+ * a single run on the executor sends all queued messages.
+ *
+ * Note: This class requires `CompletableFuture` which is only available
+ *       on Android API 24 and later.
+ */
+public class AsyncSender {
+    @NonNull private final WebRTCTask task;
+    @NonNull private final Executor executor;
+
+    // Messages waiting to be sent and whether a run on the executor is
+    // sending them (guarded by the queue)
+    @NonNull private final Queue<Pending> pending = new ArrayDeque<>();
+    private boolean sending = false;
+
+    /**
+     * Sends a message and throws on failure.
+     */
+    private interface Send {
+        void send() throws SignalingException, ConnectionException;
+    }
+
+    /**
+     * A message waiting to be sent and the stage to complete afterwards.
+     */
+    private static final class Pending {
+        @NonNull final Send send;
+        @NonNull final CompletableFuture<Void> future;
+
+        Pending(@NonNull final Send send, @NonNull final CompletableFuture<Void> future) {
+            this.send = send;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Create an asynchronous sender using the event loop the task has been
+     * pinned to.
+     *
+     * @throws IllegalArgumentException in case the task has not been pinned
+     *   to an event loop.
+     */
+    public AsyncSender(@NonNull final WebRTCTask task) {
+        this(task, requireEventLoop(task));
+    }
+
+    /**
+     * Create an asynchronous sender.
+     *
+     * @param task The task to send messages with.
+     * @param executor The executor used to send messages. It may be
+     *   multi-threaded, messages are still sent one after another. If the
+     *   task has been pinned to an event loop, this must be that loop.
+     *
+     * @throws IllegalArgumentException in case the task has been pinned to
+     *   an event loop and the executor is a different one.
+     */
+    public AsyncSender(@NonNull final WebRTCTask task, @NonNull final Executor executor) {
+        // Note: Off the loop, the task would merely queue messages on the
+        //       loop, completing stages before the transport accepted them.
+        final EventLoop loop = task.getEventLoop();
+        if (loop != null && executor != loop) {
+            throw new IllegalArgumentException("Executor must be the event loop the task has been pinned to");
+        }
+        this.task = task;
+        this.executor = executor;
+    }
+
+    @NonNull private static EventLoop requireEventLoop(@NonNull final WebRTCTask task) {
+        final EventLoop loop = task.getEventLoop();
+        if (loop == null) {
+            throw new IllegalArgumentException("Task has not been pinned to an event loop");
+        }
+        return loop;
+    }
+
+    /**
+     * Send an offer message to the responder.
+     */
+    @NonNull public CompletionStage<Void> sendOffer(@NonNull final Offer offer) {
+        return this.submit(() -> this.task.doSendOffer(offer));
+    }
+
+    /**
+     * Send an answer message to the initiator.
+     */
+    @NonNull public CompletionStage<Void> sendAnswer(@NonNull final Answer answer) {
+        return this.submit(() -> this.task.doSendAnswer(answer));
+    }
+
+    /**
+     * Send one or more candidates to the peer.
+     */
+    @NonNull public CompletionStage<Void> sendCandidates(@NonNull final Candidate[] candidates) {
+        return this.submit(() -> this.task.doSendCandidates(candidates));
+    }
+
+    @NonNull private CompletionStage<Void> submit(@NonNull final Send send) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this.pending) {
+            this.pending.add(new Pending(send, future));
+            if (this.sending) {
+                return future;
+            }
+            this.sending = true;
+        }
+        try {
+            this.executor.execute(this::sendPending);
+        } catch (RejectedExecutionException error) {
+            this.failPending(error);
+        }
+        return future;
+    }
+
+    /**
+     * Send all queued messages (on the executor).
+     */
+    private void sendPending() {
+        while (true) {
+            final Pending next;
+            synchronized (this.pending) {
+                next = this.pending.poll();
+                if (next == null) {
+                    this.sending = false;
+                    return;
+                }
+            }
+            try {
+                next.send.send();
+                next.future.complete(null);
+            } catch (SignalingException | ConnectionException | RuntimeException error) {
+                next.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * Fail all queued messages since the executor rejected sending them.
+     */
+    private void failPending(@NonNull final RejectedExecutionException error) {
+        final List<Pending> failed;
+        synchronized (this.pending) {
+            failed = new ArrayList<>(this.pending);
+            this.pending.clear();
+            this.sending = false;
+        }
+        for (final Pending pending : failed) {
+            pending.future.completeExceptionally(error);
+        }
+    }
+}
@@ -78,15 +78,22 @@ public class DataChannelNonce extends Nonce {
 
     @Override
     public byte[] toBytes() {
-        // Pack data
-        ByteBuffer buffer = ByteBuffer.allocate(Nonce.TOTAL_LENGTH);
-        buffer.put(this.cookie);
-        buffer.putShort(UnsignedHelper.getUnsignedShort(this.channelId));
-        buffer.putShort(UnsignedHelper.getUnsignedShort(this.overflow));
-        buffer.putInt(UnsignedHelper.getUnsignedInt(this.sequence));
-
-        // Return underlying array
-        return buffer.array();
+        // Pack data (big endian)
+        // Note: The bytes are written directly instead of via a `ByteBuffer`,
+        //       so that only the array is allocated, independent of whether
+        //       the JIT compiler eliminates the buffer.
+        final byte[] bytes = new byte[Nonce.TOTAL_LENGTH];
+        System.arraycopy(this.cookie, 0, bytes, 0, COOKIE_LENGTH);
+        int offset = COOKIE_LENGTH;
+        bytes[offset++] = (byte) (this.channelId >>> 8);
+        bytes[offset++] = (byte) this.channelId;
+        bytes[offset++] = (byte) (this.overflow >>> 8);
+        bytes[offset++] = (byte) this.overflow;
+        bytes[offset++] = (byte) (this.sequence >>> 24);
+        bytes[offset++] = (byte) (this.sequence >>> 16);
+        bytes[offset++] = (byte) (this.sequence >>> 8);
+        bytes[offset] = (byte) this.sequence;
+        return bytes;
     }
 
     /**
@@ -18,16 +18,26 @@ import org.saltyrtc.client.signaling.CloseCode;
 import org.saltyrtc.client.signaling.SignalingInterface;
 import org.saltyrtc.client.signaling.state.SignalingState;
 import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
 import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
 import org.saltyrtc.tasks.webrtc.events.MessageHandler;
 import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
 import org.saltyrtc.tasks.webrtc.messages.*;
+import org.saltyrtc.tasks.webrtc.transport.ChunkRecorder;
+import org.saltyrtc.tasks.webrtc.transport.MessagePriority;
+import org.saltyrtc.tasks.webrtc.transport.PayloadCompressor;
+import org.saltyrtc.tasks.webrtc.transport.RateLimit;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransportHandler;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransport;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransportLink;
+import org.saltyrtc.tasks.webrtc.transport.TokenBucket;
+import org.saltyrtc.tasks.webrtc.tracing.FlightRecorder;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTracer;
 import org.slf4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * WebRTC Task Version 1.
@@ -44,37 +54,121 @@ import java.util.*;
  *
  * To send offer/answer/candidates, use the corresponding public methods on
  * this task.
+ *
+ * The methods used by the application (sending offers, answers and
+ * candidates, the handover and closing) may be called from multiple threads.
+ * The lifecycle of the task is tracked by an atomic state machine. Sending
+ * task messages is serialised, since the signalling instance is not
+ * thread-safe: If the task has been pinned to an `EventLoop`, offers,
+ * answers and candidates are sent on the loop. Otherwise, a sender blocks
+ * while another task message is being sent.
+ *
+ * The signalling instance initialises the task again when it reconnects.
+ * This resets the state of the previous connection (including a closed or
+ * handed over signalling channel), so the handover can be repeated.
+ *
+ * If the task has been pinned to an `EventLoop`, incoming task messages,
+ * sending task messages and signalling messages via the handed over channel,
+ * closing and all events of the signalling transport are processed on that
+ * loop.
  */
 public class WebRTCTask implements Task {
     // Data fields
     @NonNull private static final String FIELD_EXCLUDE = "exclude";
     @NonNull private static final String FIELD_HANDOVER = "handover";
     @NonNull private static final String FIELD_MAX_PACKET_SIZE = "max_packet_size"; // legacy v0
+    @NonNull private static final String FIELD_COMPACT_CANDIDATES = "compact_candidates";
+    @NonNull private static final String FIELD_SDP_DELTA = "sdp_delta";
+    @NonNull private static final String FIELD_COMPRESSION = "compression";
+    @NonNull private static final String FIELD_ORDERED_FRAMING = "ordered_framing";
 
     // Protocol version
     @NonNull private final WebRTCTaskVersion version;
 
+    /**
+     * Lifecycle of the task. Transitions only move forward.
+     */
+    private enum State {
+        // Created, waiting for the task data from the peer
+        NEW,
+        // Initialised with the task data from the peer
+        INITIALIZED,
+        // Handover to the dedicated data channel has been requested
+        HANDOVER,
+        // Closed, final state
+        CLOSED,
+    }
+
     // Logging
-    @NonNull private Logger log = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC");
+    @NonNull private volatile Logger log = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC");
 
-    // Initialization state
-    private boolean initialized = false;
+    // Lifecycle state
+    @NonNull private final AtomicReference<State> state = new AtomicReference<>(State.NEW);
 
     // Channel ID and ID exclusion list
     @NonNull private final Set<Integer> exclude = new HashSet<>();
     @Nullable private Integer channelId;
 
     // Signaling
-    @Nullable private SignalingInterface signaling;
+    @Nullable private volatile SignalingInterface signaling;
 
     // Signaling transport
     private boolean doHandover;
     private int maxChunkLength;
-    @Nullable private SignalingTransportLink link;
-    @Nullable private SignalingTransport transport;
+    @NonNull private final AtomicReference<SignalingTransportLink> link = new AtomicReference<>();
+    @NonNull private final AtomicReference<SignalingTransport> transport = new AtomicReference<>();
+    private boolean orderedFraming = false;
+    private long handoverStart;
+
+    // Priority of the signalling message currently being sent by the task
+    // Note: The signalling instance calls back into `sendSignalingMessage` on
+    //       the thread sending a task message, so the priority is tracked
+    //       per thread to allow for concurrent senders.
+    @NonNull private final ThreadLocal<MessagePriority> sendPriority = new ThreadLocal<MessagePriority>() {
+        @Override
+        protected MessagePriority initialValue() {
+            return MessagePriority.NORMAL;
+        }
+    };
+
+    // Signaling transport compression
+    private boolean compression = false;
+    private int compressionThreshold;
+
+    // Signaling transport chunk recording
+    @Nullable private ChunkRecorder chunkRecorder;
+
+    // Signaling transport message tracing
+    @Nullable private MessageTracer messageTracer;
+
+    // Inbound rate limits
+    @Nullable private RateLimit chunkRateLimit;
+    @Nullable private RateLimit byteRateLimit;
+    @Nullable private RateLimit taskMessageRateLimit;
+    @Nullable private volatile TokenBucket taskMessageBucket;
+
+    // Event loop the task is pinned to (optional)
+    @Nullable private EventLoop eventLoop;
+
+    // Message encodings
+    private boolean compactCandidates = false;
+    private boolean sdpDelta = false;
+
+    // Serialises sending task messages if the task is not pinned to an
+    // event loop, since the signalling instance is not thread-safe
+    @NonNull private final Object sendLock = new Object();
+
+    // Previously exchanged SDPs (only tracked if SDP deltas are in use)
+    // Note: Sent offers and answers are guarded by the send lock (or the
+    //       event loop) since a delta is only valid if the peer receives the
+    //       SDPs in the same order.
+    @Nullable private String lastSentOffer;
+    @Nullable private String lastSentAnswer;
+    @Nullable private String lastReceivedOffer;
+    @Nullable private String lastReceivedAnswer;
 
     // Message handler
-    @Nullable private MessageHandler messageHandler;
+    @Nullable private volatile MessageHandler messageHandler;
 
     /**
      * Create a new task instance.
@@ -85,6 +179,113 @@ public class WebRTCTask implements Task {
         this.maxChunkLength = maxChunkLength;
     }
 
+    /**
+     * Set whether the compact binary candidate encoding should be offered
+     * to the peer.
+     *
+     * This method should only be called by the builder.
+     */
+    void setCompactCandidates(final boolean on) {
+        this.compactCandidates = on;
+    }
+
+    /**
+     * Set whether line-level SDP deltas for offers and answers should be
+     * offered to the peer.
+     *
+     * This method should only be called by the builder.
+     */
+    void setSdpDelta(final boolean on) {
+        this.sdpDelta = on;
+    }
+
+    /**
+     * Set whether the lightweight framing for the handed over signalling
+     * channel should be offered to the peer.
+     *
+     * This method should only be called by the builder.
+     */
+    void setOrderedFraming(final boolean on) {
+        this.orderedFraming = on;
+    }
+
+    /**
+     * Set whether compression of signalling messages sent via the handed
+     * over signalling channel should be offered to the peer.
+     *
+     * This method should only be called by the builder.
+     *
+     * @param on Enable or disable compression.
+     * @param threshold Messages with less bytes than this will not be
+     *   compressed.
+     */
+    void setCompression(final boolean on, final int threshold) {
+        this.compression = on;
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Set the recorder for the chunks of the handed over signalling channel.
+     *
+     * This method should only be called by the builder.
+     */
+    void setChunkRecorder(@Nullable final ChunkRecorder recorder) {
+        this.chunkRecorder = recorder;
+    }
+
+    /**
+     * Set the tracer for the messages of the handed over signalling channel.
+     *
+     * This method should only be called by the builder.
+     */
+    void setMessageTracer(@Nullable final MessageTracer tracer) {
+        this.messageTracer = tracer;
+    }
+
+    /**
+     * Set the limits for inbound chunks and bytes of the handed over
+     * signalling channel and for inbound task messages.
+     *
+     * This method should only be called by the builder.
+     */
+    void setRateLimits(
+        @Nullable final RateLimit chunks,
+        @Nullable final RateLimit bytes,
+        @Nullable final RateLimit taskMessages
+    ) {
+        this.chunkRateLimit = chunks;
+        this.byteRateLimit = bytes;
+        this.taskMessageRateLimit = taskMessages;
+        this.taskMessageBucket = taskMessages != null ? new TokenBucket(taskMessages) : null;
+    }
+
+    /**
+     * Pin the task to an event loop.
+     *
+     * This method should only be called by the builder.
+     */
+    void setEventLoop(@Nullable final EventLoop loop) {
+        this.eventLoop = loop;
+    }
+
+    /**
+     * Return the event loop the task is pinned to, if any.
+     *
+     * The application may use it to run its own work related to the task
+     * (e.g. timers) without additional synchronisation.
+     */
+    @Nullable public EventLoop getEventLoop() {
+        return this.eventLoop;
+    }
+
+    /**
+     * Return whether the current thread may process events of this task
+     * directly. Otherwise, events need to be submitted to the event loop.
+     */
+    private boolean inEventLoop() {
+        return this.eventLoop == null || this.eventLoop.inEventLoop();
+    }
+
     /**
      * Set the message handler. It will be notified on incoming messages.
      */
@@ -104,17 +305,52 @@ public class WebRTCTask implements Task {
      *
      * This method should only be called by the signaling class, not by the
      * application!
+     *
+     * If the task has been initialised before (e.g. because the signalling
+     * instance reconnects), the state of the previous connection is reset.
+     *
+     * @throws ValidationError in case the task data is invalid.
      */
     @Override
     public void init(SignalingInterface signaling, Map<Object, Object> data) throws ValidationError {
+        if (this.state.get() != State.NEW) {
+            this.reset();
+        }
         this.processExcludeList(data.get(FIELD_EXCLUDE));
         this.processHandover(data.get(FIELD_HANDOVER));
+        this.processCompactCandidates(data.get(FIELD_COMPACT_CANDIDATES));
+        this.processSdpDelta(data.get(FIELD_SDP_DELTA));
+        this.processCompression(data.get(FIELD_COMPRESSION));
+        this.processOrderedFraming(data.get(FIELD_ORDERED_FRAMING));
         if (this.version == WebRTCTaskVersion.V0) {
             this.processMaxPacketSize(data.get(FIELD_MAX_PACKET_SIZE));
         }
         this.signaling = signaling;
         this.log = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC." + this.signaling.getRole().name());
-        this.initialized = true;
+        this.state.set(State.INITIALIZED);
+    }
+
+    /**
+     * Reset the state of a previous connection before the task is being
+     * initialised again.
+     *
+     * Note: Offers that have been narrowed down by the previous negotiation
+     *       (e.g. compression) stay narrowed down.
+     */
+    private void reset() {
+        this.log.debug("Resetting state of the previous connection");
+        this.closeTransport();
+        this.link.set(null);
+        this.exclude.clear();
+        this.channelId = null;
+        synchronized (this.sendLock) {
+            this.lastSentOffer = null;
+            this.lastSentAnswer = null;
+        }
+        this.lastReceivedOffer = null;
+        this.lastReceivedAnswer = null;
+        this.taskMessageBucket = this.taskMessageRateLimit != null
+            ? new TokenBucket(this.taskMessageRateLimit) : null;
     }
 
     /**
@@ -150,6 +386,56 @@ public class WebRTCTask implements Task {
         }
     }
 
+    /**
+     * The optional compact_candidates field indicates that the peer supports
+     * the compact binary candidate encoding. The encoding SHALL only be used
+     * if both clients offered it.
+     */
+    private void processCompactCandidates(@Nullable final Object value) throws ValidationError {
+        final boolean compact = value != null && ValidationHelper.validateBoolean(value, FIELD_COMPACT_CANDIDATES);
+        if (!compact) {
+            this.compactCandidates = false;
+        }
+    }
+
+    /**
+     * The optional sdp_delta field indicates that the peer supports
+     * line-level SDP deltas for offers and answers. Deltas SHALL only be
+     * used if both clients offered them.
+     */
+    private void processSdpDelta(@Nullable final Object value) throws ValidationError {
+        final boolean delta = value != null && ValidationHelper.validateBoolean(value, FIELD_SDP_DELTA);
+        if (!delta) {
+            this.sdpDelta = false;
+        }
+    }
+
+    /**
+     * The optional compression field indicates that the peer is able to
+     * decompress signalling messages sent via the handed over signalling
+     * channel. Compression SHALL only be used if both clients offered it.
+     */
+    private void processCompression(@Nullable final Object value) throws ValidationError {
+        final boolean compression = value != null && ValidationHelper.validateBoolean(value, FIELD_COMPRESSION);
+        if (!compression) {
+            this.compression = false;
+        }
+    }
+
+    /**
+     * The optional ordered_framing field indicates that the peer supports a
+     * lightweight framing with a single byte header for the handed over
+     * signalling channel (which is reliable and ordered). The framing SHALL
+     * only be used if both clients offered it. Otherwise, chunked-dc is
+     * being used.
+     */
+    private void processOrderedFraming(@Nullable final Object value) throws ValidationError {
+        final boolean ordered = value != null && ValidationHelper.validateBoolean(value, FIELD_ORDERED_FRAMING);
+        if (!ordered) {
+            this.orderedFraming = false;
+        }
+    }
+
     /**
      * The max_packet_size field MUST contain either 0 or a positive integer.
      * If one client's value is 0 but the other client's value is greater than
@@ -191,26 +477,75 @@ public class WebRTCTask implements Task {
      */
     @Override
     public void onTaskMessage(final TaskMessage message) {
+        // Enforce rate limit before the message is being processed
+        final TokenBucket bucket = this.taskMessageBucket;
+        if (bucket != null && !bucket.tryAcquire(1)) {
+            this.log.error("Task message rate limit exceeded");
+            this.signaling.resetConnection(CloseCode.PROTOCOL_ERROR);
+            return;
+        }
+
+        // Process (on the event loop, if any)
+        if (this.inEventLoop()) {
+            this.processTaskMessage(message);
+        } else {
+            try {
+                this.eventLoop.execute(() -> this.processTaskMessage(message));
+            } catch (RejectedExecutionException error) {
+                this.log.warn("Discarding task message, event loop has been shut down: " + message.getType());
+            }
+        }
+    }
+
+    /**
+     * Process an incoming task message.
+     */
+    private void processTaskMessage(@NonNull final TaskMessage message) {
         final String type = message.getType();
         this.log.info("New task message arrived: " + type);
         try {
             switch (type) {
                 case "offer": {
-                    if (this.messageHandler != null) {
-                        final Offer offer = new Offer(message.getData());
-                        this.messageHandler.onOffer(offer);
+                    final Offer offer;
+                    if (this.sdpDelta) {
+                        try {
+                            offer = new Offer(message.getData(), this.lastReceivedOffer);
+                        } catch (ValidationError e) {
+                            this.rejectSdp("offer", e);
+                            break;
+                        }
+                        this.lastReceivedOffer = offer.getSdp();
+                    } else {
+                        offer = new Offer(message.getData());
+                    }
+                    final MessageHandler handler = this.messageHandler;
+                    if (handler != null) {
+                        handler.onOffer(offer);
                     }
                     } break;
                 case "answer": {
-                    if (this.messageHandler != null) {
-                        final Answer answer = new Answer(message.getData());
-                        this.messageHandler.onAnswer(answer);
+                    final Answer answer;
+                    if (this.sdpDelta) {
+                        try {
+                            answer = new Answer(message.getData(), this.lastReceivedAnswer);
+                        } catch (ValidationError e) {
+                            this.rejectSdp("answer", e);
+                            break;
+                        }
+                        this.lastReceivedAnswer = answer.getSdp();
+                    } else {
+                        answer = new Answer(message.getData());
+                    }
+                    final MessageHandler handler = this.messageHandler;
+                    if (handler != null) {
+                        handler.onAnswer(answer);
                     }
                     } break;
                 case "candidates": {
-                    if (this.messageHandler != null) {
-                        final Candidates candidates = new Candidates(message.getData());
-                        this.messageHandler.onCandidates(candidates.getCandidates());
+                    final MessageHandler handler = this.messageHandler;
+                    if (handler != null) {
+                        final Candidates candidates = new Candidates(message.getData(), this.compactCandidates);
+                        handler.onCandidates(candidates.getCandidates());
                     }
                     } break;
                 case "handover": {
@@ -234,9 +569,10 @@ public class WebRTCTask implements Task {
                     this.signaling.getHandoverState().setPeer(true);
 
                     // Flush the message queue of the signaling transport (if any)
-                    if (this.transport != null) {
+                    final SignalingTransport transport = this.transport.get();
+                    if (transport != null) {
                         try {
-                            this.transport.flushMessageQueue();
+                            transport.flushMessageQueue();
                         } catch (IllegalStateError error) {
                             this.log.error("Unable to flush message queue:", error);
                             this.signaling.resetConnection(CloseCode.INTERNAL_ERROR);
@@ -247,17 +583,30 @@ public class WebRTCTask implements Task {
                     // Handover process completed?
                     if (this.signaling.getHandoverState().getAll()) {
                         this.log.info("Handover to data channel finished");
+                        FlightRecorder.handoverFinished(this.channelId, this.handoverStart);
                     }
                     } break;
             default:
                 this.log.error("Received message with unknown type: " + type);
             }
         } catch (ValidationError e) {
-            e.printStackTrace();
-            this.log.warn("Validation failed for incoming message", e);
+            // Note: The stack trace is of no use since the peer sent an
+            //       invalid message.
+            this.log.warn("Validation failed for incoming message: " + e.getMessage());
         }
     }
 
+    /**
+     * Handle an offer or answer that could not be reconstructed while SDP
+     * deltas are in use.
+     *
+     * Since the delta base of both peers would remain out of sync for all
+     * subsequent offers and answers, the connection is being reset.
+     */
+    private void rejectSdp(@NonNull final String type, @NonNull final ValidationError error) {
+        this.log.error("Unable to reconstruct incoming " + type + ": " + error.getMessage());
+        this.signaling.resetConnection(CloseCode.PROTOCOL_ERROR);
+    }
 
     /**
      * Send a signaling message through a data channel.
@@ -265,10 +614,18 @@ public class WebRTCTask implements Task {
      * This method should only be called by the signaling class, not by the
      * application!
      *
+     * Messages sent by the task itself (offers, answers and candidates) and
+     * 'close' messages have a high priority and will overtake other pending
+     * messages.
+     *
+     * If the task has been pinned to an event loop and this is called from
+     * another thread, the message will be sent on the loop. Errors are then
+     * handled by resetting the connection.
+     *
      * @param payload Non-encrypted message. The message will be encrypted by
      *   the underlying data channel.
      * @throws SignalingException when signaling or handover state are not as
-     *   expected.
+     *   expected or the event loop has been shut down.
      */
     @Override
     public void sendSignalingMessage(final byte[] payload) throws SignalingException {
@@ -280,18 +637,48 @@ public class WebRTCTask implements Task {
             throw new SignalingException(CloseCode.PROTOCOL_ERROR,
                 "Could not send signaling message: Handover hasn't happened yet");
         }
-        if (this.transport == null) {
+        final SignalingTransport transport = this.transport.get();
+        if (transport == null) {
             throw new SignalingException(CloseCode.PROTOCOL_ERROR,
                 "Could not send signaling message: Data channel is not established, yet.");
         }
+        final MessagePriority priority = SignalingMessages.isClose(payload)
+            ? MessagePriority.HIGH : this.sendPriority.get();
+        if (!this.inEventLoop()) {
+            try {
+                this.eventLoop.execute(() -> this.sendOnEventLoop(payload, priority));
+            } catch (RejectedExecutionException error) {
+                throw new SignalingException(CloseCode.PROTOCOL_ERROR,
+                    "Could not send signaling message: Event loop has been shut down");
+            }
+            return;
+        }
         try {
-            this.transport.send(payload);
+            transport.send(payload, priority);
         } catch (OverflowException | CryptoException error) {
             throw new SignalingException(CloseCode.PROTOCOL_ERROR,
                 "Could not send signaling message:", error);
         }
     }
 
+    /**
+     * Send a signaling message that has been submitted to the event loop.
+     */
+    private void sendOnEventLoop(@NonNull final byte[] payload, @NonNull final MessagePriority priority) {
+        // Drop the message if the transport has been closed in the meantime
+        final SignalingTransport transport = this.transport.get();
+        if (transport == null) {
+            this.log.warn("Could not send signaling message: Transport has been closed");
+            return;
+        }
+        try {
+            transport.send(payload, priority);
+        } catch (OverflowException | CryptoException error) {
+            this.log.error("Could not send signaling message:", error);
+            this.signaling.resetConnection(CloseCode.PROTOCOL_ERROR);
+        }
+    }
+
     /**
      * Return the task protocol name.
      */
@@ -325,51 +712,168 @@ public class WebRTCTask implements Task {
             map.put(WebRTCTask.FIELD_MAX_PACKET_SIZE, this.maxChunkLength);
         }
         map.put(WebRTCTask.FIELD_HANDOVER, this.doHandover);
+        if (this.compactCandidates) {
+            map.put(WebRTCTask.FIELD_COMPACT_CANDIDATES, true);
+        }
+        if (this.sdpDelta) {
+            map.put(WebRTCTask.FIELD_SDP_DELTA, true);
+        }
+        if (this.compression) {
+            map.put(WebRTCTask.FIELD_COMPRESSION, true);
+        }
+        if (this.orderedFraming) {
+            map.put(WebRTCTask.FIELD_ORDERED_FRAMING, true);
+        }
         return map;
     }
 
     /**
      * Send an offer message to the responder.
+     *
+     * If SDP deltas have been negotiated, only the changed lines compared to
+     * the previously sent offer will be transmitted.
+     *
+     * If the task has been pinned to an event loop and this is called from
+     * another thread, the offer will be sent on the loop. Errors are then
+     * handled by resetting the connection.
      */
     public void sendOffer(@NonNull final Offer offer) throws ConnectionException {
+        this.send("offer", () -> this.doSendOffer(offer));
+    }
+
+    /**
+     * Send an offer message and throw on failure.
+     *
+     * Note: Must be called on the event loop (if any).
+     */
+    void doSendOffer(@NonNull final Offer offer) throws SignalingException, ConnectionException {
         this.log.debug("Sending offer");
-        try {
-            this.signaling.sendTaskMessage(offer.toTaskMessage());
-        } catch (SignalingException e) {
-            this.log.error("Could not send offer: " + CloseCode.explain(e.getCloseCode()));
-            e.printStackTrace();
-            this.signaling.resetConnection(e.getCloseCode());
+        synchronized (this.sendLock) {
+            if (this.sdpDelta) {
+                this.sendTaskMessage(offer.toTaskMessage(this.lastSentOffer));
+                this.lastSentOffer = offer.getSdp();
+            } else {
+                this.sendTaskMessage(offer.toTaskMessage());
+            }
         }
     }
 
     /**
      * Send an answer message to the initiator.
+     *
+     * If SDP deltas have been negotiated, only the changed lines compared to
+     * the previously sent answer will be transmitted.
+     *
+     * If the task has been pinned to an event loop and this is called from
+     * another thread, the answer will be sent on the loop. Errors are then
+     * handled by resetting the connection.
      */
     public void sendAnswer(@NonNull final Answer answer) throws ConnectionException {
+        this.send("answer", () -> this.doSendAnswer(answer));
+    }
+
+    /**
+     * Send an answer message and throw on failure.
+     *
+     * Note: Must be called on the event loop (if any).
+     */
+    void doSendAnswer(@NonNull final Answer answer) throws SignalingException, ConnectionException {
         this.log.debug("Sending answer");
-        try {
-            this.signaling.sendTaskMessage(answer.toTaskMessage());
-        } catch (SignalingException e) {
-            this.log.error("Could not send answer: " + CloseCode.explain(e.getCloseCode()));
-            e.printStackTrace();
-            this.signaling.resetConnection(e.getCloseCode());
+        synchronized (this.sendLock) {
+            if (this.sdpDelta) {
+                this.sendTaskMessage(answer.toTaskMessage(this.lastSentAnswer));
+                this.lastSentAnswer = answer.getSdp();
+            } else {
+                this.sendTaskMessage(answer.toTaskMessage());
+            }
         }
     }
 
     /**
      * Send one or more candidates to the peer.
+     *
+     * If the compact candidate encoding has been negotiated, the candidates
+     * will be sent in a compact binary form.
+     *
+     * If the task has been pinned to an event loop and this is called from
+     * another thread, the candidates will be sent on the loop. Errors are
+     * then handled by resetting the connection.
      */
     public void sendCandidates(@NonNull final Candidate[] candidates) throws ConnectionException {
+        this.send("candidates", () -> this.doSendCandidates(candidates));
+    }
+
+    /**
+     * Send a candidates message and throw on failure.
+     *
+     * Note: Must be called on the event loop (if any).
+     */
+    void doSendCandidates(@NonNull final Candidate[] candidates) throws SignalingException, ConnectionException {
         this.log.debug("Sending candidates");
+        final Candidates message = new Candidates(candidates);
+        final TaskMessage taskMessage = this.compactCandidates
+            ? message.toCompactTaskMessage() : message.toTaskMessage();
+        synchronized (this.sendLock) {
+            this.sendTaskMessage(taskMessage);
+        }
+    }
+
+    /**
+     * Sends a task message and throws on failure.
+     */
+    private interface Send {
+        void send() throws SignalingException, ConnectionException;
+    }
+
+    /**
+     * Send a task message (on the event loop, if any). Signalling errors are
+     * handled by resetting the connection.
+     */
+    private void send(@NonNull final String type, @NonNull final Send send) throws ConnectionException {
+        if (this.inEventLoop()) {
+            this.sendOrReset(type, send);
+            return;
+        }
+        try {
+            this.eventLoop.execute(() -> {
+                try {
+                    this.sendOrReset(type, send);
+                } catch (ConnectionException error) {
+                    this.log.error("Could not send " + type + ":", error);
+                    this.signaling.resetConnection(CloseCode.PROTOCOL_ERROR);
+                }
+            });
+        } catch (RejectedExecutionException error) {
+            this.log.warn("Discarding " + type + ", event loop has been shut down");
+        }
+    }
+
+    /**
+     * Send a task message and reset the connection on signalling errors.
+     */
+    private void sendOrReset(@NonNull final String type, @NonNull final Send send) throws ConnectionException {
         try {
-            this.signaling.sendTaskMessage(new Candidates(candidates).toTaskMessage());
+            send.send();
         } catch (SignalingException e) {
-            this.log.error("Could not send candidates: " + CloseCode.explain(e.getCloseCode()));
-            e.printStackTrace();
+            this.log.error("Could not send " + type + ": " + CloseCode.explain(e.getCloseCode()));
             this.signaling.resetConnection(e.getCloseCode());
         }
     }
 
+    /**
+     * Send a task message with high priority.
+     *
+     * Note: Must be called while holding the send lock.
+     */
+    private void sendTaskMessage(@NonNull final TaskMessage message) throws SignalingException, ConnectionException {
+        this.sendPriority.set(MessagePriority.HIGH);
+        try {
+            this.signaling.sendTaskMessage(message);
+        } finally {
+            this.sendPriority.set(MessagePriority.NORMAL);
+        }
+    }
+
     /**
      * Create a `SignalingTransportLink` to be used by the application for the
      * handover process.
@@ -402,7 +906,7 @@ public class WebRTCTask implements Task {
         this.log.debug("Create signalling transport link");
 
         // Make sure that initialization has already happened
-        if (!this.initialized) {
+        if (this.state.get() == State.NEW) {
             throw new IllegalStateError("Initialization of task has not yet happened");
         }
 
@@ -416,11 +920,13 @@ public class WebRTCTask implements Task {
             throw new IllegalStateError("Data channel id not set");
         }
 
-        // Return the transport link
-        if (this.link == null) {
-            this.link = new SignalingTransportLink(this.channelId, this.getName());
+        // Return the transport link (concurrent callers receive the same one)
+        final SignalingTransportLink link = this.link.get();
+        if (link != null) {
+            return link;
         }
-        return this.link;
+        this.link.compareAndSet(null, new SignalingTransportLink(this.channelId, this.getName(), this.eventLoop));
+        return this.link.get();
     }
 
     /**
@@ -436,7 +942,7 @@ public class WebRTCTask implements Task {
         this.log.debug("Initiate handover");
 
         // Make sure that initialization has already happened
-        if (!this.initialized) {
+        if (this.state.get() == State.NEW) {
             throw new IllegalStateError("Initialization of task has not yet happened");
         }
 
@@ -445,14 +951,37 @@ public class WebRTCTask implements Task {
             throw new IllegalStateError("Handover has not been negotiated");
         }
 
-        // Make sure handover has not already been requested
-        if (this.signaling.getHandoverState().getLocal() || this.transport != null) {
+        // Make sure handover has not already been requested and the task has
+        // not been closed (only one caller can win the transition)
+        if (this.signaling.getHandoverState().getLocal()) {
+            throw new IllegalStateError("Handover already requested");
+        }
+        if (!this.state.compareAndSet(State.INITIALIZED, State.HANDOVER)) {
+            if (this.state.get() == State.CLOSED) {
+                throw new IllegalStateError("Task has been closed");
+            }
             throw new IllegalStateError("Handover already requested");
         }
 
         // Create crypto context and new signalling transport
+        this.handoverStart = FlightRecorder.start();
+        FlightRecorder.handoverStarted(this.channelId);
         final DataChannelCryptoContext crypto = this.createCryptoContext(this.channelId);
-        this.transport = new SignalingTransport(this.link, handler, this, this.signaling, crypto, this.maxChunkLength);
+        final PayloadCompressor compressor = this.compression
+            ? new PayloadCompressor(this.compressionThreshold, handler.getMaxMessageSize()) : null;
+        final SignalingTransport transport = new SignalingTransport(
+            this.link.get(), handler, this, this.signaling, crypto, this.maxChunkLength,
+            this.orderedFraming, compressor);
+        transport.setRecorder(this.chunkRecorder);
+        transport.setTracer(this.messageTracer);
+        transport.setRateLimits(this.chunkRateLimit, this.byteRateLimit);
+        this.transport.set(transport);
+
+        // Close the transport if the task has been closed concurrently
+        if (this.state.get() == State.CLOSED) {
+            this.closeTransport();
+            return;
+        }
 
         // Send handover message
         // Note: This will still be sent via the original transport since the
@@ -470,14 +999,14 @@ public class WebRTCTask implements Task {
         // Send handover message
         final Handover handover = new Handover();
         try {
-            this.signaling.sendTaskMessage(handover.toTaskMessage());
+            synchronized (this.sendLock) {
+                this.signaling.sendTaskMessage(handover.toTaskMessage());
+            }
         } catch (ConnectionException e) {
             this.log.error("Could not send handover message:", e);
-            e.printStackTrace();
             WebRTCTask.this.signaling.resetConnection(CloseCode.PROTOCOL_ERROR);
         } catch (SignalingException e) {
             this.log.error("Could not send answer: " + CloseCode.explain(e.getCloseCode()));
-            e.printStackTrace();
             WebRTCTask.this.signaling.resetConnection(e.getCloseCode());
         }
 
@@ -487,6 +1016,7 @@ public class WebRTCTask implements Task {
         // Check whether we're done
         if (this.signaling.getHandoverState().getAll()) {
             this.log.info("Handover to data channel finished");
+            FlightRecorder.handoverFinished(this.channelId, this.handoverStart);
         }
     }
 
@@ -501,16 +1031,43 @@ public class WebRTCTask implements Task {
     }
 
     /**
-     * Close the signaling data channel.
+     * Close the signaling data channel (on the event loop, if any). In case
+     * the event loop has been shut down, the channel is closed immediately.
      *
      * @param reason The close code.
      */
     @Override
     public void close(final int reason) {
+        if (!this.inEventLoop()) {
+            try {
+                this.eventLoop.execute(() -> this.closeOnEventLoop(reason));
+                return;
+            } catch (RejectedExecutionException error) {
+                // Close on this thread instead
+            }
+        }
+        this.closeOnEventLoop(reason);
+    }
+
+    /**
+     * Close the signaling data channel. Only the first call has an effect.
+     */
+    private void closeOnEventLoop(final int reason) {
+        if (this.state.getAndSet(State.CLOSED) == State.CLOSED) {
+            return;
+        }
         this.log.debug("Closing signaling data channel: " + CloseCode.explain(reason));
-        if (this.transport != null) {
-            this.transport.close();
+        this.closeTransport();
+    }
+
+    /**
+     * Close the signalling transport (if any). Only the first caller will
+     * close it.
+     */
+    private void closeTransport() {
+        final SignalingTransport transport = this.transport.getAndSet(null);
+        if (transport != null) {
+            transport.close();
         }
-        this.transport = null;
     }
 }
@@ -9,6 +9,11 @@
 package org.saltyrtc.tasks.webrtc;
 
 import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTracer;
+import org.saltyrtc.tasks.webrtc.transport.ChunkRecorder;
+import org.saltyrtc.tasks.webrtc.transport.RateLimit;
 
 import static org.saltyrtc.chunkedDc.Common.HEADER_LENGTH;
 
@@ -21,11 +26,39 @@ import static org.saltyrtc.chunkedDc.Common.HEADER_LENGTH;
  * - Handover is enabled by default.
  * - The maximum chunk length for the handed over signalling channel is
  *   256 KiB.
+ * - The compact candidate encoding is not offered by default.
+ * - SDP deltas are not offered by default.
+ * - The lightweight framing for the handed over signalling channel is not
+ *   offered by default.
+ * - Compression of the handed over signalling channel is not offered by
+ *   default. If enabled, messages of at least 256 bytes are compressed.
+ * - Chunks are not recorded by default.
+ * - Messages are not traced by default.
+ * - Inbound chunks, bytes and task messages are not rate limited by
+ *   default.
+ * - The task is not pinned to an event loop by default.
+ *
+ * Messages sent by the task itself (offers, answers, candidates and 'close'
+ * messages) are sent with a high priority on the handed over signalling
+ * channel. Priorities only take effect if the application provides a
+ * `FlowControlledSignalingTransportHandler`. Otherwise, all messages are
+ * flushed in FIFO order.
  */
 public class WebRTCTaskBuilder {
     @NonNull private WebRTCTaskVersion version = WebRTCTaskVersion.V1;
     private boolean handover = true;
     private int maxChunkLength = 262144;
+    private boolean compactCandidates = false;
+    private boolean sdpDelta = false;
+    private boolean orderedFraming = false;
+    private boolean compression = false;
+    private int compressionThreshold = 256;
+    @Nullable private ChunkRecorder chunkRecorder;
+    @Nullable private MessageTracer messageTracer;
+    @Nullable private RateLimit chunkRateLimit;
+    @Nullable private RateLimit byteRateLimit;
+    @Nullable private RateLimit taskMessageRateLimit;
+    @Nullable private EventLoop eventLoop;
 
     /**
      * Set the task version
@@ -64,12 +97,174 @@ public class WebRTCTaskBuilder {
         return this;
     }
 
+    /**
+     * Set whether the compact binary encoding for ICE candidates should be
+     * offered to the peer. It will only be used if the peer offers it as
+     * well.
+     *
+     * @param on Enable or disable the compact candidate encoding.
+     */
+    @NonNull public WebRTCTaskBuilder withCompactCandidates(final boolean on) {
+        this.compactCandidates = on;
+        return this;
+    }
+
+    /**
+     * Set whether line-level SDP deltas should be offered to the peer. If
+     * both peers offer them, renegotiation offers and answers only carry
+     * the lines that changed compared to the previous offer or answer.
+     *
+     * @param on Enable or disable SDP deltas.
+     */
+    @NonNull public WebRTCTaskBuilder withSdpDelta(final boolean on) {
+        this.sdpDelta = on;
+        return this;
+    }
+
+    /**
+     * Set whether the lightweight framing for the handed over signalling
+     * channel should be offered to the peer. Since that channel is reliable
+     * and ordered, each chunk only needs a single byte header instead of the
+     * chunked-dc header. It will only be used if the peer offers it as well.
+     *
+     * @param on Enable or disable the lightweight framing.
+     */
+    @NonNull public WebRTCTaskBuilder withOrderedFraming(final boolean on) {
+        this.orderedFraming = on;
+        return this;
+    }
+
+    /**
+     * Set whether compression of signalling messages sent via the handed
+     * over signalling channel should be offered to the peer. It will only
+     * be used if the peer offers it as well.
+     *
+     * @param on Enable or disable compression.
+     */
+    @NonNull public WebRTCTaskBuilder withCompression(final boolean on) {
+        this.compression = on;
+        return this;
+    }
+
+    /**
+     * Set the minimum size of a signalling message in bytes before
+     * compression is attempted.
+     *
+     * @param threshold The minimum byte length of a message to be
+     *   compressed.
+     *
+     * @throws IllegalArgumentException in case the threshold is negative.
+     */
+    @NonNull public WebRTCTaskBuilder withCompressionThreshold(final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Compression threshold may not be negative");
+        }
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Record the chunks of the handed over signalling channel, e.g. to
+     * replay the traffic of a sample of sessions in benchmarks.
+     *
+     * Note: A recorder must only be used by a single task. It will be
+     *       closed along with the signalling channel. If no handover takes
+     *       place, the application needs to close it.
+     *
+     * @param recorder The recorder or `null` to disable recording.
+     */
+    @NonNull public WebRTCTaskBuilder withChunkRecorder(@Nullable final ChunkRecorder recorder) {
+        this.chunkRecorder = recorder;
+        return this;
+    }
+
+    /**
+     * Trace the messages of the handed over signalling channel through the
+     * stages of the transport, e.g. to break down their latency with a
+     * `LatencyBreakdown`.
+     *
+     * Note: The tracer is called from the threads sending and receiving
+     *       messages and should return quickly.
+     *
+     * @param tracer The tracer or `null` to disable tracing.
+     */
+    @NonNull public WebRTCTaskBuilder withMessageTracer(@Nullable final MessageTracer tracer) {
+        this.messageTracer = tracer;
+        return this;
+    }
+
+    /**
+     * Limit the rate of chunks received on the handed over signalling
+     * channel. If the peer exceeds the limit, the task will be closed before
+     * the chunk is being processed.
+     *
+     * @param limit The limit in chunks or `null` to disable the limit.
+     */
+    @NonNull public WebRTCTaskBuilder withChunkRateLimit(@Nullable final RateLimit limit) {
+        this.chunkRateLimit = limit;
+        return this;
+    }
+
+    /**
+     * Limit the rate of bytes received on the handed over signalling
+     * channel. If the peer exceeds the limit, the task will be closed before
+     * the chunk is being processed.
+     *
+     * Note: The burst must be at least as large as the maximum chunk length
+     *       or chunks of that size will always exceed the limit.
+     *
+     * @param limit The limit in bytes or `null` to disable the limit.
+     */
+    @NonNull public WebRTCTaskBuilder withByteRateLimit(@Nullable final RateLimit limit) {
+        this.byteRateLimit = limit;
+        return this;
+    }
+
+    /**
+     * Limit the rate of task messages (offers, answers, candidates) received
+     * from the peer, regardless of whether they arrive via the server or via
+     * the handed over signalling channel. If the peer exceeds the limit, the
+     * connection will be reset before the message is being parsed.
+     *
+     * @param limit The limit in messages or `null` to disable the limit.
+     */
+    @NonNull public WebRTCTaskBuilder withTaskMessageRateLimit(@Nullable final RateLimit limit) {
+        this.taskMessageRateLimit = limit;
+        return this;
+    }
+
+    /**
+     * Pin the task to an event loop, e.g. the next loop of an
+     * `EventLoopGroup`. Incoming task messages and all events of the handed
+     * over signalling channel will then be processed on that loop, so the
+     * application may forward them from any thread.
+     *
+     * Note: Message handler callbacks will be called on the loop and should
+     *       return quickly.
+     *
+     * @param loop The event loop or `null` to process events on the calling
+     *   thread.
+     */
+    @NonNull public WebRTCTaskBuilder withEventLoop(@Nullable final EventLoop loop) {
+        this.eventLoop = loop;
+        return this;
+    }
+
     /**
      * Build the WebRTCTask instance.
      * @return WebRTCTask
      */
     @NonNull public WebRTCTask build() {
-        return new WebRTCTask(
+        final WebRTCTask task = new WebRTCTask(
             this.version, this.handover, this.maxChunkLength);
+        task.setCompactCandidates(this.compactCandidates);
+        task.setSdpDelta(this.sdpDelta);
+        task.setOrderedFraming(this.orderedFraming);
+        task.setCompression(this.compression, this.compressionThreshold);
+        task.setChunkRecorder(this.chunkRecorder);
+        task.setMessageTracer(this.messageTracer);
+        task.setRateLimits(this.chunkRateLimit, this.byteRateLimit, this.taskMessageRateLimit);
+        task.setEventLoop(this.eventLoop);
+        return task;
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.concurrent;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.slf4j.Logger;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single thread running submitted tasks and timers one after another.
+ *
+ * Tasks can be submitted from any thread. They are handed to the loop's
+ * thread via a lock-free queue and run in the order they have been
+ * submitted. Everything that runs on the same loop is therefore serialised
+ * without any locking, which allows non-thread-safe instances (such as a
+ * `WebRTCTask` and its signalling transport) to be used from arbitrary
+ * threads by pinning them to a loop.
+ *
+ * Tasks should not block as they delay all other tasks of the loop.
+ */
+public class EventLoop implements Executor {
+    // Logging
+    @NonNull private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC.EventLoop");
+
+    @NonNull private final Thread thread;
+    @NonNull private final MpscQueue<Runnable> tasks = new MpscQueue<>();
+    @NonNull private final PriorityQueue<ScheduledTask> timers = new PriorityQueue<>();
+    private volatile boolean parked = false;
+    private volatile boolean running = true;
+
+    // Amount of threads currently submitting a task
+    // Note: After a shutdown, the loop waits for these before it runs the
+    //       remaining tasks, so every accepted task is run.
+    @NonNull private final AtomicInteger submitting = new AtomicInteger();
+
+    /**
+     * Create a new event loop and start its thread.
+     *
+     * @param name The name of the loop's thread.
+     */
+    public EventLoop(@NonNull final String name) {
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Return whether the current thread is the loop's thread.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * Submit a task to be run on the loop. May be called from any thread.
+     *
+     * @throws RejectedExecutionException in case the loop has been shut
+     *   down.
+     */
+    @Override
+    public void execute(@NonNull final Runnable task) {
+        // Note: The counter must be incremented before checking whether the
+        //       loop is running. Either the loop sees this submitter or this
+        //       submitter sees the shutdown.
+        this.submitting.incrementAndGet();
+        try {
+            if (!this.running) {
+                throw new RejectedExecutionException("Event loop has been shut down");
+            }
+            this.tasks.offer(task);
+        } finally {
+            this.submitting.decrementAndGet();
+        }
+        if (this.parked) {
+            LockSupport.unpark(this.thread);
+        }
+    }
+
+    /**
+     * Schedule a task to be run on the loop after a delay. May be called
+     * from any thread.
+     *
+     * @param task The task to be run.
+     * @param delay The delay after which the task should be run.
+     * @param unit The time unit of the delay.
+     *
+     * @throws RejectedExecutionException in case the loop has been shut
+     *   down.
+     */
+    @NonNull public ScheduledTask schedule(
+        @NonNull final Runnable task,
+        final long delay,
+        @NonNull final TimeUnit unit
+    ) {
+        final ScheduledTask scheduled = new ScheduledTask(task, System.nanoTime() + unit.toNanos(delay));
+        if (this.inEventLoop()) {
+            this.timers.add(scheduled);
+        } else {
+            this.execute(() -> this.timers.add(scheduled));
+        }
+        return scheduled;
+    }
+
+    /**
+     * Stop the loop. Tasks submitted before will still be run but pending
+     * timers will be discarded. Every task is either run or rejected by
+     * `execute`, even if submitted concurrently to the shutdown.
+     */
+    public void shutdown() {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+    }
+
+    /**
+     * Wait until the loop has stopped after a shutdown.
+     *
+     * @return `true` in case the loop has stopped, `false` if the timeout
+     *   elapsed before.
+     */
+    public boolean awaitTermination(final long timeout, @NonNull final TimeUnit unit) throws InterruptedException {
+        this.thread.join(Math.max(1, unit.toMillis(timeout)));
+        return !this.thread.isAlive();
+    }
+
+    private void run() {
+        while (this.running) {
+            this.runTasks();
+            final long delay = this.runTimers();
+
+            // Park until a task has been submitted or the next timer is due
+            // Note: The queue must be checked after announcing that the loop
+            //       will be parked, so no submitted task can be missed.
+            this.parked = true;
+            if (this.running && this.tasks.isEmpty()) {
+                if (delay < 0) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+            this.parked = false;
+        }
+
+        // Wait for submitters that have passed the check before the shutdown,
+        // then run remaining tasks and discard timers
+        while (this.submitting.get() > 0) {
+            Thread.yield();
+        }
+        this.runTasks();
+        this.timers.clear();
+        LOG.debug("Event loop stopped");
+    }
+
+    /**
+     * Run all tasks submitted so far.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException error) {
+                LOG.error("Uncaught exception in event loop task:", error);
+            }
+        }
+    }
+
+    /**
+     * Run all timers that are due.
+     *
+     * @return the nanoseconds until the next timer is due or `-1` if there
+     *   are no timers left.
+     */
+    private long runTimers() {
+        ScheduledTask timer;
+        while ((timer = this.timers.peek()) != null) {
+            final long remaining = timer.getDeadline() - System.nanoTime();
+            if (remaining > 0) {
+                return remaining;
+            }
+            this.timers.poll();
+            try {
+                timer.run();
+            } catch (RuntimeException error) {
+                LOG.error("Uncaught exception in event loop timer:", error);
+            }
+        }
+        return -1;
+    }
+}
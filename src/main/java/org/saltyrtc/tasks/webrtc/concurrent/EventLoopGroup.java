@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.concurrent;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of event loops. Tasks are assigned to the loops in a round
+ * robin fashion, so many tasks can be spread across all cores:
+ *
+ *     final EventLoopGroup group = new EventLoopGroup();
+ *     final WebRTCTask task = new WebRTCTaskBuilder()
+ *         .withEventLoop(group.next())
+ *         .build();
+ */
+public class EventLoopGroup {
+    @NonNull private final EventLoop[] loops;
+    @NonNull private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Create a group with one event loop per available processor.
+     */
+    public EventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a group with a specific amount of event loops.
+     *
+     * @throws IllegalArgumentException in case the size is not positive.
+     */
+    public EventLoopGroup(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+        this.loops = new EventLoop[size];
+        for (int i = 0; i < size; i++) {
+            this.loops[i] = new EventLoop("saltyrtc-webrtc-loop-" + i);
+        }
+    }
+
+    /**
+     * Return the amount of event loops.
+     */
+    public int size() {
+        return this.loops.length;
+    }
+
+    /**
+     * Return the next event loop to pin a task to.
+     */
+    @NonNull public EventLoop next() {
+        return this.loops[(this.next.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length];
+    }
+
+    /**
+     * Stop all event loops.
+     *
+     * Note: Tasks pinned to the loops should be closed before.
+     */
+    public void shutdown() {
+        for (final EventLoop loop : this.loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Wait until all event loops have stopped after a shutdown.
+     *
+     * @return `true` in case all loops have stopped, `false` if the timeout
+     *   elapsed before.
+     */
+    public boolean awaitTermination(final long timeout, @NonNull final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (final EventLoop loop : this.loops) {
+            if (!loop.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
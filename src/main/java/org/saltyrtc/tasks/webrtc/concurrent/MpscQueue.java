@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.concurrent;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded lock-free queue for multiple producers and a single consumer
+ * (based on Dmitry Vyukov's MPSC node queue).
+ *
+ * Offering is wait-free and can be done from any thread. Polling MUST only
+ * be done by the consumer thread.
+ *
+ * Note: A producer interrupted between swapping the last node and linking
+ *       it briefly hides its element (and all elements offered after it)
+ *       from the consumer. The consumer will see them once the producer
+ *       continues.
+ */
+class MpscQueue<T> {
+    private static final class Node<T> {
+        @Nullable T value;
+        @Nullable volatile Node<T> next;
+
+        Node(@Nullable final T value) {
+            this.value = value;
+        }
+    }
+
+    // Last node, swapped by producers
+    @NonNull private final AtomicReference<Node<T>> last;
+
+    // Node preceding the first element, only accessed by the consumer
+    @NonNull private Node<T> stub;
+
+    MpscQueue() {
+        this.stub = new Node<>(null);
+        this.last = new AtomicReference<>(this.stub);
+    }
+
+    /**
+     * Append an element. May be called from any thread.
+     */
+    void offer(@NonNull final T value) {
+        final Node<T> node = new Node<>(value);
+        final Node<T> previous = this.last.getAndSet(node);
+        previous.next = node;
+    }
+
+    /**
+     * Remove and return the first element or `null` if the queue is empty.
+     *
+     * Note: Must only be called by the consumer thread.
+     */
+    @Nullable T poll() {
+        final Node<T> next = this.stub.next;
+        if (next == null) {
+            return null;
+        }
+        final T value = next.value;
+        next.value = null;
+        this.stub = next;
+        return value;
+    }
+
+    /**
+     * Return whether the queue is empty.
+     *
+     * Note: Must only be called by the consumer thread.
+     */
+    boolean isEmpty() {
+        return this.stub.next == null;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.concurrent;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * A task scheduled to run on an `EventLoop` after a delay.
+ */
+public class ScheduledTask implements Comparable<ScheduledTask> {
+    @NonNull private final Runnable task;
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    ScheduledTask(@NonNull final Runnable task, final long deadline) {
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    long getDeadline() {
+        return this.deadline;
+    }
+
+    void run() {
+        if (!this.cancelled) {
+            this.task.run();
+        }
+    }
+
+    /**
+     * Prevent the task from running. Has no effect if the task is already
+     * running or has run.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public int compareTo(@NonNull final ScheduledTask other) {
+        // Note: Deadlines are derived from `System.nanoTime()` and may only
+        //       be compared by their difference.
+        return Long.signum(this.deadline - other.deadline);
+    }
+}
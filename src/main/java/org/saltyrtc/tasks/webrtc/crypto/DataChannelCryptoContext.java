@@ -10,6 +10,7 @@ package org.saltyrtc.tasks.webrtc.crypto;
 
 import org.saltyrtc.client.annotations.NonNull;
 import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.cookie.Cookie;
 import org.saltyrtc.client.cookie.CookiePair;
 import org.saltyrtc.client.crypto.CryptoException;
 import org.saltyrtc.client.exceptions.OverflowException;
@@ -20,8 +21,14 @@ import org.saltyrtc.client.nonce.CombinedSequencePair;
 import org.saltyrtc.client.nonce.CombinedSequenceSnapshot;
 import org.saltyrtc.client.signaling.SignalingInterface;
 import org.saltyrtc.tasks.webrtc.DataChannelNonce;
+import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
+import org.saltyrtc.tasks.webrtc.exceptions.StacklessValidationError;
+import org.saltyrtc.tasks.webrtc.tracing.FlightRecorder;
+import org.saltyrtc.tasks.webrtc.tracing.MessageStage;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTrace;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Can encrypt and decrypt data for a data channel with a specific id.
@@ -32,12 +39,25 @@ public class DataChannelCryptoContext {
     @NonNull public static int OVERHEAD_LENGTH = 40;
     @NonNull public static int NONCE_LENGTH = DataChannelNonce.TOTAL_LENGTH;
 
+    // Errors raised for invalid nonces of incoming messages
+    @NonNull private static final ValidationError NONCE_TOO_SHORT = new StacklessValidationError(
+        "Nonce must be at least " + DataChannelNonce.TOTAL_LENGTH + " bytes");
+    @NonNull private static final ValidationError COOKIES_EQUAL = new StacklessValidationError(
+        "Local and remote cookies are equal");
+    @NonNull private static final ValidationError COOKIE_CHANGED = new StacklessValidationError(
+        "Remote cookie changed");
+    @NonNull private static final ValidationError CSN_REUSED = new StacklessValidationError(
+        "CSN reuse detected");
+    @NonNull private static final ValidationError CHANNEL_ID_MISMATCH = new StacklessValidationError(
+        "Data channel id in nonce does not match");
+
     // SaltyRTC
     private final int channelId;
     @NonNull private final SignalingInterface signaling;
     @NonNull private final CookiePair cookiePair;
     @NonNull private final CombinedSequencePair csnPair;
-    @Nullable private Long lastIncomingCsn;
+    private boolean hasIncomingCsn = false;
+    private long lastIncomingCsn;
 
     public DataChannelCryptoContext(final int channelId, @NonNull final SignalingInterface signaling) {
         this.channelId = channelId;
@@ -65,31 +85,79 @@ public class DataChannelCryptoContext {
             csn.getOverflow(), csn.getSequenceNumber());
 
         // Encrypt data
-        return this.signaling.encryptForPeer(data, nonce.toBytes());
+        final long start = FlightRecorder.start();
+        final Box box = this.signaling.encryptForPeer(data, nonce.toBytes());
+        FlightRecorder.encrypted(this.channelId, data.length, start);
+        return box;
+    }
+
+    /**
+     * Encrypt the remaining bytes of a buffer to be sent on the channel.
+     *
+     * The signalling instance encrypts whole arrays only. Therefore, the
+     * bytes are copied unless the buffer is backed by an array that exactly
+     * covers the remaining bytes.
+     *
+     * @param data The bytes to be encrypted.
+     *
+     * @throws OverflowException in case the sequence number would overflow.
+     * @throws CryptoException in case the data could not be encrypted.
+     */
+    public @NonNull Box encrypt(@NonNull final ByteBuffer data) throws OverflowException, CryptoException {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+            && data.remaining() == data.array().length) {
+            return this.encrypt(data.array());
+        }
+        final byte[] array = new byte[data.remaining()];
+        data.duplicate().get(array);
+        return this.encrypt(array);
     }
 
     public @NonNull byte[] decrypt(@NonNull final Box box) throws ValidationError, ProtocolException, CryptoException {
+        return this.decrypt(box, null);
+    }
+
+    /**
+     * Decrypt data received on the channel and trace the nonce validation
+     * and decryption stages.
+     *
+     * @param box The encrypted box.
+     * @param trace The trace of the message or `null`.
+     *
+     * @throws ValidationError in case the nonce is invalid.
+     * @throws ProtocolException in case the nonce is invalid.
+     * @throws CryptoException in case the data could not be decrypted.
+     */
+    public @NonNull byte[] decrypt(
+        @NonNull final Box box,
+        @Nullable final MessageTrace trace
+    ) throws ValidationError, ProtocolException, CryptoException {
         // Validate nonce
-        final DataChannelNonce nonce;
-        try {
-            nonce = new DataChannelNonce(ByteBuffer.wrap(box.getNonce()));
-        } catch (IllegalArgumentException e) {
-            throw new ValidationError("Unable to create nonce, reason: " + e.toString());
+        //
+        // Note: The fields are read from the nonce's bytes directly and
+        //       failures are signalled with preallocated errors, so that
+        //       invalid messages (e.g. garbage sent by a peer) are cheap to
+        //       reject.
+        final byte[] nonce = box.getNonce();
+        if (nonce.length < NONCE_LENGTH) {
+            throw NONCE_TOO_SHORT;
         }
 
         // Make sure cookies are not the same
-        if (nonce.getCookie().equals(this.cookiePair.getOurs())) {
-            throw new ValidationError("Local and remote cookies are equal");
+        final byte[] ours = this.cookiePair.getOurs().getBytes();
+        if (cookieEquals(nonce, ours)) {
+            throw COOKIES_EQUAL;
         }
 
         // If this is the first decrypt attempt, store peer cookie
-        if (this.cookiePair.getTheirs() == null) {
-            this.cookiePair.setTheirs(nonce.getCookie());
+        final Cookie theirs = this.cookiePair.getTheirs();
+        if (theirs == null) {
+            this.cookiePair.setTheirs(new Cookie(Arrays.copyOf(nonce, DataChannelNonce.COOKIE_LENGTH)));
         }
 
         // Otherwise make sure the peer cookie didn't change
-        else if (!nonce.getCookie().equals(this.cookiePair.getTheirs())) {
-            throw new ValidationError("Remote cookie changed");
+        else if (!cookieEquals(nonce, theirs.getBytes())) {
+            throw COOKIE_CHANGED;
         }
 
         // Make sure that two consecutive incoming messages do not have the
@@ -97,19 +165,57 @@ public class DataChannelCryptoContext {
         //
         // Note: This very loose check ensures that unreliable/unordered data
         //       channels do not break.
-        if (this.lastIncomingCsn != null && nonce.getCombinedSequence() == this.lastIncomingCsn) {
-            throw new ValidationError("CSN reuse detected");
+        final ByteBuffer buffer = ByteBuffer.wrap(nonce);
+        final long csn = ((long) (buffer.getShort(DataChannelNonce.COOKIE_LENGTH + 2) & 0xffff) << 32)
+            | (buffer.getInt(DataChannelNonce.COOKIE_LENGTH + 4) & 0xffffffffL);
+        if (this.hasIncomingCsn && csn == this.lastIncomingCsn) {
+            throw CSN_REUSED;
         }
 
         // Validate data channel id
-        if (nonce.getChannelId() != this.channelId) {
-            throw new ValidationError("Data channel id in nonce does not match");
+        if ((buffer.getShort(DataChannelNonce.COOKIE_LENGTH) & 0xffff) != this.channelId) {
+            throw CHANNEL_ID_MISMATCH;
         }
 
         // Update incoming CSN
-        this.lastIncomingCsn = nonce.getCombinedSequence();
+        this.lastIncomingCsn = csn;
+        this.hasIncomingCsn = true;
+        if (trace != null) {
+            trace.mark(MessageStage.NONCE_VALIDATED);
+        }
 
         // Decrypt data
-        return this.signaling.decryptFromPeer(box);
+        final long start = FlightRecorder.start();
+        final byte[] data = this.signaling.decryptFromPeer(box);
+        FlightRecorder.decrypted(this.channelId, data.length, start);
+        if (trace != null) {
+            trace.mark(MessageStage.DECRYPTED);
+        }
+        return data;
+    }
+
+    /**
+     * Return the combined sequence number of the last message that has been
+     * decrypted successfully.
+     *
+     * @throws IllegalStateError in case no message has been decrypted.
+     */
+    public long getLastIncomingCsn() {
+        if (!this.hasIncomingCsn) {
+            throw new IllegalStateError("No message has been decrypted");
+        }
+        return this.lastIncomingCsn;
+    }
+
+    /**
+     * Return whether the cookie at the start of a nonce equals a cookie.
+     */
+    private static boolean cookieEquals(@NonNull final byte[] nonce, @NonNull final byte[] cookie) {
+        for (int i = 0; i < DataChannelNonce.COOKIE_LENGTH; i++) {
+            if (nonce[i] != cookie[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.events;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * The Reactive Streams interfaces, mirroring `java.util.concurrent.Flow`
+ * which is not available on Java 8 and Android.
+ *
+ * The semantics are those of the Reactive Streams specification, so these
+ * interfaces can be adapted 1:1 to `java.util.concurrent.Flow` or to
+ * `org.reactivestreams`.
+ */
+public final class Flow {
+    private Flow() {
+        // Static only
+    }
+
+    /**
+     * A producer of items which are received by subscribers according to
+     * their demand.
+     */
+    public interface Publisher<T> {
+        /**
+         * Add a subscriber. The publisher will call `onSubscribe` on the
+         * subscriber, or `onSubscribe` followed by `onError` if the
+         * subscription is not possible.
+         *
+         * @throws NullPointerException in case the subscriber is `null`.
+         */
+        void subscribe(@NonNull Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items.
+     *
+     * The methods of a subscriber are called serially (but not
+     * necessarily from the same thread).
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called before any other method with the subscription which
+         * can be used to request items.
+         */
+        void onSubscribe(@NonNull Subscription subscription);
+
+        /**
+         * Called with the next item. Will not be called more often than
+         * items have been requested.
+         */
+        void onNext(@NonNull T item);
+
+        /**
+         * Called once the publisher failed. No further methods will be
+         * called.
+         */
+        void onError(@NonNull Throwable throwable);
+
+        /**
+         * Called once the publisher completed. No further methods will be
+         * called.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Links a publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Add `n` items to the demand of the subscriber.
+         *
+         * A non-positive `n` will cause `onError` to be called with an
+         * `IllegalArgumentException`. Use `Long.MAX_VALUE` for an unbounded
+         * demand.
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving items. Items may still be delivered for a short
+         * time.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.events;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+
+/**
+ * An offer, answer or candidate batch received from the peer.
+ *
+ * The set of messages is closed: Instances can only be created within this
+ * package and are handled by dispatching them to a `MessageHandler`.
+ */
+public abstract class IncomingMessage {
+    IncomingMessage() {}
+
+    /**
+     * Call the handler method matching the type of the message.
+     */
+    public abstract void dispatch(@NonNull MessageHandler handler);
+
+    @NonNull static IncomingMessage of(@NonNull final Offer offer) {
+        return new IncomingMessage() {
+            @Override
+            public void dispatch(@NonNull final MessageHandler handler) {
+                handler.onOffer(offer);
+            }
+        };
+    }
+
+    @NonNull static IncomingMessage of(@NonNull final Answer answer) {
+        return new IncomingMessage() {
+            @Override
+            public void dispatch(@NonNull final MessageHandler handler) {
+                handler.onAnswer(answer);
+            }
+        };
+    }
+
+    @NonNull static IncomingMessage of(@NonNull final Candidate[] candidates) {
+        return new IncomingMessage() {
+            @Override
+            public void dispatch(@NonNull final MessageHandler handler) {
+                handler.onCandidates(candidates);
+            }
+        };
+    }
+}
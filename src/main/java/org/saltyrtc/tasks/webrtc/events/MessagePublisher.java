@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.events;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A publisher for a single subscriber which buffers published items until
+ * the subscriber requests them.
+ *
+ * Publishing never blocks. If the subscriber is too slow and the buffer's
+ * capacity is exceeded, the subscriber is failed with an
+ * `IllegalStateException` and further items are discarded. Items published
+ * before a subscriber subscribed are buffered as well.
+ *
+ * All methods are thread-safe. Publishing an item and terminating the
+ * publisher are serialised by a short lock, so an item that has been
+ * accepted is always delivered before the subscriber completes. Delivery
+ * is lock-free. The subscriber is called from the thread publishing an
+ * item or the thread requesting items, but never concurrently.
+ */
+public class MessagePublisher<T> implements Flow.Publisher<T> {
+    @NonNull private static final Flow.Subscription EMPTY_SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void request(long n) {}
+
+        @Override
+        public void cancel() {}
+    };
+
+    private final int capacity;
+    @NonNull private final Object lock = new Object();
+    @NonNull private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    @NonNull private final AtomicInteger size = new AtomicInteger();
+    @NonNull private final AtomicReference<Flow.Subscriber<? super T>> subscriber = new AtomicReference<>();
+    @NonNull private final AtomicLong demand = new AtomicLong();
+
+    // Serialises signals to the subscriber (count of pending drain requests)
+    @NonNull private final AtomicInteger pending = new AtomicInteger();
+
+    // Set once `onSubscribe` returned
+    private volatile boolean subscribed = false;
+    private volatile boolean cancelled = false;
+
+    // Terminal state: Completed (no error) or failed
+    private volatile boolean done = false;
+    @Nullable private volatile Throwable error;
+    private boolean terminated = false;
+
+    /**
+     * Create a new publisher.
+     *
+     * @param capacity The maximum amount of items buffered for the
+     *   subscriber.
+     *
+     * @throws IllegalArgumentException in case the capacity is not positive.
+     */
+    public MessagePublisher(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void subscribe(@NonNull final Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber may not be null");
+        }
+        if (!this.subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(EMPTY_SUBSCRIPTION);
+            subscriber.onError(new IllegalStateException("Only a single subscriber is supported"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(final long n) {
+                MessagePublisher.this.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (MessagePublisher.this.lock) {
+                    MessagePublisher.this.cancelled = true;
+                }
+                MessagePublisher.this.drain();
+            }
+        });
+        this.subscribed = true;
+        this.drain();
+    }
+
+    /**
+     * Publish an item. Never blocks.
+     *
+     * @return `true` in case the item has been buffered or delivered,
+     *   `false` if it has been discarded because the publisher has been
+     *   completed, failed or cancelled.
+     */
+    public boolean publish(@NonNull final T item) {
+        // Note: The item is enqueued under the same lock that terminates the
+        //       publisher, so it cannot be dropped after being accepted.
+        final boolean accepted;
+        synchronized (this.lock) {
+            if (this.done || this.cancelled) {
+                return false;
+            }
+            accepted = this.size.get() < this.capacity;
+            if (accepted) {
+                this.size.incrementAndGet();
+                this.queue.offer(item);
+            } else {
+                this.terminate(new IllegalStateException(
+                    "Subscriber is too slow, buffer capacity of " + this.capacity + " items exceeded"));
+            }
+        }
+        this.drain();
+        return accepted;
+    }
+
+    /**
+     * Complete the publisher. The subscriber's `onComplete` is called once
+     * all buffered items have been delivered.
+     */
+    public void complete() {
+        synchronized (this.lock) {
+            this.terminate(null);
+        }
+        this.drain();
+    }
+
+    /**
+     * Return the amount of buffered items.
+     */
+    public int getBuffered() {
+        return this.size.get();
+    }
+
+    private void request(final long n) {
+        if (n <= 0) {
+            this.fail(new IllegalArgumentException("Requested amount must be positive (Reactive Streams rule 3.9)"));
+            return;
+        }
+        long current;
+        long next;
+        do {
+            current = this.demand.get();
+            if (current == Long.MAX_VALUE) {
+                break;
+            }
+            next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+        } while (!this.demand.compareAndSet(current, next));
+        this.drain();
+    }
+
+    private void fail(@NonNull final Throwable error) {
+        synchronized (this.lock) {
+            this.terminate(error);
+        }
+        this.drain();
+    }
+
+    /**
+     * Complete (without an error) or fail the publisher, unless it has
+     * already been terminated. Must be called while holding the lock.
+     */
+    private void terminate(@Nullable final Throwable error) {
+        if (!this.done) {
+            this.error = error;
+            this.done = true;
+        }
+    }
+
+    /**
+     * Deliver as many buffered items as requested and the terminal signal
+     * if due. Only one thread at a time delivers, other threads merely
+     * request another round.
+     */
+    private void drain() {
+        if (this.pending.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            final Flow.Subscriber<? super T> subscriber = this.subscriber.get();
+            if (this.cancelled) {
+                this.discard();
+            } else if (subscriber != null && this.subscribed && !this.terminated) {
+                this.deliver(subscriber);
+            }
+            missed = this.pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void deliver(@NonNull final Flow.Subscriber<? super T> subscriber) {
+        // Fail immediately, without delivering buffered items
+        final Throwable error = this.error;
+        if (error != null) {
+            this.terminated = true;
+            this.discard();
+            subscriber.onError(error);
+            return;
+        }
+
+        // Deliver items
+        final long requested = this.demand.get();
+        long emitted = 0;
+        while (emitted != requested && !this.cancelled) {
+            final T item = this.queue.poll();
+            if (item == null) {
+                break;
+            }
+            this.size.decrementAndGet();
+            subscriber.onNext(item);
+            emitted++;
+        }
+        if (emitted > 0 && requested != Long.MAX_VALUE) {
+            this.demand.addAndGet(-emitted);
+        }
+
+        // Complete once all items have been delivered
+        if (this.done && this.error == null && !this.cancelled && this.queue.isEmpty()) {
+            this.terminated = true;
+            subscriber.onComplete();
+        }
+    }
+
+    private void discard() {
+        while (this.queue.poll() != null) {
+            this.size.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.events;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.slf4j.Logger;
+
+/**
+ * A message handler publishing incoming offers, answers and candidate
+ * batches to a reactive subscriber with back-pressure.
+ *
+ * Set it as the task's message handler and subscribe to the publisher:
+ *
+ *     final PublishingMessageHandler handler = new PublishingMessageHandler();
+ *     task.setMessageHandler(handler);
+ *     handler.getMessages().subscribe(subscriber);
+ *
+ * All messages are published as a single stream in the order they have been
+ * received, so e.g. candidates are never delivered ahead of the offer they
+ * belong to. The subscriber handles each message by dispatching it to a
+ * `MessageHandler`.
+ *
+ * Messages are buffered until the subscriber requests them, so a slow
+ * subscriber never blocks the thread processing incoming task messages. If
+ * a subscriber falls behind by more than the buffer's capacity, it will be
+ * failed with an `IllegalStateException`.
+ */
+public class PublishingMessageHandler implements MessageHandler {
+    // Logging
+    @NonNull private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC.Publisher");
+
+    @NonNull private final MessagePublisher<IncomingMessage> messages;
+
+    /**
+     * Create a handler buffering up to 1024 messages.
+     */
+    public PublishingMessageHandler() {
+        this(1024);
+    }
+
+    /**
+     * Create a handler.
+     *
+     * @param capacity The maximum amount of messages buffered.
+     *
+     * @throws IllegalArgumentException in case the capacity is not positive.
+     */
+    public PublishingMessageHandler(final int capacity) {
+        this.messages = new MessagePublisher<>(capacity);
+    }
+
+    /**
+     * Return the publisher of incoming offers, answers and candidate
+     * batches.
+     *
+     * Important: While candidate arrays cannot be `null`, individual
+     *            candidates can be `null`!
+     */
+    @NonNull public Flow.Publisher<IncomingMessage> getMessages() {
+        return this.messages;
+    }
+
+    /**
+     * Complete the publisher, e.g. once the task has been closed.
+     */
+    public void complete() {
+        this.messages.complete();
+    }
+
+    @Override
+    public void onOffer(@NonNull final Offer offer) {
+        if (!this.messages.publish(IncomingMessage.of(offer))) {
+            LOG.warn("Discarded offer");
+        }
+    }
+
+    @Override
+    public void onAnswer(@NonNull final Answer answer) {
+        if (!this.messages.publish(IncomingMessage.of(answer))) {
+            LOG.warn("Discarded answer");
+        }
+    }
+
+    @Override
+    public void onCandidates(@NonNull final Candidate[] candidates) {
+        if (!this.messages.publish(IncomingMessage.of(candidates))) {
+            LOG.warn("Discarded candidates");
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.exceptions;
+
+import org.saltyrtc.client.exceptions.ValidationError;
+
+/**
+ * A validation error without a stack trace.
+ *
+ * Used for expected validation failures on the receive path (e.g. a peer
+ * sending garbage) where the error is raised frequently and its origin is
+ * obvious. Instances are preallocated and shared, so they must not be
+ * modified (e.g. by adding a cause or suppressed exceptions).
+ */
+public final class StacklessValidationError extends ValidationError {
+    public StacklessValidationError(String detailMessage) {
+        super(detailMessage);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        // Skip walking the stack
+        return this;
+    }
+}
@@ -9,6 +9,7 @@
 package org.saltyrtc.tasks.webrtc.messages;
 
 import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
 import org.saltyrtc.client.exceptions.ValidationError;
 import org.saltyrtc.client.helpers.ValidationHelper;
 import org.saltyrtc.client.messages.c2c.TaskMessage;
@@ -19,6 +20,7 @@ import java.util.Objects;
 
 public class Answer implements ToTaskMessage {
     @NonNull private static final String TYPE = "answer";
+    @NonNull private static final String FIELD_SDP_DELTA = "sdp_delta";
 
     @NonNull private final String sdp;
 
@@ -30,9 +32,30 @@ public class Answer implements ToTaskMessage {
      * Construct an answer from the "data" field of a TaskMessage.
      */
     public Answer(Map<String, Object> map) throws ValidationError {
+        this(map, null);
+    }
+
+    /**
+     * Construct an answer from the "data" field of a TaskMessage.
+     *
+     * @param base The SDP of the previously received answer a delta may be
+     *   applied to or `null` in case SDP deltas are not allowed.
+     */
+    public Answer(Map<String, Object> map, @Nullable final String base) throws ValidationError {
         final Map<String, Object> answer = ValidationHelper.validateStringObjectMap(map.get("answer"), "answer");
         ValidationHelper.validateType(answer.get("type"), TYPE);
-        this.sdp = ValidationHelper.validateString(answer.get("sdp"), "sdp");
+        final Object delta = answer.get(FIELD_SDP_DELTA);
+        if (delta != null) {
+            if (base == null) {
+                throw new ValidationError("Unexpected SDP delta");
+            }
+            if (!(delta instanceof byte[])) {
+                throw new ValidationError(FIELD_SDP_DELTA + " must be a byte array");
+            }
+            this.sdp = SdpDelta.apply(base, (byte[]) delta);
+        } else {
+            this.sdp = ValidationHelper.validateString(answer.get("sdp"), "sdp");
+        }
     }
 
     @Override
@@ -58,9 +81,27 @@ public class Answer implements ToTaskMessage {
 
     @Override
     @NonNull public TaskMessage toTaskMessage() {
+        return this.toTaskMessage(null);
+    }
+
+    /**
+     * Convert to a task message, sending a line-level delta against `base`
+     * instead of the full SDP if that is smaller.
+     *
+     * Note: A delta may only be sent if the peer negotiated support for it.
+     *
+     * @param base The SDP of the previously sent answer or `null` to always
+     *   send the full SDP.
+     */
+    @NonNull public TaskMessage toTaskMessage(@Nullable final String base) {
         final Map<String, Object> answer = new HashMap<>();
         answer.put("type", TYPE);
-        answer.put("sdp", this.sdp);
+        final byte[] delta = base != null ? SdpDelta.create(base, this.sdp) : null;
+        if (delta != null) {
+            answer.put(FIELD_SDP_DELTA, delta);
+        } else {
+            answer.put("sdp", this.sdp);
+        }
         final Map<String, Object> data = new HashMap<>();
         data.put("answer", answer);
         return new TaskMessage(TYPE, data);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.messages;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.exceptions.ValidationError;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads values written by a `BinaryWriter`.
+ *
+ * Truncated or otherwise malformed input is reported as a `ValidationError`
+ * since the data originates from the remote peer.
+ */
+final class BinaryReader {
+    @NonNull private final byte[] buffer;
+    private int offset = 0;
+
+    BinaryReader(@NonNull final byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    private void require(final int length) throws ValidationError {
+        if (length < 0 || this.buffer.length - this.offset < length) {
+            throw new ValidationError("Truncated binary data");
+        }
+    }
+
+    int readByte() throws ValidationError {
+        this.require(1);
+        return this.buffer[this.offset++] & 0xFF;
+    }
+
+    @NonNull byte[] readBytes(final int length) throws ValidationError {
+        this.require(length);
+        final byte[] bytes = new byte[length];
+        System.arraycopy(this.buffer, this.offset, bytes, 0, length);
+        this.offset += length;
+        return bytes;
+    }
+
+    int readUnsignedShort() throws ValidationError {
+        this.require(2);
+        return ((this.buffer[this.offset++] & 0xFF) << 8) | (this.buffer[this.offset++] & 0xFF);
+    }
+
+    long readUnsignedInt() throws ValidationError {
+        this.require(4);
+        long value = 0;
+        for (int i = 0; i < 4; ++i) {
+            value = (value << 8) | (this.buffer[this.offset++] & 0xFF);
+        }
+        return value;
+    }
+
+    long readVarint() throws ValidationError {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = this.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ValidationError("Varint too long");
+    }
+
+    /**
+     * Read a varint that is used as a length or count and must therefore
+     * fit into the remaining data.
+     */
+    int readLength() throws ValidationError {
+        final long value = this.readVarint();
+        if (value > this.buffer.length - this.offset) {
+            throw new ValidationError("Length exceeds remaining binary data");
+        }
+        return (int) value;
+    }
+
+    @NonNull String readString() throws ValidationError {
+        final int length = this.readLength();
+        final String value = new String(this.buffer, this.offset, length, StandardCharsets.UTF_8);
+        this.offset += length;
+        return value;
+    }
+
+    boolean hasRemaining() {
+        return this.offset < this.buffer.length;
+    }
+}
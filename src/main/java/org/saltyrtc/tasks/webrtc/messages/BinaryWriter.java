@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.messages;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer used to pack the compact binary message encodings.
+ *
+ * All multi-byte integers are written in network byte order. Variable
+ * length integers use the unsigned LEB128 encoding.
+ */
+final class BinaryWriter {
+    @NonNull private byte[] buffer;
+    private int length = 0;
+
+    BinaryWriter(final int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    private void ensureCapacity(final int additional) {
+        final int required = this.length + additional;
+        if (required > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+        }
+    }
+
+    void writeByte(final int value) {
+        this.ensureCapacity(1);
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    void writeBytes(@NonNull final byte[] bytes) {
+        this.ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+        this.length += bytes.length;
+    }
+
+    void writeUnsignedShort(final int value) {
+        this.ensureCapacity(2);
+        this.buffer[this.length++] = (byte) (value >>> 8);
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    void writeUnsignedInt(final long value) {
+        this.ensureCapacity(4);
+        this.buffer[this.length++] = (byte) (value >>> 24);
+        this.buffer[this.length++] = (byte) (value >>> 16);
+        this.buffer[this.length++] = (byte) (value >>> 8);
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    void writeVarint(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Varint value may not be negative");
+        }
+        this.ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    void writeString(@NonNull final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.writeVarint(bytes.length);
+        this.writeBytes(bytes);
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    @NonNull byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.length);
+    }
+}
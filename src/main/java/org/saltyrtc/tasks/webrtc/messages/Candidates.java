@@ -18,6 +18,7 @@ import java.util.*;
 public class Candidates implements ToTaskMessage {
     @NonNull private static final String TYPE = "candidates";
     @NonNull private static final String FIELD_CANDIDATES = "candidates";
+    @NonNull private static final String FIELD_CANDIDATES_COMPACT = "candidates_compact";
 
     @NonNull private final Candidate[] candidates;
 
@@ -29,14 +30,35 @@ public class Candidates implements ToTaskMessage {
      * Construct candidates from the "data" field of a TaskMessage.
      */
     public Candidates(@NonNull final Map<String, Object> map) throws ValidationError {
-        final List<Map> candidates = ValidationHelper.validateTypedList(
-            map.get(FIELD_CANDIDATES), Map.class, FIELD_CANDIDATES, true);
-        this.candidates = new Candidate[candidates.size()];
+        this(map, false);
+    }
+
+    /**
+     * Construct candidates from the "data" field of a TaskMessage.
+     *
+     * @param allowCompact Whether the compact binary encoding has been
+     *   negotiated and may therefore be used by the peer.
+     */
+    public Candidates(@NonNull final Map<String, Object> map, final boolean allowCompact) throws ValidationError {
+        final Object compact = map.get(FIELD_CANDIDATES_COMPACT);
+        if (compact != null) {
+            if (!allowCompact) {
+                throw new ValidationError("Compact candidates have not been negotiated");
+            }
+            if (!(compact instanceof byte[])) {
+                throw new ValidationError(FIELD_CANDIDATES_COMPACT + " must be a byte array");
+            }
+            this.candidates = CompactCandidateEncoding.decode((byte[]) compact);
+        } else {
+            final List<Map> candidates = ValidationHelper.validateTypedList(
+                map.get(FIELD_CANDIDATES), Map.class, FIELD_CANDIDATES, true);
+            this.candidates = new Candidate[candidates.size()];
 
-        // Validate and construct candidate instances
-        for (int i = 0; i < candidates.size(); i++) {
-            final Map candidateMapOrNull = candidates.get(i);
-            this.candidates[i] = candidateMapOrNull == null ? null : new Candidate(candidateMapOrNull);
+            // Validate and construct candidate instances
+            for (int i = 0; i < candidates.size(); i++) {
+                final Map candidateMapOrNull = candidates.get(i);
+                this.candidates[i] = candidateMapOrNull == null ? null : new Candidate(candidateMapOrNull);
+            }
         }
     }
 
@@ -71,4 +93,22 @@ public class Candidates implements ToTaskMessage {
         data.put(FIELD_CANDIDATES, candidateList);
         return new TaskMessage(TYPE, data);
     }
+
+    /**
+     * Convert to a task message using the compact binary candidate encoding.
+     *
+     * Note: This may only be used if the peer negotiated support for it.
+     *
+     * Falls back to the regular encoding in case a candidate cannot be
+     * represented by the compact encoding (e.g. a negative
+     * `sdpMLineIndex`).
+     */
+    @NonNull public TaskMessage toCompactTaskMessage() {
+        if (!CompactCandidateEncoding.canEncode(this.candidates)) {
+            return this.toTaskMessage();
+        }
+        final Map<String, Object> data = new HashMap<>();
+        data.put(FIELD_CANDIDATES_COMPACT, CompactCandidateEncoding.encode(this.candidates));
+        return new TaskMessage(TYPE, data);
+    }
 }
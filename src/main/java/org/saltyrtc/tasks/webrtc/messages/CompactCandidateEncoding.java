@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.messages;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ValidationError;
+
+/**
+ * Compact binary encoding for a list of ICE candidates.
+ *
+ * Candidate lines are parsed into typed fields. A line is only encoded in
+ * parsed form if it can be reconstructed byte-for-byte from these fields,
+ * otherwise the raw line is carried as is. Thus, the encoding is lossless.
+ *
+ * Structure:
+ *
+ * |V|N...|E...|
+ *
+ * - V: Encoding version (1 byte), currently 1
+ * - N: Amount of entries (varint)
+ * - E: Entries
+ *
+ * Each entry starts with a flags byte, followed by the optional `sdpMid`
+ * (string) and `sdpMLineIndex` (varint) fields. A raw entry is followed by
+ * the candidate line (string). A parsed entry is followed by:
+ *
+ * |F...|C...|T|PPPP|A...|OO|Y|R...|RR|X...|
+ *
+ * - F: Foundation (string)
+ * - C: Component id (varint)
+ * - T: Transport (1 byte), 0xff is followed by a string
+ * - P: Priority (uint32)
+ * - A: Connection address (address)
+ * - O: Port (uint16)
+ * - Y: Candidate type (1 byte), 0xff is followed by a string
+ * - R: Related address (address), only if flagged
+ * - RR: Related port (uint16), only if flagged
+ * - X: Extension attributes (string), only if flagged
+ *
+ * An address starts with a kind byte (4: IPv4, 6: IPv6, 0: string),
+ * followed by 4 bytes, 16 bytes or a string.
+ *
+ * Strings are encoded as a varint byte length followed by UTF-8.
+ */
+final class CompactCandidateEncoding {
+    private static final int VERSION = 1;
+
+    // Entry flags
+    private static final int FLAG_PRESENT = 0x01;
+    private static final int FLAG_SDP_MID = 0x02;
+    private static final int FLAG_SDP_M_LINE_INDEX = 0x04;
+    private static final int FLAG_PARSED = 0x08;
+    private static final int FLAG_RELATED = 0x10;
+    private static final int FLAG_EXTENSIONS = 0x20;
+
+    // Enumerated values
+    private static final int OTHER = 0xFF;
+    @NonNull private static final String[] TRANSPORTS = { "udp", "tcp", "UDP", "TCP" };
+    @NonNull private static final String[] TYPES = { "host", "srflx", "prflx", "relay" };
+
+    // Address kinds
+    private static final int ADDRESS_STRING = 0;
+    private static final int ADDRESS_IPV4 = 4;
+    private static final int ADDRESS_IPV6 = 6;
+
+    @NonNull private static final String PREFIX = "candidate:";
+
+    private CompactCandidateEncoding() {}
+
+    /**
+     * Typed fields of a `candidate:` line.
+     */
+    private static final class Fields {
+        String foundation;
+        long component;
+        String transport;
+        long priority;
+        String address;
+        int port;
+        String type;
+        @Nullable String relatedAddress;
+        int relatedPort;
+        @Nullable String extensions;
+
+        @NonNull String format() {
+            final StringBuilder builder = new StringBuilder(128)
+                .append(PREFIX).append(this.foundation)
+                .append(' ').append(this.component)
+                .append(' ').append(this.transport)
+                .append(' ').append(this.priority)
+                .append(' ').append(this.address)
+                .append(' ').append(this.port)
+                .append(" typ ").append(this.type);
+            if (this.relatedAddress != null) {
+                builder.append(" raddr ").append(this.relatedAddress)
+                    .append(" rport ").append(this.relatedPort);
+            }
+            if (this.extensions != null) {
+                builder.append(' ').append(this.extensions);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Return whether all candidates can be represented by the encoding. The
+     * `sdpMLineIndex` of each candidate must be between 0 and 65535.
+     */
+    static boolean canEncode(@NonNull final Candidate[] candidates) {
+        for (final Candidate candidate : candidates) {
+            if (candidate == null) {
+                continue;
+            }
+            final Integer sdpMLineIndex = candidate.getSdpMLineIndex();
+            if (sdpMLineIndex != null && (sdpMLineIndex < 0 || sdpMLineIndex > 65535)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode candidates (which may contain `null` entries).
+     */
+    @NonNull static byte[] encode(@NonNull final Candidate[] candidates) {
+        final BinaryWriter writer = new BinaryWriter(candidates.length * 48 + 8);
+        writer.writeByte(VERSION);
+        writer.writeVarint(candidates.length);
+        for (final Candidate candidate : candidates) {
+            if (candidate == null) {
+                writer.writeByte(0);
+                continue;
+            }
+
+            // Determine flags
+            final Fields fields = parse(candidate.getSdp());
+            int flags = FLAG_PRESENT;
+            if (candidate.getSdpMid() != null) {
+                flags |= FLAG_SDP_MID;
+            }
+            if (candidate.getSdpMLineIndex() != null) {
+                flags |= FLAG_SDP_M_LINE_INDEX;
+            }
+            if (fields != null) {
+                flags |= FLAG_PARSED;
+                if (fields.relatedAddress != null) {
+                    flags |= FLAG_RELATED;
+                }
+                if (fields.extensions != null) {
+                    flags |= FLAG_EXTENSIONS;
+                }
+            }
+            writer.writeByte(flags);
+
+            // Media identification
+            if (candidate.getSdpMid() != null) {
+                writer.writeString(candidate.getSdpMid());
+            }
+            if (candidate.getSdpMLineIndex() != null) {
+                writer.writeVarint(candidate.getSdpMLineIndex());
+            }
+
+            // Candidate line
+            if (fields == null) {
+                writer.writeString(candidate.getSdp());
+                continue;
+            }
+            writer.writeString(fields.foundation);
+            writer.writeVarint(fields.component);
+            writeEnumerated(writer, TRANSPORTS, fields.transport);
+            writer.writeUnsignedInt(fields.priority);
+            writeAddress(writer, fields.address);
+            writer.writeUnsignedShort(fields.port);
+            writeEnumerated(writer, TYPES, fields.type);
+            if (fields.relatedAddress != null) {
+                writeAddress(writer, fields.relatedAddress);
+                writer.writeUnsignedShort(fields.relatedPort);
+            }
+            if (fields.extensions != null) {
+                writer.writeString(fields.extensions);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decode candidates (which may contain `null` entries).
+     *
+     * @throws ValidationError in case the data is malformed.
+     */
+    @NonNull static Candidate[] decode(@NonNull final byte[] data) throws ValidationError {
+        final BinaryReader reader = new BinaryReader(data);
+        final int version = reader.readByte();
+        if (version != VERSION) {
+            throw new ValidationError("Unsupported compact candidates version: " + version);
+        }
+        final Candidate[] candidates = new Candidate[reader.readLength()];
+        for (int i = 0; i < candidates.length; ++i) {
+            final int flags = reader.readByte();
+            if ((flags & FLAG_PRESENT) == 0) {
+                continue;
+            }
+
+            // Media identification
+            final String sdpMid = (flags & FLAG_SDP_MID) != 0 ? reader.readString() : null;
+            Integer sdpMLineIndex = null;
+            if ((flags & FLAG_SDP_M_LINE_INDEX) != 0) {
+                final long value = reader.readVarint();
+                if (value > 65535) {
+                    throw new ValidationError("sdpMLineIndex must be between 0 and 65535");
+                }
+                sdpMLineIndex = (int) value;
+            }
+
+            // Candidate line
+            final String sdp;
+            if ((flags & FLAG_PARSED) == 0) {
+                sdp = reader.readString();
+            } else {
+                final Fields fields = new Fields();
+                fields.foundation = reader.readString();
+                fields.component = reader.readVarint();
+                fields.transport = readEnumerated(reader, TRANSPORTS);
+                fields.priority = reader.readUnsignedInt();
+                fields.address = readAddress(reader);
+                fields.port = reader.readUnsignedShort();
+                fields.type = readEnumerated(reader, TYPES);
+                if ((flags & FLAG_RELATED) != 0) {
+                    fields.relatedAddress = readAddress(reader);
+                    fields.relatedPort = reader.readUnsignedShort();
+                }
+                if ((flags & FLAG_EXTENSIONS) != 0) {
+                    fields.extensions = reader.readString();
+                }
+                sdp = fields.format();
+            }
+            candidates[i] = new Candidate(sdp, sdpMid, sdpMLineIndex);
+        }
+        if (reader.hasRemaining()) {
+            throw new ValidationError("Unexpected trailing data in compact candidates");
+        }
+        return candidates;
+    }
+
+    /**
+     * Parse a candidate line into typed fields.
+     *
+     * @return the fields or `null` in case the line cannot be represented
+     *   losslessly.
+     */
+    @Nullable private static Fields parse(@NonNull final String sdp) {
+        if (!sdp.startsWith(PREFIX)) {
+            return null;
+        }
+        final String[] tokens = sdp.substring(PREFIX.length()).split(" ", -1);
+        if (tokens.length < 8 || !"typ".equals(tokens[6])) {
+            return null;
+        }
+
+        // Mandatory fields
+        final Fields fields = new Fields();
+        fields.foundation = tokens[0];
+        fields.component = parseUnsigned(tokens[1], 0xFFFFFFFFL);
+        fields.transport = tokens[2];
+        fields.priority = parseUnsigned(tokens[3], 0xFFFFFFFFL);
+        fields.address = tokens[4];
+        fields.port = (int) parseUnsigned(tokens[5], 0xFFFF);
+        fields.type = tokens[7];
+        if (fields.component < 0 || fields.priority < 0 || fields.port < 0) {
+            return null;
+        }
+
+        // Related address and port
+        int index = 8;
+        if (tokens.length >= index + 4 && "raddr".equals(tokens[index]) && "rport".equals(tokens[index + 2])) {
+            fields.relatedAddress = tokens[index + 1];
+            fields.relatedPort = (int) parseUnsigned(tokens[index + 3], 0xFFFF);
+            if (fields.relatedPort < 0) {
+                return null;
+            }
+            index += 4;
+        }
+
+        // Extension attributes are carried verbatim
+        if (index < tokens.length) {
+            final StringBuilder builder = new StringBuilder(tokens[index]);
+            for (int i = index + 1; i < tokens.length; ++i) {
+                builder.append(' ').append(tokens[i]);
+            }
+            fields.extensions = builder.toString();
+        }
+
+        // Only use the parsed representation if it is lossless
+        return sdp.equals(fields.format()) ? fields : null;
+    }
+
+    /**
+     * Parse an unsigned decimal number.
+     *
+     * @return the number or -1 in case it is invalid or exceeds `max`.
+     */
+    private static long parseUnsigned(@NonNull final String value, final long max) {
+        if (value.isEmpty() || value.length() > 10) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result > max ? -1 : result;
+    }
+
+    private static void writeEnumerated(
+        @NonNull final BinaryWriter writer, @NonNull final String[] values, @NonNull final String value
+    ) {
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i].equals(value)) {
+                writer.writeByte(i);
+                return;
+            }
+        }
+        writer.writeByte(OTHER);
+        writer.writeString(value);
+    }
+
+    @NonNull private static String readEnumerated(
+        @NonNull final BinaryReader reader, @NonNull final String[] values
+    ) throws ValidationError {
+        final int index = reader.readByte();
+        if (index == OTHER) {
+            return reader.readString();
+        }
+        if (index >= values.length) {
+            throw new ValidationError("Unknown enumerated value: " + index);
+        }
+        return values[index];
+    }
+
+    private static void writeAddress(@NonNull final BinaryWriter writer, @NonNull final String address) {
+        byte[] bytes = parseIpv4(address);
+        if (bytes != null && address.equals(formatIpv4(bytes))) {
+            writer.writeByte(ADDRESS_IPV4);
+            writer.writeBytes(bytes);
+            return;
+        }
+        bytes = parseIpv6(address);
+        if (bytes != null && address.equals(formatIpv6(bytes))) {
+            writer.writeByte(ADDRESS_IPV6);
+            writer.writeBytes(bytes);
+            return;
+        }
+        writer.writeByte(ADDRESS_STRING);
+        writer.writeString(address);
+    }
+
+    @NonNull private static String readAddress(@NonNull final BinaryReader reader) throws ValidationError {
+        final int kind = reader.readByte();
+        switch (kind) {
+            case ADDRESS_IPV4:
+                return formatIpv4(reader.readBytes(4));
+            case ADDRESS_IPV6:
+                return formatIpv6(reader.readBytes(16));
+            case ADDRESS_STRING:
+                return reader.readString();
+            default:
+                throw new ValidationError("Unknown address kind: " + kind);
+        }
+    }
+
+    /**
+     * Parse a dotted-quad IPv4 address without any name resolution.
+     */
+    @Nullable private static byte[] parseIpv4(@NonNull final String address) {
+        final String[] parts = address.split("\\.", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        final byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; ++i) {
+            final long part = parseUnsigned(parts[i], 255);
+            if (part < 0) {
+                return null;
+            }
+            bytes[i] = (byte) part;
+        }
+        return bytes;
+    }
+
+    @NonNull private static String formatIpv4(@NonNull final byte[] bytes) {
+        return (bytes[0] & 0xFF) + "." + (bytes[1] & 0xFF) + "." + (bytes[2] & 0xFF) + "." + (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Parse a textual IPv6 address without any name resolution. Embedded
+     * IPv4 notation and zone identifiers are not supported.
+     */
+    @Nullable private static byte[] parseIpv6(@NonNull final String address) {
+        if (address.indexOf(':') < 0) {
+            return null;
+        }
+        final int compressed = address.indexOf("::");
+        if (compressed >= 0 && address.indexOf("::", compressed + 1) >= 0) {
+            return null;
+        }
+
+        // Parse the groups before and after the compressed part
+        final int[] head = parseIpv6Groups(compressed >= 0 ? address.substring(0, compressed) : address);
+        final int[] tail = compressed >= 0 ? parseIpv6Groups(address.substring(compressed + 2)) : new int[0];
+        if (head == null || tail == null) {
+            return null;
+        }
+        if (compressed >= 0 ? head.length + tail.length > 7 : head.length != 8) {
+            return null;
+        }
+
+        // Assemble
+        final byte[] bytes = new byte[16];
+        for (int i = 0; i < head.length; ++i) {
+            bytes[i * 2] = (byte) (head[i] >>> 8);
+            bytes[i * 2 + 1] = (byte) head[i];
+        }
+        for (int i = 0; i < tail.length; ++i) {
+            final int group = 8 - tail.length + i;
+            bytes[group * 2] = (byte) (tail[i] >>> 8);
+            bytes[group * 2 + 1] = (byte) tail[i];
+        }
+        return bytes;
+    }
+
+    @Nullable private static int[] parseIpv6Groups(@NonNull final String groups) {
+        if (groups.isEmpty()) {
+            return new int[0];
+        }
+        final String[] parts = groups.split(":", -1);
+        final int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            if (parts[i].isEmpty() || parts[i].length() > 4) {
+                return null;
+            }
+            try {
+                values[i] = Integer.parseInt(parts[i], 16);
+            } catch (NumberFormatException error) {
+                return null;
+            }
+            if (values[i] < 0) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Format an IPv6 address in its canonical textual representation as
+     * recommended by RFC 5952.
+     */
+    @NonNull private static String formatIpv6(@NonNull final byte[] bytes) {
+        final int[] groups = new int[8];
+        for (int i = 0; i < 8; ++i) {
+            groups[i] = ((bytes[i * 2] & 0xFF) << 8) | (bytes[i * 2 + 1] & 0xFF);
+        }
+
+        // Find the longest run of at least two zero groups (first one wins)
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                ++i;
+                continue;
+            }
+            int end = i;
+            while (end < 8 && groups[end] == 0) {
+                ++end;
+            }
+            if (end - i > bestLength) {
+                bestStart = i;
+                bestLength = end - i;
+            }
+            i = end;
+        }
+
+        // Format
+        final StringBuilder builder = new StringBuilder(39);
+        for (int i = 0; i < 8; ++i) {
+            if (i == bestStart) {
+                builder.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ':') {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(groups[i]));
+        }
+        return builder.toString();
+    }
+}
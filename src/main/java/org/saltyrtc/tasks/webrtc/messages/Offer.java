@@ -9,6 +9,7 @@
 package org.saltyrtc.tasks.webrtc.messages;
 
 import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
 import org.saltyrtc.client.exceptions.ValidationError;
 import org.saltyrtc.client.helpers.ValidationHelper;
 import org.saltyrtc.client.messages.c2c.TaskMessage;
@@ -19,6 +20,7 @@ import java.util.Objects;
 
 public class Offer implements ToTaskMessage {
     @NonNull private static final String TYPE = "offer";
+    @NonNull private static final String FIELD_SDP_DELTA = "sdp_delta";
 
     @NonNull private final String sdp;
 
@@ -30,9 +32,30 @@ public class Offer implements ToTaskMessage {
      * Construct an offer from the "data" field of a TaskMessage.
      */
     public Offer(@NonNull final Map<String, Object> map) throws ValidationError {
+        this(map, null);
+    }
+
+    /**
+     * Construct an offer from the "data" field of a TaskMessage.
+     *
+     * @param base The SDP of the previously received offer a delta may be
+     *   applied to or `null` in case SDP deltas are not allowed.
+     */
+    public Offer(@NonNull final Map<String, Object> map, @Nullable final String base) throws ValidationError {
         final Map<String, Object> offer = ValidationHelper.validateStringObjectMap(map.get("offer"), "offer");
         ValidationHelper.validateType(offer.get("type"), TYPE);
-        this.sdp = ValidationHelper.validateString(offer.get("sdp"), "sdp");
+        final Object delta = offer.get(FIELD_SDP_DELTA);
+        if (delta != null) {
+            if (base == null) {
+                throw new ValidationError("Unexpected SDP delta");
+            }
+            if (!(delta instanceof byte[])) {
+                throw new ValidationError(FIELD_SDP_DELTA + " must be a byte array");
+            }
+            this.sdp = SdpDelta.apply(base, (byte[]) delta);
+        } else {
+            this.sdp = ValidationHelper.validateString(offer.get("sdp"), "sdp");
+        }
     }
 
     @Override
@@ -58,9 +81,27 @@ public class Offer implements ToTaskMessage {
 
     @Override
     @NonNull public TaskMessage toTaskMessage() {
+        return this.toTaskMessage(null);
+    }
+
+    /**
+     * Convert to a task message, sending a line-level delta against `base`
+     * instead of the full SDP if that is smaller.
+     *
+     * Note: A delta may only be sent if the peer negotiated support for it.
+     *
+     * @param base The SDP of the previously sent offer or `null` to always
+     *   send the full SDP.
+     */
+    @NonNull public TaskMessage toTaskMessage(@Nullable final String base) {
         final Map<String, Object> offer = new HashMap<>();
         offer.put("type", TYPE);
-        offer.put("sdp", this.sdp);
+        final byte[] delta = base != null ? SdpDelta.create(base, this.sdp) : null;
+        if (delta != null) {
+            offer.put(FIELD_SDP_DELTA, delta);
+        } else {
+            offer.put("sdp", this.sdp);
+        }
         final Map<String, Object> data = new HashMap<>();
         data.put("offer", offer);
         return new TaskMessage(TYPE, data);
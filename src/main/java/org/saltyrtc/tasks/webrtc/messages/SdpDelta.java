@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.messages;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ValidationError;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Line-level delta of an SDP against a previous SDP (the base).
+ *
+ * Lines are separated by `\n` only, so any carriage returns remain part of
+ * the line and the reconstruction is exact.
+ *
+ * Structure:
+ *
+ * |V|BBBB|RRRR|O...|
+ *
+ * - V: Delta version (1 byte), currently 1
+ * - B: CRC32 of the base SDP (uint32)
+ * - R: CRC32 of the resulting SDP (uint32)
+ * - O: Operations until the end of the data
+ *
+ * Each operation consists of an opcode (1 byte) and a line count (varint):
+ *
+ * - 0: Copy the next lines of the base
+ * - 1: Skip the next lines of the base
+ * - 2: Insert lines, each followed as a string (varint length and UTF-8)
+ *
+ * Base lines that have not been consumed once all operations have been
+ * applied are discarded.
+ */
+final class SdpDelta {
+    private static final int VERSION = 1;
+
+    // Opcodes
+    private static final int OP_COPY = 0;
+    private static final int OP_SKIP = 1;
+    private static final int OP_INSERT = 2;
+
+    // Upper bound for the LCS table of the differing lines. Larger changes
+    // are encoded by replacing the differing lines entirely.
+    private static final int MAX_TABLE_SIZE = 512 * 512;
+
+    private SdpDelta() {}
+
+    /**
+     * Create a delta transforming `base` into `sdp`.
+     *
+     * @return the encoded delta or `null` if it would not be smaller than
+     *   the SDP itself.
+     */
+    @Nullable static byte[] create(@NonNull final String base, @NonNull final String sdp) {
+        final String[] from = split(base);
+        final String[] to = split(sdp);
+        final int sdpLength = sdp.getBytes(StandardCharsets.UTF_8).length;
+
+        // Header
+        final BinaryWriter writer = new BinaryWriter(Math.min(sdpLength, 1024));
+        writer.writeByte(VERSION);
+        writer.writeUnsignedInt(crc32(base));
+        writer.writeUnsignedInt(crc32(sdp));
+
+        // Common prefix and suffix
+        int prefix = 0;
+        while (prefix < from.length && prefix < to.length && from[prefix].equals(to[prefix])) {
+            ++prefix;
+        }
+        int suffix = 0;
+        while (suffix < from.length - prefix && suffix < to.length - prefix
+            && from[from.length - 1 - suffix].equals(to[to.length - 1 - suffix])) {
+            ++suffix;
+        }
+        final OperationWriter operations = new OperationWriter(writer, to);
+        operations.add(OP_COPY, 0, prefix);
+
+        // Differing lines in between
+        final int n = from.length - prefix - suffix;
+        final int m = to.length - prefix - suffix;
+        if ((long) (n + 1) * (m + 1) > MAX_TABLE_SIZE) {
+            operations.add(OP_SKIP, 0, n);
+            operations.add(OP_INSERT, prefix, m);
+        } else {
+            diff(from, to, prefix, n, m, operations);
+        }
+        operations.add(OP_COPY, 0, suffix);
+        operations.flush();
+
+        // Only worth it if smaller
+        return writer.length() < sdpLength ? writer.toByteArray() : null;
+    }
+
+    /**
+     * Apply a delta to `base`.
+     *
+     * @throws ValidationError in case the delta is malformed or does not
+     *   match the base.
+     */
+    @NonNull static String apply(@NonNull final String base, @NonNull final byte[] delta) throws ValidationError {
+        final BinaryReader reader = new BinaryReader(delta);
+        final int version = reader.readByte();
+        if (version != VERSION) {
+            throw new ValidationError("Unsupported SDP delta version: " + version);
+        }
+        if (reader.readUnsignedInt() != crc32(base)) {
+            throw new ValidationError("SDP delta does not match the previous SDP");
+        }
+        final long expectedCrc = reader.readUnsignedInt();
+
+        // Apply operations
+        final String[] from = split(base);
+        final StringBuilder builder = new StringBuilder(base.length() + delta.length);
+        int index = 0;
+        boolean first = true;
+        while (reader.hasRemaining()) {
+            final int opcode = reader.readByte();
+            final long count = reader.readVarint();
+            switch (opcode) {
+                case OP_COPY:
+                case OP_SKIP:
+                    if (count > from.length - index) {
+                        throw new ValidationError("SDP delta exceeds the previous SDP");
+                    }
+                    if (opcode == OP_COPY) {
+                        for (int i = 0; i < count; ++i) {
+                            first = appendLine(builder, from[index + i], first);
+                        }
+                    }
+                    index += (int) count;
+                    break;
+                case OP_INSERT:
+                    for (long i = 0; i < count; ++i) {
+                        first = appendLine(builder, reader.readString(), first);
+                    }
+                    break;
+                default:
+                    throw new ValidationError("Unknown SDP delta operation: " + opcode);
+            }
+        }
+
+        // Verify result
+        final String sdp = builder.toString();
+        if (crc32(sdp) != expectedCrc) {
+            throw new ValidationError("SDP delta checksum mismatch");
+        }
+        return sdp;
+    }
+
+    private static boolean appendLine(@NonNull final StringBuilder builder, @NonNull final String line,
+                                      final boolean first) {
+        if (!first) {
+            builder.append('\n');
+        }
+        builder.append(line);
+        return false;
+    }
+
+    @NonNull private static String[] split(@NonNull final String sdp) {
+        return sdp.split("\n", -1);
+    }
+
+    private static long crc32(@NonNull final String value) {
+        final CRC32 crc = new CRC32();
+        crc.update(value.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * Compute a longest common subsequence of the differing lines and emit
+     * the corresponding operations.
+     */
+    private static void diff(
+        @NonNull final String[] from, @NonNull final String[] to, final int offset, final int n, final int m,
+        @NonNull final OperationWriter operations
+    ) {
+        // lcs[i * (m + 1) + j] is the LCS length of from[i..n) and to[j..m)
+        final int[] lcs = new int[(n + 1) * (m + 1)];
+        for (int i = n - 1; i >= 0; --i) {
+            for (int j = m - 1; j >= 0; --j) {
+                if (from[offset + i].equals(to[offset + j])) {
+                    lcs[i * (m + 1) + j] = lcs[(i + 1) * (m + 1) + j + 1] + 1;
+                } else {
+                    lcs[i * (m + 1) + j] = Math.max(lcs[(i + 1) * (m + 1) + j], lcs[i * (m + 1) + j + 1]);
+                }
+            }
+        }
+
+        // Walk the table
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && from[offset + i].equals(to[offset + j])) {
+                operations.add(OP_COPY, 0, 1);
+                ++i;
+                ++j;
+            } else if (j >= m || (i < n && lcs[(i + 1) * (m + 1) + j] >= lcs[i * (m + 1) + j + 1])) {
+                operations.add(OP_SKIP, 0, 1);
+                ++i;
+            } else {
+                operations.add(OP_INSERT, offset + j, 1);
+                ++j;
+            }
+        }
+    }
+
+    /**
+     * Coalesces consecutive operations of the same kind.
+     */
+    private static final class OperationWriter {
+        @NonNull private final BinaryWriter writer;
+        @NonNull private final String[] to;
+        private int opcode = -1;
+        private int start = 0;
+        private int count = 0;
+
+        OperationWriter(@NonNull final BinaryWriter writer, @NonNull final String[] to) {
+            this.writer = writer;
+            this.to = to;
+        }
+
+        /**
+         * Add an operation.
+         *
+         * @param opcode The operation.
+         * @param start Index of the first line in the target SDP (only
+         *   relevant for insertions).
+         * @param count Amount of lines.
+         */
+        void add(final int opcode, final int start, final int count) {
+            if (count == 0) {
+                return;
+            }
+            if (opcode == this.opcode && (opcode != OP_INSERT || this.start + this.count == start)) {
+                this.count += count;
+                return;
+            }
+            this.flush();
+            this.opcode = opcode;
+            this.start = start;
+            this.count = count;
+        }
+
+        void flush() {
+            if (this.count == 0) {
+                return;
+            }
+            this.writer.writeByte(this.opcode);
+            this.writer.writeVarint(this.count);
+            if (this.opcode == OP_INSERT) {
+                for (int i = this.start; i < this.start + this.count; ++i) {
+                    this.writer.writeString(this.to[i]);
+                }
+            }
+            this.opcode = -1;
+            this.count = 0;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.messages;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * Inspects non-encrypted signalling messages (MessagePack maps) created by
+ * the signalling instance, without decoding them in full.
+ */
+public final class SignalingMessages {
+    // Upper bound for the length of a 'close' message, which consists of
+    // the type and the close code only
+    private static final int MAX_CLOSE_LENGTH = 64;
+
+    private SignalingMessages() {}
+
+    /**
+     * Return whether the payload is a 'close' message.
+     *
+     * Any encoding of the map, its string keys and its scalar values is
+     * accepted. Payloads that are too long to be a 'close' message or
+     * contain nested values before the type are not considered a 'close'
+     * message.
+     */
+    public static boolean isClose(@NonNull final byte[] payload) {
+        if (payload.length > MAX_CLOSE_LENGTH) {
+            return false;
+        }
+        final Reader reader = new Reader(payload);
+        final long entries = reader.readMapHeader();
+        for (long i = 0; i < entries; i++) {
+            // Key
+            final long keyLength = reader.readStringHeader();
+            if (!reader.hasRemaining(keyLength)) {
+                return false;
+            }
+            final boolean isType = reader.matches("type", keyLength);
+            reader.skip(keyLength);
+
+            // Value
+            if (isType) {
+                final long valueLength = reader.readStringHeader();
+                return reader.hasRemaining(valueLength) && reader.matches("close", valueLength);
+            }
+            if (!reader.skipScalar()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads MessagePack headers. All methods return `-1` or `false` in case
+     * the data is truncated or of another type.
+     */
+    private static final class Reader {
+        @NonNull private final byte[] data;
+        private int offset = 0;
+
+        Reader(@NonNull final byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasRemaining(final long length) {
+            return length >= 0 && length <= this.data.length - this.offset;
+        }
+
+        void skip(final long length) {
+            this.offset += (int) length;
+        }
+
+        /**
+         * Return whether the next bytes are the given ASCII string.
+         */
+        boolean matches(@NonNull final String value, final long length) {
+            if (length != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.data[this.offset + i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Return the amount of entries of a map.
+         */
+        long readMapHeader() {
+            final int type = this.readType();
+            if (type >= 0x80 && type <= 0x8f) {
+                // fixmap
+                return type & 0x0f;
+            } else if (type == 0xde) {
+                return this.readLength(2);
+            } else if (type == 0xdf) {
+                return this.readLength(4);
+            }
+            return -1;
+        }
+
+        /**
+         * Return the length of a string.
+         */
+        long readStringHeader() {
+            final int type = this.readType();
+            if (type >= 0xa0 && type <= 0xbf) {
+                // fixstr
+                return type & 0x1f;
+            } else if (type == 0xd9) {
+                return this.readLength(1);
+            } else if (type == 0xda) {
+                return this.readLength(2);
+            } else if (type == 0xdb) {
+                return this.readLength(4);
+            }
+            return -1;
+        }
+
+        /**
+         * Skip a nil, boolean, integer, float, string or binary value.
+         */
+        boolean skipScalar() {
+            final int type = this.readType();
+            if (type < 0) {
+                return false;
+            }
+            if (type <= 0x7f || type >= 0xe0 || type == 0xc0 || type == 0xc2 || type == 0xc3) {
+                // fixint, nil, bool
+                return true;
+            }
+            final long length;
+            if (type >= 0xa0 && type <= 0xbf) {
+                // fixstr
+                length = type & 0x1f;
+            } else {
+                switch (type) {
+                    case 0xcc: case 0xd0:
+                        length = 1;
+                        break;
+                    case 0xcd: case 0xd1:
+                        length = 2;
+                        break;
+                    case 0xca: case 0xce: case 0xd2:
+                        length = 4;
+                        break;
+                    case 0xcb: case 0xcf: case 0xd3:
+                        length = 8;
+                        break;
+                    case 0xc4: case 0xd9:
+                        length = this.readLength(1);
+                        break;
+                    case 0xc5: case 0xda:
+                        length = this.readLength(2);
+                        break;
+                    case 0xc6: case 0xdb:
+                        length = this.readLength(4);
+                        break;
+                    default:
+                        // Arrays, maps and extension types
+                        return false;
+                }
+            }
+            if (!this.hasRemaining(length)) {
+                return false;
+            }
+            this.skip(length);
+            return true;
+        }
+
+        private int readType() {
+            return this.offset < this.data.length ? this.data[this.offset++] & 0xff : -1;
+        }
+
+        /**
+         * Read an unsigned big endian length of `size` bytes.
+         */
+        private long readLength(final int size) {
+            if (!this.hasRemaining(size)) {
+                return -1;
+            }
+            long length = 0;
+            for (int i = 0; i < size; i++) {
+                length = (length << 8) | (this.data[this.offset++] & 0xff);
+            }
+            return length;
+        }
+    }
+}
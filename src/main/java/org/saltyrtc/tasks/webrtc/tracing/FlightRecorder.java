@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tracing;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * Emits Java Flight Recorder events for transport and crypto operations.
+ *
+ * This is the Java 8 variant of this class which does nothing. The library
+ * is a multi-release JAR which contains a Java 11 variant emitting the
+ * events, so the JVM picks the right one at runtime.
+ *
+ * Operations with a duration are traced by fetching a timestamp via
+ * `start` before the operation and passing it to the corresponding method
+ * afterwards.
+ */
+public final class FlightRecorder {
+    private FlightRecorder() {
+        // Static only
+    }
+
+    /**
+     * Return a timestamp to be passed to the methods of operations with a
+     * duration.
+     */
+    public static long start() {
+        return 0;
+    }
+
+    /**
+     * A chunk has been handed to the data channel.
+     */
+    public static void chunkSent(final int channelId, final int length, final long start) {
+        // Do nothing
+    }
+
+    /**
+     * A chunk has been received on the data channel.
+     */
+    public static void chunkReceived(final int channelId, final int length) {
+        // Do nothing
+    }
+
+    /**
+     * A message has been reassembled from chunks.
+     */
+    public static void messageReassembled(final int channelId, final int length) {
+        // Do nothing
+    }
+
+    /**
+     * Data for a data channel has been encrypted.
+     */
+    public static void encrypted(final int channelId, final int length, final long start) {
+        // Do nothing
+    }
+
+    /**
+     * Data of a data channel has been decrypted.
+     */
+    public static void decrypted(final int channelId, final int length, final long start) {
+        // Do nothing
+    }
+
+    /**
+     * The handover to a data channel has been initiated.
+     */
+    public static void handoverStarted(final int channelId) {
+        // Do nothing
+    }
+
+    /**
+     * The handover to a data channel has been completed.
+     */
+    public static void handoverFinished(final int channelId, final long start) {
+        // Do nothing
+    }
+
+    /**
+     * Queued messages have been flushed after the handover.
+     */
+    public static void queueFlushed(final int channelId, final int messages, final long start) {
+        // Do nothing
+    }
+
+    /**
+     * A signalling transport closed the task due to an error.
+     */
+    public static void transportDied(final int channelId, @NonNull final String reason) {
+        // Do nothing
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tracing;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.Locale;
+
+/**
+ * A `MessageTracer` that breaks down the latency of signalling messages
+ * per stage. For each stage, it records the time elapsed since the
+ * previous stage the message passed into a histogram.
+ *
+ * Use one instance per transport, e.g.:
+ *
+ *     final LatencyBreakdown breakdown = new LatencyBreakdown();
+ *     final WebRTCTask task = new WebRTCTaskBuilder()
+ *         .withMessageTracer(breakdown)
+ *         .build();
+ *
+ * This class is thread-safe.
+ */
+public class LatencyBreakdown implements MessageTracer {
+    @NonNull private static final MessageStage[] STAGES = MessageStage.values();
+
+    @NonNull private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+    @NonNull private final LatencyHistogram inbound = new LatencyHistogram();
+    @NonNull private final LatencyHistogram outbound = new LatencyHistogram();
+
+    public LatencyBreakdown() {
+        for (int i = 0; i < this.stages.length; i++) {
+            this.stages[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onInbound(@NonNull final MessageTrace trace) {
+        this.record(trace, this.inbound);
+    }
+
+    @Override
+    public void onOutbound(@NonNull final MessageTrace trace) {
+        this.record(trace, this.outbound);
+    }
+
+    private synchronized void record(@NonNull final MessageTrace trace, @NonNull final LatencyHistogram total) {
+        long first = 0;
+        long previous = 0;
+        boolean started = false;
+        for (final MessageStage stage : STAGES) {
+            if (stage.isOutbound() != trace.isOutbound() || !trace.hasPassed(stage)) {
+                continue;
+            }
+            final long timestamp = trace.getTimestamp(stage);
+            if (started) {
+                this.stages[stage.ordinal()].record(timestamp - previous);
+            } else {
+                first = timestamp;
+                started = true;
+            }
+            previous = timestamp;
+        }
+        if (started) {
+            total.record(previous - first);
+        }
+    }
+
+    /**
+     * Return a copy of the histogram of the time elapsed until a stage has
+     * been passed (since the previous stage).
+     */
+    @NonNull public synchronized LatencyHistogram getHistogram(@NonNull final MessageStage stage) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(this.stages[stage.ordinal()]);
+        return histogram;
+    }
+
+    /**
+     * Return a copy of the histogram of the time elapsed from the first to
+     * the last stage of incoming or outgoing messages.
+     */
+    @NonNull public synchronized LatencyHistogram getTotal(final boolean outbound) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(outbound ? this.outbound : this.inbound);
+        return histogram;
+    }
+
+    /**
+     * Return the breakdown as a human readable table.
+     */
+    @Override
+    @NonNull public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final boolean outbound : new boolean[] { false, true }) {
+            final LatencyHistogram total = outbound ? this.outbound : this.inbound;
+            builder.append(outbound ? "Outbound" : "Inbound")
+                .append(String.format(Locale.ROOT, " (%d messages)\n", total.getCount()));
+            for (final MessageStage stage : STAGES) {
+                final LatencyHistogram histogram = this.stages[stage.ordinal()];
+                if (stage.isOutbound() == outbound && histogram.getCount() > 0) {
+                    append(builder, stage.name(), histogram);
+                }
+            }
+            append(builder, "TOTAL", total);
+        }
+        return builder.toString();
+    }
+
+    private static void append(
+        @NonNull final StringBuilder builder,
+        @NonNull final String name,
+        @NonNull final LatencyHistogram histogram
+    ) {
+        builder.append(String.format(Locale.ROOT, "  %-16s p50 %9.1f us, p99 %9.1f us, max %9.1f us\n",
+            name, histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3, histogram.getMax() / 1e3));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tracing;
+
+/**
+ * A stage of a signalling message passing through a `SignalingTransport`.
+ *
+ * Stages are listed in the order they are passed. Stages that do not apply
+ * to a message (e.g. if compression has not been negotiated) are skipped.
+ */
+public enum MessageStage {
+    // Inbound
+
+    /**
+     * The chunk completing the message has been received.
+     */
+    CHUNK_RECEIVED(false),
+
+    /**
+     * The message has been reassembled from its chunks.
+     */
+    REASSEMBLED(false),
+
+    /**
+     * The nonce of the message has been validated.
+     */
+    NONCE_VALIDATED(false),
+
+    /**
+     * The message has been decrypted.
+     */
+    DECRYPTED(false),
+
+    /**
+     * The message has been decompressed.
+     */
+    DECOMPRESSED(false),
+
+    /**
+     * The message has been queued since the peer did not request the
+     * handover yet.
+     */
+    QUEUED(false),
+
+    /**
+     * The message has been handed to the signalling instance.
+     */
+    DISPATCHED(false),
+
+    // Outbound
+
+    /**
+     * The message has been submitted for sending.
+     */
+    SUBMITTED(true),
+
+    /**
+     * The message has been compressed.
+     */
+    COMPRESSED(true),
+
+    /**
+     * The message has been encrypted.
+     */
+    ENCRYPTED(true),
+
+    /**
+     * The chunks of the message have been scheduled.
+     */
+    SCHEDULED(true),
+
+    /**
+     * The last chunk of the message has been handed to the data channel.
+     */
+    SENT(true);
+
+    private final boolean outbound;
+
+    MessageStage(final boolean outbound) {
+        this.outbound = outbound;
+    }
+
+    /**
+     * Return whether this is a stage of outgoing messages.
+     */
+    public boolean isOutbound() {
+        return this.outbound;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tracing;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The timestamps at which a single signalling message passed the stages
+ * of a `SignalingTransport`.
+ *
+ * This class is NOT thread-safe.
+ */
+public final class MessageTrace {
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final boolean outbound;
+    private final int length;
+    @NonNull private final long[] timestamps = new long[MessageStage.values().length];
+
+    /**
+     * Create a trace.
+     *
+     * @param outbound Whether the message is outgoing.
+     * @param length The length of the message in bytes.
+     */
+    public MessageTrace(final boolean outbound, final int length) {
+        this.outbound = outbound;
+        this.length = length;
+        Arrays.fill(this.timestamps, UNSET);
+    }
+
+    /**
+     * Record that the message passed a stage now.
+     */
+    public void mark(@NonNull final MessageStage stage) {
+        this.mark(stage, System.nanoTime());
+    }
+
+    /**
+     * Record that the message passed a stage at the given time.
+     *
+     * @param stage The stage.
+     * @param nanoTime The time as returned by `System.nanoTime`.
+     */
+    public void mark(@NonNull final MessageStage stage, final long nanoTime) {
+        this.timestamps[stage.ordinal()] = nanoTime;
+    }
+
+    public boolean isOutbound() {
+        return this.outbound;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Return whether the message passed a stage.
+     */
+    public boolean hasPassed(@NonNull final MessageStage stage) {
+        return this.timestamps[stage.ordinal()] != UNSET;
+    }
+
+    /**
+     * Return the time at which the message passed a stage.
+     *
+     * @throws IllegalArgumentException in case the message did not pass the
+     *   stage.
+     */
+    public long getTimestamp(@NonNull final MessageStage stage) {
+        final long timestamp = this.timestamps[stage.ordinal()];
+        if (timestamp == UNSET) {
+            throw new IllegalArgumentException("Message did not pass stage " + stage);
+        }
+        return timestamp;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tracing;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * Receives the traces of signalling messages passing through a
+ * `SignalingTransport`.
+ *
+ * The methods may be called from any thread that sends or receives
+ * messages and should return quickly.
+ */
+public interface MessageTracer {
+    /**
+     * An incoming message has been handed to the signalling instance.
+     */
+    void onInbound(@NonNull MessageTrace trace);
+
+    /**
+     * The last chunk of an outgoing message has been handed to the data
+     * channel.
+     */
+    void onOutbound(@NonNull MessageTrace trace);
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the chunks sent and received by a `SignalingTransport` into a
+ * compact, append-only file which can be read back by a `ChunkReplayer`.
+ *
+ * The file starts with the magic bytes "SRCR" and a version byte, followed
+ * by one record per chunk:
+ *
+ * - Direction (1 byte): 0 for incoming, 1 for outgoing chunks
+ * - Nanoseconds since the previous record (varint)
+ * - Length of the chunk (varint)
+ * - Length of the captured bytes (varint)
+ * - The captured bytes
+ *
+ * Records are gathered in a buffer and written once it is full (or on
+ * `flush` and `close`), so recording a chunk usually involves a single
+ * copy and no system call. To limit the amount of data written, only the
+ * first `captureLength` bytes of each chunk can be captured. If writing
+ * fails, recording stops silently so that the session is not affected.
+ *
+ * This class is thread-safe.
+ */
+public class ChunkRecorder implements Closeable {
+    // Logging
+    @NonNull private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC.ChunkRecorder");
+
+    // Format
+    @NonNull static final byte[] MAGIC = { 'S', 'R', 'C', 'R' };
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+    static final byte INCOMING = 0;
+    static final byte OUTGOING = 1;
+    static final int MAX_RECORD_HEADER_LENGTH = 1 + 10 + 5 + 5;
+
+    // Length of the record buffer
+    private static final int BUFFER_LENGTH = 65536;
+
+    @Nullable private FileChannel channel;
+    @NonNull private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+    private final int captureLength;
+    private long lastTime;
+
+    /**
+     * Create a recorder capturing chunks completely.
+     *
+     * @param file The file to record into. An existing file will be
+     *   truncated.
+     *
+     * @throws IOException in case the file could not be created.
+     */
+    public ChunkRecorder(@NonNull final File file) throws IOException {
+        this(file, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a recorder.
+     *
+     * @param file The file to record into. An existing file will be
+     *   truncated.
+     * @param captureLength The maximum amount of bytes captured per chunk.
+     *   Use 0 to record lengths and timings only.
+     *
+     * @throws IOException in case the file could not be created.
+     * @throws IllegalArgumentException in case the capture length is
+     *   negative.
+     */
+    public ChunkRecorder(@NonNull final File file, final int captureLength) throws IOException {
+        if (captureLength < 0) {
+            throw new IllegalArgumentException("Capture length may not be negative");
+        }
+        this.captureLength = captureLength;
+        this.channel = new FileOutputStream(file).getChannel();
+        this.buffer.put(MAGIC).put(VERSION);
+        this.lastTime = System.nanoTime();
+    }
+
+    /**
+     * Record a chunk that has been received on the underlying data channel.
+     *
+     * @param chunk The chunk. Its position will not be altered.
+     */
+    public void recordIncoming(@NonNull final ByteBuffer chunk) {
+        this.record(INCOMING, chunk);
+    }
+
+    /**
+     * Record a chunk that is about to be sent on the underlying data
+     * channel.
+     *
+     * @param chunk The chunk. Its position will not be altered.
+     */
+    public void recordOutgoing(@NonNull final ByteBuffer chunk) {
+        this.record(OUTGOING, chunk);
+    }
+
+    private synchronized void record(final byte direction, @NonNull final ByteBuffer chunk) {
+        if (this.channel == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final int length = chunk.remaining();
+        final int captured = Math.min(length, this.captureLength);
+        try {
+            // Write the header
+            if (this.buffer.remaining() < MAX_RECORD_HEADER_LENGTH) {
+                this.write();
+            }
+            this.buffer.put(direction);
+            writeVarint(this.buffer, Math.max(0, now - this.lastTime));
+            writeVarint(this.buffer, length);
+            writeVarint(this.buffer, captured);
+            this.lastTime = now;
+
+            // Write the captured bytes, bypassing the buffer if they do not
+            // fit
+            final ByteBuffer bytes = chunk.duplicate();
+            bytes.limit(bytes.position() + captured);
+            if (captured > this.buffer.remaining()) {
+                this.write();
+                while (bytes.hasRemaining()) {
+                    this.channel.write(bytes);
+                }
+            } else {
+                this.buffer.put(bytes);
+            }
+        } catch (IOException error) {
+            LOG.warn("Unable to record chunk, stopping:", error);
+            this.closeChannel();
+        }
+    }
+
+    /**
+     * Write all buffered records to the file.
+     */
+    public synchronized void flush() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.write();
+        } catch (IOException error) {
+            LOG.warn("Unable to flush records, stopping:", error);
+            this.closeChannel();
+        }
+    }
+
+    /**
+     * Write all buffered records and close the file. Further chunks will
+     * not be recorded.
+     */
+    @Override
+    public synchronized void close() {
+        this.flush();
+        this.closeChannel();
+    }
+
+    private void write() throws IOException {
+        assert this.channel != null;
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    private void closeChannel() {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException error) {
+            LOG.warn("Unable to close recording:", error);
+        }
+        this.channel = null;
+    }
+
+    private static void writeVarint(@NonNull final ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the chunks read back by a `ChunkReplayer`.
+ */
+public interface ChunkReplayListener {
+    /**
+     * Will be called for each recorded chunk, in the recorded order.
+     *
+     * @param outgoing Whether the chunk has been sent (`true`) or received
+     *   (`false`).
+     * @param time Nanoseconds since the recording started.
+     * @param length The original length of the chunk.
+     * @param chunk The captured bytes of the chunk, which may be less than
+     *   its original length. This is a read-only view into the recording
+     *   and MUST be copied if it is needed after the call returned.
+     */
+    void onChunk(boolean outgoing, long time, int length, @NonNull ByteBuffer chunk);
+}
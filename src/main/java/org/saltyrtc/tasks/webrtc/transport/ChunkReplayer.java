@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
+import org.saltyrtc.tasks.webrtc.exceptions.UntiedException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads back a recording of a `ChunkRecorder` through memory-mapped
+ * windows, either at maximum speed or paced according to the recorded
+ * timestamps.
+ *
+ * An incomplete record at the end of the file (e.g. because the recording
+ * process crashed) is ignored.
+ *
+ * This class is NOT thread-safe.
+ */
+public class ChunkReplayer implements Closeable {
+    // Size of a mapped window
+    static final int WINDOW_LENGTH = 64 * 1024 * 1024;
+
+    @NonNull private final RandomAccessFile file;
+    @NonNull private final FileChannel channel;
+    private final long length;
+    @Nullable private MappedByteBuffer window;
+    private long windowStart = 0;
+
+    /**
+     * Open a recording.
+     *
+     * @param file The recording.
+     *
+     * @throws IOException in case the file could not be opened.
+     * @throws ValidationError in case the file is not a recording of a
+     *   supported version.
+     */
+    public ChunkReplayer(@NonNull final File file) throws IOException, ValidationError {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = this.channel.size();
+
+        // Validate header
+        final byte[] header = new byte[ChunkRecorder.HEADER_LENGTH];
+        if (this.length < header.length) {
+            this.file.close();
+            throw new ValidationError("Recording too short");
+        }
+        this.map(0, header.length).get(header);
+        if (!Arrays.equals(Arrays.copyOf(header, ChunkRecorder.MAGIC.length), ChunkRecorder.MAGIC)) {
+            this.file.close();
+            throw new ValidationError("Not a chunk recording");
+        }
+        if (header[ChunkRecorder.MAGIC.length] != ChunkRecorder.VERSION) {
+            this.file.close();
+            throw new ValidationError("Unsupported recording version: " + header[ChunkRecorder.MAGIC.length]);
+        }
+    }
+
+    /**
+     * Hand all recorded chunks to a listener.
+     *
+     * @param listener The listener receiving the chunks.
+     * @param speed The speed relative to the recording, e.g. `1` for the
+     *   original speed. Use `0` to replay at maximum speed.
+     * @return the number of replayed chunks.
+     *
+     * @throws IOException in case the file could not be read.
+     * @throws ValidationError in case a record is malformed.
+     * @throws InterruptedException in case the thread has been interrupted
+     *   while pacing.
+     */
+    public long replay(
+        @NonNull final ChunkReplayListener listener,
+        final double speed
+    ) throws IOException, ValidationError, InterruptedException {
+        final long start = System.nanoTime();
+        long position = ChunkRecorder.HEADER_LENGTH;
+        long time = 0;
+        long count = 0;
+        while (position < this.length) {
+            // Read the record header
+            final ByteBuffer buffer = this.map(
+                position, Math.min(ChunkRecorder.MAX_RECORD_HEADER_LENGTH, this.length - position));
+            final int offset = buffer.position();
+            final byte direction;
+            final long delta;
+            final long length;
+            final long captured;
+            try {
+                direction = buffer.get();
+                delta = readVarint(buffer);
+                length = readVarint(buffer);
+                captured = readVarint(buffer);
+            } catch (BufferUnderflowException error) {
+                // Incomplete record
+                break;
+            }
+            if ((direction != ChunkRecorder.INCOMING && direction != ChunkRecorder.OUTGOING)
+                || delta < 0 || length < 0 || length > Integer.MAX_VALUE || captured < 0 || captured > length) {
+                throw new ValidationError("Malformed record at offset " + position);
+            }
+            final int headerLength = buffer.position() - offset;
+            if (position + headerLength + captured > this.length) {
+                // Incomplete record
+                break;
+            }
+
+            // Pace
+            time += delta;
+            if (speed > 0) {
+                final long wait = start + (long) (time / speed) - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+
+            // Hand out the captured bytes
+            final ByteBuffer chunk = this.map(position, headerLength + captured);
+            chunk.position(chunk.position() + headerLength);
+            chunk.limit(chunk.position() + (int) captured);
+            listener.onChunk(
+                direction == ChunkRecorder.OUTGOING, time, (int) length, chunk.slice().asReadOnlyBuffer());
+            position += headerLength + captured;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Feed all recorded incoming chunks into a signalling transport link,
+     * as if they had been received on the underlying data channel.
+     *
+     * Note: The transport must be able to decrypt the chunks, i.e. it must
+     *       use the keys of the recorded session.
+     *
+     * @param link The link of the transport.
+     * @param speed The speed relative to the recording, e.g. `1` for the
+     *   original speed. Use `0` to replay at maximum speed.
+     * @return the number of replayed chunks.
+     *
+     * @throws IOException in case the file could not be read.
+     * @throws ValidationError in case a record is malformed.
+     * @throws InterruptedException in case the thread has been interrupted
+     *   while pacing.
+     * @throws IllegalStateError in case a chunk has not been captured
+     *   completely or the link is not tied to a transport.
+     */
+    public long replayInto(
+        @NonNull final SignalingTransportLink link,
+        final double speed
+    ) throws IOException, ValidationError, InterruptedException {
+        final long[] count = { 0 };
+        this.replay((outgoing, time, length, chunk) -> {
+            if (outgoing) {
+                return;
+            }
+            if (chunk.remaining() != length) {
+                throw new IllegalStateError("Chunk has not been captured completely");
+            }
+
+            // Copy since the link takes ownership of the chunk
+            final ByteBuffer copy = ByteBuffer.allocate(length);
+            copy.put(chunk);
+            copy.flip();
+            try {
+                link.receive(copy);
+            } catch (UntiedException error) {
+                throw new IllegalStateError("Link is not tied to a transport");
+            }
+            count[0]++;
+        }, speed);
+        return count[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.file.close();
+    }
+
+    /**
+     * Return a buffer positioned at the given offset with at least `size`
+     * bytes remaining, remapping the window if necessary.
+     */
+    @NonNull private ByteBuffer map(final long position, final long size) throws IOException {
+        if (this.window == null
+            || position < this.windowStart
+            || position + size > this.windowStart + this.window.capacity()) {
+            this.windowStart = position;
+            final long windowSize = Math.min(Math.max(WINDOW_LENGTH, size), this.length - position);
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.windowStart, windowSize);
+        }
+        final ByteBuffer buffer = this.window.duplicate();
+        buffer.position((int) (position - this.windowStart));
+        return buffer;
+    }
+
+    private static long readVarint(@NonNull final ByteBuffer buffer) throws ValidationError {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ValidationError("Varint too long");
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.chunkedDc.Chunker;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Determines the order in which chunks of pending outgoing messages are
+ * being sent.
+ *
+ * Messages are queued per priority class and sent in order within a class.
+ * A message of a higher class overtakes pending messages of lower classes:
+ *
+ * - If interleaving is allowed (i.e. each chunk identifies its message),
+ *   it will be sent right after the current chunk.
+ * - Otherwise, it will be sent once the message currently being sent is
+ *   complete.
+ *
+ * A source may also produce a sequence of messages (e.g. the segments of a
+ * stream), in which case it can be preempted between these messages.
+ *
+ * This class is NOT thread-safe.
+ */
+final class ChunkScheduler {
+    /**
+     * Produces the chunks of a single message or of a sequence of messages.
+     */
+    interface ChunkSource {
+        /**
+         * Return whether there are chunks left.
+         */
+        boolean hasNext();
+
+        /**
+         * Return the next chunk or `null` in case the source failed and
+         * will not produce any further chunks.
+         */
+        @Nullable ByteBuffer next();
+
+        /**
+         * Return whether the chunk returned last completed a message. Only
+         * relevant for sources producing a sequence of messages.
+         */
+        boolean isAtMessageBoundary();
+    }
+
+    /**
+     * Return a chunk source for a chunked-dc chunker.
+     */
+    @NonNull static ChunkSource of(@NonNull final Chunker chunker) {
+        return new ChunkSource() {
+            @Override
+            public boolean hasNext() {
+                return chunker.hasNext();
+            }
+
+            @Override
+            @NonNull public ByteBuffer next() {
+                return chunker.next();
+            }
+
+            @Override
+            public boolean isAtMessageBoundary() {
+                return !chunker.hasNext();
+            }
+        };
+    }
+
+    private final boolean interleave;
+    @NonNull private final ArrayDeque<ChunkSource>[] queues;
+    @Nullable private ChunkSource current;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param interleave Whether chunks of different messages may be
+     *   interleaved.
+     */
+    @SuppressWarnings("unchecked")
+    ChunkScheduler(final boolean interleave) {
+        this.interleave = interleave;
+        this.queues = new ArrayDeque[MessagePriority.values().length];
+        for (int i = 0; i < this.queues.length; ++i) {
+            this.queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Enqueue the chunks of a message.
+     */
+    void enqueue(@NonNull final ChunkSource source, @NonNull final MessagePriority priority) {
+        this.queues[priority.ordinal()].add(source);
+    }
+
+    /**
+     * Return whether there are no pending chunks.
+     */
+    boolean isEmpty() {
+        if (this.current != null) {
+            return false;
+        }
+        for (final ArrayDeque<ChunkSource> queue : this.queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the next chunk to be sent or `null` if there is none.
+     */
+    @Nullable ByteBuffer poll() {
+        while (true) {
+            // Continue the current message unless it may be preempted
+            ChunkSource source = this.interleave ? null : this.current;
+            if (source == null) {
+                for (final ArrayDeque<ChunkSource> queue : this.queues) {
+                    if (!queue.isEmpty()) {
+                        source = queue.peek();
+                        break;
+                    }
+                }
+                if (source == null) {
+                    return null;
+                }
+            }
+
+            // Get chunk and dequeue the source once it is exhausted
+            final ByteBuffer chunk = source.next();
+            if (chunk != null && source.hasNext()) {
+                this.current = source.isAtMessageBoundary() ? null : source;
+            } else {
+                this.current = null;
+                for (final ArrayDeque<ChunkSource> queue : this.queues) {
+                    if (queue.remove(source)) {
+                        break;
+                    }
+                }
+            }
+            if (chunk != null) {
+                return chunk;
+            }
+        }
+    }
+
+    /**
+     * Discard all pending chunks.
+     */
+    void clear() {
+        this.current = null;
+        for (final ArrayDeque<ChunkSource> queue : this.queues) {
+            queue.clear();
+        }
+    }
+}
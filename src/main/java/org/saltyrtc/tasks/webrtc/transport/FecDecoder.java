@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Unwraps chunks created by the `FecEncoder` and reconstructs a single lost
+ * chunk per group from the group's parity chunk.
+ *
+ * Data chunks are handed out immediately. A reconstructed chunk is handed
+ * out as soon as all other chunks and the parity chunk of its group have
+ * arrived. Each chunk is handed out at most once, so a chunk arriving after
+ * it has been reconstructed is discarded. Only the most recent groups are
+ * tracked, chunks of older groups are discarded as if they had been lost.
+ *
+ * This class is NOT thread-safe.
+ */
+final class FecDecoder {
+    // Amount of groups being tracked
+    private static final int WINDOW = 16;
+
+    interface Listener {
+        /**
+         * A chunk has been received or reconstructed.
+         */
+        void onChunk(@NonNull ByteBuffer chunk);
+    }
+
+    /**
+     * Chunks and parity of a group.
+     */
+    private static final class Group {
+        int id;
+        boolean active = false;
+        boolean done;
+        int count;
+        int received;
+        int lengthXor;
+        @NonNull final ByteBuffer[] chunks;
+        @NonNull final boolean[] seen;
+        @Nullable ByteBuffer parity;
+
+        Group(final int groupSize) {
+            this.chunks = new ByteBuffer[groupSize];
+            this.seen = new boolean[groupSize];
+        }
+
+        void reset(final int id) {
+            this.id = id;
+            this.active = true;
+            this.done = false;
+            this.count = -1;
+            this.received = 0;
+            Arrays.fill(this.seen, false);
+            this.release();
+        }
+
+        void release() {
+            Arrays.fill(this.chunks, null);
+            this.parity = null;
+        }
+    }
+
+    private final int groupSize;
+    @NonNull private final Group[] groups = new Group[WINDOW];
+    @NonNull private final Listener listener;
+
+    /**
+     * Create a decoder.
+     *
+     * @param groupSize The maximum amount of chunks per group. Must match
+     *   the group size of the sending `FecEncoder`.
+     * @param listener Receives the unwrapped and reconstructed chunks.
+     */
+    FecDecoder(final int groupSize, @NonNull final Listener listener) {
+        this.groupSize = groupSize;
+        this.listener = listener;
+        for (int i = 0; i < WINDOW; i++) {
+            this.groups[i] = new Group(groupSize);
+        }
+    }
+
+    /**
+     * Add a chunk.
+     *
+     * @param chunk The chunk. It MUST be considered transferred.
+     *
+     * @throws IllegalArgumentException in case the chunk is invalid.
+     */
+    void add(@NonNull final ByteBuffer chunk) {
+        if (chunk.remaining() < FecEncoder.HEADER_LENGTH) {
+            throw new IllegalArgumentException("Chunk is missing the FEC header");
+        }
+        final byte type = chunk.get();
+        final int id = chunk.getInt();
+        final int index = chunk.get() & 0xff;
+        final int length = chunk.getInt();
+        final Group group = this.getGroup(id);
+
+        switch (type) {
+            case FecEncoder.TYPE_DATA: {
+                if (index >= this.groupSize || length != chunk.remaining()) {
+                    throw new IllegalArgumentException("Invalid FEC data chunk");
+                }
+                if (group == null || group.seen[index]) {
+                    // Too old or duplicate
+                    return;
+                }
+                final ByteBuffer data = chunk.slice();
+                group.seen[index] = true;
+                if (!group.done) {
+                    group.chunks[index] = data;
+                    group.received++;
+                }
+                this.listener.onChunk(data.duplicate());
+                break;
+            }
+            case FecEncoder.TYPE_PARITY: {
+                if (index < 1 || index > this.groupSize) {
+                    throw new IllegalArgumentException("Invalid FEC parity chunk");
+                }
+                if (group != null && !group.done && group.parity == null) {
+                    group.parity = chunk.slice();
+                    group.count = index;
+                    group.lengthXor = length;
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown FEC chunk type: " + (type & 0xff));
+        }
+
+        if (group != null && !group.done) {
+            this.update(group);
+        }
+    }
+
+    /**
+     * Return the group with the given id or `null` in case the group is too
+     * old to be tracked.
+     */
+    @Nullable private Group getGroup(final int id) {
+        final Group group = this.groups[id & (WINDOW - 1)];
+        if (group.active && group.id == id) {
+            return group;
+        }
+        if (group.active && id - group.id < 0) {
+            return null;
+        }
+        group.reset(id);
+        return group;
+    }
+
+    /**
+     * Complete the group or reconstruct the missing chunk if possible.
+     */
+    private void update(@NonNull final Group group) {
+        if (group.count < 0) {
+            return;
+        }
+        if (group.received >= group.count) {
+            // Nothing is missing
+            group.done = true;
+            group.release();
+            return;
+        }
+        if (group.received < group.count - 1) {
+            return;
+        }
+
+        // Reconstruct the missing chunk from the parity and all other chunks
+        final ByteBuffer parity = group.parity;
+        int length = group.lengthXor;
+        int missingIndex = -1;
+        for (int i = 0; i < group.count; i++) {
+            if (group.chunks[i] != null) {
+                length ^= group.chunks[i].remaining();
+            } else {
+                missingIndex = i;
+            }
+        }
+        group.done = true;
+        if (parity == null || missingIndex < 0 || length < 0 || length > parity.remaining()) {
+            group.release();
+            throw new IllegalArgumentException("Invalid FEC parity chunk");
+        }
+        final byte[] missing = new byte[length];
+        parity.get(missing);
+        for (int i = 0; i < group.count; i++) {
+            final ByteBuffer data = group.chunks[i];
+            if (data != null) {
+                final int end = Math.min(length, data.remaining());
+                for (int j = 0; j < end; j++) {
+                    missing[j] ^= data.get(j);
+                }
+            }
+        }
+        group.release();
+        group.seen[missingIndex] = true;
+        this.listener.onChunk(ByteBuffer.wrap(missing));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Protects outgoing chunks by XOR parity, so that a single lost chunk per
+ * group can be reconstructed by the `FecDecoder` without retransmission.
+ *
+ * Consecutive chunks are combined into groups of up to `groupSize` chunks.
+ * Each group is followed by a parity chunk which contains the XOR of all
+ * chunks of the group (padded with zeroes to the longest chunk).
+ *
+ * All chunks are prefixed with the following header:
+ *
+ *     | type (1) | group (4) | index (1) | length (4) |
+ *
+ * - Data chunks (type 0) contain the index of the chunk within its group
+ *   and the length of the chunk.
+ * - Parity chunks (type 1) contain the amount of chunks in the group and
+ *   the XOR of the lengths of all chunks in the group.
+ *
+ * This class is NOT thread-safe.
+ */
+final class FecEncoder {
+    static final int HEADER_LENGTH = 10;
+    static final byte TYPE_DATA = 0;
+    static final byte TYPE_PARITY = 1;
+    static final int MAX_GROUP_SIZE = 255;
+
+    private final int groupSize;
+    @NonNull private final byte[] parity;
+    private int group = 0;
+    private int count = 0;
+    private int parityLength = 0;
+    private int lengthXor = 0;
+
+    /**
+     * Create an encoder.
+     *
+     * @param groupSize The maximum amount of chunks per group.
+     * @param maxChunkLength The maximum length of a chunk (excluding the
+     *   header).
+     *
+     * @throws IllegalArgumentException in case the group size is not between
+     *   1 and `MAX_GROUP_SIZE`.
+     */
+    FecEncoder(final int groupSize, final int maxChunkLength) {
+        if (groupSize < 1 || groupSize > MAX_GROUP_SIZE) {
+            throw new IllegalArgumentException("Group size must be between 1 and " + MAX_GROUP_SIZE);
+        }
+        this.groupSize = groupSize;
+        this.parity = new byte[maxChunkLength];
+    }
+
+    /**
+     * Return the chunk prefixed with the header and add it to the parity of
+     * the current group.
+     *
+     * @param chunk The chunk. Its position will not be modified.
+     *
+     * @throws IllegalArgumentException in case the chunk is too long.
+     */
+    @NonNull ByteBuffer encode(@NonNull final ByteBuffer chunk) {
+        final int length = chunk.remaining();
+        if (length > this.parity.length) {
+            throw new IllegalArgumentException("Chunk exceeds the maximum chunk length");
+        }
+
+        // Update parity
+        final int position = chunk.position();
+        for (int i = 0; i < length; i++) {
+            this.parity[i] ^= chunk.get(position + i);
+        }
+        this.parityLength = Math.max(this.parityLength, length);
+        this.lengthXor ^= length;
+
+        // Prefix header
+        final ByteBuffer data = ByteBuffer.allocate(HEADER_LENGTH + length);
+        data.put(TYPE_DATA).putInt(this.group).put((byte) this.count).putInt(length);
+        data.put(chunk.duplicate());
+        data.flip();
+        this.count++;
+        return data;
+    }
+
+    /**
+     * Return whether the current group is full and needs to be finished.
+     */
+    boolean isGroupFull() {
+        return this.count == this.groupSize;
+    }
+
+    /**
+     * Return whether the current group contains chunks.
+     */
+    boolean hasPending() {
+        return this.count > 0;
+    }
+
+    /**
+     * Return the parity chunk of the current group and start a new group.
+     */
+    @NonNull ByteBuffer finish() {
+        final ByteBuffer chunk = ByteBuffer.allocate(HEADER_LENGTH + this.parityLength);
+        chunk.put(TYPE_PARITY).putInt(this.group).put((byte) this.count).putInt(this.lengthXor);
+        chunk.put(this.parity, 0, this.parityLength);
+        chunk.flip();
+
+        // Reset
+        Arrays.fill(this.parity, 0, this.parityLength, (byte) 0);
+        this.group++;
+        this.count = 0;
+        this.parityLength = 0;
+        this.lengthXor = 0;
+        return chunk;
+    }
+}
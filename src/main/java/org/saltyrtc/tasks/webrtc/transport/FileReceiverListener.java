@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.io.File;
+
+/**
+ * Provides destinations for and receives events of incoming files of a
+ * `MappedFileReceiver`.
+ */
+public interface FileReceiverListener {
+    /**
+     * Will be called when the first segment of a stream arrives.
+     *
+     * @param streamId The stream id.
+     * @return the destination file or `null` to discard the stream. An
+     *   existing file will only be truncated to the announced length, so a
+     *   resumed transfer can be written into the partially received file.
+     */
+    @Nullable File getDestination(int streamId);
+
+    /**
+     * Will be called after `getDestination` returned a file.
+     *
+     * @param streamId The stream id.
+     * @return the length of the file as announced by the sender, e.g. in
+     *   an application message preceding the transfer. Segments beyond
+     *   this length are rejected and abort the transfer.
+     */
+    long getLength(int streamId);
+
+    /**
+     * A file has been received completely.
+     *
+     * @param streamId The stream id.
+     * @param file The destination file.
+     * @param length The length of the file.
+     */
+    void onFileReceived(int streamId, @NonNull File file, long length);
+
+    /**
+     * A file transfer has been aborted, either by the sender or due to a
+     * local error.
+     *
+     * @param streamId The stream id.
+     * @param file The destination file.
+     * @param resumeOffset The offset up to which all data has been written.
+     *   The sender can resume the transfer from there.
+     */
+    void onFileAborted(int streamId, @NonNull File file, long resumeOffset);
+
+    /**
+     * An incoming chunk, message or segment was invalid and has been
+     * discarded.
+     *
+     * @param error The reason.
+     */
+    void onError(@NonNull Exception error);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+/**
+ * A `SignalingTransportHandler` that additionally exposes the buffered
+ * amount of the underlying data channel.
+ *
+ * If the application provides such a handler, the signalling transport
+ * stops handing out chunks while the buffered amount is at or above the
+ * high threshold, so that pending messages of a higher priority can
+ * overtake large messages of a lower priority. In that case, the
+ * application MUST call `SignalingTransportLink.bufferedAmountLow` once the
+ * buffered amount of the data channel has decreased (e.g. when the
+ * `bufferedamountlow` event fires).
+ */
+public interface FlowControlledSignalingTransportHandler extends SignalingTransportHandler {
+    /**
+     * Will be called to retrieve the amount of bytes currently buffered by
+     * the underlying data channel.
+     */
+    long getBufferedAmount();
+
+    /**
+     * Will be called to retrieve the amount of buffered bytes at which the
+     * signalling transport pauses sending.
+     */
+    long getBufferedAmountHighThreshold();
+}
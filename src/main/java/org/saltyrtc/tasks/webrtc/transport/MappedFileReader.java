@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a file through memory-mapped windows.
+ *
+ * Each read copies straight from the mapped region into the destination
+ * buffer, so no intermediate buffer or system call per read is involved.
+ */
+final class MappedFileReader implements ReadableByteChannel {
+    // Size of a mapped window
+    static final int WINDOW_LENGTH = 16 * 1024 * 1024;
+
+    @NonNull private final RandomAccessFile file;
+    @NonNull private final FileChannel channel;
+    private final long length;
+    private long position;
+    @Nullable private MappedByteBuffer window;
+    private long windowStart = 0;
+    private boolean open = true;
+
+    /**
+     * Open a file for reading.
+     *
+     * @param file The file.
+     * @param offset The position at which reading starts.
+     *
+     * @throws IOException in case the file could not be opened.
+     * @throws IllegalArgumentException in case the offset exceeds the file.
+     */
+    MappedFileReader(@NonNull final File file, final long offset) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = this.channel.size();
+        if (offset < 0 || offset > this.length) {
+            this.file.close();
+            throw new IllegalArgumentException("Offset " + offset + " exceeds file length " + this.length);
+        }
+        this.position = offset;
+    }
+
+    @Override
+    public int read(@NonNull final ByteBuffer destination) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        if (this.position >= this.length) {
+            return -1;
+        }
+
+        // Map the window containing the current position
+        if (this.window == null || this.position >= this.windowStart + this.window.capacity()) {
+            this.windowStart = this.position;
+            final long size = Math.min(WINDOW_LENGTH, this.length - this.position);
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.windowStart, size);
+        }
+
+        // Copy from the window
+        final ByteBuffer source = this.window.duplicate();
+        source.position((int) (this.position - this.windowStart));
+        final int length = Math.min(source.remaining(), destination.remaining());
+        source.limit(source.position() + length);
+        destination.put(source);
+        this.position += length;
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Note: Mapped windows are released once they have been garbage
+        //       collected.
+        this.open = false;
+        this.window = null;
+        this.file.close();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.tasks.webrtc.exceptions.StacklessValidationError;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes incoming file streams sent by `SecureDataChannel.sendFile` into
+ * memory-mapped destination files.
+ *
+ * Usage:
+ *
+ *     channel.setListener(new SegmentReceiver(new MappedFileReceiver(listener)));
+ *
+ * Segments are copied straight from the decrypted message into the mapped
+ * region of the destination file. The receiver keeps track of the offset up
+ * to which a file has been written contiguously, so an interrupted
+ * transfer can be resumed from there.
+ */
+public class MappedFileReceiver implements SegmentListener {
+    // Logging
+    @NonNull private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC.MappedFileReceiver");
+
+    /**
+     * State of a file being received.
+     */
+    private static final class FileState {
+        @NonNull final File file;
+        @NonNull final RandomAccessFile access;
+        @NonNull final FileChannel channel;
+        final long length;
+        @Nullable MappedByteBuffer window;
+        long windowStart = 0;
+
+        // Received ranges (start -> end), merged where possible
+        @NonNull final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+        FileState(@NonNull final File file, final long length) throws IOException {
+            if (length < 0) {
+                throw new IllegalArgumentException("File length must not be negative");
+            }
+            this.file = file;
+            this.length = length;
+            this.access = new RandomAccessFile(file, "rw");
+            this.channel = this.access.getChannel();
+
+            // Cut off the remainder of a longer existing file
+            // Note: Windows are never mapped beyond the announced length,
+            //       so this is the only place the file needs to be
+            //       truncated and no window is mapped at this point.
+            try {
+                if (this.channel.size() > length) {
+                    this.access.setLength(length);
+                }
+            } catch (IOException error) {
+                this.access.close();
+                throw error;
+            }
+        }
+    }
+
+    @NonNull private final FileReceiverListener listener;
+    @NonNull private final Map<Integer, FileState> files = new HashMap<>();
+    @NonNull private final Set<Integer> discarded = new HashSet<>();
+
+    // Raised for segments beyond the announced length of the file
+    @NonNull private static final ValidationError SEGMENT_EXCEEDS_LENGTH = new StacklessValidationError(
+        "Segment exceeds the announced file length");
+
+    public MappedFileReceiver(@NonNull final FileReceiverListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onSegment(final int streamId, final long offset, @NonNull final ByteBuffer data) {
+        final FileState state = this.getState(streamId);
+        if (state == null) {
+            return;
+        }
+        try {
+            this.write(state, offset, data);
+        } catch (IOException | ValidationError error) {
+            LOG.error("Unable to write segment of stream " + streamId + ":", error);
+            this.abort(streamId, state);
+            this.discarded.add(streamId);
+            this.listener.onError(error);
+        }
+    }
+
+    @Override
+    public void onStreamEnd(final int streamId, final long length) {
+        // Note: Empty files have no segments, so the destination may not
+        //       have been opened, yet.
+        final FileState state = this.getState(streamId);
+        this.files.remove(streamId);
+        this.discarded.remove(streamId);
+        if (state == null) {
+            return;
+        }
+
+        // The stream must end at the announced length
+        if (length != state.length) {
+            final ValidationError error = new ValidationError(
+                "Stream length " + length + " differs from the announced file length " + state.length);
+            LOG.error("Unable to finish file of stream " + streamId + ":", error);
+            this.abort(streamId, state);
+            this.listener.onError(error);
+            return;
+        }
+
+        // Close the file
+        try {
+            state.window = null;
+            state.access.close();
+        } catch (IOException error) {
+            LOG.error("Unable to finish file of stream " + streamId + ":", error);
+            this.listener.onError(error);
+            this.listener.onFileAborted(streamId, state.file, resumeOffset(state));
+            return;
+        }
+        this.listener.onFileReceived(streamId, state.file, length);
+    }
+
+    @Override
+    public void onStreamAborted(final int streamId) {
+        this.discarded.remove(streamId);
+        final FileState state = this.files.remove(streamId);
+        if (state != null) {
+            this.abort(streamId, state);
+        }
+    }
+
+    @Override
+    public void onError(@NonNull final Exception error) {
+        this.listener.onError(error);
+    }
+
+    /**
+     * Abort all pending transfers, e.g. because the data channel has been
+     * closed. The listener will be notified with the resume offsets.
+     */
+    public void abortAll() {
+        for (final Map.Entry<Integer, FileState> entry : this.files.entrySet()) {
+            this.abort(entry.getKey(), entry.getValue());
+        }
+        this.files.clear();
+        this.discarded.clear();
+    }
+
+    @Nullable private FileState getState(final int streamId) {
+        if (this.discarded.contains(streamId)) {
+            return null;
+        }
+        FileState state = this.files.get(streamId);
+        if (state == null) {
+            final File file = this.listener.getDestination(streamId);
+            if (file == null) {
+                this.discarded.add(streamId);
+                return null;
+            }
+            try {
+                state = new FileState(file, this.listener.getLength(streamId));
+            } catch (IOException | IllegalArgumentException error) {
+                LOG.error("Unable to open destination of stream " + streamId + ":", error);
+                this.discarded.add(streamId);
+                this.listener.onError(error);
+                return null;
+            }
+            this.files.put(streamId, state);
+        }
+        return state;
+    }
+
+    private void write(
+        @NonNull final FileState state, final long offset, @NonNull final ByteBuffer data
+    ) throws IOException, ValidationError {
+        final long end = offset + data.remaining();
+        if (offset < 0 || end > state.length) {
+            throw SEGMENT_EXCEEDS_LENGTH;
+        }
+        long position = offset;
+        while (data.hasRemaining()) {
+            // Map the window containing the current position
+            if (state.window == null || position < state.windowStart
+                || position >= state.windowStart + state.window.capacity()) {
+                state.windowStart = position;
+                state.window = state.channel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.min(MappedFileReader.WINDOW_LENGTH, state.length - position));
+            }
+
+            // Copy into the window
+            final ByteBuffer target = state.window.duplicate();
+            target.position((int) (position - state.windowStart));
+            final int length = Math.min(target.remaining(), data.remaining());
+            final ByteBuffer source = data.duplicate();
+            source.limit(source.position() + length);
+            target.put(source);
+            data.position(data.position() + length);
+            position += length;
+        }
+        addRange(state.ranges, offset, end);
+    }
+
+    private void abort(final int streamId, @NonNull final FileState state) {
+        state.window = null;
+        try {
+            state.access.close();
+        } catch (IOException error) {
+            LOG.warn("Unable to close file of stream " + streamId + ":", error);
+        }
+        this.listener.onFileAborted(streamId, state.file, resumeOffset(state));
+    }
+
+    /**
+     * Add a range and merge it with adjacent ranges.
+     */
+    private static void addRange(@NonNull final TreeMap<Long, Long> ranges, long start, long end) {
+        final Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> after = ranges.ceilingEntry(start);
+        while (after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            ranges.remove(after.getKey());
+            after = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+    }
+
+    /**
+     * Return the offset up to which the file has been written contiguously.
+     */
+    private static long resumeOffset(@NonNull final FileState state) {
+        return state.ranges.isEmpty() ? 0 : state.ranges.firstEntry().getValue();
+    }
+}
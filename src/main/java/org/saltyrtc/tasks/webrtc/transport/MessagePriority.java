@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+/**
+ * Priority class of an outgoing message.
+ *
+ * Chunks of a message with a higher priority are sent before chunks of
+ * messages with a lower priority that are still pending. Messages of the
+ * same priority are sent in order.
+ */
+public enum MessagePriority {
+    /**
+     * Urgent and usually small messages (e.g. offers, answers and
+     * candidates).
+     */
+    HIGH,
+
+    /**
+     * Default priority.
+     */
+    NORMAL,
+
+    /**
+     * Bulk data that may be overtaken by any other message.
+     */
+    LOW
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.keystore.Box;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits an encrypted message into chunks for a reliable and ordered
+ * channel.
+ *
+ * Since the channel guarantees delivery and order, the header of each
+ * chunk only consists of the options byte (as in chunked-dc's reliable and
+ * ordered mode):
+ *
+ * - Bit 0: Set if this is the last chunk of a message
+ * - Bits 1-2: Mode, always set to `11`
+ * - Bits 3-7: Reserved, always zero
+ *
+ * The chunks are copied directly from the nonce and data of the box, so the
+ * box does not need to be serialised beforehand.
+ */
+final class OrderedChunker implements ChunkScheduler.ChunkSource {
+    static final int HEADER_LENGTH = 1;
+    static final int MODE_BITMASK = 0x06;
+    static final int END_OF_MESSAGE = 0x01;
+
+    @NonNull private final byte[] nonce;
+    @NonNull private final byte[] data;
+    private final int payloadLength;
+    private int offset = 0;
+
+    /**
+     * Create a chunker for a box.
+     *
+     * @param box The encrypted message.
+     * @param chunkLength The maximum length of a chunk including the header.
+     *
+     * @throws IllegalArgumentException in case the chunk length does not
+     *   leave room for any payload.
+     */
+    OrderedChunker(@NonNull final Box box, final int chunkLength) {
+        if (chunkLength <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("Chunk length must be greater than the chunking header");
+        }
+        this.nonce = box.getNonce();
+        this.data = box.getData();
+        this.payloadLength = chunkLength - HEADER_LENGTH;
+    }
+
+    /**
+     * Return whether there are chunks left to be created.
+     */
+    @Override
+    public boolean hasNext() {
+        return this.offset < this.nonce.length + this.data.length;
+    }
+
+    /**
+     * Return the next chunk.
+     *
+     * @throws NoSuchElementException in case all chunks have been created.
+     */
+    @Override
+    @NonNull public ByteBuffer next() {
+        final int total = this.nonce.length + this.data.length;
+        if (this.offset >= total) {
+            throw new NoSuchElementException("No chunks left");
+        }
+        final int length = Math.min(this.payloadLength, total - this.offset);
+        final boolean end = this.offset + length == total;
+
+        // Write header and the part of the nonce and data covered by this chunk
+        final byte[] chunk = new byte[HEADER_LENGTH + length];
+        chunk[0] = (byte) (MODE_BITMASK | (end ? END_OF_MESSAGE : 0));
+        int position = HEADER_LENGTH;
+        if (this.offset < this.nonce.length) {
+            final int nonceLength = Math.min(length, this.nonce.length - this.offset);
+            System.arraycopy(this.nonce, this.offset, chunk, position, nonceLength);
+            position += nonceLength;
+        }
+        final int dataOffset = Math.max(0, this.offset - this.nonce.length);
+        System.arraycopy(this.data, dataOffset, chunk, position, chunk.length - position);
+        this.offset += length;
+        return ByteBuffer.wrap(chunk);
+    }
+
+    @Override
+    public boolean isAtMessageBoundary() {
+        return !this.hasNext();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.chunkedDc.MessageListener;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles messages from chunks created by the `OrderedChunker`.
+ *
+ * A message that consists of a single chunk is handed out as a view on the
+ * chunk without being copied. Messages spanning multiple chunks are
+ * reassembled in a reused buffer, so a message is only valid until the
+ * listener returns.
+ */
+final class OrderedUnchunker {
+    // Reassembly buffers up to this size are kept for subsequent messages
+    private static final int MAX_POOLED_LENGTH = 262144;
+
+    @Nullable private MessageListener listener;
+    @NonNull private byte[] buffer = new byte[0];
+    private int length = 0;
+
+    /**
+     * Register the listener for reassembled messages.
+     */
+    void onMessage(@Nullable final MessageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Add a chunk.
+     *
+     * @param chunk The chunk. It MUST be considered transferred.
+     *
+     * @throws IllegalArgumentException in case the chunk is invalid.
+     */
+    void add(@NonNull final ByteBuffer chunk) {
+        if (chunk.remaining() < OrderedChunker.HEADER_LENGTH) {
+            throw new IllegalArgumentException("Chunk is missing the header");
+        }
+        final int options = chunk.get();
+        if ((options & ~OrderedChunker.END_OF_MESSAGE) != OrderedChunker.MODE_BITMASK) {
+            throw new IllegalArgumentException("Invalid chunk options: " + (options & 0xff));
+        }
+        final boolean end = (options & OrderedChunker.END_OF_MESSAGE) != 0;
+
+        // Fast path: The message consists of a single chunk
+        if (end && this.length == 0) {
+            this.emit(chunk.slice());
+            return;
+        }
+
+        // Append to the pending message
+        final int chunkLength = chunk.remaining();
+        if (this.buffer.length - this.length < chunkLength) {
+            final long required = (long) this.length + chunkLength;
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Message too large");
+            }
+            final byte[] grown = new byte[(int) Math.max(required, Math.min(
+                (long) this.buffer.length * 2, Integer.MAX_VALUE - 8))];
+            System.arraycopy(this.buffer, 0, grown, 0, this.length);
+            this.buffer = grown;
+        }
+        chunk.get(this.buffer, this.length, chunkLength);
+        this.length += chunkLength;
+        if (!end) {
+            return;
+        }
+
+        // Hand out the message and reset
+        // Note: The buffer is being reused, so the message is only valid
+        //       until the listener returns.
+        final ByteBuffer message = ByteBuffer.wrap(this.buffer, 0, this.length);
+        this.length = 0;
+        if (this.buffer.length > MAX_POOLED_LENGTH) {
+            this.buffer = new byte[0];
+        }
+        this.emit(message);
+    }
+
+    private void emit(@NonNull final ByteBuffer message) {
+        if (this.listener != null) {
+            this.listener.onMessage(message);
+        }
+    }
+}
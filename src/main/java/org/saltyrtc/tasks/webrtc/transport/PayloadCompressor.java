@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.exceptions.ValidationError;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression stage for signalling messages of a
+ * `SignalingTransport`. It is applied before encryption and after
+ * decryption.
+ *
+ * Signalling messages are MessagePack encoded and thus never start with the
+ * byte 0xc1 (reserved by MessagePack). A compressed payload is marked by
+ * that byte, followed by the uncompressed length (varint) and the raw
+ * DEFLATE stream. All other payloads are passed through unmodified, so
+ * uncompressed messages do not require a copy.
+ *
+ * Payloads below the threshold, beyond the maximum length or that do not
+ * shrink are not compressed. Compressed payloads announcing a length beyond
+ * the maximum are rejected before inflating them.
+ *
+ * This class is NOT thread-safe.
+ */
+public class PayloadCompressor {
+    private static final int MARKER = 0xc1;
+
+    // Marker and the maximum length of the varint of an int. Payloads not
+    // longer than this can never shrink.
+    private static final int MAX_HEADER_LENGTH = 6;
+
+    // The maximum compression ratio of DEFLATE is ~1032:1. Anything
+    // claiming more is malformed and rejected before allocating.
+    private static final int MAX_RATIO = 1032;
+
+    // Initial length of the buffer a payload is inflated into, relative to
+    // the compressed length. The buffer grows up to the announced length.
+    private static final int INITIAL_RATIO = 4;
+
+    // Largest array length that can safely be allocated
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    // Scratch buffers up to this size are kept for subsequent messages
+    private static final int MAX_POOLED_LENGTH = 262144;
+
+    private final int threshold;
+    private final int maxLength;
+    @NonNull private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    @NonNull private final Inflater inflater = new Inflater(true);
+    @NonNull private byte[] scratch = new byte[0];
+    private boolean closed = false;
+
+    /**
+     * Create a compressor.
+     *
+     * @param threshold Payloads with less bytes than this will not be
+     *   compressed.
+     * @param maxLength The maximum length of a compressed payload once
+     *   decompressed, e.g. the maximum message size of the transport.
+     */
+    public PayloadCompressor(final int threshold, final long maxLength) {
+        this.threshold = threshold;
+        this.maxLength = (int) Math.min(maxLength, MAX_LENGTH);
+    }
+
+    /**
+     * Compress a payload if it exceeds the threshold, does not exceed the
+     * maximum length and compression reduces its size.
+     *
+     * @return either a buffer wrapping `payload` itself or the compressed
+     *   payload. The latter is a view of an internal buffer that is only
+     *   valid until the next call.
+     */
+    @NonNull public ByteBuffer compress(@NonNull final byte[] payload) {
+        if (this.closed || payload.length < this.threshold || payload.length <= MAX_HEADER_LENGTH
+            || payload.length > this.maxLength) {
+            return ByteBuffer.wrap(payload);
+        }
+
+        // Write the marker and length into the scratch buffer. Compressing
+        // only pays off if the result is smaller than the payload, so the
+        // scratch buffer never needs to be larger than that.
+        final byte[] buffer = this.acquireScratch(payload.length);
+        buffer[0] = (byte) MARKER;
+        int offset = writeVarint(buffer, 1, payload.length);
+
+        // Deflate straight into the scratch buffer
+        this.deflater.reset();
+        this.deflater.setInput(payload);
+        this.deflater.finish();
+        while (!this.deflater.finished() && offset < payload.length) {
+            offset += this.deflater.deflate(buffer, offset, payload.length - offset);
+        }
+        if (!this.deflater.finished() || offset >= payload.length) {
+            // Not worth it
+            return ByteBuffer.wrap(payload);
+        }
+        return ByteBuffer.wrap(buffer, 0, offset);
+    }
+
+    /**
+     * Decompress a payload if it has been compressed.
+     *
+     * @return either the decompressed payload or `payload` itself.
+     *
+     * @throws ValidationError in case the compressed data is malformed.
+     */
+    @NonNull public byte[] decompress(@NonNull final byte[] payload) throws ValidationError {
+        if (payload.length == 0 || (payload[0] & 0xff) != MARKER) {
+            return payload;
+        }
+        if (this.closed) {
+            throw new ValidationError("Compressor has been closed");
+        }
+
+        // Read length
+        long length = 0;
+        int offset = 1;
+        for (int shift = 0; ; shift += 7) {
+            if (offset >= payload.length || shift > 28) {
+                throw new ValidationError("Invalid compressed payload length");
+            }
+            final int b = payload[offset++];
+            length |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        final int compressedLength = payload.length - offset;
+        if (length > (long) compressedLength * MAX_RATIO) {
+            throw new ValidationError("Invalid compressed payload length");
+        }
+        if (length > this.maxLength) {
+            throw new ValidationError("Compressed payload length exceeds the maximum message size");
+        }
+
+        // Inflate into a buffer that grows up to the announced length, so a
+        // payload announcing more than it contains does not allocate the
+        // announced length up front
+        byte[] decompressed = new byte[(int) Math.min(length, (long) compressedLength * INITIAL_RATIO)];
+        int position = 0;
+        this.inflater.reset();
+        this.inflater.setInput(payload, offset, compressedLength);
+        try {
+            while (!this.inflater.finished()) {
+                if (position == decompressed.length) {
+                    if (position == length) {
+                        break;
+                    }
+                    decompressed = Arrays.copyOf(decompressed, (int) Math.min(length, (long) position * 2));
+                }
+                final int inflated = this.inflater.inflate(decompressed, position, decompressed.length - position);
+                if (inflated == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    break;
+                }
+                position += inflated;
+            }
+            if (!this.inflater.finished() && this.inflater.inflate(new byte[1]) != 0) {
+                throw new ValidationError("Compressed payload exceeds announced length");
+            }
+        } catch (DataFormatException error) {
+            throw new ValidationError("Invalid compressed payload: " + error.getMessage());
+        }
+        if (!this.inflater.finished() || position != length || this.inflater.getRemaining() != 0) {
+            throw new ValidationError("Compressed payload does not match announced length");
+        }
+        return decompressed;
+    }
+
+    /**
+     * Release the underlying native resources. Payloads will no longer be
+     * compressed afterwards.
+     */
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.deflater.end();
+            this.inflater.end();
+            this.scratch = new byte[0];
+        }
+    }
+
+    @NonNull private byte[] acquireScratch(final int length) {
+        if (this.scratch.length >= length) {
+            return this.scratch;
+        }
+        final byte[] buffer = new byte[length];
+        if (length <= MAX_POOLED_LENGTH) {
+            this.scratch = buffer;
+        }
+        return buffer;
+    }
+
+    private static int writeVarint(@NonNull final byte[] buffer, int offset, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+}
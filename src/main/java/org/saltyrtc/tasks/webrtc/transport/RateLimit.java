@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+/**
+ * A rate limit for inbound data, e.g. chunks, bytes or task messages.
+ *
+ * The limit allows for a sustained `rate` per second. Bursts of up to
+ * `burst` units are permitted if the peer stayed below the rate before.
+ */
+public final class RateLimit {
+    private final long rate;
+    private final long burst;
+
+    /**
+     * Create a new rate limit.
+     *
+     * @param rate The sustained amount of units permitted per second.
+     * @param burst The maximum amount of units permitted at once. Note that
+     *   a single unit of more than this amount (e.g. a chunk larger than the
+     *   burst of a byte limit) will always be rejected.
+     *
+     * @throws IllegalArgumentException in case the rate or the burst is not
+     *   positive.
+     */
+    public RateLimit(final long rate, final long burst) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    public long getRate() {
+        return this.rate;
+    }
+
+    public long getBurst() {
+        return this.burst;
+    }
+
+    @Override
+    public String toString() {
+        return this.rate + "/s (burst " + this.burst + ")";
+    }
+}
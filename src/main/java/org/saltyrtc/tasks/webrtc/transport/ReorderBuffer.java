@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the order of messages received on an unordered data channel by
+ * the combined sequence number (CSN) of their nonces.
+ *
+ * Messages are held back in a ring indexed by the CSN until all preceding
+ * messages have arrived. A gap is skipped (and the missing messages are
+ * considered lost) once a held back message has waited for longer than the
+ * maximum wait time or the gap is wider than the capacity of the ring.
+ *
+ * Messages with a CSN below the next expected CSN (i.e. messages arriving
+ * after their gap has been skipped, or before the first message received)
+ * are delivered immediately.
+ *
+ * This class is NOT thread-safe.
+ */
+public class ReorderBuffer {
+    // Maximum capacity of the ring
+    public static final int MAX_CAPACITY = 65536;
+
+    public interface Listener {
+        /**
+         * A message is being delivered.
+         */
+        void onMessage(@NonNull ByteBuffer message);
+    }
+
+    // Ring of held back messages and their arrival times, indexed by CSN
+    private final int mask;
+    @NonNull private final ByteBuffer[] messages;
+    @NonNull private final long[] arrivals;
+    private final long maxWait;
+    @NonNull private final Listener listener;
+
+    // Next expected CSN and held back messages
+    private boolean started = false;
+    private long next;
+    private int buffered = 0;
+    private long oldestCsn;
+    private long oldestArrival;
+
+    // Statistics
+    private long skipped = 0;
+    private long late = 0;
+
+    /**
+     * Create a reorder buffer.
+     *
+     * @param capacity The maximum amount of messages held back. Will be
+     *   rounded up to the next power of two.
+     * @param maxWait The maximum time a message is held back.
+     * @param unit The unit of `maxWait`.
+     * @param listener Receives messages in order.
+     *
+     * @throws IllegalArgumentException in case the capacity is not between
+     *   1 and `MAX_CAPACITY` or the maximum wait time is negative.
+     */
+    public ReorderBuffer(
+        final int capacity,
+        final long maxWait,
+        @NonNull final TimeUnit unit,
+        @NonNull final Listener listener
+    ) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("Maximum wait time must not be negative");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size != capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.messages = new ByteBuffer[size];
+        this.arrivals = new long[size];
+        this.maxWait = unit.toNanos(maxWait);
+        this.listener = listener;
+    }
+
+    /**
+     * Add a received message. Delivers all messages that are in order or
+     * have waited for too long.
+     *
+     * @param csn The CSN of the message's nonce.
+     * @param message The message.
+     * @param now The current time in nanoseconds (see `System.nanoTime`).
+     */
+    public void add(final long csn, @NonNull final ByteBuffer message, final long now) {
+        if (!this.started) {
+            this.next = csn;
+            this.started = true;
+        }
+
+        if (csn < this.next) {
+            // Too late, deliver immediately
+            this.late++;
+            this.listener.onMessage(message);
+        } else {
+            // Make room in case the gap is wider than the ring
+            if (csn - this.next > this.mask) {
+                this.skipTo(csn - this.mask);
+            }
+
+            if (csn == this.next) {
+                // In order
+                this.next++;
+                this.listener.onMessage(message);
+                this.drain();
+            } else {
+                // Hold back (duplicates are being discarded)
+                final int index = (int) csn & this.mask;
+                if (this.messages[index] == null) {
+                    this.messages[index] = message;
+                    this.arrivals[index] = now;
+                    if (this.buffered++ == 0) {
+                        this.oldestCsn = csn;
+                        this.oldestArrival = now;
+                    }
+                }
+            }
+        }
+
+        this.expire(now);
+    }
+
+    /**
+     * Deliver all held back messages that have waited for too long,
+     * skipping the gaps in front of them.
+     *
+     * @param now The current time in nanoseconds (see `System.nanoTime`).
+     * @return the time in nanoseconds until the next held back message
+     *   expires, or `-1` in case no message is being held back.
+     */
+    public long expire(final long now) {
+        while (this.buffered > 0 && now - this.oldestArrival >= this.maxWait) {
+            this.skipTo(this.oldestCsn);
+        }
+        return this.buffered > 0 ? this.oldestArrival + this.maxWait - now : -1;
+    }
+
+    /**
+     * Return the amount of messages currently being held back.
+     */
+    public int getBuffered() {
+        return this.buffered;
+    }
+
+    /**
+     * Return the amount of CSNs that have been skipped because the message
+     * did not arrive in time.
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Return the amount of messages that arrived after their gap has been
+     * skipped.
+     */
+    public long getLate() {
+        return this.late;
+    }
+
+    /**
+     * Skip all gaps in front of a CSN, delivering held back messages in
+     * order. Afterwards, deliver all messages in order from that CSN on.
+     */
+    private void skipTo(final long csn) {
+        // Note: All held back messages are within [next, next + capacity),
+        //       so this loop ends after at most `capacity` iterations.
+        while (this.next < csn && this.buffered > 0) {
+            final int index = (int) this.next & this.mask;
+            final ByteBuffer message = this.messages[index];
+            this.next++;
+            if (message == null) {
+                this.skipped++;
+            } else {
+                this.messages[index] = null;
+                this.buffered--;
+                this.listener.onMessage(message);
+            }
+        }
+        if (this.next < csn) {
+            this.skipped += csn - this.next;
+            this.next = csn;
+        }
+        this.drain();
+    }
+
+    /**
+     * Deliver held back messages as long as they are in order.
+     */
+    private void drain() {
+        while (this.buffered > 0) {
+            final int index = (int) this.next & this.mask;
+            final ByteBuffer message = this.messages[index];
+            if (message == null) {
+                break;
+            }
+            this.messages[index] = null;
+            this.buffered--;
+            this.next++;
+            this.listener.onMessage(message);
+        }
+        if (this.buffered > 0 && this.oldestCsn < this.next) {
+            this.updateOldest();
+        }
+    }
+
+    /**
+     * Find the held back message that arrived first.
+     */
+    private void updateOldest() {
+        int remaining = this.buffered;
+        long csn = this.next;
+        boolean found = false;
+        while (remaining > 0) {
+            final int index = (int) csn & this.mask;
+            if (this.messages[index] != null) {
+                remaining--;
+                if (!found || this.arrivals[index] - this.oldestArrival < 0) {
+                    found = true;
+                    this.oldestArrival = this.arrivals[index];
+                    this.oldestCsn = csn;
+                }
+            }
+            csn++;
+        }
+    }
+}
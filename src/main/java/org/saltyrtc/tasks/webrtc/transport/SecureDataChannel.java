@@ -0,0 +1,860 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.chunkedDc.Chunker;
+import org.saltyrtc.chunkedDc.Common;
+import org.saltyrtc.chunkedDc.Unchunker;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.exceptions.OverflowException;
+import org.saltyrtc.client.exceptions.ProtocolException;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.tasks.webrtc.DataChannelNonce;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.exceptions.StacklessValidationError;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps an application data channel with the same security layer that is
+ * used for the handed over signalling channel: Messages are encrypted by a
+ * `DataChannelCryptoContext`, split into chunks and scheduled by priority.
+ *
+ * Usage:
+ *
+ * - Create an instance with the crypto context for the data channel's id
+ *   (see `WebRTCTask.createCryptoContext`).
+ * - Forward all messages received on the data channel to `receive`.
+ * - Forward decreases of the data channel's buffered amount to
+ *   `bufferedAmountLow`.
+ *
+ * Large payloads can be streamed segment by segment via `sendStream` and
+ * received incrementally by a `SegmentReceiver`.
+ *
+ * Messages received on an unordered data channel can be delivered in the
+ * order they have been sent by enabling a reorder buffer via `setReordering`.
+ *
+ * Unreliable data channels can be protected against the loss of single
+ * chunks via `setForwardErrorCorrection`.
+ *
+ * Both peers MUST use the same framing. The lightweight ordered framing
+ * SHALL only be used for reliable and ordered data channels. Otherwise,
+ * chunked-dc is being used which also works for unordered data channels.
+ */
+public class SecureDataChannel {
+    // Logging
+    @NonNull private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.WebRTC.SecureDataChannel");
+
+    // Default maximum chunk length
+    public static final int DEFAULT_MAX_CHUNK_LENGTH = 262144;
+
+    // Default length of stream segments (excluding the segment header)
+    public static final int DEFAULT_SEGMENT_LENGTH = 65536;
+
+    // Default time after which incomplete messages are discarded (in ms)
+    public static final long DEFAULT_INCOMPLETE_MESSAGE_MAX_AGE = 60000;
+
+    // Raised for incoming messages too short to contain a nonce
+    @NonNull private static final ValidationError MESSAGE_TOO_SHORT = new StacklessValidationError(
+        "Message too short");
+
+    // Underlying data channel and crypto context
+    @NonNull private final DataChannelCryptoContext crypto;
+    @NonNull private final SecureDataChannelHandler handler;
+    @Nullable private SecureDataChannelListener listener;
+    @Nullable private ReorderBuffer reorderBuffer;
+
+    // Chunking
+    private final int chunkLength;
+    private final boolean ordered;
+    @NonNull private final Unchunker unchunker = new Unchunker();
+    @NonNull private final OrderedUnchunker orderedUnchunker = new OrderedUnchunker();
+    private long messageId = 0;
+    private long incompleteMaxAge = DEFAULT_INCOMPLETE_MESSAGE_MAX_AGE;
+    private long lastGc = System.nanoTime();
+    private long discardedChunks = 0;
+
+    // Forward error correction
+    @Nullable private FecEncoder fecEncoder;
+    @Nullable private FecDecoder fecDecoder;
+
+    // Outgoing chunk scheduling
+    @NonNull private final ChunkScheduler scheduler;
+    @NonNull private final ArrayDeque<StreamSource> reads = new ArrayDeque<>();
+    private int streamId = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a secure data channel with the default maximum chunk length.
+     *
+     * @param crypto A crypto context associated to the data channel's ID.
+     * @param handler The handler of the application.
+     * @param ordered Whether the lightweight framing for reliable and ordered
+     *   data channels should be used.
+     */
+    public SecureDataChannel(
+        @NonNull final DataChannelCryptoContext crypto,
+        @NonNull final SecureDataChannelHandler handler,
+        final boolean ordered
+    ) {
+        this(crypto, handler, ordered, DEFAULT_MAX_CHUNK_LENGTH);
+    }
+
+    /**
+     * Create a secure data channel.
+     *
+     * @param crypto A crypto context associated to the data channel's ID.
+     * @param handler The handler of the application.
+     * @param ordered Whether the lightweight framing for reliable and ordered
+     *   data channels should be used.
+     * @param maxChunkLength The maximum amount of bytes used for a chunk.
+     *
+     * @throws IllegalArgumentException in case the chunk length does not
+     *   leave room for any payload.
+     */
+    public SecureDataChannel(
+        @NonNull final DataChannelCryptoContext crypto,
+        @NonNull final SecureDataChannelHandler handler,
+        final boolean ordered,
+        final int maxChunkLength
+    ) {
+        this.crypto = crypto;
+        this.handler = handler;
+        this.ordered = ordered;
+
+        // Determine chunk length
+        if (this.handler.getMaxMessageSize() > Integer.MAX_VALUE) {
+            this.chunkLength = maxChunkLength;
+        } else {
+            this.chunkLength = Math.min((int) this.handler.getMaxMessageSize(), maxChunkLength);
+        }
+        final int headerLength = ordered ? OrderedChunker.HEADER_LENGTH : Common.HEADER_LENGTH;
+        if (this.chunkLength <= headerLength) {
+            throw new IllegalArgumentException("Maximum chunk length is less than chunking overhead");
+        }
+
+        // Chunks of different messages can only be interleaved if each chunk
+        // carries the message id
+        this.scheduler = new ChunkScheduler(!ordered);
+
+        // Bind unchunker events
+        if (this.ordered) {
+            this.orderedUnchunker.onMessage(SecureDataChannel.this::receiveMessage);
+        } else {
+            this.unchunker.onMessage(SecureDataChannel.this::receiveMessage);
+        }
+    }
+
+    /**
+     * Set the listener. It will be notified on incoming messages and errors.
+     */
+    public void setListener(@Nullable final SecureDataChannelListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Protect chunks by XOR parity, so that a message can be reconstructed
+     * despite the loss of a single chunk per group without retransmission.
+     * This is intended for unreliable data channels.
+     *
+     * Consecutive chunks are grouped. A parity chunk is sent after each
+     * group of `groupSize` chunks and whenever no further chunks are
+     * pending. Therefore, a message that is sent on its own will
+     * effectively be sent twice.
+     *
+     * Note: This must be called before any message has been sent or
+     *       received. Both peers MUST use the same group size.
+     *
+     * @param groupSize The maximum amount of chunks protected by a parity
+     *   chunk, between 1 and 255.
+     *
+     * @throws IllegalArgumentException in case the lightweight framing is
+     *   being used, the group size is invalid or the chunk length does not
+     *   leave room for any payload.
+     */
+    public void setForwardErrorCorrection(final int groupSize) {
+        if (this.ordered) {
+            throw new IllegalArgumentException("Forward error correction requires the chunked-dc framing");
+        }
+        if (this.chunkLength - FecEncoder.HEADER_LENGTH <= Common.HEADER_LENGTH) {
+            throw new IllegalArgumentException("Maximum chunk length is less than chunking overhead");
+        }
+        this.fecEncoder = new FecEncoder(groupSize, this.chunkLength - FecEncoder.HEADER_LENGTH);
+        this.fecDecoder = new FecDecoder(groupSize, this.unchunker::add);
+    }
+
+    /**
+     * Deliver incoming messages in the order they have been sent, based on
+     * the sequence number of their nonce. This avoids head-of-line blocking
+     * of unordered data channels in the network while retaining the order
+     * of messages for the application.
+     *
+     * A message that is missing will be waited for at most `maxWait`. In
+     * order to enforce the wait time when no further messages arrive,
+     * `flushReordered` needs to be called after the delay it returns.
+     *
+     * Note: This must be called before any message has been received.
+     *
+     * @param capacity The maximum amount of messages held back.
+     * @param maxWait The maximum time a message is held back.
+     * @param unit The unit of `maxWait`.
+     *
+     * @throws IllegalArgumentException in case the capacity is not between
+     *   1 and `ReorderBuffer.MAX_CAPACITY` or the maximum wait time is
+     *   negative.
+     */
+    public void setReordering(final int capacity, final long maxWait, @NonNull final TimeUnit unit) {
+        this.reorderBuffer = new ReorderBuffer(capacity, maxWait, unit, this::dispatchMessage);
+    }
+
+    /**
+     * Deliver all held back messages that have waited for too long.
+     *
+     * @return the time in nanoseconds after which this should be called
+     *   again, or `-1` in case no message is being held back.
+     */
+    public long flushReordered() {
+        final ReorderBuffer reorderBuffer = this.reorderBuffer;
+        return reorderBuffer != null ? reorderBuffer.expire(System.nanoTime()) : -1;
+    }
+
+    /**
+     * Return the amount of CSNs that have been skipped by the reorder buffer
+     * because the message did not arrive in time.
+     */
+    public long getReorderSkipped() {
+        final ReorderBuffer reorderBuffer = this.reorderBuffer;
+        return reorderBuffer != null ? reorderBuffer.getSkipped() : 0;
+    }
+
+    /**
+     * Set the time after which an incomplete message is discarded if none
+     * of its chunks has arrived in the meantime. With the chunked-dc
+     * framing, a message whose chunks have been lost (e.g. on an
+     * unreliable data channel) would otherwise be held forever.
+     *
+     * Incomplete messages are looked for whenever a chunk arrives, at most
+     * once per `maxAge`. Therefore, a message is discarded at most twice
+     * the maximum age after its last chunk arrived, given that further
+     * chunks arrive.
+     *
+     * @param maxAge The maximum time since the last chunk of an incomplete
+     *   message arrived.
+     * @param unit The unit of `maxAge`.
+     *
+     * @throws IllegalArgumentException in case the maximum age is not
+     *   positive.
+     */
+    public void setIncompleteMessageMaxAge(final long maxAge, @NonNull final TimeUnit unit) {
+        if (maxAge <= 0) {
+            throw new IllegalArgumentException("Maximum age must be positive");
+        }
+        this.incompleteMaxAge = unit.toMillis(maxAge);
+    }
+
+    /**
+     * Return the amount of chunks that have been discarded because their
+     * message remained incomplete.
+     */
+    public long getDiscardedChunks() {
+        return this.discardedChunks;
+    }
+
+    /**
+     * Must be called when a message has been received on the underlying
+     * data channel.
+     *
+     * @param chunk The chunk. Note that the chunk MUST be considered
+     *   transferred.
+     */
+    public void receive(@NonNull final ByteBuffer chunk) {
+        try {
+            final FecDecoder fecDecoder = this.fecDecoder;
+            if (this.ordered) {
+                this.orderedUnchunker.add(chunk);
+            } else if (fecDecoder != null) {
+                fecDecoder.add(chunk);
+            } else {
+                this.unchunker.add(chunk);
+            }
+        } catch (IllegalArgumentException error) {
+            LOG.warn("Invalid chunk:", error);
+            this.notifyError(error);
+        }
+        if (!this.ordered) {
+            this.discardIncomplete();
+        }
+    }
+
+    /**
+     * Discard incomplete messages that have not been updated for longer
+     * than the maximum age, unless this has been done recently.
+     */
+    private void discardIncomplete() {
+        final long now = System.nanoTime();
+        if (now - this.lastGc < TimeUnit.MILLISECONDS.toNanos(this.incompleteMaxAge)) {
+            return;
+        }
+        this.lastGc = now;
+        final int discarded = this.unchunker.gc(this.incompleteMaxAge);
+        if (discarded > 0) {
+            LOG.debug("Discarded {} chunks of incomplete messages", discarded);
+            this.discardedChunks += discarded;
+        }
+    }
+
+    /**
+     * Called when a message has been reassembled from chunks.
+     */
+    private void receiveMessage(@NonNull final ByteBuffer message) {
+        // Decrypt message
+        if (message.remaining() < DataChannelNonce.TOTAL_LENGTH) {
+            LOG.warn("Could not decrypt incoming message: {}", MESSAGE_TOO_SHORT.getMessage());
+            this.notifyError(MESSAGE_TOO_SHORT);
+            return;
+        }
+        final byte[] decrypted;
+        try {
+            decrypted = this.crypto.decrypt(new Box(message, DataChannelNonce.TOTAL_LENGTH));
+        } catch (ValidationError | ProtocolException | CryptoException | IllegalArgumentException error) {
+            LOG.warn("Could not decrypt incoming message:", error);
+            this.notifyError(error);
+            return;
+        }
+
+        // Dispatch message (in order, if requested)
+        final ReorderBuffer reorderBuffer = this.reorderBuffer;
+        if (reorderBuffer != null) {
+            reorderBuffer.add(this.crypto.getLastIncomingCsn(), ByteBuffer.wrap(decrypted), System.nanoTime());
+        } else {
+            this.dispatchMessage(ByteBuffer.wrap(decrypted));
+        }
+    }
+
+    private void dispatchMessage(@NonNull final ByteBuffer message) {
+        final SecureDataChannelListener listener = this.listener;
+        if (listener != null) {
+            listener.onMessage(message);
+        }
+    }
+
+    private void notifyError(@NonNull final Exception error) {
+        final SecureDataChannelListener listener = this.listener;
+        if (listener != null) {
+            listener.onError(error);
+        }
+    }
+
+    /**
+     * Must be called when the buffered amount of the underlying data channel
+     * has decreased. Continues sending pending chunks.
+     */
+    public void bufferedAmountLow() {
+        this.flush();
+    }
+
+    /**
+     * Send a message with normal priority.
+     *
+     * @param message The message to be sent. The remaining bytes will be
+     *   sent. If the buffer is backed by an array that exactly covers the
+     *   remaining bytes, that array will be encrypted without being copied.
+     *
+     * @throws OverflowException in case the sequence number would overflow.
+     * @throws CryptoException in case the data could not be encrypted.
+     */
+    public void send(@NonNull final ByteBuffer message) throws OverflowException, CryptoException {
+        this.send(message, MessagePriority.NORMAL);
+    }
+
+    /**
+     * Send a message.
+     *
+     * The message will be encrypted and fragmented into chunks. Chunks are
+     * handed out to the handler according to the message's priority and
+     * held back while the data channel's buffer is full.
+     *
+     * @param message The message to be sent. See `send(ByteBuffer)`.
+     * @param priority The priority class of the message.
+     *
+     * @throws OverflowException in case the sequence number would overflow.
+     * @throws CryptoException in case the data could not be encrypted.
+     */
+    public void send(
+        @NonNull final ByteBuffer message,
+        @NonNull final MessagePriority priority
+    ) throws OverflowException, CryptoException {
+        // Encrypt message and schedule chunks
+        // Note: Encryption happens under the lock to retain the order of
+        //       sequence numbers.
+        synchronized (this.scheduler) {
+            final Box box = this.crypto.encrypt(message);
+            this.scheduler.enqueue(this.createChunkSource(box), priority);
+        }
+        this.flush();
+    }
+
+    /**
+     * Stream data with low priority in segments of the default length.
+     *
+     * @see #sendStream(ReadableByteChannel, MessagePriority, int, Executor)
+     */
+    public int sendStream(@NonNull final InputStream source, @NonNull final Executor executor) {
+        return this.sendStream(Channels.newChannel(source), MessagePriority.LOW, DEFAULT_SEGMENT_LENGTH, executor);
+    }
+
+    /**
+     * Stream data in segments.
+     *
+     * The source is read on the executor, one segment ahead of the segment
+     * that is currently being sent. Therefore, at most two segments are
+     * held in memory, regardless of the stream's length, and a blocking
+     * source never holds up the thread sending chunks. Each segment is
+     * encrypted as a separate message once the data channel is ready to
+     * send it. Messages of a higher priority may be sent in between
+     * segments.
+     *
+     * The source is closed once it has been read completely. If reading
+     * fails, the stream is aborted and the error is reported to the
+     * listener.
+     *
+     * The receiving end MUST use a `SegmentReceiver`, so the data channel
+     * SHALL be dedicated to streams.
+     *
+     * @param source The channel from which the data is read until the end
+     *   of the stream.
+     * @param priority The priority class of the stream's segments.
+     * @param segmentLength The maximum amount of data bytes per segment.
+     * @param executor The executor reading the segments. Reads may block,
+     *   so this should not be the thread handling the data channel's
+     *   events.
+     *
+     * @return the id of the stream.
+     */
+    public int sendStream(
+        @NonNull final ReadableByteChannel source,
+        @NonNull final MessagePriority priority,
+        final int segmentLength,
+        @NonNull final Executor executor
+    ) {
+        return this.sendStream(source, 0, priority, segmentLength, executor);
+    }
+
+    /**
+     * Send a file (or the remainder of a file) with low priority.
+     *
+     * The file is memory-mapped window by window, so segments are filled
+     * straight from the mapped region and the file is never read into heap
+     * memory as a whole. The receiving end should use a
+     * `MappedFileReceiver`.
+     *
+     * @param file The file to be sent.
+     * @param offset The offset at which the transfer starts, e.g. the
+     *   resume offset reported by the receiving end of an interrupted
+     *   transfer. Segment offsets refer to the position within the file.
+     * @param executor The executor reading the segments (see
+     *   `sendStream`).
+     *
+     * @return the id of the stream.
+     *
+     * @throws IOException in case the file could not be opened.
+     * @throws IllegalArgumentException in case the offset exceeds the file.
+     */
+    public int sendFile(
+        @NonNull final File file,
+        final long offset,
+        @NonNull final Executor executor
+    ) throws IOException {
+        final MappedFileReader reader = new MappedFileReader(file, offset);
+        return this.sendStream(reader, offset, MessagePriority.LOW, DEFAULT_SEGMENT_LENGTH, executor);
+    }
+
+    private int sendStream(
+        @NonNull final ReadableByteChannel source,
+        final long offset,
+        @NonNull final MessagePriority priority,
+        final int segmentLength,
+        @NonNull final Executor executor
+    ) {
+        if (segmentLength <= 0) {
+            throw new IllegalArgumentException("Segment length must be positive");
+        }
+        final int id;
+        synchronized (this.scheduler) {
+            id = this.streamId++;
+            this.reads.add(new StreamSource(id, source, offset, priority, segmentLength, executor));
+        }
+        this.flush();
+        return id;
+    }
+
+    /**
+     * Return a chunk source for an encrypted message.
+     */
+    @NonNull private ChunkScheduler.ChunkSource createChunkSource(@NonNull final Box box) {
+        if (this.ordered) {
+            return new OrderedChunker(box, this.chunkLength);
+        } else {
+            final ByteBuffer encrypted = ByteBuffer.wrap(box.toBytes());
+            final int chunkLength = this.fecEncoder != null
+                ? this.chunkLength - FecEncoder.HEADER_LENGTH : this.chunkLength;
+            return ChunkScheduler.of(new Chunker(this.messageId++, encrypted, chunkLength));
+        }
+    }
+
+    /**
+     * Send pending chunks until there are none left or the underlying data
+     * channel's buffer is full. Then, start reading the next segment of
+     * streams whose current segment has been encrypted.
+     *
+     * Note: Reads are dispatched outside of the lock, so an executor
+     *       running them on the calling thread cannot interfere with the
+     *       scheduler.
+     */
+    private void flush() {
+        while (true) {
+            final StreamSource stream;
+            synchronized (this.scheduler) {
+                this.sendPending();
+                stream = this.reads.poll();
+            }
+            if (stream == null) {
+                return;
+            }
+            stream.dispatch();
+        }
+    }
+
+    private void sendPending() {
+        while (this.handler.getBufferedAmount() < this.handler.getBufferedAmountHighThreshold()) {
+            final ByteBuffer chunk = this.scheduler.poll();
+            if (chunk == null) {
+                this.sendParity();
+                return;
+            }
+            this.sendChunk(chunk);
+        }
+    }
+
+    /**
+     * Send a chunk, followed by the parity chunk in case the chunk completes
+     * a group.
+     */
+    private void sendChunk(@NonNull final ByteBuffer chunk) {
+        final FecEncoder fecEncoder = this.fecEncoder;
+        if (fecEncoder == null) {
+            this.handler.send(chunk);
+            return;
+        }
+        this.handler.send(fecEncoder.encode(chunk));
+        if (fecEncoder.isGroupFull()) {
+            this.handler.send(fecEncoder.finish());
+        }
+    }
+
+    /**
+     * Send the parity chunk of the current group, if any.
+     */
+    private void sendParity() {
+        final FecEncoder fecEncoder = this.fecEncoder;
+        if (fecEncoder != null && fecEncoder.hasPending()) {
+            this.handler.send(fecEncoder.finish());
+        }
+    }
+
+    /**
+     * Hand out pending chunks, close the underlying data channel and unbind
+     * from all events.
+     */
+    public void close() {
+        synchronized (this.scheduler) {
+            // Pending streams will be aborted
+            this.closed = true;
+            try {
+                ByteBuffer chunk;
+                while ((chunk = this.scheduler.poll()) != null) {
+                    this.sendChunk(chunk);
+                }
+                this.sendParity();
+            } catch (RuntimeException error) {
+                LOG.error("Unable to send pending chunks:", error);
+            }
+            this.scheduler.clear();
+
+            // Streams waiting for their next read will not be read any more
+            StreamSource stream;
+            while ((stream = this.reads.poll()) != null) {
+                stream.finish();
+            }
+        }
+        try {
+            this.handler.close();
+        } catch (RuntimeException error) {
+            LOG.error("Unable to close data channel:", error);
+        }
+        this.listener = null;
+        this.unchunker.onMessage(message -> {});
+        this.orderedUnchunker.onMessage(null);
+    }
+
+    /**
+     * Reads the segments of a stream ahead on an executor, and encrypts and
+     * chunks them on demand.
+     *
+     * Only a single read is in flight at any time: The next segment is read
+     * once the previous one has been encrypted. Fields shared with the
+     * reading thread are guarded by the scheduler.
+     */
+    private final class StreamSource implements ChunkScheduler.ChunkSource, Runnable {
+        private final int id;
+        @NonNull private final ReadableByteChannel source;
+        @NonNull private final MessagePriority priority;
+        @NonNull private final Executor executor;
+
+        // Segments are read alternately into these buffers, so the segment
+        // being sent is not overwritten by the segment being read
+        @NonNull private final byte[][] buffers;
+        private int buffer = 0;
+        private long readOffset;
+        private boolean started = false;
+
+        // Guarded by the scheduler
+        private long offset;
+        @Nullable private byte[] segment;
+        @Nullable private IOException error;
+        @Nullable private ChunkScheduler.ChunkSource chunks;
+        private boolean queued = false;
+        private boolean done = false;
+
+        StreamSource(
+            final int id,
+            @NonNull final ReadableByteChannel source,
+            final long offset,
+            @NonNull final MessagePriority priority,
+            final int segmentLength,
+            @NonNull final Executor executor
+        ) {
+            this.id = id;
+            this.source = source;
+            this.readOffset = offset;
+            this.offset = offset;
+            this.priority = priority;
+            this.executor = executor;
+            this.buffers = new byte[][] {
+                new byte[Segment.HEADER_LENGTH + segmentLength],
+                new byte[Segment.HEADER_LENGTH + segmentLength],
+            };
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (this.chunks != null && this.chunks.hasNext()) || this.segment != null || this.error != null;
+        }
+
+        @Override
+        @Nullable public ByteBuffer next() {
+            if (this.chunks == null || !this.chunks.hasNext()) {
+                this.chunks = this.nextSegment();
+            }
+            final ByteBuffer chunk = this.chunks != null ? this.chunks.next() : null;
+
+            // The scheduler dequeues the source once it is exhausted
+            if (chunk == null || !this.hasNext()) {
+                this.queued = false;
+            }
+            return chunk;
+        }
+
+        @Override
+        public boolean isAtMessageBoundary() {
+            return this.chunks == null || !this.chunks.hasNext();
+        }
+
+        /**
+         * Start reading the next segment.
+         */
+        void dispatch() {
+            try {
+                this.executor.execute(this);
+            } catch (RejectedExecutionException error) {
+                this.closeSource();
+                this.complete(null, true, new IOException("Unable to read stream", error));
+            }
+        }
+
+        /**
+         * Read the next segment. Runs on the executor.
+         */
+        @Override
+        public void run() {
+            final byte[] segment = this.buffers[this.buffer];
+            this.buffer ^= 1;
+
+            // Read as much as fits into the segment
+            final ByteBuffer buffer = ByteBuffer.wrap(segment, Segment.HEADER_LENGTH,
+                segment.length - Segment.HEADER_LENGTH);
+            boolean end = false;
+            try {
+                while (buffer.hasRemaining()) {
+                    final int read = this.source.read(buffer);
+                    if (read < 0) {
+                        end = true;
+                        break;
+                    } else if (read == 0) {
+                        break;
+                    }
+                }
+            } catch (IOException error) {
+                this.closeSource();
+                this.complete(null, true, error);
+                SecureDataChannel.this.flush();
+                return;
+            }
+            final int length = buffer.position() - Segment.HEADER_LENGTH;
+
+            // Write header
+            ByteBuffer.wrap(segment)
+                .putInt(this.id)
+                .putLong(this.readOffset)
+                .put((byte) ((end ? Segment.FLAG_END : 0) | (this.started ? 0 : Segment.FLAG_START)));
+            this.started = true;
+            this.readOffset += length;
+            if (end) {
+                this.closeSource();
+            }
+
+            // Hand over the segment and send it, if possible
+            final byte[] plaintext = buffer.hasRemaining()
+                ? Arrays.copyOf(segment, Segment.HEADER_LENGTH + length) : segment;
+            this.complete(plaintext, end, null);
+            SecureDataChannel.this.flush();
+        }
+
+        /**
+         * Hand over a segment that has been read (or the error that occurred
+         * while reading) and enqueue the source, unless the channel has
+         * been closed in the meantime.
+         */
+        private void complete(
+            @Nullable final byte[] segment, final boolean end, @Nullable final IOException error
+        ) {
+            synchronized (SecureDataChannel.this.scheduler) {
+                // The source has already been closed in case of the end of
+                // the stream or an error
+                if (end) {
+                    this.done = true;
+                }
+                if (SecureDataChannel.this.closed) {
+                    this.finish();
+                    return;
+                }
+                this.segment = segment;
+                this.error = error;
+                if (!this.queued) {
+                    this.queued = true;
+                    SecureDataChannel.this.scheduler.enqueue(this, this.priority);
+                }
+            }
+        }
+
+        /**
+         * Encrypt the segment that has been read ahead and start reading the
+         * following one.
+         *
+         * @return the chunks of the segment or `null` in case the stream
+         *   failed and nothing can be sent.
+         */
+        @Nullable private ChunkScheduler.ChunkSource nextSegment() {
+            final byte[] segment = this.segment;
+            final IOException error = this.error;
+            this.segment = null;
+            this.error = null;
+
+            // Abort if the channel is being closed or reading failed
+            if (SecureDataChannel.this.closed || segment == null) {
+                return this.abort(error);
+            }
+
+            // Encrypt segment
+            // Note: The segment buffer is reused for the segment after the
+            //       next one, by which time all of its chunks have been
+            //       produced.
+            final ChunkScheduler.ChunkSource chunks = this.encrypt(segment);
+            if (chunks != null) {
+                this.offset += segment.length - Segment.HEADER_LENGTH;
+                if (!this.done) {
+                    SecureDataChannel.this.reads.add(this);
+                }
+            }
+            return chunks;
+        }
+
+        /**
+         * Abort the stream and return the chunks of the abort segment.
+         */
+        @Nullable private ChunkScheduler.ChunkSource abort(@Nullable final IOException error) {
+            this.finish();
+            if (error != null) {
+                LOG.warn("Aborting stream " + this.id + " due to a read error:", error);
+                SecureDataChannel.this.notifyError(error);
+            }
+            final byte[] plaintext = new byte[Segment.HEADER_LENGTH];
+            ByteBuffer.wrap(plaintext)
+                .putInt(this.id)
+                .putLong(this.offset)
+                .put((byte) Segment.FLAG_ABORT);
+            return this.encrypt(plaintext);
+        }
+
+        @Nullable private ChunkScheduler.ChunkSource encrypt(@NonNull final byte[] plaintext) {
+            try {
+                return SecureDataChannel.this.createChunkSource(SecureDataChannel.this.crypto.encrypt(plaintext));
+            } catch (OverflowException | CryptoException error) {
+                LOG.error("Could not encrypt segment of stream " + this.id + ":", error);
+                this.finish();
+                SecureDataChannel.this.notifyError(error);
+                return null;
+            }
+        }
+
+        /**
+         * Stop reading the stream. Must only be called while no read is in
+         * flight.
+         */
+        void finish() {
+            if (this.done) {
+                return;
+            }
+            this.done = true;
+            this.closeSource();
+        }
+
+        private void closeSource() {
+            try {
+                this.source.close();
+            } catch (IOException error) {
+                LOG.warn("Unable to close stream source:", error);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An implementation of this handler must be provided by the application
+ * for each data channel wrapped by a `SecureDataChannel`.
+ *
+ * It contains a collection of functions called by the `SecureDataChannel`
+ * to communicate with the underlying data channel.
+ */
+public interface SecureDataChannelHandler {
+    /**
+     * Will be called to retrieve the maximum amount of bytes that can be
+     * sent in a single message.
+     */
+    long getMaxMessageSize();
+
+    /**
+     * Will be called to retrieve the amount of bytes currently buffered by
+     * the underlying data channel.
+     */
+    long getBufferedAmount();
+
+    /**
+     * Will be called to retrieve the amount of buffered bytes at which
+     * sending pauses until `SecureDataChannel.bufferedAmountLow` is being
+     * called. Return `Long.MAX_VALUE` to disable flow control.
+     */
+    long getBufferedAmountHighThreshold();
+
+    /**
+     * Will be called to start the closing procedure of the underlying data
+     * channel.
+     */
+    void close();
+
+    /**
+     * Will be called to send a chunk on the underlying data channel.
+     *
+     * @param chunk An encrypted chunk that SHALL NOT be modified by the
+     *   application. It obeys `maxMessageSize`.
+     */
+    void send(@NonNull ByteBuffer chunk);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives decrypted messages and errors from a `SecureDataChannel`.
+ */
+public interface SecureDataChannelListener {
+    /**
+     * A message has been reassembled and decrypted.
+     *
+     * @param message The decrypted message.
+     */
+    void onMessage(@NonNull ByteBuffer message);
+
+    /**
+     * An incoming chunk or message was invalid and has been discarded.
+     *
+     * @param error The reason.
+     */
+    void onError(@NonNull Exception error);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+/**
+ * Header of a stream segment. Each segment is encrypted as a separate
+ * message.
+ *
+ * Structure:
+ *
+ * |SSSS|OOOOOOOO|F|D...|
+ *
+ * - S: Stream id (uint32)
+ * - O: Offset of the segment's data within the stream (uint64)
+ * - F: Flags (1 byte)
+ * - D: Data of the segment
+ *
+ * Flags:
+ *
+ * - Bit 0: Set on the last segment of a stream
+ * - Bit 1: Set if the stream has been aborted by the sender (the segment
+ *   contains no data)
+ * - Bit 2: Set on the first segment of a stream. Its offset is non-zero in
+ *   case a transfer is being resumed.
+ * - Bits 3-7: Reserved, always zero
+ */
+final class Segment {
+    static final int HEADER_LENGTH = 13;
+    static final int FLAG_END = 0x01;
+    static final int FLAG_ABORT = 0x02;
+    static final int FLAG_START = 0x04;
+
+    private Segment() {}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the segments of incoming streams from a `SegmentReceiver`.
+ */
+public interface SegmentListener {
+    /**
+     * A segment of a stream has been received.
+     *
+     * @param streamId The stream id.
+     * @param offset The offset of the segment's data within the stream.
+     * @param data The segment's data. It is only valid until this method
+     *   returns.
+     */
+    void onSegment(int streamId, long offset, @NonNull ByteBuffer data);
+
+    /**
+     * All segments of a stream have been received.
+     *
+     * @param streamId The stream id.
+     * @param length The total length of the stream.
+     */
+    void onStreamEnd(int streamId, long length);
+
+    /**
+     * The sender aborted a stream (e.g. due to a read error).
+     *
+     * @param streamId The stream id.
+     */
+    void onStreamAborted(int streamId);
+
+    /**
+     * An incoming chunk, message or segment was invalid and has been
+     * discarded.
+     *
+     * @param error The reason.
+     */
+    void onError(@NonNull Exception error);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.exceptions.ValidationError;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incrementally receives streams sent by `SecureDataChannel.sendStream`.
+ *
+ * Set an instance as the listener of the receiving `SecureDataChannel`.
+ * Each segment is handed to the `SegmentListener` as soon as it has been
+ * decrypted, so a stream never needs to be buffered as a whole. The channel
+ * MUST be reliable and SHALL be dedicated to streams. Segments may arrive
+ * out of order in case the channel is unordered.
+ */
+public class SegmentReceiver implements SecureDataChannelListener {
+    /**
+     * State of a stream being received.
+     */
+    private static final class StreamState {
+        long received = 0;
+        long start = -1;
+        long length = -1;
+    }
+
+    @NonNull private final SegmentListener listener;
+    @NonNull private final Map<Integer, StreamState> streams = new HashMap<>();
+
+    public SegmentReceiver(@NonNull final SegmentListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onMessage(@NonNull final ByteBuffer message) {
+        try {
+            this.receiveSegment(message);
+        } catch (ValidationError error) {
+            this.listener.onError(error);
+        }
+    }
+
+    @Override
+    public void onError(@NonNull final Exception error) {
+        this.listener.onError(error);
+    }
+
+    private void receiveSegment(@NonNull final ByteBuffer message) throws ValidationError {
+        // Parse header
+        if (message.remaining() < Segment.HEADER_LENGTH) {
+            throw new ValidationError("Segment is missing the header");
+        }
+        final int streamId = message.getInt();
+        final long offset = message.getLong();
+        final int flags = message.get() & 0xff;
+        if ((flags & ~(Segment.FLAG_END | Segment.FLAG_ABORT | Segment.FLAG_START)) != 0) {
+            throw new ValidationError("Invalid segment flags: " + flags);
+        }
+        final int length = message.remaining();
+
+        // Aborted?
+        if ((flags & Segment.FLAG_ABORT) != 0) {
+            this.streams.remove(streamId);
+            this.listener.onStreamAborted(streamId);
+            return;
+        }
+
+        // Validate range
+        StreamState state = this.streams.get(streamId);
+        if (state == null) {
+            state = new StreamState();
+            this.streams.put(streamId, state);
+        }
+        if (offset < 0 || offset > Long.MAX_VALUE - length) {
+            throw new ValidationError("Invalid segment offset: " + offset);
+        }
+        if ((flags & Segment.FLAG_START) != 0) {
+            if (state.start != -1) {
+                throw new ValidationError("Repeated start of stream " + streamId);
+            }
+            state.start = offset;
+        }
+        if (state.start != -1 && offset < state.start) {
+            throw new ValidationError("Segment precedes the start of stream " + streamId);
+        }
+        if ((flags & Segment.FLAG_END) != 0) {
+            if (state.length != -1) {
+                throw new ValidationError("Repeated end of stream " + streamId);
+            }
+            state.length = offset + length;
+        }
+        if (state.length != -1 && offset + length > state.length) {
+            throw new ValidationError("Segment exceeds the end of stream " + streamId);
+        }
+
+        // Dispatch
+        if (length > 0) {
+            this.listener.onSegment(streamId, offset, message.slice());
+        }
+        state.received += length;
+        if (state.start != -1 && state.length != -1 && state.received >= state.length - state.start) {
+            this.streams.remove(streamId);
+            this.listener.onStreamEnd(streamId, state.length);
+        }
+    }
+}
@@ -24,6 +24,10 @@ import org.saltyrtc.tasks.webrtc.WebRTCTask;
 import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
 import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
 import org.saltyrtc.tasks.webrtc.DataChannelNonce;
+import org.saltyrtc.tasks.webrtc.tracing.FlightRecorder;
+import org.saltyrtc.tasks.webrtc.tracing.MessageStage;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTrace;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTracer;
 import org.slf4j.Logger;
 
 import java.nio.ByteBuffer;
@@ -35,7 +39,8 @@ import java.util.List;
  * `SignalingTransportLink` and the application's `SignalingTransportHandler`.
  *
  * This class handles the encryption and decryption as well as nonce
- * validation and chunking/unchunking.
+ * validation, chunking/unchunking, scheduling of outgoing chunks and
+ * optionally compression.
  */
 public class SignalingTransport {
     // Logging
@@ -48,13 +53,82 @@ public class SignalingTransport {
     @NonNull private final SignalingInterface signaling;
     @NonNull private final DataChannelCryptoContext crypto;
 
+    // Compression (if negotiated)
+    @Nullable private final PayloadCompressor compressor;
+
     // Chunking
     private final int chunkLength;
+    private final boolean orderedFraming;
     @NonNull private final Unchunker unchunker = new Unchunker();
+    @NonNull private final OrderedUnchunker orderedUnchunker = new OrderedUnchunker();
     private long messageId = 0;
 
-    // Incoming message queue
+    // Outgoing chunk scheduling
+    @NonNull private final ChunkScheduler scheduler;
+
+    // Incoming message queue (and the traces of queued messages, if any)
     @Nullable private List<byte[]> messageQueue;
+    @Nullable private List<MessageTrace> traceQueue;
+
+    // Chunk recording (optional)
+    @Nullable private volatile ChunkRecorder recorder;
+
+    // Message tracing (optional)
+    @Nullable private volatile MessageTracer tracer;
+    private long chunkReceivedAt;
+    @Nullable private TracedChunkSource sentSource;
+
+    // Inbound rate limiting (optional)
+    @Nullable private volatile TokenBucket chunkBucket;
+    @Nullable private volatile TokenBucket byteBucket;
+
+    // Set once the task is being closed due to an error. Chunks received
+    // afterwards are dropped.
+    private volatile boolean dead = false;
+
+    /**
+     * Wraps the chunk source of an outgoing message to determine when its
+     * last chunk has been handed out.
+     */
+    private final class TracedChunkSource implements ChunkScheduler.ChunkSource {
+        @NonNull private final ChunkScheduler.ChunkSource source;
+        @NonNull private final MessageTrace trace;
+        @NonNull private final MessageTracer tracer;
+
+        TracedChunkSource(
+            @NonNull final ChunkScheduler.ChunkSource source,
+            @NonNull final MessageTrace trace,
+            @NonNull final MessageTracer tracer
+        ) {
+            this.source = source;
+            this.trace = trace;
+            this.tracer = tracer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.source.hasNext();
+        }
+
+        @Override
+        @Nullable public ByteBuffer next() {
+            final ByteBuffer chunk = this.source.next();
+            if (chunk != null && !this.source.hasNext()) {
+                SignalingTransport.this.sentSource = this;
+            }
+            return chunk;
+        }
+
+        @Override
+        public boolean isAtMessageBoundary() {
+            return this.source.isAtMessageBoundary();
+        }
+
+        void sent() {
+            this.trace.mark(MessageStage.SENT);
+            this.tracer.onOutbound(this.trace);
+        }
+    }
 
     /**
      * Create a new signaling transport.
@@ -74,12 +148,47 @@ public class SignalingTransport {
         @NonNull final SignalingInterface signaling,
         @NonNull final DataChannelCryptoContext crypto,
         final int maxChunkLength
+    ) {
+        this(link, handler, task, signaling, crypto, maxChunkLength, false, null);
+    }
+
+    /**
+     * Create a new signaling transport.
+     *
+     * @param link The signalling transport link of the task.
+     * @param handler The signalling transport handler of the application.
+     * @param task The WebRTC task instance.
+     * @param signaling The signaling instance.
+     * @param crypto A crypto context associated to the signaling transport's
+     *   channel ID.
+     * @param maxChunkLength The maximum amount of bytes used for a chunk.
+     * @param orderedFraming Whether the lightweight framing for reliable and
+     *   ordered channels has been negotiated (instead of chunked-dc).
+     * @param compressor The payload compressor in case compression has been
+     *   negotiated, `null` otherwise. It will be closed along with the
+     *   transport.
+     */
+    public SignalingTransport(
+        @NonNull final SignalingTransportLink link,
+        @NonNull final SignalingTransportHandler handler,
+        @NonNull final WebRTCTask task,
+        @NonNull final SignalingInterface signaling,
+        @NonNull final DataChannelCryptoContext crypto,
+        final int maxChunkLength,
+        final boolean orderedFraming,
+        @Nullable final PayloadCompressor compressor
     ) {
         this.link = link;
         this.handler = handler;
         this.task = task;
         this.signaling = signaling;
         this.crypto = crypto;
+        this.orderedFraming = orderedFraming;
+        this.compressor = compressor;
+
+        // Chunks of different messages can only be interleaved if each chunk
+        // carries the message id
+        this.scheduler = new ChunkScheduler(!orderedFraming);
 
         // Determine chunk length
         if (this.handler.getMaxMessageSize() > Integer.MAX_VALUE) {
@@ -91,10 +200,15 @@ public class SignalingTransport {
         // Initialise message queue
         if (!this.signaling.getHandoverState().getPeer()) {
             this.messageQueue = new ArrayList<>();
+            this.traceQueue = new ArrayList<>();
         }
 
         // Bind unchunker events
-        this.unchunker.onMessage(SignalingTransport.this::receiveMessage);
+        if (this.orderedFraming) {
+            this.orderedUnchunker.onMessage(SignalingTransport.this::receiveMessage);
+        } else {
+            this.unchunker.onMessage(SignalingTransport.this::receiveMessage);
+        }
 
         // Tie to transport link
         this.link.tie(this);
@@ -103,6 +217,38 @@ public class SignalingTransport {
         LOG.info("Signaling transport created");
     }
 
+    /**
+     * Record all chunks sent and received from now on.
+     *
+     * @param recorder The recorder or `null` to stop recording. It will be
+     *   closed along with the transport.
+     */
+    public void setRecorder(@Nullable final ChunkRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Trace the stages of all messages sent and received from now on.
+     *
+     * @param tracer The tracer or `null` to stop tracing.
+     */
+    public void setTracer(@Nullable final MessageTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Limit the rate of chunks received from now on. A peer exceeding either
+     * limit is considered misbehaving and the task will be closed before
+     * any further processing (such as decryption) takes place.
+     *
+     * @param chunks The limit of chunks or `null` for no limit.
+     * @param bytes The limit of bytes or `null` for no limit.
+     */
+    public void setRateLimits(@Nullable final RateLimit chunks, @Nullable final RateLimit bytes) {
+        this.chunkBucket = chunks != null ? new TokenBucket(chunks) : null;
+        this.byteBucket = bytes != null ? new TokenBucket(bytes) : null;
+    }
+
     /**
      * Called when the underlying data channel's closing procedure has been
      * started.
@@ -134,15 +280,55 @@ public class SignalingTransport {
      *   transferred.
      */
     public void receiveChunk(@NonNull final ByteBuffer chunk) {
+        if (this.dead) {
+            return;
+        }
         LOG.debug("Received chunk");
+        FlightRecorder.chunkReceived(this.link.getId(), chunk.remaining());
+        if (!this.withinRateLimits(chunk.remaining())) {
+            return;
+        }
+        final ChunkRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordIncoming(chunk);
+        }
+        if (this.tracer != null) {
+            this.chunkReceivedAt = System.nanoTime();
+        }
         try {
-            this.unchunker.add(chunk);
+            if (this.orderedFraming) {
+                this.orderedUnchunker.add(chunk);
+            } else {
+                this.unchunker.add(chunk);
+            }
         } catch (IllegalArgumentException error) {
             LOG.error("Invalid chunk:", error);
-            this.die();
+            this.die("Invalid chunk");
         }
     }
 
+    /**
+     * Return whether a chunk is within the rate limits. Closes the task
+     * otherwise.
+     *
+     * @param length The length of the chunk.
+     */
+    private boolean withinRateLimits(final int length) {
+        final TokenBucket chunkBucket = this.chunkBucket;
+        if (chunkBucket != null && !chunkBucket.tryAcquire(1)) {
+            LOG.error("Chunk rate limit exceeded");
+            this.die("Chunk rate limit exceeded");
+            return false;
+        }
+        final TokenBucket byteBucket = this.byteBucket;
+        if (byteBucket != null && !byteBucket.tryAcquire(length)) {
+            LOG.error("Byte rate limit exceeded");
+            this.die("Byte rate limit exceeded");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Called when a message has been reassembled from chunks received on the
      * underlying data channel.
@@ -151,33 +337,81 @@ public class SignalingTransport {
      */
     private void receiveMessage(@NonNull final ByteBuffer message) {
         LOG.debug("Received message");
+        FlightRecorder.messageReassembled(this.link.getId(), message.remaining());
+        final MessageTracer tracer = this.tracer;
+        final MessageTrace trace;
+        if (tracer != null) {
+            trace = new MessageTrace(false, message.remaining());
+            trace.mark(MessageStage.CHUNK_RECEIVED, this.chunkReceivedAt);
+            trace.mark(MessageStage.REASSEMBLED);
+        } else {
+            trace = null;
+        }
 
         // Decrypt message
+        if (message.remaining() < DataChannelNonce.TOTAL_LENGTH) {
+            LOG.error("Invalid nonce: Message too short");
+            this.die("Invalid nonce");
+            return;
+        }
         final Box box = new Box(message, DataChannelNonce.TOTAL_LENGTH);
-        final byte[] decrypted;
+        byte[] decrypted;
         try {
-            decrypted = this.crypto.decrypt(box);
+            decrypted = this.crypto.decrypt(box, trace);
         } catch (ValidationError | ProtocolException error) {
-            LOG.error("Invalid nonce:", error);
-            this.die();
+            LOG.error("Invalid nonce: {}", error.getMessage());
+            this.die("Invalid nonce");
             return;
         } catch (CryptoException error) {
             LOG.error("Could not decrypt incoming data:", error);
-            this.die();
+            this.die("Could not decrypt incoming data");
             return;
         }
 
+        // Decompress message
+        if (this.compressor != null) {
+            try {
+                decrypted = this.compressor.decompress(decrypted);
+            } catch (ValidationError error) {
+                LOG.error("Could not decompress incoming data:", error);
+                this.die("Could not decompress incoming data");
+                return;
+            }
+            if (trace != null) {
+                trace.mark(MessageStage.DECOMPRESSED);
+            }
+        }
+
         // Queue message until the transport has been acknowledged by the
         // remote peer with a handover request.
         //
         // Note: This mechanism is required to prevent reordering of messages.
         if (!this.signaling.getHandoverState().getPeer()) {
+            if (trace != null) {
+                trace.mark(MessageStage.QUEUED);
+            }
             this.messageQueue.add(decrypted);
+            this.traceQueue.add(trace);
             return;
         }
 
         // Process message
-        this.signaling.onSignalingPeerMessage(decrypted);
+        this.dispatch(decrypted, trace, tracer);
+    }
+
+    /**
+     * Hand a message to the signalling instance and complete its trace.
+     */
+    private void dispatch(
+        @NonNull final byte[] message,
+        @Nullable final MessageTrace trace,
+        @Nullable final MessageTracer tracer
+    ) {
+        if (trace != null && tracer != null) {
+            trace.mark(MessageStage.DISPATCHED);
+            tracer.onInbound(trace);
+        }
+        this.signaling.onSignalingPeerMessage(message);
     }
 
     /**
@@ -196,45 +430,177 @@ public class SignalingTransport {
         }
 
         // Flush
-        for (final byte[] message: this.messageQueue) {
-            this.signaling.onSignalingPeerMessage(message);
+        final long start = FlightRecorder.start();
+        final MessageTracer tracer = this.tracer;
+        for (int i = 0; i < this.messageQueue.size(); i++) {
+            this.dispatch(this.messageQueue.get(i), this.traceQueue.get(i), tracer);
         }
+        FlightRecorder.queueFlushed(this.link.getId(), this.messageQueue.size(), start);
 
         // Remove queue
         this.messageQueue = null;
+        this.traceQueue = null;
+    }
+
+    /**
+     * Called when the buffered amount of the underlying data channel has
+     * decreased. Continues sending pending chunks.
+     */
+    public void bufferedAmountLow() {
+        this.flush();
+    }
+
+    /**
+     * Send a signalling message on the underlying channel with normal
+     * priority.
+     *
+     * @param message The signalling message to be sent.
+     *
+     * @throws OverflowException in case the sequence number would overflow.
+     * @throws CryptoException in case the data could not be encrypted.
+     */
+    public void send(@NonNull final byte[] message) throws OverflowException, CryptoException {
+        this.send(message, MessagePriority.NORMAL);
     }
 
     /**
      * Send a signalling message on the underlying channel.
      *
-     * This will encrypt the message first and then fragment the message into
-     * chunks.
+     * This will compress the message (if negotiated), encrypt it and then
+     * fragment the message into chunks. If the handler is a
+     * `FlowControlledSignalingTransportHandler`, pending chunks will be
+     * held back while the data channel's buffer is full and are handed out
+     * according to the message's priority once there is room again.
+     *
+     * Note: Priorities only take effect with a
+     * `FlowControlledSignalingTransportHandler`. Any other handler receives
+     * all chunks immediately, i.e. in FIFO order.
      *
      * @param message The signalling message to be sent.
+     * @param priority The priority class of the message.
      *
      * @throws OverflowException in case the sequence number would overflow.
      * @throws CryptoException in case the data could not be encrypted.
      */
-    public void send(@NonNull final byte[] message) throws OverflowException, CryptoException {
+    public void send(
+        @NonNull final byte[] message,
+        @NonNull final MessagePriority priority
+    ) throws OverflowException, CryptoException {
         LOG.debug("Sending message");
+        final MessageTracer tracer = this.tracer;
+        final MessageTrace trace;
+        if (tracer != null) {
+            trace = new MessageTrace(true, message.length);
+            trace.mark(MessageStage.SUBMITTED);
+        } else {
+            trace = null;
+        }
 
-        // Encrypt message
-        final Box box = this.crypto.encrypt(message);
-        final ByteBuffer encrypted = ByteBuffer.wrap(box.toBytes());
+        // Compress, encrypt, split and schedule the message
+        // Note: This must happen atomically for concurrent senders since the
+        //       compressor is not thread-safe, the CSN must be incremented in
+        //       the same order the messages are being scheduled and each
+        //       message needs a unique message id.
+        synchronized (this.scheduler) {
+            // Compress message
+            // Note: The compressed payload is only valid until the next
+            //       message is compressed, so it is encrypted right away.
+            final ByteBuffer payload;
+            if (this.compressor != null) {
+                payload = this.compressor.compress(message);
+                if (trace != null) {
+                    trace.mark(MessageStage.COMPRESSED);
+                }
+            } else {
+                payload = ByteBuffer.wrap(message);
+            }
 
-        // Split message into chunks
-        final Chunker chunker = new Chunker(this.messageId++, encrypted, this.chunkLength);
-        while (chunker.hasNext()) {
-            // Send chunk
-            LOG.debug("Sending chunk");
-            try {
-                this.handler.send(chunker.next());
-            } catch (RuntimeException error) {
-                LOG.error("Unable to send chunk:", error);
-                this.die();
-                return;
+            // Encrypt message
+            final Box box = this.crypto.encrypt(payload);
+            if (trace != null) {
+                trace.mark(MessageStage.ENCRYPTED);
+            }
+
+            // Split message into chunks
+            // Note: The ordered chunker reads from the box directly, so the box
+            //       does not need to be serialised first.
+            ChunkScheduler.ChunkSource source;
+            if (this.orderedFraming) {
+                source = new OrderedChunker(box, this.chunkLength);
+            } else {
+                final ByteBuffer encrypted = ByteBuffer.wrap(box.toBytes());
+                source = ChunkScheduler.of(new Chunker(this.messageId++, encrypted, this.chunkLength));
+            }
+            if (trace != null) {
+                source = new TracedChunkSource(source, trace, tracer);
+            }
+
+            // Schedule chunks
+            this.scheduler.enqueue(source, priority);
+            if (trace != null) {
+                trace.mark(MessageStage.SCHEDULED);
             }
         }
+
+        // Send chunks
+        this.flush();
+    }
+
+    /**
+     * Send pending chunks until there are none left or the underlying data
+     * channel's buffer is full.
+     */
+    private void flush() {
+        synchronized (this.scheduler) {
+            while (!this.isCongested()) {
+                final ByteBuffer chunk = this.scheduler.poll();
+                if (chunk == null) {
+                    return;
+                }
+                LOG.debug("Sending chunk");
+                final ChunkRecorder recorder = this.recorder;
+                if (recorder != null) {
+                    recorder.recordOutgoing(chunk);
+                }
+                final int length = chunk.remaining();
+                final long start = FlightRecorder.start();
+                try {
+                    this.handler.send(chunk);
+                } catch (RuntimeException error) {
+                    LOG.error("Unable to send chunk:", error);
+                    this.scheduler.clear();
+                    this.die("Unable to send chunk");
+                    return;
+                }
+                FlightRecorder.chunkSent(this.link.getId(), length, start);
+                this.traceSent();
+            }
+        }
+    }
+
+    /**
+     * Complete the trace of an outgoing message if the chunk sent last was
+     * its last chunk.
+     *
+     * Note: Must be called while holding the scheduler's lock.
+     */
+    private void traceSent() {
+        final TracedChunkSource source = this.sentSource;
+        if (source != null) {
+            this.sentSource = null;
+            source.sent();
+        }
+    }
+
+    /**
+     * Return whether the underlying data channel's buffer is full.
+     */
+    private boolean isCongested() {
+        if (!(this.handler instanceof FlowControlledSignalingTransportHandler)) {
+            return false;
+        }
+        final FlowControlledSignalingTransportHandler handler = (FlowControlledSignalingTransportHandler) this.handler;
+        return handler.getBufferedAmount() >= handler.getBufferedAmountHighThreshold();
     }
 
     /**
@@ -245,6 +611,25 @@ public class SignalingTransport {
      *       instance after this method returned.
      */
     public void close() {
+        // Hand out pending chunks (the data channel will send buffered data
+        // before it closes)
+        synchronized (this.scheduler) {
+            try {
+                final ChunkRecorder recorder = this.recorder;
+                ByteBuffer chunk;
+                while ((chunk = this.scheduler.poll()) != null) {
+                    if (recorder != null) {
+                        recorder.recordOutgoing(chunk);
+                    }
+                    this.handler.send(chunk);
+                    this.traceSent();
+                }
+            } catch (RuntimeException error) {
+                LOG.error("Unable to send pending chunks:", error);
+            }
+            this.scheduler.clear();
+        }
+
         // Close data channel
         try {
             this.handler.close();
@@ -257,9 +642,16 @@ public class SignalingTransport {
 
     /**
      * Closes the task abruptly due to a protocol error.
+     *
+     * @param reason A short description of the error.
      */
-    private void die() {
+    private void die(@NonNull final String reason) {
+        if (this.dead) {
+            return;
+        }
+        this.dead = true;
         LOG.warn("Closing task due to an error");
+        FlightRecorder.transportDied(this.link.getId(), reason);
 
         // Close (implicitly closes the data channel as well)
         this.task.close(CloseCode.PROTOCOL_ERROR);
@@ -274,5 +666,23 @@ public class SignalingTransport {
 
         // Unbind unchunker events
         this.unchunker.onMessage(message -> {});
+        this.orderedUnchunker.onMessage(null);
+
+        // Discard pending chunks
+        synchronized (this.scheduler) {
+            this.scheduler.clear();
+            this.sentSource = null;
+        }
+
+        // Release compression resources
+        if (this.compressor != null) {
+            this.compressor.close();
+        }
+
+        // Finish recording
+        final ChunkRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.close();
+        }
     }
 }
@@ -10,6 +10,7 @@ package org.saltyrtc.tasks.webrtc.transport;
 
 import org.saltyrtc.client.annotations.NonNull;
 import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
 import org.saltyrtc.tasks.webrtc.exceptions.UntiedException;
 
 import java.nio.ByteBuffer;
@@ -22,16 +23,39 @@ import java.nio.ByteBuffer;
  * It also contains a collection of functions that must be called by the
  * application to forward messages and events from the dedicated data
  * channel to the task.
+ *
+ * If the task has been pinned to an `EventLoop`, the events are forwarded
+ * to the transport on that loop and these functions may be called from any
+ * thread.
  */
 public class SignalingTransportLink  {
     @NonNull private static final String LABEL = "saltyrtc-signaling";
     private final int id;
     @NonNull private final String protocol;
-    @Nullable private SignalingTransport transport;
+    @Nullable private final EventLoop loop;
+    @Nullable private volatile SignalingTransport transport;
+
+    /**
+     * An event to be forwarded to the transport.
+     */
+    private interface TransportEvent {
+        void dispatch(@NonNull SignalingTransport transport);
+    }
 
     public SignalingTransportLink(final int id, @NonNull final String protocol) {
+        this(id, protocol, null);
+    }
+
+    /**
+     * Create a link forwarding all events on an event loop.
+     *
+     * @param loop The event loop or `null` to forward events on the calling
+     *   thread.
+     */
+    public SignalingTransportLink(final int id, @NonNull final String protocol, @Nullable final EventLoop loop) {
         this.id = id;
         this.protocol = protocol;
+        this.loop = loop;
     }
 
     /**
@@ -64,10 +88,7 @@ public class SignalingTransportLink  {
      * @throws UntiedException in case it is not tied to a SignalingTransport.
      */
     public void closing() throws UntiedException {
-        if (this.transport == null) {
-            throw new UntiedException();
-        }
-        this.transport.closing();
+        this.dispatch(SignalingTransport::closing);
     }
 
     /**
@@ -77,10 +98,7 @@ public class SignalingTransportLink  {
      * @throws UntiedException in case it is not tied to a SignalingTransport.
      */
     public void closed() throws UntiedException {
-        if (this.transport == null) {
-            throw new UntiedException();
-        }
-        this.transport.closed();
+        this.dispatch(SignalingTransport::closed);
     }
 
     /**
@@ -94,10 +112,41 @@ public class SignalingTransportLink  {
      * @throws UntiedException in case it is not tied to a SignalingTransport.
      */
     public void receive(@NonNull final ByteBuffer message) throws UntiedException {
-        if (this.transport == null) {
+        this.dispatch(transport -> transport.receiveChunk(message));
+    }
+
+    /**
+     * Must be called when the buffered amount of the underlying data channel
+     * has decreased (e.g. when the `bufferedamountlow` event fires) in case
+     * the handler is a `FlowControlledSignalingTransportHandler`.
+     *
+     * @throws UntiedException in case it is not tied to a SignalingTransport.
+     */
+    public void bufferedAmountLow() throws UntiedException {
+        this.dispatch(SignalingTransport::bufferedAmountLow);
+    }
+
+    /**
+     * Forward an event to the transport, on the event loop if any.
+     *
+     * @throws UntiedException in case it is not tied to a SignalingTransport.
+     */
+    private void dispatch(@NonNull final TransportEvent event) throws UntiedException {
+        final SignalingTransport transport = this.transport;
+        if (transport == null) {
             throw new UntiedException();
         }
-        this.transport.receiveChunk(message);
+        if (this.loop == null || this.loop.inEventLoop()) {
+            event.dispatch(transport);
+            return;
+        }
+        this.loop.execute(() -> {
+            // Drop the event if the transport has been untied in the meantime
+            final SignalingTransport current = this.transport;
+            if (current != null) {
+                event.dispatch(current);
+            }
+        });
     }
 
     /**
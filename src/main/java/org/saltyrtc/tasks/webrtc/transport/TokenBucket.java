@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces a `RateLimit`. Acquiring tokens is lock-free and never allocates.
+ *
+ * Rather than counting tokens and refilling them periodically, the bucket
+ * tracks the point in time at which it will be full again (the generic cell
+ * rate algorithm). This is equivalent to a token bucket but needs only a
+ * single atomic value.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long rate;
+    private final long tolerance;
+
+    // Point in time (in nanoseconds) at which the bucket will be full again
+    @NonNull private final AtomicLong full;
+
+    /**
+     * Create a new bucket which is full initially.
+     *
+     * @param limit The rate limit to be enforced.
+     */
+    public TokenBucket(@NonNull final RateLimit limit) {
+        this.rate = limit.getRate();
+        this.tolerance = nanosFor(limit.getBurst(), this.rate);
+        this.full = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Return the nanoseconds needed to refill `tokens` (rounded up).
+     */
+    private static long nanosFor(final long tokens, final long rate) {
+        if (tokens > Long.MAX_VALUE / NANOS_PER_SECOND) {
+            return Long.MAX_VALUE;
+        }
+        return (tokens * NANOS_PER_SECOND + rate - 1) / rate;
+    }
+
+    /**
+     * Acquire tokens from the bucket.
+     *
+     * @param tokens The amount of tokens to acquire.
+     * @return `true` in case the tokens have been acquired, `false` if the
+     *   bucket does not hold enough tokens (in which case none are taken).
+     */
+    public boolean tryAcquire(final long tokens) {
+        return this.tryAcquire(tokens, System.nanoTime());
+    }
+
+    /**
+     * Acquire tokens from the bucket at a specific point in time.
+     *
+     * @param tokens The amount of tokens to acquire.
+     * @param now The current time in nanoseconds, as returned by
+     *   `System.nanoTime()`.
+     * @return `true` in case the tokens have been acquired, `false` if the
+     *   bucket does not hold enough tokens (in which case none are taken).
+     */
+    public boolean tryAcquire(final long tokens, final long now) {
+        final long cost = nanosFor(tokens, this.rate);
+        if (cost > this.tolerance) {
+            return false;
+        }
+        while (true) {
+            final long full = this.full.get();
+            final long next = (full - now > 0 ? full : now) + cost;
+            if (next - now > this.tolerance) {
+                return false;
+            }
+            if (this.full.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tracing;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits Java Flight Recorder events for transport and crypto operations.
+ *
+ * This is the Java 11 variant of this class. All events are enabled by
+ * default and can be configured via their names (prefixed by
+ * `org.saltyrtc.webrtc.`) in a JFR settings file. Stack traces are not
+ * recorded by default to keep the overhead low.
+ *
+ * Events of operations with a duration carry it in the `elapsed` field.
+ */
+public final class FlightRecorder {
+    @Name("org.saltyrtc.webrtc.ChunkSent")
+    @Label("Chunk Sent")
+    @Description("A chunk has been handed to the data channel")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class ChunkSentEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Length") @DataAmount long length;
+        @Label("Elapsed") @Timespan long elapsed;
+    }
+
+    @Name("org.saltyrtc.webrtc.ChunkReceived")
+    @Label("Chunk Received")
+    @Description("A chunk has been received on the data channel")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class ChunkReceivedEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Length") @DataAmount long length;
+    }
+
+    @Name("org.saltyrtc.webrtc.MessageReassembled")
+    @Label("Message Reassembled")
+    @Description("A message has been reassembled from chunks")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class MessageReassembledEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Length") @DataAmount long length;
+    }
+
+    @Name("org.saltyrtc.webrtc.Encrypt")
+    @Label("Encrypt")
+    @Description("Data for a data channel has been encrypted")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class EncryptEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Length") @DataAmount long length;
+        @Label("Elapsed") @Timespan long elapsed;
+    }
+
+    @Name("org.saltyrtc.webrtc.Decrypt")
+    @Label("Decrypt")
+    @Description("Data of a data channel has been decrypted")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class DecryptEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Length") @DataAmount long length;
+        @Label("Elapsed") @Timespan long elapsed;
+    }
+
+    @Name("org.saltyrtc.webrtc.HandoverStarted")
+    @Label("Handover Started")
+    @Description("The handover to a data channel has been initiated")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    static final class HandoverStartedEvent extends Event {
+        @Label("Channel ID") int channelId;
+    }
+
+    @Name("org.saltyrtc.webrtc.HandoverFinished")
+    @Label("Handover Finished")
+    @Description("The handover to a data channel has been completed")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class HandoverFinishedEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Elapsed") @Timespan long elapsed;
+    }
+
+    @Name("org.saltyrtc.webrtc.QueueFlushed")
+    @Label("Queue Flushed")
+    @Description("Queued messages have been flushed after the handover")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    @StackTrace(false)
+    static final class QueueFlushedEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Messages") int messages;
+        @Label("Elapsed") @Timespan long elapsed;
+    }
+
+    @Name("org.saltyrtc.webrtc.TransportDied")
+    @Label("Transport Died")
+    @Description("A signalling transport closed the task due to an error")
+    @Category({ "SaltyRTC", "WebRTC Task" })
+    static final class TransportDiedEvent extends Event {
+        @Label("Channel ID") int channelId;
+        @Label("Reason") String reason;
+    }
+
+    private FlightRecorder() {
+        // Static only
+    }
+
+    /**
+     * Return a timestamp to be passed to the methods of operations with a
+     * duration.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * A chunk has been handed to the data channel.
+     */
+    public static void chunkSent(final int channelId, final int length, final long start) {
+        final ChunkSentEvent event = new ChunkSentEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.length = length;
+            event.elapsed = System.nanoTime() - start;
+            event.commit();
+        }
+    }
+
+    /**
+     * A chunk has been received on the data channel.
+     */
+    public static void chunkReceived(final int channelId, final int length) {
+        final ChunkReceivedEvent event = new ChunkReceivedEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    /**
+     * A message has been reassembled from chunks.
+     */
+    public static void messageReassembled(final int channelId, final int length) {
+        final MessageReassembledEvent event = new MessageReassembledEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    /**
+     * Data for a data channel has been encrypted.
+     */
+    public static void encrypted(final int channelId, final int length, final long start) {
+        final EncryptEvent event = new EncryptEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.length = length;
+            event.elapsed = System.nanoTime() - start;
+            event.commit();
+        }
+    }
+
+    /**
+     * Data of a data channel has been decrypted.
+     */
+    public static void decrypted(final int channelId, final int length, final long start) {
+        final DecryptEvent event = new DecryptEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.length = length;
+            event.elapsed = System.nanoTime() - start;
+            event.commit();
+        }
+    }
+
+    /**
+     * The handover to a data channel has been initiated.
+     */
+    public static void handoverStarted(final int channelId) {
+        final HandoverStartedEvent event = new HandoverStartedEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.commit();
+        }
+    }
+
+    /**
+     * The handover to a data channel has been completed.
+     */
+    public static void handoverFinished(final int channelId, final long start) {
+        final HandoverFinishedEvent event = new HandoverFinishedEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.elapsed = System.nanoTime() - start;
+            event.commit();
+        }
+    }
+
+    /**
+     * Queued messages have been flushed after the handover.
+     */
+    public static void queueFlushed(final int channelId, final int messages, final long start) {
+        final QueueFlushedEvent event = new QueueFlushedEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.messages = messages;
+            event.elapsed = System.nanoTime() - start;
+            event.commit();
+        }
+    }
+
+    /**
+     * A signalling transport closed the task due to an error.
+     */
+    public static void transportDied(final int channelId, @NonNull final String reason) {
+        final TransportDiedEvent event = new TransportDiedEvent();
+        if (event.isEnabled()) {
+            event.channelId = channelId;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
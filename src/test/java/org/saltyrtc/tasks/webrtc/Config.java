@@ -17,6 +17,8 @@ public class Config {
     public static boolean IGNORE_JKS = false;
     public static String SALTYRTC_SERVER_PRIVATE_KEY = "0919b266ce1855419e4066fc076b39855e728768e3afa773105edd2e37037c20";
     public static String SALTYRTC_SERVER_PUBLIC_KEY = "09a59a5fa6b45cb07638a3a6e347ce563a948b756fd22f9527465f7c79c2a864";
+    // Start an embedded server on SALTYRTC_PORT instead of using an external one
+    public static boolean EMBEDDED_SERVER = false;
     // Show debug output
     public static boolean DEBUG = true;
     // Show verbose output, e.g. websocket frames
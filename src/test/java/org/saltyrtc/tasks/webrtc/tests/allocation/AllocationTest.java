@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.allocation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.client.signaling.state.HandoverState;
+import org.saltyrtc.tasks.webrtc.DataChannelNonce;
+import org.saltyrtc.tasks.webrtc.WebRTCTask;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Candidates;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.transport.SignalingTransport;
+import org.saltyrtc.tasks.webrtc.transport.RateLimit;
+import org.saltyrtc.tasks.webrtc.transport.ReorderBuffer;
+import org.saltyrtc.tasks.webrtc.transport.SignalingTransportLink;
+import org.saltyrtc.tasks.webrtc.transport.TokenBucket;
+import org.saltyrtc.tasks.webrtc.utils.AllocationMeter;
+import org.saltyrtc.tasks.webrtc.utils.NullHandler;
+import org.saltyrtc.tasks.webrtc.utils.NullSignaling;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards the allocation rate of hot paths. Each test measures the bytes
+ * allocated per operation and fails if it exceeds the operation's budget.
+ *
+ * Budgets are given in bytes per operation and include some headroom for
+ * differences between JVMs. When a change reduces the allocations of an
+ * operation, lower its budget accordingly so it stays that way. When a
+ * change needs to allocate more, raise the budget in the same commit and
+ * explain why.
+ *
+ * Note: Encryption and decryption are faked, so these budgets only cover
+ *       the code of this library (and the `Box` instances it creates).
+
+ */
+@DisplayName("Allocations")
+class AllocationTest {
+    private static final int CHANNEL_ID = 1337;
+    private static final int ITERATIONS = 5000;
+
+    // Budgets in bytes per operation
+    private static final long BUDGET_NONCE_ENCODE = 64;
+    private static final long BUDGET_NONCE_PARSE = 96;
+    private static final long BUDGET_ENCRYPT = 256;
+    private static final long BUDGET_DECRYPT = 96;
+    private static final long BUDGET_TRANSPORT_SEND = 1280;
+    private static final long BUDGET_TRANSPORT_RECEIVE = 2048;
+    private static final long BUDGET_RATE_LIMIT = 0;
+    private static final long BUDGET_REORDER = 0;
+    private static final long BUDGET_OFFER_ENCODE = 512;
+    private static final long BUDGET_OFFER_DECODE = 64;
+    private static final long BUDGET_CANDIDATES_ENCODE = 5120;
+    private static final long BUDGET_CANDIDATES_DECODE = 2048;
+
+    @NonNull private static final byte[] COOKIE = new byte[] {
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+    };
+    @NonNull private static final byte[] PAYLOAD = new byte[200];
+
+    // Keeps results reachable so they cannot be optimised away
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+
+    /**
+     * Fakes encryption and simulates a state where the handover has been
+     * completed.
+     */
+    private static class FakeSignaling extends NullSignaling {
+        @NonNull private final HandoverState handoverState = new HandoverState();
+        private long received = 0;
+
+        FakeSignaling() {
+            this.handoverState.setPeer(true);
+        }
+
+        @Override
+        public HandoverState getHandoverState() {
+            return this.handoverState;
+        }
+
+        @Override
+        public void onSignalingPeerMessage(byte[] message) {
+            this.received++;
+        }
+
+        @Override
+        public Box encryptForPeer(byte[] data, byte[] nonce) throws CryptoException {
+            // Don't actually encrypt
+            return new Box(nonce, data);
+        }
+
+        @Override
+        public byte[] decryptFromPeer(Box box) throws CryptoException {
+            // Don't actually decrypt
+            return box.getData();
+        }
+    }
+
+    private static void assertWithinBudget(
+        @NonNull final String operation,
+        final long budget,
+        final long allocated
+    ) {
+        assertTrue(allocated <= budget,
+            operation + " allocated " + allocated + " bytes, budget is " + budget + " bytes");
+    }
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(AllocationMeter.isSupported(), "Thread allocation counters are not supported");
+    }
+
+    @Nested
+    @DisplayName("DataChannelNonce")
+    class Nonce {
+        @Test
+        @DisplayName("encode")
+        void testEncode() throws Exception {
+            final DataChannelNonce nonce = new DataChannelNonce(COOKIE, CHANNEL_ID, 0, 42);
+            final long allocated = AllocationMeter.bytesPerOperation(ITERATIONS, i -> sink = nonce.toBytes());
+            assertWithinBudget("Nonce encoding", BUDGET_NONCE_ENCODE, allocated);
+        }
+
+        @Test
+        @DisplayName("parse")
+        void testParse() throws Exception {
+            final ByteBuffer buffer = ByteBuffer.wrap(new DataChannelNonce(COOKIE, CHANNEL_ID, 0, 42).toBytes());
+            final long allocated = AllocationMeter.bytesPerOperation(ITERATIONS, i -> {
+                buffer.rewind();
+                sink = new DataChannelNonce(buffer);
+            });
+            assertWithinBudget("Nonce parsing", BUDGET_NONCE_PARSE, allocated);
+        }
+    }
+
+    @Nested
+    @DisplayName("DataChannelCryptoContext")
+    class CryptoContext {
+        @NonNull private FakeSignaling signaling;
+
+        @BeforeEach
+        void setUp() {
+            this.signaling = new FakeSignaling();
+        }
+
+        @Test
+        @DisplayName("encrypt")
+        void testEncrypt() throws Exception {
+            final DataChannelCryptoContext context = new DataChannelCryptoContext(CHANNEL_ID, this.signaling);
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> sink = context.encrypt(PAYLOAD));
+            assertWithinBudget("Encryption", BUDGET_ENCRYPT, allocated);
+        }
+
+        @Test
+        @DisplayName("decrypt")
+        void testDecrypt() throws Exception {
+            // Prepare boxes with consecutive sequence numbers
+            final DataChannelCryptoContext sender = new DataChannelCryptoContext(CHANNEL_ID, this.signaling);
+            final Box[] boxes = new Box[AllocationMeter.totalIterations(ITERATIONS)];
+            for (int i = 0; i < boxes.length; i++) {
+                boxes[i] = sender.encrypt(PAYLOAD);
+            }
+
+            final DataChannelCryptoContext receiver = new DataChannelCryptoContext(CHANNEL_ID, this.signaling);
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> sink = receiver.decrypt(boxes[i]));
+            assertWithinBudget("Decryption", BUDGET_DECRYPT, allocated);
+        }
+    }
+
+    @Nested
+    @DisplayName("SignalingTransport")
+    class Transport {
+        @NonNull private FakeSignaling signaling;
+        @NonNull private WebRTCTask task;
+
+        @BeforeEach
+        void setUp() {
+            this.signaling = new FakeSignaling();
+            this.task = new WebRTCTaskBuilder().build();
+        }
+
+        @NonNull private SignalingTransport createTransport(
+            @NonNull final SignalingTransportLink link,
+            @NonNull final NullHandler handler
+        ) {
+            return new SignalingTransport(link, handler, this.task, this.signaling,
+                new DataChannelCryptoContext(CHANNEL_ID, this.signaling), 16384);
+        }
+
+        @Test
+        @DisplayName("send")
+        void testSend() throws Exception {
+            final NullHandler handler = new NullHandler() {
+                @Override
+                public long getMaxMessageSize() {
+                    return Long.MAX_VALUE;
+                }
+            };
+            final SignalingTransport transport = this.createTransport(
+                new SignalingTransportLink(CHANNEL_ID, "fake-protocol"), handler);
+            final long allocated = AllocationMeter.bytesPerOperation(ITERATIONS, i -> transport.send(PAYLOAD));
+            assertWithinBudget("Sending", BUDGET_TRANSPORT_SEND, allocated);
+        }
+
+        @Test
+        @DisplayName("receive chunk")
+        void testReceiveChunk() throws Exception {
+            // Prepare a single chunk per message
+            final List<ByteBuffer> chunks = new ArrayList<>();
+            final NullHandler sender = new NullHandler() {
+                @Override
+                public long getMaxMessageSize() {
+                    return Long.MAX_VALUE;
+                }
+
+                @Override
+                public void send(@NonNull ByteBuffer chunk) {
+                    final ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+                    copy.put(chunk);
+                    copy.flip();
+                    chunks.add(copy);
+                }
+            };
+            final SignalingTransport senderTransport = this.createTransport(
+                new SignalingTransportLink(CHANNEL_ID, "fake-protocol"), sender);
+            final int messages = AllocationMeter.totalIterations(ITERATIONS);
+            for (int i = 0; i < messages; i++) {
+                senderTransport.send(PAYLOAD);
+            }
+            assertEquals(messages, chunks.size());
+
+            final SignalingTransportLink link = new SignalingTransportLink(CHANNEL_ID, "fake-protocol");
+            this.createTransport(link, new NullHandler());
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> link.receive(chunks.get(i)));
+            assertWithinBudget("Receiving", BUDGET_TRANSPORT_RECEIVE, allocated);
+            assertEquals(messages, this.signaling.received);
+        }
+
+        @Test
+        @DisplayName("enforce rate limit")
+        void testRateLimit() throws Exception {
+            final TokenBucket bucket = new TokenBucket(new RateLimit(1000000000L, 1000000000L));
+            final long allocated = AllocationMeter.bytesPerOperation(ITERATIONS, i -> bucket.tryAcquire(1));
+            assertWithinBudget("Rate limiting", BUDGET_RATE_LIMIT, allocated);
+        }
+
+        @Test
+        @DisplayName("reorder messages")
+        void testReorder() throws Exception {
+            // Swap each pair of messages
+            final ReorderBuffer buffer = new ReorderBuffer(64, 1, TimeUnit.SECONDS, message -> {});
+            final ByteBuffer message = ByteBuffer.wrap(PAYLOAD);
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> buffer.add(i ^ 1, message, i));
+            assertWithinBudget("Reordering", BUDGET_REORDER, allocated);
+        }
+    }
+
+    @Nested
+    @DisplayName("Task messages")
+    class TaskMessages {
+        @NonNull private final Offer offer = new Offer("v=0\r\no=- 42 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n");
+        @NonNull private final Candidates candidates = new Candidates(new Candidate[] {
+            new Candidate("candidate:1 1 udp 2122260223 10.0.0.1 53001 typ host", "0", 0),
+            new Candidate("candidate:2 1 udp 1686052607 192.0.2.1 53002 typ srflx", "0", 0),
+        });
+
+        @Test
+        @DisplayName("encode offer")
+        void testEncodeOffer() throws Exception {
+            final long allocated = AllocationMeter.bytesPerOperation(ITERATIONS, i -> sink = offer.toTaskMessage());
+            assertWithinBudget("Offer encoding", BUDGET_OFFER_ENCODE, allocated);
+        }
+
+        @Test
+        @DisplayName("decode offer")
+        void testDecodeOffer() throws Exception {
+            final TaskMessage message = this.offer.toTaskMessage();
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> sink = new Offer(message.getData()));
+            assertWithinBudget("Offer decoding", BUDGET_OFFER_DECODE, allocated);
+        }
+
+        @Test
+        @DisplayName("encode compact candidates")
+        void testEncodeCandidates() throws Exception {
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> sink = candidates.toCompactTaskMessage());
+            assertWithinBudget("Candidates encoding", BUDGET_CANDIDATES_ENCODE, allocated);
+        }
+
+        @Test
+        @DisplayName("decode compact candidates")
+        void testDecodeCandidates() throws Exception {
+            final TaskMessage message = this.candidates.toCompactTaskMessage();
+            final long allocated = AllocationMeter.bytesPerOperation(
+                ITERATIONS, i -> sink = new Candidates(message.getData(), true));
+            assertWithinBudget("Candidates decoding", BUDGET_CANDIDATES_DECODE, allocated);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.benchmark;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.tasks.webrtc.Config;
+import org.saltyrtc.tasks.webrtc.WebRTCTask;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.utils.EmbeddedSaltyRTCServer;
+import org.saltyrtc.tasks.webrtc.utils.LazysodiumCryptoProvider;
+import org.saltyrtc.tasks.webrtc.utils.SSLContextHelper;
+import org.saltyrtc.tasks.webrtc.utils.SignalingLoopbackDataChannel;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the time from `connect` to the signalling state `TASK` and to the
+ * completion of the handover against the embedded server.
+ *
+ * Run via `./gradlew benchmark`. Requires "saltyrtc.jks" and
+ * "saltyrtc-server.p12", see the README.
+ */
+@Tag("benchmark")
+@DisplayName("Handshake benchmark")
+class HandshakeBenchmarkTest {
+    private static final int WARMUP_ITERATIONS = 10;
+    private static final int ITERATIONS = 100;
+    @NonNull private static final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+
+    @Test
+    @DisplayName("connect to task and handover")
+    void benchmarkHandshake() throws Exception {
+        final long[] task = new long[ITERATIONS];
+        final long[] handover = new long[ITERATIONS];
+        try (final EmbeddedSaltyRTCServer server = new EmbeddedSaltyRTCServer(
+            cryptoProvider, SSLContextHelper.getServerSSLContext(), Config.SALTYRTC_SERVER_PRIVATE_KEY)) {
+            final int port = server.start(0);
+            final SSLContext sslContext = SSLContextHelper.getSSLContext();
+            for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+                final long[] result = this.handshake(port, sslContext);
+                if (i >= 0) {
+                    task[i] = result[0];
+                    handover[i] = result[1];
+                }
+            }
+        }
+        report("connect -> task", task);
+        report("connect -> handover", handover);
+    }
+
+    /**
+     * Connect a pair of peers and hand over the signalling channel.
+     *
+     * @return the elapsed nanoseconds until both reached the `TASK` state
+     *   and until both completed the handover.
+     */
+    @NonNull private long[] handshake(final int port, @NonNull final SSLContext sslContext) throws Exception {
+        final WebRTCTask initiatorTask = new WebRTCTaskBuilder().build();
+        final WebRTCTask responderTask = new WebRTCTaskBuilder().build();
+        final SaltyRTC initiator = new SaltyRTCBuilder(cryptoProvider)
+            .connectTo(Config.SALTYRTC_HOST, port, sslContext)
+            .withServerKey(Config.SALTYRTC_SERVER_PUBLIC_KEY)
+            .withKeyStore(new KeyStore(cryptoProvider))
+            .usingTasks(new Task[] { initiatorTask })
+            .asInitiator();
+        final SaltyRTC responder = new SaltyRTCBuilder(cryptoProvider)
+            .connectTo(Config.SALTYRTC_HOST, port, sslContext)
+            .withServerKey(Config.SALTYRTC_SERVER_PUBLIC_KEY)
+            .withKeyStore(new KeyStore(cryptoProvider))
+            .initiatorInfo(initiator.getPublicPermanentKey(), initiator.getAuthToken())
+            .usingTasks(new Task[] { responderTask })
+            .asResponder();
+
+        // Connect
+        final CountDownLatch taskDone = new CountDownLatch(2);
+        final CountDownLatch handoverDone = new CountDownLatch(2);
+        for (final SaltyRTC peer : new SaltyRTC[] { initiator, responder }) {
+            peer.events.signalingStateChanged.register(event -> {
+                if (event.getState() == SignalingState.TASK) {
+                    taskDone.countDown();
+                    return true;
+                }
+                return false;
+            });
+            peer.events.handover.register(event -> {
+                handoverDone.countDown();
+                return true;
+            });
+        }
+        final long start = System.nanoTime();
+        initiator.connect();
+        responder.connect();
+        assertTrue(taskDone.await(10, TimeUnit.SECONDS));
+        final long task = System.nanoTime() - start;
+
+        // Hand over
+        final SignalingLoopbackDataChannel initiatorChannel =
+            new SignalingLoopbackDataChannel(initiatorTask.getTransportLink());
+        final SignalingLoopbackDataChannel responderChannel =
+            new SignalingLoopbackDataChannel(responderTask.getTransportLink());
+        initiatorChannel.attach(responderChannel);
+        responderChannel.attach(initiatorChannel);
+        initiatorTask.handover(initiatorChannel);
+        responderTask.handover(responderChannel);
+        assertTrue(handoverDone.await(10, TimeUnit.SECONDS));
+        final long handover = System.nanoTime() - start;
+
+        initiator.disconnect();
+        responder.disconnect();
+        return new long[] { task, handover };
+    }
+
+    private static void report(@NonNull final String name, @NonNull final long[] samples) {
+        final long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.ROOT, "%s: p50 %.2f ms, p99 %.2f ms (%d samples)",
+            name, percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, sorted.length));
+    }
+
+    private static long percentile(@NonNull final long[] sorted, final int percentile) {
+        return sorted[(int) Math.ceil(percentile / 100.0 * sorted.length) - 1];
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.benchmark;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.tasks.webrtc.DataChannelNonce;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.tracing.LatencyHistogram;
+import org.saltyrtc.tasks.webrtc.utils.LazysodiumCryptoProvider;
+import org.saltyrtc.tasks.webrtc.utils.LinkImpairment;
+import org.saltyrtc.tasks.webrtc.utils.LoopbackDataChannel;
+import org.saltyrtc.tasks.webrtc.utils.LoopbackTaskPair;
+import org.saltyrtc.tasks.webrtc.utils.NullMessageHandler;
+import org.saltyrtc.tasks.webrtc.utils.VirtualClock;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs signalling and data channel traffic over impaired loopback data
+ * channels. All timings are simulated by a virtual clock, so results are
+ * deterministic and do not depend on the machine.
+ *
+ * Run via `./gradlew benchmark`.
+ */
+@Tag("benchmark")
+@DisplayName("Impaired link benchmark")
+class ImpairedLinkBenchmarkTest {
+    private static final int[] CHUNK_LENGTHS = { 1024, 4096, 16384, 65536, 262144 };
+    private static final int OFFER_LENGTH = 65536;
+    private static final int OFFERS = 32;
+    private static final int DATAGRAMS = 10000;
+    private static final int CHANNEL_ID = 1337;
+    @NonNull private static final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+
+    private static class Receiver extends NullMessageHandler {
+        @NonNull private final VirtualClock clock;
+        private int offers = 0;
+        private int candidates = 0;
+        private long lastOfferAt = 0;
+        private long lastCandidatesAt = 0;
+
+        Receiver(@NonNull final VirtualClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public void onOffer(@NonNull Offer offer) {
+            this.offers++;
+            this.lastOfferAt = this.clock.nanoTime();
+        }
+
+        @Override
+        public void onCandidates(@NonNull Candidate[] candidates) {
+            this.candidates++;
+            this.lastCandidatesAt = this.clock.nanoTime();
+        }
+    }
+
+    @Test
+    @DisplayName("signalling transport chunk lengths")
+    void benchmarkChunkLength() throws Exception {
+        final Offer offer = new Offer(sdp(OFFER_LENGTH));
+        for (final String name : new String[] { "lte", "3g" }) {
+            for (final int chunkLength : CHUNK_LENGTHS) {
+                final VirtualClock clock = new VirtualClock();
+                final LoopbackTaskPair pair = createPair(chunkLength, profile(name), clock);
+                final Receiver receiver = new Receiver(clock);
+                pair.responderTask.setMessageHandler(receiver);
+
+                // Latency of a single offer on an idle link
+                final LatencyHistogram histogram = new LatencyHistogram();
+                for (int i = 0; i < OFFERS; i++) {
+                    final long start = clock.nanoTime();
+                    pair.initiatorTask.sendOffer(offer);
+                    clock.run();
+                    histogram.record(receiver.lastOfferAt - start);
+                }
+
+                // Time to transfer all offers at once
+                final long start = clock.nanoTime();
+                for (int i = 0; i < OFFERS; i++) {
+                    pair.initiatorTask.sendOffer(offer);
+                }
+                clock.run();
+                final double elapsed = (receiver.lastOfferAt - start) / 1e9;
+                assertEquals(2 * OFFERS, receiver.offers);
+
+                System.out.println(String.format(Locale.ROOT,
+                    "%s, chunk length %6d: p50 %7.1f ms, p99 %7.1f ms, goodput %7.1f KiB/s",
+                    name, chunkLength, histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6,
+                    OFFERS * OFFER_LENGTH / elapsed / 1024));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("crypto context on unreliable and unordered channels")
+    void benchmarkUnreliableUnordered() throws Exception {
+        for (final double probability : new double[] { 0.01, 0.05, 0.2 }) {
+            final VirtualClock clock = new VirtualClock();
+            final LoopbackTaskPair pair = new LoopbackTaskPair(
+                cryptoProvider, new WebRTCTaskBuilder().build(), new WebRTCTaskBuilder().build());
+            final DataChannelCryptoContext sender = new DataChannelCryptoContext(CHANNEL_ID, pair.initiator);
+            final DataChannelCryptoContext receiver = new DataChannelCryptoContext(CHANNEL_ID, pair.responder);
+            final LoopbackDataChannel<LoopbackDataChannel> local = new LoopbackDataChannel<>();
+            final LoopbackDataChannel<LoopbackDataChannel> remote = new LoopbackDataChannel<>();
+            local.attach(remote);
+            remote.attach(local);
+            local.impair(LinkImpairment.mobile3G()
+                .withLoss(probability)
+                .withReordering(probability)
+                .withDuplication(probability)
+                .unreliable()
+                .unordered(), clock);
+
+            // Count accepted, rejected and reordered datagrams
+            final int[] counters = new int[3];
+            final int[] last = { -1 };
+            remote.setMessageHandler(message -> {
+                try {
+                    final byte[] data = receiver.decrypt(new Box(message, DataChannelNonce.TOTAL_LENGTH));
+                    final int index = ByteBuffer.wrap(data).getInt();
+                    counters[0]++;
+                    if (index < last[0]) {
+                        counters[2]++;
+                    }
+                    last[0] = Math.max(last[0], index);
+                } catch (ValidationError error) {
+                    counters[1]++;
+                } catch (Exception error) {
+                    throw new RuntimeException(error);
+                }
+            });
+
+            // Send a datagram every millisecond
+            for (int i = 0; i < DATAGRAMS; i++) {
+                final byte[] data = ByteBuffer.allocate(256).putInt(i).array();
+                local.send(ByteBuffer.wrap(sender.encrypt(data).toBytes()));
+                clock.advance(1_000_000);
+            }
+            clock.run();
+
+            System.out.println(String.format(Locale.ROOT,
+                "unreliable/unordered, p=%.2f: %d sent, %d accepted, %d rejected, %d reordered",
+                probability, DATAGRAMS, counters[0], counters[1], counters[2]));
+            assertTrue(counters[0] > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("back-pressure on a 3G link")
+    void benchmarkBackPressure() throws Exception {
+        final Offer offer = new Offer(sdp(262144));
+        final Candidate[] candidates = new Candidate[] {
+            new Candidate("candidate:0 1 udp 2122260223 10.0.0.1 53000 typ host", "0", 0),
+        };
+        for (final long threshold : new long[] { 0, 262144, 65536, 16384 }) {
+            final VirtualClock clock = new VirtualClock();
+            final LoopbackTaskPair pair = createPair(16384, LinkImpairment.mobile3G(), clock);
+            if (threshold > 0) {
+                assert pair.initiatorChannel != null;
+                pair.initiatorChannel.setBufferedAmountThresholds(threshold / 4, threshold);
+            }
+            final Receiver receiver = new Receiver(clock);
+            pair.responderTask.setMessageHandler(receiver);
+
+            // Queue bulk data with normal priority, then trickle a candidate
+            // (which the task sends with high priority)
+            final long start = clock.nanoTime();
+            for (int i = 0; i < 8; i++) {
+                pair.initiator.sendTaskMessage(offer.toTaskMessage());
+            }
+            clock.advance(10_000_000);
+            pair.initiatorTask.sendCandidates(candidates);
+            clock.run();
+            assertEquals(8, receiver.offers);
+            assertEquals(1, receiver.candidates);
+
+            assert pair.initiatorChannel != null;
+            System.out.println(String.format(Locale.ROOT,
+                "3g, high threshold %6s: candidate after %7.1f ms, offers after %7.1f ms, peak buffered %7d bytes",
+                threshold > 0 ? String.valueOf(threshold) : "none",
+                (receiver.lastCandidatesAt - start - 10_000_000) / 1e6, (receiver.lastOfferAt - start) / 1e6,
+                pair.initiatorChannel.getMaxBufferedAmount()));
+        }
+    }
+
+    @NonNull private static LoopbackTaskPair createPair(
+        final int chunkLength,
+        @NonNull final LinkImpairment impairment,
+        @NonNull final VirtualClock clock
+    ) throws Exception {
+        final LoopbackTaskPair pair = new LoopbackTaskPair(cryptoProvider,
+            new WebRTCTaskBuilder().withMaxChunkLength(chunkLength).build(),
+            new WebRTCTaskBuilder().withMaxChunkLength(chunkLength).build());
+        pair.handover(impairment, clock);
+        clock.run();
+        return pair;
+    }
+
+    @NonNull private static LinkImpairment profile(@Nullable final String name) {
+        return "3g".equals(name) ? LinkImpairment.mobile3G() : LinkImpairment.lte();
+    }
+
+    @NonNull private static String sdp(final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        builder.append("v=0\r\n");
+        while (builder.length() < length - 12) {
+            builder.append("a=x-").append(builder.length() % 10000).append("\r\n");
+        }
+        while (builder.length() < length) {
+            builder.append('a');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.benchmark;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.tracing.LatencyHistogram;
+import org.saltyrtc.tasks.webrtc.utils.LazysodiumCryptoProvider;
+import org.saltyrtc.tasks.webrtc.utils.LoopbackTaskPair;
+import org.saltyrtc.tasks.webrtc.utils.NullMessageHandler;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives signalling traffic over many handed over task pairs and reports
+ * throughput, latency percentiles, heap usage per session and GC activity.
+ *
+ * Run via `./gradlew benchmark`. The load can be configured by the following
+ * system properties:
+ *
+ * - `load.sessions`: Number of task pairs (default: 1000)
+ * - `load.threads`: Number of threads driving the pairs (default: number of
+ *   available processors)
+ * - `load.rounds`: Number of rounds per pair (default: 10)
+ * - `load.candidates`: Number of trickled candidates per round (default: 5)
+ * - `load.largeMessageSize`: SDP length of the large offer that is sent in
+ *   each round (default: 65536, 0 to disable)
+ *
+ * Each round consists of an offer, an answer, the trickled candidates and the
+ * large offer. Since loopback delivery is synchronous, the latency of a
+ * message is the time from sending until it has been handed to the peer's
+ * message handler.
+ */
+@Tag("benchmark")
+@DisplayName("Load benchmark")
+class LoadBenchmarkTest {
+    private static final int SESSIONS = Integer.getInteger("load.sessions", 1000);
+    private static final int THREADS = Integer.getInteger("load.threads", Runtime.getRuntime().availableProcessors());
+    private static final int ROUNDS = Integer.getInteger("load.rounds", 10);
+    private static final int CANDIDATES = Integer.getInteger("load.candidates", 5);
+    private static final int LARGE_MESSAGE_SIZE = Integer.getInteger("load.largeMessageSize", 65536);
+    @NonNull private static final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+
+    @NonNull private final AtomicLong received = new AtomicLong();
+
+    @Test
+    @DisplayName("signalling traffic after handover")
+    void benchmarkLoad() throws Exception {
+        System.out.println(String.format(Locale.ROOT,
+            "Load: %d sessions, %d threads, %d rounds, %d candidates, %d bytes large message",
+            SESSIONS, THREADS, ROUNDS, CANDIDATES, LARGE_MESSAGE_SIZE));
+
+        // Create and hand over all pairs
+        final long heapBefore = usedHeap();
+        final List<LoopbackTaskPair> pairs = new ArrayList<>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            pairs.add(this.createPair());
+        }
+        final long heapPerSession = (usedHeap() - heapBefore) / SESSIONS;
+
+        // Prepare messages
+        final Offer offer = new Offer(sdp(512));
+        final Answer answer = new Answer(sdp(512));
+        final Offer largeOffer = LARGE_MESSAGE_SIZE > 0 ? new Offer(sdp(LARGE_MESSAGE_SIZE)) : null;
+        final Candidate[][] candidates = new Candidate[CANDIDATES][];
+        for (int i = 0; i < CANDIDATES; i++) {
+            candidates[i] = new Candidate[] {
+                new Candidate("candidate:" + i + " 1 udp 2122260223 10.0.0." + i + " 5300" + i + " typ host", "0", 0),
+            };
+        }
+        final int messagesPerRound = 2 + CANDIDATES + (largeOffer != null ? 1 : 0);
+        final long bytesPerRound = 2 * 512 + (largeOffer != null ? LARGE_MESSAGE_SIZE : 0);
+
+        // Drive the traffic, each thread takes every n-th pair
+        final long gcCountBefore = gcCount();
+        final long gcTimeBefore = gcTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<LatencyHistogram>> results = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int thread = 0; thread < THREADS; thread++) {
+            final int first = thread;
+            results.add(executor.submit(() -> {
+                final LatencyHistogram histogram = new LatencyHistogram();
+                for (int round = 0; round < ROUNDS; round++) {
+                    for (int i = first; i < pairs.size(); i += THREADS) {
+                        final LoopbackTaskPair pair = pairs.get(i);
+                        long time = System.nanoTime();
+                        pair.initiatorTask.sendOffer(offer);
+                        time = record(histogram, time);
+                        pair.responderTask.sendAnswer(answer);
+                        time = record(histogram, time);
+                        for (final Candidate[] candidate : candidates) {
+                            pair.initiatorTask.sendCandidates(candidate);
+                            time = record(histogram, time);
+                        }
+                        if (largeOffer != null) {
+                            pair.initiatorTask.sendOffer(largeOffer);
+                            record(histogram, time);
+                        }
+                    }
+                }
+                return histogram;
+            }));
+        }
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (final Future<LatencyHistogram> result : results) {
+            histogram.add(result.get());
+        }
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        // Report
+        final long messages = (long) SESSIONS * ROUNDS * messagesPerRound;
+        assertEquals(messages, this.received.get());
+        assertEquals(messages, histogram.getCount());
+        System.out.println(String.format(Locale.ROOT,
+            "Throughput: %.0f messages/s, %.2f MiB/s (SDP payload)",
+            messages / elapsed, (double) SESSIONS * ROUNDS * bytesPerRound / elapsed / (1 << 20)));
+        System.out.println(String.format(Locale.ROOT,
+            "Latency: mean %.1f us, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+            histogram.getMean() / 1e3, histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3,
+            histogram.getPercentile(99.9) / 1e3, histogram.getMax() / 1e3));
+        System.out.println(String.format(Locale.ROOT, "Heap per session: %d bytes", heapPerSession));
+        System.out.println(String.format(Locale.ROOT, "GC: %d collections, %d ms",
+            gcCount() - gcCountBefore, gcTime() - gcTimeBefore));
+    }
+
+    @NonNull private LoopbackTaskPair createPair() throws Exception {
+        final LoopbackTaskPair pair = new LoopbackTaskPair(
+            cryptoProvider, new WebRTCTaskBuilder().build(), new WebRTCTaskBuilder().build());
+        pair.handover();
+        final NullMessageHandler handler = new NullMessageHandler() {
+            @Override
+            public void onOffer(@NonNull Offer offer) {
+                LoadBenchmarkTest.this.received.incrementAndGet();
+            }
+
+            @Override
+            public void onAnswer(@NonNull Answer answer) {
+                LoadBenchmarkTest.this.received.incrementAndGet();
+            }
+
+            @Override
+            public void onCandidates(@NonNull Candidate[] candidates) {
+                LoadBenchmarkTest.this.received.incrementAndGet();
+            }
+        };
+        pair.initiatorTask.setMessageHandler(handler);
+        pair.responderTask.setMessageHandler(handler);
+        return pair;
+    }
+
+    private static long record(@NonNull final LatencyHistogram histogram, final long start) {
+        final long now = System.nanoTime();
+        histogram.record(now - start);
+        return now;
+    }
+
+    @NonNull private static String sdp(final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        builder.append("v=0\r\n");
+        while (builder.length() < length - 12) {
+            builder.append("a=x-").append(builder.length() % 10000).append("\r\n");
+        }
+        while (builder.length() < length) {
+            builder.append('a');
+        }
+        return builder.toString();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+}
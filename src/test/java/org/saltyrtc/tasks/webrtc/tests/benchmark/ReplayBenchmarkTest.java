@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.benchmark;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.tracing.LatencyHistogram;
+import org.saltyrtc.tasks.webrtc.transport.ChunkRecorder;
+import org.saltyrtc.tasks.webrtc.transport.ChunkReplayer;
+import org.saltyrtc.tasks.webrtc.transport.SignalingTransport;
+import org.saltyrtc.tasks.webrtc.transport.SignalingTransportLink;
+import org.saltyrtc.tasks.webrtc.utils.LazysodiumCryptoProvider;
+import org.saltyrtc.tasks.webrtc.utils.LoopbackTaskPair;
+import org.saltyrtc.tasks.webrtc.utils.NullMessageHandler;
+import org.saltyrtc.tasks.webrtc.utils.SignalingLoopbackDataChannel;
+
+import java.io.File;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records the signalling traffic of a handed over task pair and replays the
+ * received chunks into fresh signalling transports, so the receive path can
+ * be profiled in isolation. Also measures the overhead of recording.
+ *
+ * Run via `./gradlew benchmark`. The following system properties are
+ * supported:
+ *
+ * - `replay.file`: A recording of a live session. Only the chunk length
+ *   distribution will be reported since its chunks cannot be decrypted.
+ * - `replay.rounds`: Number of times the recording is replayed (default: 20)
+ */
+@Tag("benchmark")
+@DisplayName("Replay benchmark")
+class ReplayBenchmarkTest {
+    private static final int ROUNDS = Integer.getInteger("replay.rounds", 20);
+    private static final int SESSIONS = 100;
+    @NonNull private static final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+
+    private static class CountingHandler extends NullMessageHandler {
+        private int messages = 0;
+
+        @Override
+        public void onOffer(@NonNull Offer offer) {
+            this.messages++;
+        }
+
+        @Override
+        public void onAnswer(@NonNull Answer answer) {
+            this.messages++;
+        }
+
+        @Override
+        public void onCandidates(@NonNull Candidate[] candidates) {
+            this.messages++;
+        }
+    }
+
+    @Test
+    @DisplayName("replay received chunks into a signalling transport")
+    void benchmarkReplay() throws Exception {
+        final String path = System.getProperty("replay.file");
+        if (path != null) {
+            reportDistribution(new File(path));
+            return;
+        }
+
+        final File file = File.createTempFile("chunks", ".rec");
+        try {
+            // Record
+            final LoopbackTaskPair pair = createPair(new ChunkRecorder(file));
+            final CountingHandler handler = new CountingHandler();
+            pair.responderTask.setMessageHandler(handler);
+            final int messages = sendTraffic(pair);
+            assertEquals(messages, handler.messages);
+            assertNotNull(pair.responderChannel);
+            pair.responderChannel.close();
+            final long bytes = reportDistribution(file);
+
+            // Replay into fresh transports, sharing the keys of the recorded
+            // session
+            final SignalingTransportLink link = pair.responderTask.getTransportLink();
+            final LatencyHistogram histogram = new LatencyHistogram();
+            long chunks = 0;
+            try (ChunkReplayer replayer = new ChunkReplayer(file)) {
+                for (int round = 0; round < ROUNDS; round++) {
+                    handler.messages = 0;
+                    final SignalingTransport transport = new SignalingTransport(
+                        link, new SignalingLoopbackDataChannel(link), pair.responderTask, pair.responder,
+                        new DataChannelCryptoContext(link.getId(), pair.responder), 262144);
+                    final long start = System.nanoTime();
+                    chunks += replayer.replayInto(link, 0);
+                    histogram.record(System.nanoTime() - start);
+                    assertEquals(messages, handler.messages);
+                    transport.closed();
+                }
+            }
+            System.out.println(String.format(Locale.ROOT,
+                "Replay: %d rounds, %.0f chunks/s, %.1f MiB/s, p50 %.2f ms per round",
+                ROUNDS, chunks / (histogram.getMean() * ROUNDS / 1e9),
+                bytes / (histogram.getMean() / 1e9) / (1 << 20), histogram.getPercentile(50) / 1e6));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    @DisplayName("recording overhead")
+    void benchmarkRecordingOverhead() throws Exception {
+        final File file = File.createTempFile("chunks", ".rec");
+        try {
+            for (int i = 0; i < 3; i++) {
+                final long plain = timeTraffic(null);
+                final long recorded = timeTraffic(new ChunkRecorder(file));
+                final long lengthOnly = timeTraffic(new ChunkRecorder(file, 0));
+                System.out.println(String.format(Locale.ROOT,
+                    "Recording overhead: none %.1f ms, full capture %.1f ms, lengths only %.1f ms",
+                    plain / 1e6, recorded / 1e6, lengthOnly / 1e6));
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static long timeTraffic(@Nullable final ChunkRecorder recorder) throws Exception {
+        final LoopbackTaskPair pair = createPair(recorder);
+        pair.responderTask.setMessageHandler(new CountingHandler());
+        final long start = System.nanoTime();
+        sendTraffic(pair);
+        if (recorder != null) {
+            recorder.flush();
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertNotNull(pair.responderChannel);
+        pair.responderChannel.close();
+        return elapsed;
+    }
+
+    @NonNull private static LoopbackTaskPair createPair(@Nullable final ChunkRecorder recorder) throws Exception {
+        final LoopbackTaskPair pair = new LoopbackTaskPair(cryptoProvider,
+            new WebRTCTaskBuilder().build(), new WebRTCTaskBuilder().withChunkRecorder(recorder).build());
+        pair.handover();
+        return pair;
+    }
+
+    /**
+     * Send a mix of message sizes: Per session an offer, trickled candidates
+     * and a large offer which needs to be chunked.
+     *
+     * @return the number of messages sent.
+     */
+    private static int sendTraffic(@NonNull final LoopbackTaskPair pair) throws Exception {
+        final Offer offer = new Offer(sdp(4096));
+        final Offer largeOffer = new Offer(sdp(600000));
+        int messages = 0;
+        for (int session = 0; session < SESSIONS; session++) {
+            pair.initiatorTask.sendOffer(offer);
+            messages++;
+            for (int i = 0; i < 10; i++) {
+                pair.initiatorTask.sendCandidates(new Candidate[] {
+                    new Candidate(
+                        "candidate:" + i + " 1 udp 2122260223 10.0.0." + i + " 5300" + i + " typ host", "0", 0),
+                });
+                messages++;
+            }
+            if (session % 10 == 0) {
+                pair.initiatorTask.sendOffer(largeOffer);
+                messages++;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Report the chunk length distribution of a recording.
+     *
+     * @return the total length of all incoming chunks.
+     */
+    private static long reportDistribution(@NonNull final File file) throws Exception {
+        final LatencyHistogram incoming = new LatencyHistogram();
+        final LatencyHistogram outgoing = new LatencyHistogram();
+        try (ChunkReplayer replayer = new ChunkReplayer(file)) {
+            replayer.replay((isOutgoing, time, length, chunk) ->
+                (isOutgoing ? outgoing : incoming).record(length), 0);
+        }
+        for (final LatencyHistogram histogram : new LatencyHistogram[] { incoming, outgoing }) {
+            System.out.println(String.format(Locale.ROOT,
+                "%s chunks: %d, length mean %.0f, p50 %d, p99 %d, max %d bytes",
+                histogram == incoming ? "Incoming" : "Outgoing", histogram.getCount(), histogram.getMean(),
+                histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax()));
+        }
+        return Math.round(incoming.getMean() * incoming.getCount());
+    }
+
+    @NonNull private static String sdp(final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        builder.append("v=0\r\n");
+        while (builder.length() < length - 12) {
+            builder.append("a=x-").append(builder.length() % 10000).append("\r\n");
+        }
+        while (builder.length() < length) {
+            builder.append('a');
+        }
+        return builder.toString();
+    }
+}
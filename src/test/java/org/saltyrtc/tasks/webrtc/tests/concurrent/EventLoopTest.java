@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.concurrent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoopGroup;
+import org.saltyrtc.tasks.webrtc.concurrent.ScheduledTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("EventLoop")
+class EventLoopTest {
+    @NonNull private EventLoop loop;
+
+    @BeforeEach
+    void setUp() {
+        this.loop = new EventLoop("test-loop");
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        this.loop.shutdown();
+        assertTrue(this.loop.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("runs tasks in order on the loop's thread")
+    void testOrder() throws InterruptedException {
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        assertFalse(this.loop.inEventLoop());
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            this.loop.execute(() -> {
+                assertTrue(this.loop.inEventLoop());
+                order.add(value);
+            });
+        }
+        this.loop.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("runs tasks of many producers without losing any")
+    void testProducers() throws InterruptedException {
+        final int producers = 4;
+        final int tasks = 10000;
+        final int[] counter = { 0 };
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int i = 0; i < producers; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < tasks; j++) {
+                    // Not thread-safe, which is fine on the loop
+                    this.loop.execute(() -> counter[0]++);
+                }
+                this.loop.execute(done::countDown);
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        final CountDownLatch read = new CountDownLatch(1);
+        final int[] result = { 0 };
+        this.loop.execute(() -> {
+            result[0] = counter[0];
+            read.countDown();
+        });
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        assertEquals(producers * tasks, result[0]);
+    }
+
+    @Test
+    @DisplayName("continues after a task threw")
+    void testException() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        this.loop.execute(() -> {
+            throw new IllegalStateException("Expected");
+        });
+        this.loop.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("runs timers in order of their deadline")
+    void testTimers() throws InterruptedException {
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        this.loop.schedule(() -> {
+            order.add(2);
+            done.countDown();
+        }, 60, TimeUnit.MILLISECONDS);
+        this.loop.schedule(() -> order.add(1), 30, TimeUnit.MILLISECONDS);
+        final ScheduledTask cancelled = this.loop.schedule(() -> order.add(0), 10, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(2, order.size());
+        assertEquals(Integer.valueOf(1), order.get(0));
+        assertEquals(Integer.valueOf(2), order.get(1));
+    }
+
+    @Test
+    @DisplayName("rejects tasks after a shutdown")
+    void testShutdown() throws InterruptedException {
+        this.loop.shutdown();
+        assertTrue(this.loop.awaitTermination(5, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> this.loop.execute(() -> {}));
+    }
+
+    @Test
+    @DisplayName("runs every accepted task when shut down concurrently")
+    void testShutdownConcurrently() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            final EventLoop loop = new EventLoop("test-loop-" + round);
+            final AtomicInteger accepted = new AtomicInteger();
+            final AtomicInteger executed = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                new Thread(() -> {
+                    try {
+                        for (int j = 0; j < 10000; j++) {
+                            loop.execute(executed::incrementAndGet);
+                            accepted.incrementAndGet();
+                        }
+                    } catch (RejectedExecutionException error) {
+                        // Expected once the loop has been shut down
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            loop.shutdown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(loop.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(accepted.get(), executed.get());
+        }
+    }
+
+    @Test
+    @DisplayName("group assigns loops in a round robin fashion")
+    void testGroup() throws InterruptedException {
+        final EventLoopGroup group = new EventLoopGroup(3);
+        try {
+            assertEquals(3, group.size());
+            final EventLoop first = group.next();
+            assertNotSame(first, group.next());
+            assertNotSame(first, group.next());
+            assertSame(first, group.next());
+        } finally {
+            group.shutdown();
+            assertTrue(group.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new EventLoopGroup(0));
+    }
+}
@@ -148,7 +148,7 @@ class DataChannelCryptoContextTest {
             final InvalidNonceBox invalidNonceBox = new InvalidNonceBox();
             final ValidationError error = assertThrows(ValidationError.class, () -> this.context.decrypt(invalidNonceBox));
             assertEquals(
-                "Unable to create nonce, reason: java.lang.IllegalArgumentException: Buffer limit must be at least 24",
+                "Nonce must be at least 24 bytes",
                 error.getMessage());
         }
 
@@ -197,6 +197,17 @@ class DataChannelCryptoContextTest {
             assertEquals("Data channel id in nonce does not match", error.getMessage());
         }
 
+        @Test
+        @DisplayName("rejects invalid nonces without stack traces")
+        void testStacklessRejection() throws ProtocolException, CryptoException, ValidationError {
+            final Box box = new Box(NONCE.toBytes(), new byte[] {});
+            this.context.decrypt(box);
+            final ValidationError first = assertThrows(ValidationError.class, () -> this.context.decrypt(box));
+            final ValidationError second = assertThrows(ValidationError.class, () -> this.context.decrypt(box));
+            assertEquals(0, first.getStackTrace().length);
+            assertSame(first, second);
+        }
+
         @Test
         @DisplayName("can decrypt bytes")
         void testDecrypt() throws ProtocolException, CryptoException, ValidationError {
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.events;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.tasks.webrtc.events.Flow;
+import org.saltyrtc.tasks.webrtc.events.IncomingMessage;
+import org.saltyrtc.tasks.webrtc.events.MessageHandler;
+import org.saltyrtc.tasks.webrtc.events.MessagePublisher;
+import org.saltyrtc.tasks.webrtc.events.PublishingMessageHandler;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records all signals and requests items on demand.
+ */
+class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+    @NonNull final List<T> items = new ArrayList<>();
+    @Nullable Flow.Subscription subscription;
+    @Nullable Throwable error;
+    boolean completed = false;
+    private final long initialDemand;
+
+    RecordingSubscriber(final long initialDemand) {
+        this.initialDemand = initialDemand;
+    }
+
+    @Override
+    public void onSubscribe(@NonNull Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (this.initialDemand > 0) {
+            subscription.request(this.initialDemand);
+        }
+    }
+
+    @Override
+    public void onNext(@NonNull T item) {
+        assertFalse(this.completed);
+        this.items.add(item);
+    }
+
+    @Override
+    public void onError(@NonNull Throwable throwable) {
+        assertNull(this.error);
+        this.error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+        assertFalse(this.completed);
+        this.completed = true;
+    }
+}
+
+@DisplayName("MessagePublisher")
+class MessagePublisherTest {
+    @Test
+    @DisplayName("buffers items until requested")
+    void testDemand() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(16);
+        assertTrue(publisher.publish(1));
+        assertTrue(publisher.publish(2));
+        assertTrue(publisher.publish(3));
+
+        final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(2);
+        publisher.subscribe(subscriber);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(1, publisher.getBuffered());
+
+        assertTrue(publisher.publish(4));
+        assertEquals(2, subscriber.items.size());
+        subscriber.subscription.request(5);
+        assertEquals(4, subscriber.items.size());
+        assertTrue(publisher.publish(5));
+        assertEquals(5, subscriber.items.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i + 1), subscriber.items.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("completes after delivering buffered items")
+    void testComplete() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(16);
+        final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        publisher.publish(1);
+        publisher.complete();
+        assertFalse(subscriber.completed);
+        assertFalse(publisher.publish(2));
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.items.size());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    @DisplayName("fails a subscriber that is too slow without blocking")
+    void testOverflow() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(2);
+        final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        assertTrue(publisher.publish(1));
+        assertTrue(publisher.publish(2));
+        assertFalse(publisher.publish(3));
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertEquals(0, subscriber.items.size());
+        assertEquals(0, publisher.getBuffered());
+        assertFalse(publisher.publish(4));
+    }
+
+    @Test
+    @DisplayName("supports requesting from within onNext")
+    void testReentrantRequest() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(16);
+        final int[] depth = { 0, 0 };
+        final List<Integer> received = new ArrayList<>();
+        publisher.subscribe(new RecordingSubscriber<Integer>(1) {
+            @Override
+            public void onNext(@NonNull Integer item) {
+                depth[0]++;
+                depth[1] = Math.max(depth[1], depth[0]);
+                received.add(item);
+                this.subscription.request(1);
+                depth[0]--;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            publisher.publish(i);
+        }
+        assertEquals(10, received.size());
+        assertEquals(1, depth[1]);
+    }
+
+    @Test
+    @DisplayName("rejects a non-positive request")
+    void testInvalidRequest() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(16);
+        final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    @DisplayName("supports a single subscriber only")
+    void testSingleSubscriber() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(16);
+        publisher.subscribe(new RecordingSubscriber<>(1));
+        final RecordingSubscriber<Integer> second = new RecordingSubscriber<>(1);
+        publisher.subscribe(second);
+        assertNotNull(second.subscription);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    @DisplayName("discards items once cancelled")
+    void testCancel() {
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(16);
+        final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        publisher.publish(1);
+        subscriber.subscription.cancel();
+        assertEquals(0, publisher.getBuffered());
+        assertFalse(publisher.publish(2));
+        subscriber.subscription.request(1);
+        assertEquals(0, subscriber.items.size());
+    }
+
+    @Test
+    @DisplayName("delivers items in order while requesting from another thread")
+    void testConcurrent() throws InterruptedException {
+        final int count = 100000;
+        final MessagePublisher<Integer> publisher = new MessagePublisher<>(count);
+        final List<Integer> items = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Flow.Subscription[] subscription = { null };
+        publisher.subscribe(new Flow.Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(@NonNull Flow.Subscription s) {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onNext(@NonNull Integer item) {
+                items.add(item);
+            }
+
+            @Override
+            public void onError(@NonNull Throwable throwable) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        final Thread requester = new Thread(() -> {
+            for (int i = 0; i < count / 100; i++) {
+                subscription[0].request(100);
+            }
+        });
+        requester.start();
+        for (int i = 0; i < count; i++) {
+            publisher.publish(i);
+        }
+        publisher.complete();
+        requester.join();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(count, items.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i), items.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("never drops an accepted item when completed concurrently")
+    void testCompleteConcurrently() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final MessagePublisher<Integer> publisher = new MessagePublisher<>(Integer.MAX_VALUE);
+            final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<Integer>(Long.MAX_VALUE) {
+                @Override
+                public synchronized void onNext(@NonNull Integer item) {
+                    super.onNext(item);
+                }
+            };
+            publisher.subscribe(subscriber);
+            final int[] accepted = { 0 };
+            final CountDownLatch started = new CountDownLatch(1);
+            final Thread producer = new Thread(() -> {
+                started.countDown();
+                while (publisher.publish(accepted[0])) {
+                    accepted[0]++;
+                }
+            });
+            producer.start();
+            started.await();
+            publisher.complete();
+            producer.join();
+            synchronized (subscriber) {
+                assertEquals(accepted[0], subscriber.items.size());
+                assertTrue(subscriber.completed);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("publishes all messages received by the message handler in order")
+    void testMessageHandler() {
+        final PublishingMessageHandler handler = new PublishingMessageHandler(4);
+        final Candidate[] candidates = new Candidate[] {
+            new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+        };
+        handler.onOffer(new Offer("offer"));
+        handler.onCandidates(candidates);
+        final RecordingSubscriber<IncomingMessage> subscriber = new RecordingSubscriber<>(Long.MAX_VALUE);
+        handler.getMessages().subscribe(subscriber);
+        handler.onAnswer(new Answer("answer"));
+        handler.onCandidates(candidates);
+        handler.complete();
+        assertTrue(subscriber.completed);
+
+        // Dispatch in order
+        final List<String> received = new ArrayList<>();
+        final MessageHandler recorder = new MessageHandler() {
+            @Override
+            public void onOffer(@NonNull Offer offer) {
+                received.add("offer " + offer.getSdp());
+            }
+
+            @Override
+            public void onAnswer(@NonNull Answer answer) {
+                received.add("answer " + answer.getSdp());
+            }
+
+            @Override
+            public void onCandidates(@NonNull Candidate[] batch) {
+                assertSame(candidates, batch);
+                received.add("candidates");
+            }
+        };
+        for (final IncomingMessage message : subscriber.items) {
+            message.dispatch(recorder);
+        }
+        assertEquals("[offer offer, candidates, answer answer, candidates]", received.toString());
+    }
+}
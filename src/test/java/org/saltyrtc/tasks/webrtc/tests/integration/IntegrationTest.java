@@ -8,6 +8,8 @@
 
 package org.saltyrtc.tasks.webrtc.tests.integration;
 
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -75,6 +77,7 @@ class LoopbackDataChannelPair<T extends LoopbackDataChannel> {
 @DisplayName("Integration")
 class IntegrationTest {
     @NonNull private static final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+    @Nullable private static EmbeddedSaltyRTCServer server;
 
     static {
         System.setProperty("org.slf4j.simpleLogger.logFile", "System.out");
@@ -83,6 +86,23 @@ class IntegrationTest {
         }
     }
 
+    @BeforeAll
+    static void startServer() throws Exception {
+        if (Config.EMBEDDED_SERVER) {
+            server = new EmbeddedSaltyRTCServer(
+                cryptoProvider, SSLContextHelper.getServerSSLContext(), Config.SALTYRTC_SERVER_PRIVATE_KEY);
+            server.start(Config.SALTYRTC_PORT);
+        }
+    }
+
+    @AfterAll
+    static void stopServer() {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
     static void await(@NonNull final CountDownLatch latch) throws InterruptedException {
         await(latch, 5);
     }
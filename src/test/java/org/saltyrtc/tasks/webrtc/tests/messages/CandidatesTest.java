@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.messages;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Candidates;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Candidates")
+class CandidatesTest {
+    private static final Candidate[] CANDIDATES = new Candidate[] {
+        new Candidate(
+            "candidate:842163049 1 udp 1677729535 192.0.2.17 53001 typ srflx raddr 10.0.0.2 rport 53001 " +
+            "generation 0 ufrag sEMT network-id 1 network-cost 10", "0", 0),
+        new Candidate("candidate:3098175849 1 udp 2122260223 10.0.0.2 53001 typ host generation 0", "0", 0),
+        new Candidate("candidate:1204837391 1 tcp 1518280447 10.0.0.2 9 typ host tcptype active", "1", 1),
+        new Candidate("candidate:2999745851 1 udp 2122265343 2001:db8::1:2 53002 typ host", "data", 2),
+        new Candidate("candidate:4 1 UDP 41819902 198.51.100.7 3478 typ relay raddr 0.0.0.0 rport 0", null, 0),
+        new Candidate("candidate:1 1 udp 2113937151 8d5b3e8a-0fd4-4b7f-8a3c-7e0f0c0a9b12.local 58762 typ host",
+            "audio", null),
+        null,
+        new Candidate("", "0", 0),
+    };
+
+    @Nested
+    @DisplayName("compact encoding")
+    class CompactEncoding {
+        private Candidate[] roundtrip(final Candidate[] candidates) throws ValidationError {
+            final TaskMessage message = new Candidates(candidates).toCompactTaskMessage();
+            assertEquals("candidates", message.getType());
+            return new Candidates(message.getData(), true).getCandidates();
+        }
+
+        @Test
+        @DisplayName("roundtrips parsed candidates")
+        void testRoundtrip() throws ValidationError {
+            assertArrayEquals(CANDIDATES, this.roundtrip(CANDIDATES));
+        }
+
+        @Test
+        @DisplayName("roundtrips candidates that cannot be parsed losslessly")
+        void testRoundtripRaw() throws ValidationError {
+            final Candidate[] candidates = new Candidate[] {
+                new Candidate("a=candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+                new Candidate("candidate:1 1 udp 2122260223 010.0.0.2 53001 typ host", "0", 0),
+                new Candidate("candidate:1 1 udp 2122260223 fe80::1%eth0 53001 typ host", "0", 0),
+                new Candidate("candidate:1 1 udp 2122260223 2001:DB8::1 53001 typ host", "0", 0),
+                new Candidate("candidate:1 1 udp 99999999999 10.0.0.2 53001 typ host", "0", 0),
+                new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host ", "0", 0),
+                new Candidate("candidate:1  1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+                new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 70000 typ host", "0", 0),
+                new Candidate("nonsense", "0", 0),
+            };
+            assertArrayEquals(candidates, this.roundtrip(candidates));
+        }
+
+        @Test
+        @DisplayName("roundtrips an empty list")
+        void testRoundtripEmpty() throws ValidationError {
+            assertArrayEquals(new Candidate[0], this.roundtrip(new Candidate[0]));
+        }
+
+        @Test
+        @DisplayName("is smaller than the raw candidate lines")
+        void testSize() {
+            final byte[] encoded = (byte[]) new Candidates(CANDIDATES).toCompactTaskMessage()
+                .getData().get("candidates_compact");
+            int rawLength = 0;
+            for (final Candidate candidate : CANDIDATES) {
+                if (candidate != null) {
+                    rawLength += candidate.getSdp().getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+            assertTrue(encoded.length < rawLength * 3 / 4,
+                "Expected " + encoded.length + " to be less than 75% of " + rawLength);
+        }
+
+        @Test
+        @DisplayName("falls back to the regular encoding for unrepresentable candidates")
+        void testFallback() {
+            final Candidate[] candidates = new Candidate[] {
+                new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+                new Candidate("candidate:2 1 udp 2122260223 10.0.0.3 53001 typ host", "0", -1),
+            };
+            final Map<String, Object> data = new Candidates(candidates).toCompactTaskMessage().getData();
+            assertFalse(data.containsKey("candidates_compact"));
+            assertEquals(2, ((List<?>) data.get("candidates")).size());
+
+            final Candidate[] large = new Candidate[] {
+                new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 65536),
+            };
+            assertFalse(new Candidates(large).toCompactTaskMessage().getData().containsKey("candidates_compact"));
+        }
+
+        @Test
+        @DisplayName("is rejected if not negotiated")
+        void testNotNegotiated() {
+            final Map<String, Object> data = new Candidates(CANDIDATES).toCompactTaskMessage().getData();
+            final ValidationError error = assertThrows(ValidationError.class, () -> new Candidates(data));
+            assertEquals("Compact candidates have not been negotiated", error.getMessage());
+        }
+
+        @Test
+        @DisplayName("rejects truncated data")
+        void testTruncated() {
+            final byte[] encoded = (byte[]) new Candidates(CANDIDATES).toCompactTaskMessage()
+                .getData().get("candidates_compact");
+            for (int length = 0; length < encoded.length; ++length) {
+                final Map<String, Object> data = new HashMap<>();
+                data.put("candidates_compact", Arrays.copyOf(encoded, length));
+                assertThrows(ValidationError.class, () -> new Candidates(data, true));
+            }
+        }
+
+        @Test
+        @DisplayName("rejects an unknown version")
+        void testUnknownVersion() {
+            final Map<String, Object> data = new HashMap<>();
+            data.put("candidates_compact", new byte[] { 2, 0 });
+            final ValidationError error = assertThrows(ValidationError.class, () -> new Candidates(data, true));
+            assertEquals("Unsupported compact candidates version: 2", error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.messages;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SDP delta")
+class SdpDeltaTest {
+    private static final String AUDIO =
+        "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n" +
+        "c=IN IP4 0.0.0.0\r\n" +
+        "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+        "a=ice-ufrag:sEMT\r\n" +
+        "a=ice-pwd:Yd9A5XmxT8nHHqwXY4sR0m2q\r\n" +
+        "a=fingerprint:sha-256 7B:8B:F0:65:5F:78:E2:51:3B:AC:6F:F3:3F:46:1B:35:DC:B8:5F:64:1A:24:C2:43:F0:A1\r\n" +
+        "a=setup:actpass\r\n" +
+        "a=mid:0\r\n" +
+        "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n" +
+        "a=sendrecv\r\n" +
+        "a=msid:stream track-audio\r\n" +
+        "a=rtcp-mux\r\n" +
+        "a=rtpmap:111 opus/48000/2\r\n" +
+        "a=rtcp-fb:111 transport-cc\r\n" +
+        "a=fmtp:111 minptime=10;useinbandfec=1\r\n" +
+        "a=ssrc:1001 cname:K3k3Hk8nA0oHn4+b\r\n";
+    private static final String VIDEO =
+        "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99\r\n" +
+        "c=IN IP4 0.0.0.0\r\n" +
+        "a=mid:1\r\n" +
+        "a=sendrecv\r\n" +
+        "a=msid:stream track-video\r\n" +
+        "a=rtcp-mux\r\n" +
+        "a=rtpmap:96 VP8/90000\r\n" +
+        "a=rtcp-fb:96 goog-remb\r\n" +
+        "a=rtcp-fb:96 nack\r\n" +
+        "a=rtpmap:97 rtx/90000\r\n" +
+        "a=fmtp:97 apt=96\r\n" +
+        "a=ssrc-group:FID 2001 2002\r\n" +
+        "a=ssrc:2001 cname:K3k3Hk8nA0oHn4+b\r\n" +
+        "a=ssrc:2002 cname:K3k3Hk8nA0oHn4+b\r\n";
+    private static final String SESSION =
+        "v=0\r\n" +
+        "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+        "s=-\r\n" +
+        "t=0 0\r\n";
+    private static final String SDP_AUDIO = SESSION + "a=group:BUNDLE 0\r\n" + AUDIO;
+    private static final String SDP_AUDIO_VIDEO = SESSION + "a=group:BUNDLE 0 1\r\n" + AUDIO + VIDEO;
+
+    @Test
+    @DisplayName("sends a smaller delta for a renegotiation offer")
+    @SuppressWarnings("unchecked")
+    void testOfferDelta() throws ValidationError {
+        final TaskMessage message = new Offer(SDP_AUDIO_VIDEO).toTaskMessage(SDP_AUDIO);
+        final Map<String, Object> offer = (Map<String, Object>) message.getData().get("offer");
+        assertFalse(offer.containsKey("sdp"));
+        final byte[] delta = (byte[]) offer.get("sdp_delta");
+        assertTrue(delta.length < SDP_AUDIO_VIDEO.length() / 2);
+        assertEquals(SDP_AUDIO_VIDEO, new Offer(message.getData(), SDP_AUDIO).getSdp());
+    }
+
+    @Test
+    @DisplayName("roundtrips removed and modified lines")
+    @SuppressWarnings("unchecked")
+    void testAnswerDelta() throws ValidationError {
+        final String base = SDP_AUDIO_VIDEO;
+        final String sdp = SDP_AUDIO_VIDEO
+            .replace("a=sendrecv\r\na=msid:stream track-video\r\n", "a=inactive\r\n")
+            .replace("o=- 4611731400430051336 2", "o=- 4611731400430051336 3");
+        final TaskMessage message = new Answer(sdp).toTaskMessage(base);
+        final Map<String, Object> answer = (Map<String, Object>) message.getData().get("answer");
+        assertTrue(answer.containsKey("sdp_delta"));
+        assertEquals(sdp, new Answer(message.getData(), base).getSdp());
+    }
+
+    @Test
+    @DisplayName("sends the full SDP if the delta is not smaller")
+    @SuppressWarnings("unchecked")
+    void testNoGain() throws ValidationError {
+        final TaskMessage message = new Offer("v=0\r\n").toTaskMessage(SDP_AUDIO);
+        final Map<String, Object> offer = (Map<String, Object>) message.getData().get("offer");
+        assertEquals("v=0\r\n", offer.get("sdp"));
+        assertEquals("v=0\r\n", new Offer(message.getData(), SDP_AUDIO).getSdp());
+    }
+
+    @Test
+    @DisplayName("rejects a delta against a different base")
+    void testBaseMismatch() {
+        final TaskMessage message = new Offer(SDP_AUDIO_VIDEO).toTaskMessage(SDP_AUDIO);
+        final ValidationError error = assertThrows(ValidationError.class, () ->
+            new Offer(message.getData(), SDP_AUDIO + "a=end-of-candidates\r\n"));
+        assertEquals("SDP delta does not match the previous SDP", error.getMessage());
+    }
+
+    @Test
+    @DisplayName("rejects a delta if not allowed")
+    void testNotAllowed() {
+        final TaskMessage message = new Offer(SDP_AUDIO_VIDEO).toTaskMessage(SDP_AUDIO);
+        final ValidationError error = assertThrows(ValidationError.class, () -> new Offer(message.getData()));
+        assertEquals("Unexpected SDP delta", error.getMessage());
+    }
+}
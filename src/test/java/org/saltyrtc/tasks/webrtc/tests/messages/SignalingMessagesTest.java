@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.messages;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.messages.SignalingMessages;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SignalingMessages")
+class SignalingMessagesTest {
+    // Reason encoded as uint16
+    @NonNull private static final byte[] REASON = new byte[] { (byte) 0xcd, 0x0b, (byte) 0xb9 };
+
+    /**
+     * Concatenate byte arrays.
+     */
+    @NonNull private static byte[] concat(@NonNull final byte[]... parts) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (final byte[] part : parts) {
+            stream.write(part, 0, part.length);
+        }
+        return stream.toByteArray();
+    }
+
+    @NonNull private static byte[] fixstr(@NonNull final String value) {
+        return concat(new byte[] { (byte) (0xa0 | value.length()) }, value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NonNull private static byte[] str8(@NonNull final String value) {
+        return concat(new byte[] { (byte) 0xd9, (byte) value.length() }, value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NonNull private static byte[] str16(@NonNull final String value) {
+        return concat(new byte[] { (byte) 0xda, 0, (byte) value.length() },
+            value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NonNull private static byte[] str32(@NonNull final String value) {
+        return concat(new byte[] { (byte) 0xdb, 0, 0, 0, (byte) value.length() },
+            value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Return `{"type": "close", "reason": 3001}` as created by the signalling
+     * instance.
+     */
+    @NonNull private static byte[] close() {
+        return concat(new byte[] { (byte) 0x82 }, fixstr("type"), fixstr("close"), fixstr("reason"), REASON);
+    }
+
+    @Nested
+    @DisplayName("isClose")
+    class IsClose {
+        @Test
+        @DisplayName("recognises a close message")
+        void testClose() {
+            assertTrue(SignalingMessages.isClose(close()));
+        }
+
+        @Test
+        @DisplayName("recognises the type following other entries")
+        void testTypeLast() {
+            assertTrue(SignalingMessages.isClose(concat(
+                new byte[] { (byte) 0x82 }, fixstr("reason"), REASON, fixstr("type"), fixstr("close"))));
+        }
+
+        @Test
+        @DisplayName("accepts all map headers")
+        void testMapHeaders() {
+            final byte[] entries = concat(fixstr("reason"), REASON, fixstr("type"), fixstr("close"));
+            assertTrue(SignalingMessages.isClose(concat(new byte[] { (byte) 0xde, 0, 2 }, entries)));
+            assertTrue(SignalingMessages.isClose(concat(new byte[] { (byte) 0xdf, 0, 0, 0, 2 }, entries)));
+        }
+
+        @Test
+        @DisplayName("accepts all string headers")
+        void testStringHeaders() {
+            final byte[] map = new byte[] { (byte) 0x82 };
+            assertTrue(SignalingMessages.isClose(concat(map, str8("reason"), REASON, str8("type"), str8("close"))));
+            assertTrue(SignalingMessages.isClose(
+                concat(map, str16("reason"), REASON, str16("type"), str16("close"))));
+            assertTrue(SignalingMessages.isClose(
+                concat(map, str32("reason"), REASON, str32("type"), str32("close"))));
+        }
+
+        @Test
+        @DisplayName("skips all integer forms")
+        void testIntegers() {
+            final byte[][] reasons = new byte[][] {
+                new byte[] { 0x7f },
+                new byte[] { (byte) 0xe0 },
+                new byte[] { (byte) 0xcc, (byte) 0xff },
+                new byte[] { (byte) 0xcd, 0x0b, (byte) 0xb9 },
+                new byte[] { (byte) 0xce, 0, 0, 0x0b, (byte) 0xb9 },
+                new byte[] { (byte) 0xcf, 0, 0, 0, 0, 0, 0, 0x0b, (byte) 0xb9 },
+                new byte[] { (byte) 0xd0, (byte) 0x80 },
+                new byte[] { (byte) 0xd1, 0x0b, (byte) 0xb9 },
+                new byte[] { (byte) 0xd2, 0, 0, 0x0b, (byte) 0xb9 },
+                new byte[] { (byte) 0xd3, 0, 0, 0, 0, 0, 0, 0x0b, (byte) 0xb9 },
+            };
+            for (final byte[] reason : reasons) {
+                assertTrue(SignalingMessages.isClose(concat(
+                    new byte[] { (byte) 0x82 }, fixstr("reason"), reason, fixstr("type"), fixstr("close"))),
+                    "Reason " + Arrays.toString(reason));
+            }
+        }
+
+        @Test
+        @DisplayName("rejects other message types")
+        void testOtherType() {
+            assertFalse(SignalingMessages.isClose(concat(
+                new byte[] { (byte) 0x82 }, fixstr("type"), fixstr("offer"), fixstr("reason"), REASON)));
+            assertFalse(SignalingMessages.isClose(concat(
+                new byte[] { (byte) 0x82 }, fixstr("type"), fixstr("closed"), fixstr("reason"), REASON)));
+            assertFalse(SignalingMessages.isClose(concat(
+                new byte[] { (byte) 0x82 }, fixstr("type"), new byte[] { 0x01 }, fixstr("reason"), REASON)));
+        }
+
+        @Test
+        @DisplayName("rejects messages without a type")
+        void testNoType() {
+            assertFalse(SignalingMessages.isClose(concat(new byte[] { (byte) 0x81 }, fixstr("reason"), REASON)));
+            assertFalse(SignalingMessages.isClose(new byte[] { (byte) 0x80 }));
+            assertFalse(SignalingMessages.isClose(new byte[0]));
+        }
+
+        @Test
+        @DisplayName("rejects nested values and non-map messages")
+        void testNested() {
+            assertFalse(SignalingMessages.isClose(concat(
+                new byte[] { (byte) 0x82 }, fixstr("data"), new byte[] { (byte) 0x90 }, fixstr("type"),
+                fixstr("close"))));
+            assertFalse(SignalingMessages.isClose(concat(new byte[] { (byte) 0x92 }, fixstr("type"), fixstr("close"))));
+            assertFalse(SignalingMessages.isClose(fixstr("close")));
+        }
+
+        @Test
+        @DisplayName("rejects truncated messages")
+        void testTruncated() {
+            final byte[] close = concat(new byte[] { (byte) 0x82 }, fixstr("reason"), REASON, str8("type"),
+                str8("close"));
+            for (int length = 0; length < close.length; length++) {
+                assertFalse(SignalingMessages.isClose(Arrays.copyOf(close, length)), "Length " + length);
+            }
+        }
+
+        @Test
+        @DisplayName("rejects long messages")
+        void testLong() {
+            final char[] padding = new char[60];
+            Arrays.fill(padding, 'x');
+            assertFalse(SignalingMessages.isClose(concat(
+                new byte[] { (byte) 0x83 }, fixstr("type"), fixstr("close"), str8("padding"),
+                str8(new String(padding)))));
+        }
+    }
+}
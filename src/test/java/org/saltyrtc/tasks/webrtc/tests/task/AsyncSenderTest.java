@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.task;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.SignalingException;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SignalingRole;
+import org.saltyrtc.tasks.webrtc.AsyncSender;
+import org.saltyrtc.tasks.webrtc.WebRTCTask;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.utils.NullSignaling;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("AsyncSender")
+class AsyncSenderTest {
+    /**
+     * Fails to send any task message.
+     */
+    private static class FailingSignaling extends NullSignaling {
+        @Nullable Integer resetReason;
+
+        @Override
+        public SignalingRole getRole() {
+            return SignalingRole.Initiator;
+        }
+
+        @Override
+        public void sendTaskMessage(TaskMessage message) throws SignalingException {
+            throw new SignalingException(CloseCode.PROTOCOL_ERROR, "Nope");
+        }
+
+        @Override
+        public void resetConnection(Integer reason) {
+            this.resetReason = reason;
+        }
+    }
+
+    private final Candidate[] candidates = new Candidate[] {
+        new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+    };
+
+    private static WebRTCTask createTask(final WebRTCTaskBuilder builder, final RecordingSignaling signaling)
+        throws Exception {
+        final WebRTCTask task = builder.build();
+        task.init(signaling, new HashMap<>(new WebRTCTaskBuilder().build().getData()));
+        return task;
+    }
+
+    @Test
+    @DisplayName("completes once the messages have been handed to the signalling instance")
+    void testSend() throws Exception {
+        final RecordingSignaling signaling = new RecordingSignaling();
+        final WebRTCTask task = createTask(new WebRTCTaskBuilder(), signaling);
+        final AsyncSender sender = new AsyncSender(task, Runnable::run);
+
+        final CompletionStage<Void> offer = sender.sendOffer(new Offer("v=0\r\n"));
+        assertTrue(offer.toCompletableFuture().isDone());
+        assertEquals(1, signaling.sent.size());
+        assertEquals("offer", signaling.sent.get(0).getType());
+
+        sender.sendAnswer(new Answer("v=0\r\n")).toCompletableFuture().get();
+        sender.sendCandidates(this.candidates).toCompletableFuture().get();
+        assertEquals(3, signaling.sent.size());
+        assertEquals("answer", signaling.sent.get(1).getType());
+        assertEquals("candidates", signaling.sent.get(2).getType());
+    }
+
+    @Test
+    @DisplayName("sends messages on the task's event loop in order")
+    void testEventLoop() throws Exception {
+        final EventLoop loop = new EventLoop("test-loop");
+        try {
+            final boolean[] onLoop = { true };
+            final RecordingSignaling signaling = new RecordingSignaling() {
+                @Override
+                public void sendTaskMessage(TaskMessage message) {
+                    onLoop[0] &= loop.inEventLoop();
+                    super.sendTaskMessage(message);
+                }
+            };
+            final WebRTCTask task = createTask(new WebRTCTaskBuilder().withEventLoop(loop), signaling);
+            final AsyncSender sender = new AsyncSender(task);
+
+            sender.sendOffer(new Offer("v=0\r\n"));
+            final CompletableFuture<Void> last = sender.sendCandidates(this.candidates).toCompletableFuture();
+            last.get(5, TimeUnit.SECONDS);
+            assertTrue(onLoop[0]);
+            assertEquals(2, signaling.sent.size());
+            assertEquals("offer", signaling.sent.get(0).getType());
+            assertEquals("candidates", signaling.sent.get(1).getType());
+        } finally {
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("sends messages one after another in order on a multi-threaded executor")
+    void testSerialised() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final AtomicInteger active = new AtomicInteger();
+            final AtomicBoolean overlapped = new AtomicBoolean();
+            final RecordingSignaling signaling = new RecordingSignaling() {
+                @Override
+                public void sendTaskMessage(TaskMessage message) {
+                    if (active.incrementAndGet() > 1) {
+                        overlapped.set(true);
+                    }
+                    Thread.yield();
+                    super.sendTaskMessage(message);
+                    active.decrementAndGet();
+                }
+            };
+            final WebRTCTask task = createTask(new WebRTCTaskBuilder(), signaling);
+            final AsyncSender sender = new AsyncSender(task, executor);
+
+            CompletableFuture<Void> last = null;
+            for (int i = 0; i < 500; i++) {
+                sender.sendOffer(new Offer("v=" + i + "\r\n"));
+                last = sender.sendCandidates(this.candidates).toCompletableFuture();
+            }
+            last.get(5, TimeUnit.SECONDS);
+            assertFalse(overlapped.get());
+            assertEquals(1000, signaling.sent.size());
+            for (int i = 0; i < 1000; i += 2) {
+                assertEquals("offer", signaling.sent.get(i).getType());
+                assertEquals("candidates", signaling.sent.get(i + 1).getType());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("requires an executor if the task has no event loop")
+    void testNoEventLoop() throws Exception {
+        final WebRTCTask task = createTask(new WebRTCTaskBuilder(), new RecordingSignaling());
+        assertThrows(IllegalArgumentException.class, () -> new AsyncSender(task));
+    }
+
+    @Test
+    @DisplayName("requires the task's event loop as the executor")
+    void testOtherExecutor() throws Exception {
+        final EventLoop loop = new EventLoop("test-loop");
+        final EventLoop other = new EventLoop("other-loop");
+        try {
+            final WebRTCTask task = createTask(new WebRTCTaskBuilder().withEventLoop(loop), new RecordingSignaling());
+            assertThrows(IllegalArgumentException.class, () -> new AsyncSender(task, other));
+            assertThrows(IllegalArgumentException.class, () -> new AsyncSender(task, Runnable::run));
+            assertNotNull(new AsyncSender(task, loop));
+        } finally {
+            loop.shutdown();
+            other.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("completes exceptionally without resetting the connection if sending fails")
+    void testSendFailure() throws Exception {
+        final FailingSignaling signaling = new FailingSignaling();
+        final WebRTCTask task = new WebRTCTaskBuilder().build();
+        task.init(signaling, new HashMap<>(new WebRTCTaskBuilder().build().getData()));
+        final AsyncSender sender = new AsyncSender(task, Runnable::run);
+
+        final CompletableFuture<Void> future = sender.sendOffer(new Offer("v=0\r\n")).toCompletableFuture();
+        final ExecutionException error = assertThrows(ExecutionException.class, future::get);
+        assertTrue(error.getCause() instanceof SignalingException);
+        assertNull(signaling.resetReason);
+    }
+
+    @Test
+    @DisplayName("completes exceptionally if the executor rejects the message")
+    void testRejected() throws Exception {
+        final WebRTCTask task = createTask(new WebRTCTaskBuilder(), new RecordingSignaling());
+        final AsyncSender sender = new AsyncSender(task, command -> {
+            throw new RejectedExecutionException("Shut down");
+        });
+
+        final CompletableFuture<Void> future = sender.sendCandidates(this.candidates).toCompletableFuture();
+        final ExecutionException error = assertThrows(ExecutionException.class, future::get);
+        assertTrue(error.getCause() instanceof RejectedExecutionException);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.task;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.messages.Answer;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.utils.LazysodiumCryptoProvider;
+import org.saltyrtc.tasks.webrtc.utils.LoopbackTaskPair;
+import org.saltyrtc.tasks.webrtc.utils.NullMessageHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("WebRTCTask over loopback signalling")
+class LoopbackTest {
+    @NonNull private LoopbackTaskPair pair;
+    @NonNull private final List<String> received = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        this.pair = new LoopbackTaskPair(
+            new LazysodiumCryptoProvider(),
+            new WebRTCTaskBuilder().withCompression(true).build(),
+            new WebRTCTaskBuilder().withCompression(true).build()
+        );
+        this.pair.initiatorTask.setMessageHandler(new NullMessageHandler() {
+            @Override
+            public void onAnswer(@NonNull Answer answer) {
+                LoopbackTest.this.received.add("answer " + answer.getSdp());
+            }
+        });
+        this.pair.responderTask.setMessageHandler(new NullMessageHandler() {
+            @Override
+            public void onOffer(@NonNull Offer offer) {
+                LoopbackTest.this.received.add("offer " + offer.getSdp());
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("exchanges messages before the handover")
+    void testBeforeHandover() throws Exception {
+        this.pair.initiatorTask.sendOffer(new Offer("v=0\r\n"));
+        this.pair.responderTask.sendAnswer(new Answer("v=1\r\n"));
+        assertEquals("[offer v=0\r\n, answer v=1\r\n]", this.received.toString());
+        assertNull(this.pair.initiator.getCloseCode());
+        assertNull(this.pair.responder.getCloseCode());
+    }
+
+    @Test
+    @DisplayName("exchanges messages via the data channel after the handover")
+    void testAfterHandover() throws Exception {
+        this.pair.handover();
+        assertTrue(this.pair.initiator.getHandoverState().getAll());
+        assertTrue(this.pair.responder.getHandoverState().getAll());
+
+        final List<Integer> chunks = new ArrayList<>();
+        assertNotNull(this.pair.responderChannel);
+        this.pair.responderChannel.setMessageHandler(message -> chunks.add(message.remaining()));
+        this.pair.initiatorTask.sendOffer(new Offer("v=0\r\n"));
+        this.pair.responderTask.sendAnswer(new Answer("v=1\r\n"));
+        assertEquals("[offer v=0\r\n, answer v=1\r\n]", this.received.toString());
+        assertEquals(1, chunks.size());
+    }
+}
@@ -0,0 +1,693 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.task;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.chunkedDc.Common;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.exceptions.SignalingException;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SignalingRole;
+import org.saltyrtc.client.signaling.state.HandoverState;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.tasks.webrtc.WebRTCTask;
+import org.saltyrtc.tasks.webrtc.WebRTCTaskBuilder;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
+import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
+import org.saltyrtc.tasks.webrtc.messages.Candidate;
+import org.saltyrtc.tasks.webrtc.messages.Offer;
+import org.saltyrtc.tasks.webrtc.transport.FlowControlledSignalingTransportHandler;
+import org.saltyrtc.tasks.webrtc.transport.RateLimit;
+import org.saltyrtc.tasks.webrtc.transport.SignalingTransportLink;
+import org.saltyrtc.tasks.webrtc.utils.NullHandler;
+import org.saltyrtc.tasks.webrtc.utils.NullMessageHandler;
+import org.saltyrtc.tasks.webrtc.utils.NullSignaling;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records sent task messages and otherwise does nothing.
+ */
+class RecordingSignaling extends NullSignaling {
+    @NonNull final List<TaskMessage> sent = new ArrayList<>();
+    @Nullable Integer resetReason;
+
+    @Override
+    public SignalingRole getRole() {
+        return SignalingRole.Initiator;
+    }
+
+    @Override
+    public void sendTaskMessage(TaskMessage message) {
+        this.sent.add(message);
+    }
+
+    @Override
+    public void resetConnection(Integer reason) {
+        this.resetReason = reason;
+    }
+}
+
+/**
+ * Simulates a state where the task has kicked in, so that the handover can
+ * be initiated. Does not actually encrypt.
+ */
+class TaskSignaling extends RecordingSignaling {
+    @NonNull final HandoverState handoverState = new HandoverState();
+
+    @Override
+    public SignalingState getState() {
+        return SignalingState.TASK;
+    }
+
+    @Override
+    public HandoverState getHandoverState() {
+        return this.handoverState;
+    }
+
+    @Override
+    public synchronized void sendTaskMessage(TaskMessage message) {
+        super.sendTaskMessage(message);
+    }
+
+    @Override
+    public Box encryptForPeer(byte[] data, byte[] nonce) {
+        return new Box(nonce, data);
+    }
+}
+
+/**
+ * Records chunks and pretends that the data channel's buffer is full unless
+ * there is budget left.
+ */
+class FlowControlledHandler extends NullHandler implements FlowControlledSignalingTransportHandler {
+    @NonNull final List<ByteBuffer> chunks = new ArrayList<>();
+    private final long maxMessageSize;
+    int budget = Integer.MAX_VALUE;
+
+    FlowControlledHandler(final long maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public long getMaxMessageSize() {
+        return this.maxMessageSize;
+    }
+
+    @Override
+    public void send(@NonNull ByteBuffer message) {
+        this.chunks.add(ByteBuffer.wrap(message.array().clone()));
+        --this.budget;
+    }
+
+    @Override
+    public long getBufferedAmount() {
+        return this.budget > 0 ? 0 : 1;
+    }
+
+    @Override
+    public long getBufferedAmountHighThreshold() {
+        return 1;
+    }
+}
+
+@DisplayName("WebRTCTask")
+class WebRTCTaskTest {
+    @NonNull private static Map<Object, Object> peerData(@NonNull final WebRTCTask peer) {
+        return new HashMap<>(peer.getData());
+    }
+
+    @Nested
+    @DisplayName("compact candidates")
+    class CompactCandidates {
+        private final Candidate[] candidates = new Candidate[] {
+            new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+        };
+
+        @Test
+        @DisplayName("are not offered by default")
+        void testNotOfferedByDefault() {
+            assertFalse(new WebRTCTaskBuilder().build().getData().containsKey("compact_candidates"));
+        }
+
+        @Test
+        @DisplayName("are used if both peers offer them")
+        void testNegotiated() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().withCompactCandidates(true).build();
+            final WebRTCTask peer = new WebRTCTaskBuilder().withCompactCandidates(true).build();
+            assertEquals(true, task.getData().get("compact_candidates"));
+
+            final RecordingSignaling signaling = new RecordingSignaling();
+            task.init(signaling, peerData(peer));
+            task.sendCandidates(this.candidates);
+            assertEquals(1, signaling.sent.size());
+            assertTrue(signaling.sent.get(0).getData().containsKey("candidates_compact"));
+        }
+
+        @Test
+        @DisplayName("are not used if the peer does not offer them")
+        void testNotNegotiated() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().withCompactCandidates(true).build();
+            final WebRTCTask peer = new WebRTCTaskBuilder().build();
+
+            final RecordingSignaling signaling = new RecordingSignaling();
+            task.init(signaling, peerData(peer));
+            task.sendCandidates(this.candidates);
+            assertEquals(1, signaling.sent.size());
+            assertTrue(signaling.sent.get(0).getData().containsKey("candidates"));
+            assertFalse(task.getData().containsKey("compact_candidates"));
+        }
+
+        @Test
+        @DisplayName("rejects an invalid offer from the peer")
+        void testInvalidValue() {
+            final WebRTCTask task = new WebRTCTaskBuilder().withCompactCandidates(true).build();
+            final Map<Object, Object> data = peerData(new WebRTCTaskBuilder().build());
+            data.put("compact_candidates", "yes");
+            assertThrows(ValidationError.class, () -> task.init(new RecordingSignaling(), data));
+        }
+    }
+
+    @Nested
+    @DisplayName("SDP deltas")
+    class SdpDeltas {
+        private final String sdp1 = "v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n" +
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\na=mid:0\r\na=rtpmap:111 opus/48000/2\r\n" +
+            "a=fmtp:111 minptime=10;useinbandfec=1\r\na=ssrc:1001 cname:K3k3Hk8nA0oHn4+b\r\n";
+        private final String sdp2 = this.sdp1.replace("o=- 1 2", "o=- 1 3") + "a=end-of-candidates\r\n";
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("transmit renegotiation offers as deltas if negotiated")
+        void testNegotiated() throws Exception {
+            final WebRTCTask sender = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final WebRTCTask receiver = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final RecordingSignaling senderSignaling = new RecordingSignaling();
+            sender.init(senderSignaling, peerData(receiver));
+            receiver.init(new RecordingSignaling(), peerData(sender));
+            final List<String> received = new ArrayList<>();
+            receiver.setMessageHandler(new NullMessageHandler() {
+                @Override
+                public void onOffer(@NonNull Offer offer) {
+                    received.add(offer.getSdp());
+                }
+            });
+
+            // First offer is sent in full, the second one as a delta
+            sender.sendOffer(new Offer(this.sdp1));
+            sender.sendOffer(new Offer(this.sdp2));
+            final Map<String, Object> first = (Map<String, Object>) senderSignaling.sent.get(0).getData().get("offer");
+            final Map<String, Object> second = (Map<String, Object>) senderSignaling.sent.get(1).getData().get("offer");
+            assertEquals(this.sdp1, first.get("sdp"));
+            assertTrue(second.containsKey("sdp_delta"));
+
+            // Receiver reconstructs the full SDPs
+            for (final TaskMessage message : senderSignaling.sent) {
+                receiver.onTaskMessage(message);
+            }
+            assertEquals(2, received.size());
+            assertEquals(this.sdp1, received.get(0));
+            assertEquals(this.sdp2, received.get(1));
+        }
+
+        @Test
+        @DisplayName("reset the connection if a delta cannot be applied")
+        void testMissingBase() throws Exception {
+            final WebRTCTask sender = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final WebRTCTask receiver = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final RecordingSignaling senderSignaling = new RecordingSignaling();
+            final RecordingSignaling receiverSignaling = new RecordingSignaling();
+            sender.init(senderSignaling, peerData(receiver));
+            receiver.init(receiverSignaling, peerData(sender));
+            final List<String> received = new ArrayList<>();
+            receiver.setMessageHandler(new NullMessageHandler() {
+                @Override
+                public void onOffer(@NonNull Offer offer) {
+                    received.add(offer.getSdp());
+                }
+            });
+
+            // The first (full) offer is lost, so the delta has no base
+            sender.sendOffer(new Offer(this.sdp1));
+            sender.sendOffer(new Offer(this.sdp2));
+            receiver.onTaskMessage(senderSignaling.sent.get(1));
+            assertTrue(received.isEmpty());
+            assertEquals(Integer.valueOf(CloseCode.PROTOCOL_ERROR), receiverSignaling.resetReason);
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("are not used if the peer does not offer them")
+        void testNotNegotiated() throws Exception {
+            final WebRTCTask sender = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final RecordingSignaling signaling = new RecordingSignaling();
+            sender.init(signaling, peerData(new WebRTCTaskBuilder().build()));
+            sender.sendOffer(new Offer(this.sdp1));
+            sender.sendOffer(new Offer(this.sdp2));
+            final Map<String, Object> second = (Map<String, Object>) signaling.sent.get(1).getData().get("offer");
+            assertEquals(this.sdp2, second.get("sdp"));
+        }
+    }
+
+    @Nested
+    @DisplayName("compression")
+    class Compression {
+        @Test
+        @DisplayName("is offered if enabled")
+        void testOffered() {
+            assertFalse(new WebRTCTaskBuilder().build().getData().containsKey("compression"));
+            assertEquals(true, new WebRTCTaskBuilder().withCompression(true).build().getData().get("compression"));
+        }
+
+        @Test
+        @DisplayName("is not used if the peer does not offer it")
+        void testNotNegotiated() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().withCompression(true).build();
+            task.init(new RecordingSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            assertFalse(task.getData().containsKey("compression"));
+        }
+
+        @Test
+        @DisplayName("rejects a negative threshold")
+        void testInvalidThreshold() {
+            assertThrows(IllegalArgumentException.class, () ->
+                new WebRTCTaskBuilder().withCompressionThreshold(-1));
+        }
+    }
+
+    @Nested
+    @DisplayName("task message rate limit")
+    class TaskMessageRateLimit {
+        @Test
+        @DisplayName("resets the connection if exceeded")
+        void testExceeded() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().withTaskMessageRateLimit(new RateLimit(1, 2)).build();
+            final RecordingSignaling signaling = new RecordingSignaling();
+            task.init(signaling, peerData(new WebRTCTaskBuilder().build()));
+            final List<Offer> received = new ArrayList<>();
+            task.setMessageHandler(new NullMessageHandler() {
+                @Override
+                public void onOffer(@NonNull Offer offer) {
+                    received.add(offer);
+                }
+            });
+
+            final TaskMessage message = new Offer("v=0\r\n").toTaskMessage();
+            task.onTaskMessage(message);
+            task.onTaskMessage(message);
+            assertNull(signaling.resetReason);
+            task.onTaskMessage(message);
+            assertEquals(Integer.valueOf(CloseCode.PROTOCOL_ERROR), signaling.resetReason);
+            assertEquals(2, received.size());
+        }
+    }
+
+    @Nested
+    @DisplayName("event loop")
+    class EventLoops {
+        @Test
+        @DisplayName("processes incoming task messages on the loop")
+        void testTaskMessage() throws Exception {
+            final EventLoop loop = new EventLoop("test-loop");
+            try {
+                final WebRTCTask task = new WebRTCTaskBuilder().withEventLoop(loop).build();
+                assertSame(loop, task.getEventLoop());
+                task.init(new RecordingSignaling(), peerData(new WebRTCTaskBuilder().build()));
+                final CountDownLatch received = new CountDownLatch(1);
+                final boolean[] onLoop = { false };
+                task.setMessageHandler(new NullMessageHandler() {
+                    @Override
+                    public void onOffer(@NonNull Offer offer) {
+                        onLoop[0] = loop.inEventLoop();
+                        received.countDown();
+                    }
+                });
+                task.onTaskMessage(new Offer("v=0\r\n").toTaskMessage());
+                assertTrue(received.await(5, TimeUnit.SECONDS));
+                assertTrue(onLoop[0]);
+            } finally {
+                loop.shutdown();
+            }
+        }
+
+        @Test
+        @DisplayName("sends task messages on the loop")
+        void testSendTaskMessage() throws Exception {
+            final EventLoop loop = new EventLoop("test-loop");
+            try {
+                final WebRTCTask task = new WebRTCTaskBuilder().withEventLoop(loop).build();
+                final boolean[] onLoop = { true };
+                final CountDownLatch done = new CountDownLatch(2);
+                task.init(new RecordingSignaling() {
+                    @Override
+                    public void sendTaskMessage(TaskMessage message) {
+                        onLoop[0] &= loop.inEventLoop();
+                        super.sendTaskMessage(message);
+                        done.countDown();
+                    }
+                }, peerData(new WebRTCTaskBuilder().build()));
+                task.sendOffer(new Offer("v=0\r\n"));
+                task.sendCandidates(new Candidate[] {
+                    new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+                });
+                assertTrue(done.await(5, TimeUnit.SECONDS));
+                assertTrue(onLoop[0]);
+            } finally {
+                loop.shutdown();
+            }
+        }
+
+        @Test
+        @DisplayName("does not throw once the loop has been shut down")
+        void testShutdown() throws Exception {
+            final EventLoop loop = new EventLoop("test-loop");
+            final WebRTCTask task = new WebRTCTaskBuilder().withEventLoop(loop).build();
+            task.init(new TaskSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            task.getTransportLink();
+            final boolean[] closed = { false };
+            task.handover(new NullHandler() {
+                @Override
+                public long getMaxMessageSize() {
+                    return 65536;
+                }
+
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            });
+            loop.shutdown();
+            assertTrue(loop.awaitTermination(5, TimeUnit.SECONDS));
+
+            // Incoming task messages are discarded
+            final boolean[] received = { false };
+            task.setMessageHandler(new NullMessageHandler() {
+                @Override
+                public void onOffer(@NonNull Offer offer) {
+                    received[0] = true;
+                }
+            });
+            task.onTaskMessage(new Offer("v=0\r\n").toTaskMessage());
+            assertFalse(received[0]);
+
+            // Sending fails
+            final SignalingException error = assertThrows(SignalingException.class, () ->
+                task.sendSignalingMessage(new byte[] { 1, 2, 3 }));
+            assertEquals(CloseCode.PROTOCOL_ERROR, error.getCloseCode());
+
+            // Closing happens immediately
+            task.close(CloseCode.CLOSING_NORMAL);
+            assertTrue(closed[0]);
+        }
+    }
+
+    @Nested
+    @DisplayName("priorities")
+    class Priorities {
+        // {"type": "close", "reason": 3001}
+        @NonNull private final byte[] close = new byte[] {
+            (byte) 0x82,
+            (byte) 0xa4, 't', 'y', 'p', 'e', (byte) 0xa5, 'c', 'l', 'o', 's', 'e',
+            (byte) 0xa6, 'r', 'e', 'a', 's', 'o', 'n', (byte) 0xcd, 0x0b, (byte) 0xb9,
+        };
+
+        @Test
+        @DisplayName("sends close messages with high priority")
+        void testClose() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            task.init(new TaskSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            final SignalingTransportLink link = task.getTransportLink();
+            final FlowControlledHandler handler = new FlowControlledHandler(Common.HEADER_LENGTH + 2);
+            task.handover(handler);
+
+            // Queue a bulk message (id 0), then the close message (id 1)
+            handler.budget = 0;
+            task.sendSignalingMessage(new byte[500]);
+            task.sendSignalingMessage(this.close);
+            assertEquals(0, handler.chunks.size());
+
+            // Once resumed, the close message overtakes the bulk message
+            handler.budget = Integer.MAX_VALUE;
+            link.bufferedAmountLow();
+            assertEquals(1, handler.chunks.get(0).getInt(1));
+            assertEquals(0, handler.chunks.get(handler.chunks.size() - 1).getInt(1));
+        }
+
+        @Test
+        @DisplayName("sends other messages with normal priority")
+        void testOther() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            task.init(new TaskSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            final SignalingTransportLink link = task.getTransportLink();
+            final FlowControlledHandler handler = new FlowControlledHandler(Common.HEADER_LENGTH + 2);
+            task.handover(handler);
+
+            // Queue a bulk message (id 0), then an application message (id 1)
+            final byte[] application = this.close.clone();
+            application[10] = 'x';
+            handler.budget = 0;
+            task.sendSignalingMessage(new byte[500]);
+            task.sendSignalingMessage(application);
+
+            // Once resumed, messages are sent in order
+            handler.budget = Integer.MAX_VALUE;
+            link.bufferedAmountLow();
+            assertEquals(0, handler.chunks.get(0).getInt(1));
+            assertEquals(1, handler.chunks.get(handler.chunks.size() - 1).getInt(1));
+        }
+    }
+
+    @Nested
+    @DisplayName("concurrency")
+    class Concurrency {
+        /**
+         * Counts sent task messages from any thread and tracks the handover
+         * state.
+         */
+        private class ConcurrentSignaling extends NullSignaling {
+            @NonNull final AtomicInteger sent = new AtomicInteger();
+            @NonNull final AtomicInteger active = new AtomicInteger();
+            volatile boolean overlapped = false;
+            @NonNull final HandoverState handoverState = new HandoverState();
+
+            @Override
+            public SignalingRole getRole() {
+                return SignalingRole.Initiator;
+            }
+
+            @Override
+            public HandoverState getHandoverState() {
+                return this.handoverState;
+            }
+
+            @Override
+            public void sendTaskMessage(TaskMessage message) {
+                if (this.active.incrementAndGet() > 1) {
+                    this.overlapped = true;
+                }
+                this.sent.incrementAndGet();
+                this.active.decrementAndGet();
+            }
+        }
+
+        /**
+         * Run an action on several threads at once.
+         */
+        private void runConcurrently(final int threads, @NonNull final Runnable action) throws InterruptedException {
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                        action.run();
+                    } catch (InterruptedException error) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            start.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+
+        @Test
+        @DisplayName("sends candidates from many threads")
+        void testSendCandidates() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            final ConcurrentSignaling signaling = new ConcurrentSignaling();
+            task.init(signaling, peerData(new WebRTCTaskBuilder().build()));
+            final Candidate[] candidates = new Candidate[] {
+                new Candidate("candidate:1 1 udp 2122260223 10.0.0.2 53001 typ host", "0", 0),
+            };
+            this.runConcurrently(8, () -> {
+                for (int i = 0; i < 1000; i++) {
+                    try {
+                        task.sendCandidates(candidates);
+                    } catch (ConnectionException error) {
+                        throw new RuntimeException(error);
+                    }
+                }
+            });
+            assertEquals(8000, signaling.sent.get());
+            assertFalse(signaling.overlapped);
+        }
+
+        @Test
+        @DisplayName("hands out a single transport link")
+        void testTransportLink() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            task.init(new ConcurrentSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            final Set<SignalingTransportLink> links = Collections.newSetFromMap(new ConcurrentHashMap<>());
+            this.runConcurrently(8, () -> links.add(task.getTransportLink()));
+            assertEquals(1, links.size());
+        }
+
+        @Test
+        @DisplayName("allows only a single handover")
+        void testHandover() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            task.init(new ConcurrentSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            task.getTransportLink();
+            final AtomicInteger succeeded = new AtomicInteger();
+            final AtomicInteger rejected = new AtomicInteger();
+            this.runConcurrently(8, () -> {
+                try {
+                    task.handover(new NullHandler());
+                    succeeded.incrementAndGet();
+                } catch (IllegalStateError error) {
+                    assertEquals("Handover already requested", error.getMessage());
+                    rejected.incrementAndGet();
+                }
+            });
+            assertEquals(1, succeeded.get());
+            assertEquals(7, rejected.get());
+        }
+
+        @Test
+        @DisplayName("sends signalling messages from many threads after the handover")
+        void testSendSignalingMessage() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().withCompression(true).build();
+            task.init(new TaskSignaling(), peerData(new WebRTCTaskBuilder().withCompression(true).build()));
+            task.getTransportLink();
+            final FlowControlledHandler handler = new FlowControlledHandler(65536);
+            task.handover(handler);
+            final byte[] message = new byte[512];
+            this.runConcurrently(8, () -> {
+                for (int i = 0; i < 500; i++) {
+                    try {
+                        task.sendSignalingMessage(message);
+                    } catch (SignalingException error) {
+                        throw new RuntimeException(error);
+                    }
+                }
+            });
+
+            // Each message is a single chunk. Message ids and CSNs must be
+            // unique and increase in the order the chunks have been sent.
+            assertEquals(4000, handler.chunks.size());
+            long previousId = -1;
+            long previousCsn = -1;
+            for (final ByteBuffer chunk : handler.chunks) {
+                final long id = chunk.getInt(1) & 0xffffffffL;
+                final int nonce = Common.HEADER_LENGTH;
+                final long csn = ((long) (chunk.getShort(nonce + 18) & 0xffff) << 32)
+                    | (chunk.getInt(nonce + 20) & 0xffffffffL);
+                assertTrue(id > previousId);
+                assertTrue(csn > previousCsn);
+                previousId = id;
+                previousCsn = csn;
+            }
+        }
+
+        @Test
+        @DisplayName("rejects the handover once closed")
+        void testClosed() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            task.init(new ConcurrentSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            task.getTransportLink();
+            task.close(CloseCode.CLOSING_NORMAL);
+            task.close(CloseCode.CLOSING_NORMAL);
+            final IllegalStateError error = assertThrows(IllegalStateError.class, () ->
+                task.handover(new NullHandler()));
+            assertEquals("Task has been closed", error.getMessage());
+        }
+
+        @Test
+        @DisplayName("can be initialised again once closed")
+        void testReinitialise() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().build();
+            task.init(new TaskSignaling(), peerData(new WebRTCTaskBuilder().build()));
+            final SignalingTransportLink previousLink = task.getTransportLink();
+            final boolean[] closed = { false };
+            task.handover(new NullHandler() {
+                @Override
+                public long getMaxMessageSize() {
+                    return 65536;
+                }
+
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            });
+            task.close(CloseCode.CLOSING_NORMAL);
+            assertTrue(closed[0]);
+
+            // Reconnect: The handover can be repeated with a new link
+            final TaskSignaling signaling = new TaskSignaling();
+            task.init(signaling, peerData(new WebRTCTaskBuilder().build()));
+            final SignalingTransportLink link = task.getTransportLink();
+            assertNotSame(previousLink, link);
+            final FlowControlledHandler handler = new FlowControlledHandler(65536);
+            task.handover(handler);
+            assertTrue(signaling.handoverState.getLocal());
+            task.sendSignalingMessage(new byte[] { 1, 2, 3 });
+            assertEquals(1, handler.chunks.size());
+        }
+
+        @Test
+        @DisplayName("resets the SDP delta bases when initialised again")
+        void testReinitialiseSdpDelta() throws Exception {
+            final WebRTCTask task = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final WebRTCTask peer = new WebRTCTaskBuilder().withSdpDelta(true).build();
+            final RecordingSignaling signaling = new RecordingSignaling();
+            task.init(signaling, peerData(peer));
+            task.sendOffer(new Offer("v=0\r\no=a\r\n"));
+            task.close(CloseCode.CLOSING_NORMAL);
+
+            // After reconnecting, the first offer must not be a delta
+            final RecordingSignaling reconnected = new RecordingSignaling();
+            task.init(reconnected, peerData(peer));
+            task.sendOffer(new Offer("v=0\r\no=a\r\n"));
+            final Map<?, ?> offer = (Map<?, ?>) reconnected.sent.get(0).getData().get("offer");
+            assertEquals("v=0\r\no=a\r\n", offer.get("sdp"));
+        }
+    }
+}
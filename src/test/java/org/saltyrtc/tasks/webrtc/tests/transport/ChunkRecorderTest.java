@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.tasks.webrtc.transport.ChunkRecorder;
+import org.saltyrtc.tasks.webrtc.transport.ChunkReplayListener;
+import org.saltyrtc.tasks.webrtc.transport.ChunkReplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ChunkRecorder")
+class ChunkRecorderTest {
+    @NonNull private File file;
+
+    /**
+     * Collects replayed chunks as "<in|out> <length> <captured bytes>".
+     */
+    private static class CollectingListener implements ChunkReplayListener {
+        @NonNull final List<String> chunks = new ArrayList<>();
+        @NonNull final List<Long> times = new ArrayList<>();
+
+        @Override
+        public void onChunk(boolean outgoing, long time, int length, @NonNull ByteBuffer chunk) {
+            final StringBuilder builder = new StringBuilder(outgoing ? "out " : "in ").append(length).append(' ');
+            while (chunk.hasRemaining()) {
+                builder.append(chunk.get());
+            }
+            this.chunks.add(builder.toString());
+            this.times.add(time);
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.file = File.createTempFile("chunks", ".rec");
+    }
+
+    @AfterEach
+    void tearDown() {
+        assertTrue(this.file.delete());
+    }
+
+    @Test
+    @DisplayName("replays recorded chunks in order")
+    void testReplay() throws Exception {
+        final ByteBuffer outgoing = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 });
+        outgoing.position(1);
+        try (ChunkRecorder recorder = new ChunkRecorder(this.file)) {
+            recorder.recordIncoming(ByteBuffer.wrap(new byte[] { 5, 6 }));
+            recorder.recordOutgoing(outgoing);
+            recorder.recordIncoming(ByteBuffer.allocate(0));
+        }
+
+        // Positions must not be altered
+        assertEquals(1, outgoing.position());
+
+        final CollectingListener listener = new CollectingListener();
+        try (ChunkReplayer replayer = new ChunkReplayer(this.file)) {
+            assertEquals(3, replayer.replay(listener, 0));
+        }
+        assertEquals("in 2 56", listener.chunks.get(0));
+        assertEquals("out 3 234", listener.chunks.get(1));
+        assertEquals("in 0 ", listener.chunks.get(2));
+        assertTrue(listener.times.get(0) <= listener.times.get(1));
+        assertTrue(listener.times.get(1) <= listener.times.get(2));
+    }
+
+    @Test
+    @DisplayName("replays chunks larger than the record buffer")
+    void testLargeChunks() throws Exception {
+        final byte[] large = new byte[200000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        try (ChunkRecorder recorder = new ChunkRecorder(this.file)) {
+            for (int i = 0; i < 10; i++) {
+                recorder.recordIncoming(ByteBuffer.wrap(large));
+                recorder.recordOutgoing(ByteBuffer.wrap(large, 0, 1000));
+            }
+        }
+
+        final int[] count = { 0 };
+        try (ChunkReplayer replayer = new ChunkReplayer(this.file)) {
+            replayer.replay((outgoing, time, length, chunk) -> {
+                assertEquals(outgoing ? 1000 : large.length, length);
+                assertEquals(length, chunk.remaining());
+                assertEquals(ByteBuffer.wrap(large, 0, length), chunk);
+                count[0]++;
+            }, 0);
+        }
+        assertEquals(20, count[0]);
+    }
+
+    @Test
+    @DisplayName("captures up to the capture length")
+    void testCaptureLength() throws Exception {
+        try (ChunkRecorder recorder = new ChunkRecorder(this.file, 2)) {
+            recorder.recordOutgoing(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+            recorder.recordIncoming(ByteBuffer.wrap(new byte[] { 5 }));
+        }
+
+        final CollectingListener listener = new CollectingListener();
+        try (ChunkReplayer replayer = new ChunkReplayer(this.file)) {
+            replayer.replay(listener, 0);
+        }
+        assertEquals("out 4 12", listener.chunks.get(0));
+        assertEquals("in 1 5", listener.chunks.get(1));
+    }
+
+    @Test
+    @DisplayName("ignores an incomplete record at the end")
+    void testTruncated() throws Exception {
+        try (ChunkRecorder recorder = new ChunkRecorder(this.file)) {
+            recorder.recordIncoming(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            recorder.recordIncoming(ByteBuffer.wrap(new byte[] { 4, 5, 6 }));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        final CollectingListener listener = new CollectingListener();
+        try (ChunkReplayer replayer = new ChunkReplayer(this.file)) {
+            assertEquals(1, replayer.replay(listener, 0));
+        }
+        assertEquals("in 3 123", listener.chunks.get(0));
+    }
+
+    @Test
+    @DisplayName("rejects files that are not recordings")
+    void testInvalidHeader() throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(this.file)) {
+            stream.write(new byte[] { 'S', 'R', 'C', 'X', 1 });
+        }
+        final ValidationError error = assertThrows(ValidationError.class, () -> new ChunkReplayer(this.file));
+        assertEquals("Not a chunk recording", error.getMessage());
+    }
+
+    @Test
+    @DisplayName("paces the replay at the original speed")
+    void testPacing() throws Exception {
+        try (ChunkRecorder recorder = new ChunkRecorder(this.file)) {
+            recorder.recordIncoming(ByteBuffer.allocate(1));
+            Thread.sleep(50);
+            recorder.recordIncoming(ByteBuffer.allocate(1));
+        }
+
+        final long start = System.nanoTime();
+        try (ChunkReplayer replayer = new ChunkReplayer(this.file)) {
+            replayer.replay(new CollectingListener(), 1);
+        }
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.transport.FileReceiverListener;
+import org.saltyrtc.tasks.webrtc.transport.MappedFileReceiver;
+import org.saltyrtc.tasks.webrtc.transport.SecureDataChannel;
+import org.saltyrtc.tasks.webrtc.transport.SegmentReceiver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Provides a fixed destination and records events.
+ */
+class RecordingFileListener implements FileReceiverListener {
+    @NonNull private final File destination;
+    private final long length;
+    @NonNull final List<String> events = new ArrayList<>();
+
+    RecordingFileListener(@NonNull final File destination, final long length) {
+        this.destination = destination;
+        this.length = length;
+    }
+
+    @Override
+    @Nullable public File getDestination(int streamId) {
+        return this.destination;
+    }
+
+    @Override
+    public long getLength(int streamId) {
+        return this.length;
+    }
+
+    @Override
+    public void onFileReceived(int streamId, @NonNull File file, long length) {
+        this.events.add("received " + streamId + " " + length);
+    }
+
+    @Override
+    public void onFileAborted(int streamId, @NonNull File file, long resumeOffset) {
+        this.events.add("aborted " + streamId + " " + resumeOffset);
+    }
+
+    @Override
+    public void onError(@NonNull Exception error) {
+        this.events.add("error " + error.getMessage());
+    }
+}
+
+@DisplayName("MappedFileReceiver")
+class MappedFileReceiverTest {
+    private static final int ID = 9;
+
+    @NonNull private FakeSignaling signaling;
+    @NonNull private RecordingChannelHandler handler;
+    @NonNull private byte[] content;
+    @NonNull private File source;
+    @NonNull private File destination;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.signaling = new FakeSignaling();
+        this.handler = new RecordingChannelHandler();
+        this.content = new byte[300000];
+        new Random(9).nextBytes(this.content);
+        this.source = File.createTempFile("saltyrtc-source", ".bin");
+        this.destination = File.createTempFile("saltyrtc-destination", ".bin");
+        try (final FileOutputStream stream = new FileOutputStream(this.source)) {
+            stream.write(this.content);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        assertTrue(this.source.delete());
+        assertTrue(this.destination.delete());
+    }
+
+    @NonNull private SecureDataChannel createChannel() {
+        return new SecureDataChannel(new DataChannelCryptoContext(ID, this.signaling), this.handler, true, 16384);
+    }
+
+    @NonNull private byte[] readDestination() throws IOException {
+        try (final RandomAccessFile file = new RandomAccessFile(this.destination, "r")) {
+            final byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private void deliver(@NonNull final List<ByteBuffer> chunks, @NonNull final RecordingFileListener listener) {
+        final SecureDataChannel receiver = this.createChannel();
+        receiver.setListener(new SegmentReceiver(new MappedFileReceiver(listener)));
+        for (final ByteBuffer chunk : chunks) {
+            receiver.receive(chunk);
+        }
+    }
+
+    @Test
+    @DisplayName("receives a file")
+    void testTransfer() throws IOException {
+        final RecordingFileListener listener = new RecordingFileListener(this.destination, this.content.length);
+        this.createChannel().sendFile(this.source, 0, Runnable::run);
+        this.deliver(this.handler.chunks, listener);
+        assertEquals("[received 0 300000]", listener.events.toString());
+        assertArrayEquals(this.content, this.readDestination());
+    }
+
+    @Test
+    @DisplayName("resumes an interrupted transfer")
+    void testResume() throws IOException {
+        // Interrupt the transfer by closing the sending channel
+        final SecureDataChannel sender = this.createChannel();
+        this.handler.highThreshold = 100000;
+        sender.sendFile(this.source, 0, Runnable::run);
+        sender.close();
+        final RecordingFileListener listener = new RecordingFileListener(this.destination, this.content.length);
+        this.deliver(this.handler.chunks, listener);
+        assertEquals(1, listener.events.size());
+        assertTrue(listener.events.get(0).startsWith("aborted 0 "));
+        final long resumeOffset = Long.parseLong(listener.events.get(0).substring("aborted 0 ".length()));
+        assertTrue(resumeOffset > 0 && resumeOffset < this.content.length);
+
+        // Resume
+        this.handler.chunks.clear();
+        this.handler.highThreshold = Long.MAX_VALUE;
+        listener.events.clear();
+        this.createChannel().sendFile(this.source, resumeOffset, Runnable::run);
+        this.deliver(this.handler.chunks, listener);
+        assertEquals("[received 0 300000]", listener.events.toString());
+        assertArrayEquals(this.content, this.readDestination());
+    }
+
+    @Test
+    @DisplayName("receives an empty file")
+    void testEmpty() throws IOException {
+        try (final FileOutputStream stream = new FileOutputStream(this.source)) {
+            stream.write(new byte[0]);
+        }
+        try (final FileOutputStream stream = new FileOutputStream(this.destination)) {
+            stream.write(new byte[] { 1, 2, 3 });
+        }
+        final RecordingFileListener listener = new RecordingFileListener(this.destination, 0);
+        this.createChannel().sendFile(this.source, 0, Runnable::run);
+        this.deliver(this.handler.chunks, listener);
+        assertEquals("[received 0 0]", listener.events.toString());
+        assertArrayEquals(new byte[0], this.readDestination());
+    }
+
+    @Test
+    @DisplayName("rejects segments beyond the announced length")
+    void testExceedsLength() throws IOException {
+        final RecordingFileListener listener = new RecordingFileListener(this.destination, 299000);
+        this.createChannel().sendFile(this.source, 0, Runnable::run);
+        this.deliver(this.handler.chunks, listener);
+        final long resumeOffset = 4 * SecureDataChannel.DEFAULT_SEGMENT_LENGTH;
+        assertEquals("[aborted 0 " + resumeOffset + ", error Segment exceeds the announced file length]",
+            listener.events.toString());
+
+        // Nothing has been written beyond the announced length
+        assertTrue(this.destination.length() <= 299000);
+    }
+
+    @Test
+    @DisplayName("rejects a stream ending before the announced length")
+    void testShorterThanLength() throws IOException {
+        final RecordingFileListener listener = new RecordingFileListener(this.destination, 400000);
+        this.createChannel().sendFile(this.source, 0, Runnable::run);
+        this.deliver(this.handler.chunks, listener);
+        assertEquals("[aborted 0 300000, error Stream length 300000 differs from the announced file length 400000]",
+            listener.events.toString());
+    }
+
+    @Test
+    @DisplayName("rejects an offset beyond the end of the file")
+    void testInvalidOffset() {
+        assertThrows(IllegalArgumentException.class, () ->
+            this.createChannel().sendFile(this.source, this.content.length + 1, Runnable::run));
+        assertFalse(Arrays.equals(new byte[0], this.content));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.tasks.webrtc.transport.PayloadCompressor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("PayloadCompressor")
+class PayloadCompressorTest {
+    private static final byte[] SDP = (
+        "v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n" +
+        "a=group:BUNDLE 0 1\r\na=msid-semantic: WMS stream\r\n" +
+        "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n" +
+        "c=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\na=ice-ufrag:sEMT\r\n" +
+        "a=ice-pwd:Yd9A5XmxT8nHHqwXY4sR0m2q\r\na=setup:actpass\r\na=mid:0\r\n" +
+        "a=rtpmap:111 opus/48000/2\r\na=rtcp-fb:111 transport-cc\r\na=fmtp:111 minptime=10;useinbandfec=1\r\n" +
+        "a=rtpmap:103 ISAC/16000\r\na=rtpmap:104 ISAC/32000\r\na=rtpmap:9 G722/8000\r\n" +
+        "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99\r\nc=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\n" +
+        "a=ice-ufrag:sEMT\r\na=ice-pwd:Yd9A5XmxT8nHHqwXY4sR0m2q\r\na=setup:actpass\r\na=mid:1\r\n" +
+        "a=rtpmap:96 VP8/90000\r\na=rtcp-fb:96 goog-remb\r\na=rtcp-fb:96 transport-cc\r\n" +
+        "a=rtcp-fb:96 nack\r\na=rtcp-fb:96 nack pli\r\na=rtpmap:97 rtx/90000\r\na=fmtp:97 apt=96\r\n")
+        .getBytes(StandardCharsets.UTF_8);
+
+    private static final int MAX_LENGTH = 262144;
+
+    /**
+     * Return the remaining bytes of a buffer.
+     */
+    private static byte[] toBytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("roundtrips a compressible payload")
+    void testRoundtrip() throws ValidationError {
+        final PayloadCompressor compressor = new PayloadCompressor(256, MAX_LENGTH);
+        final ByteBuffer buffer = compressor.compress(SDP);
+        final byte[] compressed = toBytes(buffer);
+        assertEquals((byte) 0xc1, compressed[0]);
+        assertTrue(compressed.length < SDP.length * 3 / 4,
+            "Expected " + compressed.length + " to be less than 75% of " + SDP.length);
+        assertArrayEquals(SDP, compressor.decompress(compressed));
+
+        // The scratch buffer is reused for subsequent messages
+        final ByteBuffer again = compressor.compress(SDP);
+        assertSame(buffer.array(), again.array());
+        assertArrayEquals(compressed, toBytes(again));
+        assertArrayEquals(SDP, compressor.decompress(compressed));
+    }
+
+    @Test
+    @DisplayName("does not compress payloads below the threshold")
+    void testThreshold() throws ValidationError {
+        final PayloadCompressor compressor = new PayloadCompressor(SDP.length + 1, MAX_LENGTH);
+        assertSame(SDP, compressor.compress(SDP).array());
+        assertSame(SDP, compressor.decompress(SDP));
+    }
+
+    @Test
+    @DisplayName("does not compress incompressible payloads")
+    void testIncompressible() {
+        final byte[] payload = new byte[1024];
+        new Random(42).nextBytes(payload);
+        payload[0] = (byte) 0x82;
+        assertSame(payload, new PayloadCompressor(0, MAX_LENGTH).compress(payload).array());
+    }
+
+    @Test
+    @DisplayName("does not compress tiny payloads")
+    void testTinyPayloads() throws Exception {
+        final PayloadCompressor compressor = new PayloadCompressor(0, MAX_LENGTH);
+        for (int length = 0; length <= 8; length++) {
+            final byte[] payload = new byte[length];
+            final ByteBuffer buffer = compressor.compress(payload);
+            if (length <= 6) {
+                assertSame(payload, buffer.array());
+            }
+            final byte[] compressed = toBytes(buffer);
+            assertArrayEquals(payload, compressor.decompress(compressed));
+        }
+    }
+
+    @Test
+    @DisplayName("does not compress after being closed")
+    void testClosed() {
+        final PayloadCompressor compressor = new PayloadCompressor(0, MAX_LENGTH);
+        compressor.close();
+        assertSame(SDP, compressor.compress(SDP).array());
+        final ValidationError error = assertThrows(ValidationError.class, () ->
+            compressor.decompress(new byte[] { (byte) 0xc1, 1, 0 }));
+        assertEquals("Compressor has been closed", error.getMessage());
+    }
+
+    @Test
+    @DisplayName("rejects malformed payloads")
+    void testMalformed() {
+        final PayloadCompressor compressor = new PayloadCompressor(0, MAX_LENGTH);
+        final byte[] compressed = toBytes(compressor.compress(SDP));
+
+        // Truncated
+        for (int length = 1; length < compressed.length; length += 7) {
+            final byte[] truncated = Arrays.copyOf(compressed, length);
+            assertThrows(ValidationError.class, () -> compressor.decompress(truncated));
+        }
+
+        // Announced length does not match
+        final byte[] longer = compressed.clone();
+        longer[1] = (byte) (longer[1] + 1);
+        assertThrows(ValidationError.class, () -> compressor.decompress(longer));
+        final byte[] shorter = compressed.clone();
+        shorter[1] = (byte) (shorter[1] - 1);
+        assertThrows(ValidationError.class, () -> compressor.decompress(shorter));
+
+        // Exceeds the maximum ratio
+        final ValidationError error = assertThrows(ValidationError.class, () ->
+            compressor.decompress(new byte[] { (byte) 0xc1, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, 0 }));
+        assertEquals("Invalid compressed payload length", error.getMessage());
+
+        // Still usable afterwards
+        assertDoesNotThrow(() -> compressor.decompress(compressed));
+    }
+
+    @Test
+    @DisplayName("rejects payloads exceeding the maximum length")
+    void testMaxLength() throws ValidationError {
+        final byte[] payload = new byte[100000];
+        final byte[] compressed = toBytes(new PayloadCompressor(0, MAX_LENGTH).compress(payload));
+        assertTrue(compressed.length * 100 < payload.length);
+        assertArrayEquals(payload, new PayloadCompressor(0, payload.length).decompress(compressed));
+        final ValidationError error = assertThrows(ValidationError.class, () ->
+            new PayloadCompressor(0, payload.length - 1).decompress(compressed));
+        assertEquals("Compressed payload length exceeds the maximum message size", error.getMessage());
+
+        // Payloads the peer would reject are sent uncompressed
+        assertSame(payload, new PayloadCompressor(0, payload.length - 1).compress(payload).array());
+    }
+
+    @Test
+    @DisplayName("does not allocate the announced length of a payload that is shorter")
+    void testGrowing() {
+        // Announces 16383 bytes, but contains 8192 bytes only
+        final byte[] compressed = toBytes(new PayloadCompressor(0, MAX_LENGTH).compress(new byte[8192]));
+        assertEquals(0x80, compressed[1] & 0xff);
+        assertEquals(0x40, compressed[2] & 0xff);
+        final byte[] forged = compressed.clone();
+        forged[1] = (byte) 0xff;
+        forged[2] = 0x7f;
+        final PayloadCompressor compressor = new PayloadCompressor(0, MAX_LENGTH);
+        final ValidationError error = assertThrows(ValidationError.class, () -> compressor.decompress(forged));
+        assertEquals("Compressed payload does not match announced length", error.getMessage());
+    }
+}
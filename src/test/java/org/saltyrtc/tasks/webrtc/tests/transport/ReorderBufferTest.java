@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.transport.ReorderBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ReorderBuffer")
+class ReorderBufferTest {
+    private static final long MAX_WAIT = 100;
+    private static final long START = 1000000L;
+
+    @NonNull private List<Long> delivered;
+
+    @BeforeEach
+    void setUp() {
+        this.delivered = new ArrayList<>();
+    }
+
+    /**
+     * Create a buffer that records the delivered CSNs (the messages carry
+     * their CSN as payload).
+     */
+    @NonNull private ReorderBuffer createBuffer(final int capacity) {
+        return new ReorderBuffer(capacity, MAX_WAIT, TimeUnit.NANOSECONDS,
+            message -> this.delivered.add(message.getLong(0)));
+    }
+
+    private static void add(@NonNull final ReorderBuffer buffer, final long csn, final long now) {
+        final ByteBuffer message = ByteBuffer.allocate(8);
+        message.putLong(0, csn);
+        buffer.add(csn, message, now);
+    }
+
+    @Test
+    @DisplayName("delivers in-order messages immediately")
+    void testInOrder() {
+        final ReorderBuffer buffer = this.createBuffer(8);
+        for (long csn = 40; csn < 50; csn++) {
+            add(buffer, csn, START);
+        }
+        assertEquals(0, buffer.getBuffered());
+        assertEquals(Arrays.asList(40L, 41L, 42L, 43L, 44L, 45L, 46L, 47L, 48L, 49L), this.delivered);
+    }
+
+    @Test
+    @DisplayName("holds back messages until the gap has been filled")
+    void testReorder() {
+        final ReorderBuffer buffer = this.createBuffer(8);
+        add(buffer, 10, START);
+        add(buffer, 13, START);
+        add(buffer, 12, START);
+        assertEquals(Arrays.asList(10L), this.delivered);
+        assertEquals(2, buffer.getBuffered());
+        add(buffer, 11, START);
+        assertEquals(Arrays.asList(10L, 11L, 12L, 13L), this.delivered);
+        assertEquals(0, buffer.getBuffered());
+        assertEquals(0, buffer.getSkipped());
+    }
+
+    @Test
+    @DisplayName("skips a gap once the maximum wait time has passed")
+    void testExpire() {
+        final ReorderBuffer buffer = this.createBuffer(8);
+        add(buffer, 0, START);
+        add(buffer, 2, START);
+        add(buffer, 5, START + 50);
+        assertEquals(Arrays.asList(0L), this.delivered);
+
+        // Reports the remaining wait time of the oldest message
+        assertEquals(MAX_WAIT - 60, buffer.expire(START + 60));
+        assertEquals(Arrays.asList(0L), this.delivered);
+
+        // Skip 1, then wait for 3 and 4 again
+        assertEquals(50, buffer.expire(START + MAX_WAIT));
+        assertEquals(Arrays.asList(0L, 2L), this.delivered);
+        assertEquals(1, buffer.getSkipped());
+
+        // Skip 3 and 4
+        assertEquals(-1, buffer.expire(START + 50 + MAX_WAIT));
+        assertEquals(Arrays.asList(0L, 2L, 5L), this.delivered);
+        assertEquals(3, buffer.getSkipped());
+
+        // Late messages are delivered immediately
+        add(buffer, 3, START + 200);
+        add(buffer, 6, START + 200);
+        assertEquals(Arrays.asList(0L, 2L, 5L, 3L, 6L), this.delivered);
+        assertEquals(1, buffer.getLate());
+    }
+
+    @Test
+    @DisplayName("skips a gap that is wider than the capacity")
+    void testOverflow() {
+        final ReorderBuffer buffer = this.createBuffer(4);
+        add(buffer, 0, START);
+        add(buffer, 2, START);
+        add(buffer, 3, START);
+        assertEquals(2, buffer.getBuffered());
+
+        // 6 does not fit into [1, 5), so 1 is skipped
+        add(buffer, 6, START);
+        assertEquals(Arrays.asList(0L, 2L, 3L), this.delivered);
+        assertEquals(1, buffer.getBuffered());
+        add(buffer, 4, START);
+        add(buffer, 5, START);
+        assertEquals(Arrays.asList(0L, 2L, 3L, 4L, 5L, 6L), this.delivered);
+        assertEquals(1, buffer.getSkipped());
+    }
+
+    @Test
+    @DisplayName("discards duplicates of held back messages")
+    void testDuplicate() {
+        final ReorderBuffer buffer = this.createBuffer(8);
+        add(buffer, 0, START);
+        add(buffer, 2, START);
+        add(buffer, 2, START);
+        assertEquals(1, buffer.getBuffered());
+        add(buffer, 1, START);
+        assertEquals(Arrays.asList(0L, 1L, 2L), this.delivered);
+    }
+
+    @Test
+    @DisplayName("rejects an invalid capacity")
+    void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> this.createBuffer(0));
+        assertThrows(IllegalArgumentException.class, () -> this.createBuffer(ReorderBuffer.MAX_CAPACITY + 1));
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.transport.MessagePriority;
+import org.saltyrtc.tasks.webrtc.transport.SecureDataChannel;
+import org.saltyrtc.tasks.webrtc.transport.SecureDataChannelHandler;
+import org.saltyrtc.tasks.webrtc.transport.SecureDataChannelListener;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records chunks and simulates the buffered amount of a data channel.
+ */
+class RecordingChannelHandler implements SecureDataChannelHandler {
+    @NonNull final List<ByteBuffer> chunks = new ArrayList<>();
+    long bufferedAmount = 0;
+    long highThreshold = Long.MAX_VALUE;
+    boolean closed = false;
+
+    @Override
+    public long getMaxMessageSize() {
+        return 64;
+    }
+
+    @Override
+    public long getBufferedAmount() {
+        return this.bufferedAmount;
+    }
+
+    @Override
+    public long getBufferedAmountHighThreshold() {
+        return this.highThreshold;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+
+    @Override
+    public void send(@NonNull ByteBuffer chunk) {
+        this.chunks.add(chunk);
+        this.bufferedAmount += chunk.remaining();
+    }
+}
+
+/**
+ * Records received messages and errors.
+ */
+class RecordingChannelListener implements SecureDataChannelListener {
+    @NonNull final List<byte[]> messages = new ArrayList<>();
+    @NonNull final List<Exception> errors = new ArrayList<>();
+
+    @Override
+    public void onMessage(@NonNull ByteBuffer message) {
+        final byte[] bytes = new byte[message.remaining()];
+        message.get(bytes);
+        this.messages.add(bytes);
+    }
+
+    @Override
+    public void onError(@NonNull Exception error) {
+        this.errors.add(error);
+    }
+}
+
+@DisplayName("SecureDataChannel")
+class SecureDataChannelTest {
+    private static final int ID = 42;
+
+    @NonNull private FakeSignaling signaling;
+    @NonNull private RecordingChannelHandler handler;
+    @NonNull private RecordingChannelListener listener;
+
+    @BeforeEach
+    void setUp() {
+        this.signaling = new FakeSignaling();
+        this.handler = new RecordingChannelHandler();
+        this.listener = new RecordingChannelListener();
+    }
+
+    @NonNull private SecureDataChannel createChannel(final boolean ordered) {
+        final SecureDataChannel channel = new SecureDataChannel(
+            new DataChannelCryptoContext(ID, this.signaling), this.handler, ordered);
+        channel.setListener(this.listener);
+        return channel;
+    }
+
+    private void roundtrip(final boolean ordered) throws Exception {
+        final SecureDataChannel sender = this.createChannel(ordered);
+        final SecureDataChannel receiver = this.createChannel(ordered);
+        final byte[] small = new byte[] { 1, 2, 3 };
+        final byte[] large = new byte[1000];
+        new Random(1).nextBytes(large);
+
+        // Send
+        sender.send(ByteBuffer.wrap(small));
+        sender.send(ByteBuffer.wrap(large, 10, 900));
+        for (final ByteBuffer chunk : this.handler.chunks) {
+            assertTrue(chunk.remaining() <= 64);
+        }
+
+        // Receive
+        for (final ByteBuffer chunk : this.handler.chunks) {
+            receiver.receive(chunk);
+        }
+        assertEquals(0, this.listener.errors.size());
+        assertEquals(2, this.listener.messages.size());
+        assertArrayEquals(small, this.listener.messages.get(0));
+        assertArrayEquals(Arrays.copyOfRange(large, 10, 910), this.listener.messages.get(1));
+    }
+
+    @Test
+    @DisplayName("roundtrips messages with chunked-dc framing")
+    void testRoundtripUnordered() throws Exception {
+        this.roundtrip(false);
+    }
+
+    @Test
+    @DisplayName("roundtrips messages with the ordered framing")
+    void testRoundtripOrdered() throws Exception {
+        this.roundtrip(true);
+    }
+
+    @Test
+    @DisplayName("holds back chunks while the buffered amount is high")
+    void testFlowControl() throws Exception {
+        final SecureDataChannel channel = this.createChannel(true);
+        this.handler.highThreshold = 128;
+        channel.send(ByteBuffer.wrap(new byte[1000]));
+        assertEquals(2, this.handler.chunks.size());
+
+        // Drain and continue
+        this.handler.bufferedAmount = 0;
+        channel.bufferedAmountLow();
+        assertEquals(4, this.handler.chunks.size());
+
+        // A high priority message is sent once the current message is done
+        // (the fake signalling does not add an authenticator)
+        channel.send(ByteBuffer.wrap(new byte[] { 1 }), MessagePriority.HIGH);
+        this.handler.highThreshold = Long.MAX_VALUE;
+        channel.bufferedAmountLow();
+        final ByteBuffer last = this.handler.chunks.get(this.handler.chunks.size() - 1);
+        assertEquals(1 + 24 + 1, last.remaining());
+    }
+
+    @Test
+    @DisplayName("reports invalid chunks and messages")
+    void testInvalid() throws Exception {
+        final SecureDataChannel channel = this.createChannel(true);
+        channel.receive(ByteBuffer.wrap(new byte[] { 0 }));
+        assertEquals(1, this.listener.errors.size());
+
+        // Own messages are rejected (cookies are equal)
+        channel.send(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        channel.receive(this.handler.chunks.get(0));
+        assertEquals(2, this.listener.errors.size());
+        assertEquals(0, this.listener.messages.size());
+    }
+
+    @Test
+    @DisplayName("restores the order of messages if reordering is enabled")
+    void testReordering() throws Exception {
+        final SecureDataChannel sender = this.createChannel(false);
+        final SecureDataChannel receiver = this.createChannel(false);
+        receiver.setReordering(16, 1, TimeUnit.MINUTES);
+        for (byte i = 0; i < 4; i++) {
+            sender.send(ByteBuffer.wrap(new byte[] { i }));
+        }
+        assertEquals(4, this.handler.chunks.size());
+
+        // Receive the first message, then the others in reverse order
+        receiver.receive(this.handler.chunks.get(0));
+        receiver.receive(this.handler.chunks.get(3));
+        receiver.receive(this.handler.chunks.get(2));
+        assertEquals(1, this.listener.messages.size());
+        assertTrue(receiver.flushReordered() > 0);
+        receiver.receive(this.handler.chunks.get(1));
+        assertEquals(0, this.listener.errors.size());
+        assertEquals(4, this.listener.messages.size());
+        for (byte i = 0; i < 4; i++) {
+            assertArrayEquals(new byte[] { i }, this.listener.messages.get(i));
+        }
+        assertEquals(-1, receiver.flushReordered());
+        assertEquals(0, receiver.getReorderSkipped());
+    }
+
+    /**
+     * Return whether a chunk is the data chunk with the given index within
+     * its FEC group.
+     */
+    private static boolean isDataChunk(@NonNull final ByteBuffer chunk, final int index) {
+        return chunk.get(0) == 0 && chunk.get(5) == index;
+    }
+
+    @Test
+    @DisplayName("reconstructs a lost chunk per group with forward error correction")
+    void testForwardErrorCorrection() throws Exception {
+        final SecureDataChannel sender = this.createChannel(false);
+        final SecureDataChannel receiver = this.createChannel(false);
+        sender.setForwardErrorCorrection(4);
+        receiver.setForwardErrorCorrection(4);
+        final byte[] large = new byte[500];
+        new Random(2).nextBytes(large);
+        sender.send(ByteBuffer.wrap(large));
+
+        // Every fifth chunk is a parity chunk
+        final int chunks = this.handler.chunks.size();
+        assertTrue(chunks > 10);
+        assertEquals(1, this.handler.chunks.get(4).get(0));
+        assertEquals(1, this.handler.chunks.get(chunks - 1).get(0));
+
+        // Lose the second chunk of each group and receive in reverse order
+        for (int i = chunks - 1; i >= 0; i--) {
+            final ByteBuffer chunk = this.handler.chunks.get(i);
+            assertTrue(chunk.remaining() <= 64);
+            if (!isDataChunk(chunk, 1)) {
+                receiver.receive(chunk);
+            }
+        }
+        assertEquals(0, this.listener.errors.size());
+        assertEquals(1, this.listener.messages.size());
+        assertArrayEquals(large, this.listener.messages.get(0));
+    }
+
+    @Test
+    @DisplayName("cannot reconstruct two lost chunks of a group")
+    void testForwardErrorCorrectionExceeded() throws Exception {
+        final SecureDataChannel sender = this.createChannel(false);
+        final SecureDataChannel receiver = this.createChannel(false);
+        sender.setForwardErrorCorrection(4);
+        receiver.setForwardErrorCorrection(4);
+        sender.send(ByteBuffer.wrap(new byte[500]));
+        for (final ByteBuffer chunk : this.handler.chunks) {
+            if (!isDataChunk(chunk, 1) && !isDataChunk(chunk, 2)) {
+                receiver.receive(chunk);
+            }
+        }
+        assertEquals(0, this.listener.errors.size());
+        assertEquals(0, this.listener.messages.size());
+    }
+
+    @Test
+    @DisplayName("discards messages that remain incomplete due to lost chunks")
+    void testDiscardIncomplete() throws Exception {
+        final SecureDataChannel sender = this.createChannel(false);
+        final SecureDataChannel receiver = this.createChannel(false);
+        sender.setForwardErrorCorrection(4);
+        receiver.setForwardErrorCorrection(4);
+        receiver.setIncompleteMessageMaxAge(10, TimeUnit.MILLISECONDS);
+        sender.send(ByteBuffer.wrap(new byte[500]));
+        int received = 0;
+        for (final ByteBuffer chunk : this.handler.chunks) {
+            if (!isDataChunk(chunk, 1) && !isDataChunk(chunk, 2)) {
+                if (chunk.get(0) == 0) {
+                    received++;
+                }
+                receiver.receive(chunk);
+            }
+        }
+        assertEquals(0, receiver.getDiscardedChunks());
+
+        // The chunks of the incomplete message are freed once it has expired
+        Thread.sleep(50);
+        this.handler.chunks.clear();
+        sender.send(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        for (final ByteBuffer chunk : this.handler.chunks) {
+            receiver.receive(chunk);
+        }
+        assertEquals(received, receiver.getDiscardedChunks());
+        assertEquals(1, this.listener.messages.size());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, this.listener.messages.get(0));
+    }
+
+    @Test
+    @DisplayName("sends the parity of a partial group once no chunks are pending")
+    void testForwardErrorCorrectionPartialGroup() throws Exception {
+        final SecureDataChannel sender = this.createChannel(false);
+        final SecureDataChannel receiver = this.createChannel(false);
+        sender.setForwardErrorCorrection(8);
+        receiver.setForwardErrorCorrection(8);
+        sender.send(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        assertEquals(2, this.handler.chunks.size());
+
+        // The data chunk is lost, the parity chunk carries the message
+        receiver.receive(this.handler.chunks.get(1));
+        assertEquals(1, this.listener.messages.size());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, this.listener.messages.get(0));
+
+        // A late data chunk is not delivered again
+        receiver.receive(this.handler.chunks.get(0));
+        assertEquals(1, this.listener.messages.size());
+    }
+
+    @Test
+    @DisplayName("rejects forward error correction with the ordered framing")
+    void testForwardErrorCorrectionOrdered() {
+        final SecureDataChannel channel = this.createChannel(true);
+        assertThrows(IllegalArgumentException.class, () -> channel.setForwardErrorCorrection(4));
+        final SecureDataChannel unordered = this.createChannel(false);
+        assertThrows(IllegalArgumentException.class, () -> unordered.setForwardErrorCorrection(0));
+        assertThrows(IllegalArgumentException.class, () -> unordered.setForwardErrorCorrection(256));
+    }
+
+    @Test
+    @DisplayName("sends pending chunks when closing")
+    void testClose() throws Exception {
+        final SecureDataChannel channel = this.createChannel(false);
+        this.handler.highThreshold = 0;
+        channel.send(ByteBuffer.wrap(new byte[100]));
+        assertEquals(0, this.handler.chunks.size());
+        channel.close();
+        assertFalse(this.handler.chunks.isEmpty());
+        assertTrue(this.handler.closed);
+    }
+}
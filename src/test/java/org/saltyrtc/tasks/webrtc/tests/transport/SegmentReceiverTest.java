@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
+import org.saltyrtc.tasks.webrtc.transport.MessagePriority;
+import org.saltyrtc.tasks.webrtc.transport.SecureDataChannel;
+import org.saltyrtc.tasks.webrtc.transport.SegmentListener;
+import org.saltyrtc.tasks.webrtc.transport.SegmentReceiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes segments into a buffer and records stream events.
+ */
+class RecordingSegmentListener implements SegmentListener {
+    @NonNull final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    @NonNull final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onSegment(int streamId, long offset, @NonNull ByteBuffer data) {
+        assertEquals(this.data.size(), offset);
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        this.data.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void onStreamEnd(int streamId, long length) {
+        this.events.add("end " + streamId + " " + length);
+    }
+
+    @Override
+    public void onStreamAborted(int streamId) {
+        this.events.add("abort " + streamId);
+    }
+
+    @Override
+    public void onError(@NonNull Exception error) {
+        this.events.add("error " + error.getMessage());
+    }
+}
+
+/**
+ * Counts the bytes read from the wrapped stream.
+ */
+class CountingInputStream extends InputStream {
+    @NonNull private final InputStream stream;
+    long read = 0;
+
+    CountingInputStream(@NonNull final InputStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int value = this.stream.read();
+        if (value >= 0) {
+            ++this.read;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        final int read = this.stream.read(buffer, offset, length);
+        if (read > 0) {
+            this.read += read;
+        }
+        return read;
+    }
+}
+
+@DisplayName("SegmentReceiver")
+class SegmentReceiverTest {
+    private static final int ID = 7;
+    @NonNull private static final Executor DIRECT = Runnable::run;
+
+    @NonNull private FakeSignaling signaling;
+    @NonNull private RecordingChannelHandler handler;
+    @NonNull private RecordingSegmentListener listener;
+    @NonNull private byte[] payload;
+
+    @BeforeEach
+    void setUp() {
+        this.signaling = new FakeSignaling();
+        this.handler = new RecordingChannelHandler();
+        this.listener = new RecordingSegmentListener();
+        this.payload = new byte[100000];
+        new Random(7).nextBytes(this.payload);
+    }
+
+    @NonNull private SecureDataChannel createChannel(final boolean ordered) {
+        return new SecureDataChannel(new DataChannelCryptoContext(ID, this.signaling), this.handler, ordered, 1024);
+    }
+
+    private void receiveAll(final boolean ordered) {
+        final SecureDataChannel receiver = this.createChannel(ordered);
+        receiver.setListener(new SegmentReceiver(this.listener));
+        for (final ByteBuffer chunk : this.handler.chunks) {
+            receiver.receive(chunk);
+        }
+    }
+
+    @Test
+    @DisplayName("streams data with chunked-dc framing")
+    void testStreamUnordered() {
+        final SecureDataChannel sender = this.createChannel(false);
+        assertEquals(0, sender.sendStream(new ByteArrayInputStream(this.payload), DIRECT));
+        this.receiveAll(false);
+        assertArrayEquals(this.payload, this.listener.data.toByteArray());
+        assertEquals("[end 0 100000]", this.listener.events.toString());
+    }
+
+    @Test
+    @DisplayName("streams data with the ordered framing")
+    void testStreamOrdered() {
+        final SecureDataChannel sender = this.createChannel(true);
+        sender.sendStream(Channels.newChannel(new ByteArrayInputStream(this.payload)), MessagePriority.LOW, 1000, DIRECT);
+        this.receiveAll(true);
+        assertArrayEquals(this.payload, this.listener.data.toByteArray());
+        assertEquals("[end 0 100000]", this.listener.events.toString());
+    }
+
+    @Test
+    @DisplayName("reads the source on demand")
+    void testOnDemand() throws Exception {
+        final SecureDataChannel sender = this.createChannel(true);
+        final CountingInputStream source = new CountingInputStream(new ByteArrayInputStream(this.payload));
+        this.handler.highThreshold = 4096;
+        sender.sendStream(Channels.newChannel(source), MessagePriority.LOW, 1000, DIRECT);
+        assertTrue(source.read <= 5000, "Read " + source.read + " bytes");
+
+        // A high priority message overtakes the stream after the current
+        // segment (each segment spans 17 chunks of 64 bytes)
+        sender.send(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), MessagePriority.HIGH);
+        final int sent = this.handler.chunks.size();
+        this.handler.bufferedAmount = 0;
+        this.handler.highThreshold = Long.MAX_VALUE;
+        sender.bufferedAmountLow();
+        assertEquals(this.payload.length, source.read);
+        int index = -1;
+        for (int i = sent; i < this.handler.chunks.size(); ++i) {
+            if (this.handler.chunks.get(i).remaining() == 1 + 24 + 3) {
+                index = i;
+                break;
+            }
+        }
+        assertTrue(index >= sent && index <= sent + 17, "High priority chunk at " + index + ", resumed at " + sent);
+    }
+
+    @Test
+    @DisplayName("reads the source ahead on the executor")
+    void testReadAhead() throws Exception {
+        final SecureDataChannel sender = this.createChannel(true);
+        final ReadableByteChannel payload = Channels.newChannel(new ByteArrayInputStream(this.payload));
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final ReadableByteChannel source = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException error) {
+                    throw new IOException(error);
+                }
+                return payload.read(buffer);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return payload.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                payload.close();
+                closed.countDown();
+            }
+        };
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // A blocked read holds up neither the stream nor other messages
+            sender.sendStream(source, MessagePriority.LOW, 1000, executor);
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+            sender.send(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), MessagePriority.HIGH);
+            assertEquals(1, this.handler.chunks.size());
+
+            // Stream the remaining data
+            release.countDown();
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        this.handler.chunks.remove(0);
+        this.receiveAll(true);
+        assertArrayEquals(this.payload, this.listener.data.toByteArray());
+        assertEquals("[end 0 100000]", this.listener.events.toString());
+    }
+
+    @Test
+    @DisplayName("aborts the stream on read errors")
+    void testAbort() {
+        final SecureDataChannel sender = this.createChannel(true);
+        final RecordingChannelListener senderListener = new RecordingChannelListener();
+        sender.setListener(senderListener);
+        sender.sendStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        }, DIRECT);
+        assertEquals(1, senderListener.errors.size());
+        assertEquals("broken", senderListener.errors.get(0).getMessage());
+        this.receiveAll(true);
+        assertEquals("[abort 0]", this.listener.events.toString());
+    }
+}
@@ -22,9 +22,18 @@ import org.saltyrtc.client.signaling.state.HandoverState;
 import org.saltyrtc.client.signaling.state.SignalingState;
 import org.saltyrtc.tasks.webrtc.WebRTCTask;
 import org.saltyrtc.tasks.webrtc.WebRTCTaskVersion;
+import org.saltyrtc.tasks.webrtc.concurrent.EventLoop;
 import org.saltyrtc.tasks.webrtc.crypto.DataChannelCryptoContext;
 import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
 import org.saltyrtc.tasks.webrtc.exceptions.UntiedException;
+import org.saltyrtc.tasks.webrtc.tracing.LatencyBreakdown;
+import org.saltyrtc.tasks.webrtc.tracing.MessageStage;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTrace;
+import org.saltyrtc.tasks.webrtc.tracing.MessageTracer;
+import org.saltyrtc.tasks.webrtc.transport.FlowControlledSignalingTransportHandler;
+import org.saltyrtc.tasks.webrtc.transport.MessagePriority;
+import org.saltyrtc.tasks.webrtc.transport.PayloadCompressor;
+import org.saltyrtc.tasks.webrtc.transport.RateLimit;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransportHandler;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransport;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransportLink;
@@ -36,6 +45,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.saltyrtc.tasks.webrtc.utils.Assertions.assertListOfBytesEquals;
@@ -92,6 +103,7 @@ class FakeSignaling extends NullSignaling {
 
 class FakeWebRTCTask extends WebRTCTask {
     public boolean closed = false;
+    public int closeCount = 0;
     @Nullable public SignalingTransport transport;
 
     FakeWebRTCTask() {
@@ -100,8 +112,41 @@ class FakeWebRTCTask extends WebRTCTask {
 
     @Override
     public void close(int reason) {
-        this.transport.close();
+        if (this.transport != null) {
+            this.transport.close();
+        }
         this.closed = true;
+        this.closeCount++;
+    }
+}
+
+/**
+ * Records chunks and pretends that the data channel's buffer is full after
+ * a specific amount of chunks has been sent.
+ */
+class FlowControlledHandler extends NullHandler implements FlowControlledSignalingTransportHandler {
+    @NonNull public final List<ByteBuffer> chunks = new ArrayList<>();
+    public int budget = 0;
+
+    @Override
+    public long getMaxMessageSize() {
+        return Common.HEADER_LENGTH + 2;
+    }
+
+    @Override
+    public void send(@NonNull ByteBuffer message) {
+        this.chunks.add(ByteBuffer.wrap(message.array().clone()));
+        --this.budget;
+    }
+
+    @Override
+    public long getBufferedAmount() {
+        return this.budget > 0 ? 0 : 1;
+    }
+
+    @Override
+    public long getBufferedAmountHighThreshold() {
+        return 1;
     }
 }
 
@@ -145,9 +190,18 @@ class SignalingTransportTest {
     }
 
     @NonNull TransportTuple createTransport(@NonNull final SignalingTransportHandler handler) {
+        return this.createTransport(handler, this.context, false, null);
+    }
+
+    @NonNull TransportTuple createTransport(
+        @NonNull final SignalingTransportHandler handler,
+        @NonNull final DataChannelCryptoContext context,
+        final boolean orderedFraming,
+        @Nullable final PayloadCompressor compressor
+    ) {
         final SignalingTransportLink link = new SignalingTransportLink(ID, "fake-protocol");
         final SignalingTransport transport = new SignalingTransport(
-            link, handler, this.task, this.signaling, this.context, 20);
+            link, handler, this.task, this.signaling, context, 20, orderedFraming, compressor);
         this.task.transport = transport;
         return new TransportTuple(link, transport);
     }
@@ -318,4 +372,352 @@ class SignalingTransportTest {
         assertEquals(1, this.signaling.messages.size());
         assertArrayEquals(MESSAGE, this.signaling.messages.get(0));
     }
+
+    @Test
+    @DisplayName("compresses and decompresses messages if negotiated")
+    void testCompression() throws Exception {
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        final NullHandler handler = new NullHandler() {
+            @Override
+            public long getMaxMessageSize() {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public void send(@NonNull ByteBuffer message) {
+                chunks.add(ByteBuffer.wrap(message.array().clone()));
+            }
+        };
+        final byte[] message = new byte[1024];
+        Arrays.fill(message, (byte) 'a');
+
+        // Send via a compressing transport
+        final TransportTuple sender = this.createTransport(handler, this.context, false,
+            new PayloadCompressor(256, Integer.MAX_VALUE));
+        sender.transport.send(message);
+        int length = 0;
+        for (final ByteBuffer chunk : chunks) {
+            length += chunk.remaining();
+        }
+        assertTrue(length < message.length / 4, "Expected compressed length, got " + length);
+
+        // Receive via a decompressing transport
+        final DataChannelCryptoContext context = new DataChannelCryptoContext(ID, this.signaling);
+        final TransportTuple receiver = this.createTransport(handler, context, false,
+            new PayloadCompressor(256, Integer.MAX_VALUE));
+        for (final ByteBuffer chunk : chunks) {
+            receiver.link.receive(chunk);
+        }
+        assertEquals(1, this.signaling.messages.size());
+        assertArrayEquals(message, this.signaling.messages.get(0));
+    }
+
+    @Test
+    @DisplayName("sends and receives messages with the ordered framing")
+    void testOrderedFraming() throws Exception {
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        final NullHandler handler = new NullHandler() {
+            @Override
+            public long getMaxMessageSize() {
+                return MAX_MESSAGE_SIZE;
+            }
+
+            @Override
+            public void send(@NonNull ByteBuffer message) {
+                chunks.add(ByteBuffer.wrap(message.array().clone()));
+            }
+        };
+
+        // Each chunk carries a single byte header and up to 10 bytes of
+        // payload (24 bytes nonce and 6 bytes message)
+        final TransportTuple sender = this.createTransport(handler, this.context, true, null);
+        sender.transport.send(MESSAGE);
+        assertEquals(3, chunks.size());
+        for (final ByteBuffer chunk : chunks) {
+            assertEquals(11, chunk.remaining());
+        }
+        assertEquals(6, chunks.get(0).get(0));
+        assertEquals(6, chunks.get(1).get(0));
+        assertEquals(7, chunks.get(2).get(0));
+        assertArrayEquals(MESSAGE, Arrays.copyOfRange(chunks.get(2).array(), 5, 11));
+
+        // Reassemble
+        final DataChannelCryptoContext context = new DataChannelCryptoContext(ID, this.signaling);
+        final TransportTuple receiver = this.createTransport(handler, context, true, null);
+        for (final ByteBuffer chunk : chunks) {
+            receiver.link.receive(chunk);
+        }
+        assertEquals(1, this.signaling.messages.size());
+        assertArrayEquals(MESSAGE, this.signaling.messages.get(0));
+    }
+
+    @Test
+    @DisplayName("receives a single chunk message with the ordered framing")
+    void testOrderedFramingSingleChunk() throws Exception {
+        final NullHandler handler = new NullHandler() {
+            @Override
+            public long getMaxMessageSize() {
+                return Long.MAX_VALUE;
+            }
+        };
+        final TransportTuple tuple = this.createTransport(handler, this.context, true, null);
+
+        // Nonce (cookie, channel id 1337, overflow 0, sequence 42) and message
+        final ByteBuffer chunk = ByteBuffer.allocate(1 + 24 + MESSAGE.length);
+        chunk.put((byte) 7);
+        for (int i = 0; i < 16; ++i) {
+            chunk.put((byte) 255);
+        }
+        chunk.put(new byte[] { 5, 57, 0, 0, 0, 0, 0, 42 });
+        chunk.put(MESSAGE);
+        chunk.flip();
+        tuple.link.receive(chunk);
+        assertEquals(1, this.signaling.messages.size());
+        assertArrayEquals(MESSAGE, this.signaling.messages.get(0));
+    }
+
+    @Test
+    @DisplayName("closes on an invalid ordered framing header")
+    void testOrderedFramingInvalidHeader() throws Exception {
+        final TransportTuple tuple = this.createTransport(new NullHandler(), this.context, true, null);
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        assertTrue(this.task.closed);
+    }
+
+    @Test
+    @DisplayName("closes on a message too short to contain a nonce")
+    void testMessageTooShort() throws Exception {
+        final TransportTuple tuple = this.createTransport(new NullHandler());
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3 }));
+        assertTrue(this.task.closed);
+        assertEquals(0, this.signaling.messages.size());
+    }
+
+    @Test
+    @DisplayName("closes once and drops chunks received after an invalid nonce")
+    void testInvalidNonceOnce() throws Exception {
+        final TransportTuple tuple = this.createTransport(new NullHandler());
+
+        // Keep the link tied, as if closing the task was still in progress
+        this.task.transport = null;
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3 }));
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 1, 0, 0, 0, 1, 0, 0, 0, 0, 1, 2, 3 }));
+        assertEquals(1, this.task.closeCount);
+        assertEquals(0, this.signaling.messages.size());
+    }
+
+    @Test
+    @DisplayName("closes when the peer exceeds the chunk rate limit")
+    void testChunkRateLimit() throws Exception {
+        final TransportTuple tuple = this.createTransport(new NullHandler());
+        tuple.transport.setRateLimits(new RateLimit(1, 2), null);
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2 }));
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 1, 3, 4 }));
+        assertFalse(this.task.closed);
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 2, 5, 6 }));
+        assertTrue(this.task.closed);
+    }
+
+    @Test
+    @DisplayName("closes when the peer exceeds the byte rate limit")
+    void testByteRateLimit() throws Exception {
+        final TransportTuple tuple = this.createTransport(new NullHandler());
+        tuple.transport.setRateLimits(null, new RateLimit(10, 20));
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2 }));
+        assertFalse(this.task.closed);
+        tuple.link.receive(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 1, 3, 4 }));
+        assertTrue(this.task.closed);
+        assertEquals(0, this.signaling.messages.size());
+    }
+
+    @Test
+    @DisplayName("forwards events on the event loop of the link")
+    void testEventLoop() throws Exception {
+        final EventLoop loop = new EventLoop("test-loop");
+        try {
+            final boolean[] onLoop = { false };
+            final int[] calls = { 0 };
+            final CountDownLatch closing = new CountDownLatch(1);
+            final SignalingTransportLink link = new SignalingTransportLink(ID, "fake-protocol", loop);
+            new SignalingTransport(link, new NullHandler(), this.task, this.signaling, this.context, 20) {
+                @Override
+                public void closing() {
+                    onLoop[0] = loop.inEventLoop();
+                    calls[0]++;
+                    closing.countDown();
+                }
+            };
+            link.closing();
+            assertTrue(closing.await(5, TimeUnit.SECONDS));
+            assertTrue(onLoop[0]);
+
+            // Events submitted before untying are dropped
+            final CountDownLatch blocked = new CountDownLatch(1);
+            loop.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            link.closing();
+            link.untie();
+            blocked.countDown();
+            final CountDownLatch done = new CountDownLatch(1);
+            loop.execute(done::countDown);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, calls[0]);
+        } finally {
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("interleaves chunks of messages with a higher priority")
+    void testPriorityInterleaving() throws Exception {
+        final FlowControlledHandler handler = new FlowControlledHandler();
+        final TransportTuple tuple = this.createTransport(handler, this.context, false, null);
+
+        // Only two chunks of the bulk message can be sent
+        handler.budget = 2;
+        tuple.transport.send(new byte[64], MessagePriority.LOW);
+        assertEquals(2, handler.chunks.size());
+
+        // Queue a message with normal and one with high priority
+        tuple.transport.send(MESSAGE, MessagePriority.NORMAL);
+        tuple.transport.send(MESSAGE, MessagePriority.HIGH);
+        assertEquals(2, handler.chunks.size());
+
+        // Once resumed, all chunks of the high priority message (id 2) are
+        // sent first, then those of the normal (id 1) and bulk (id 0) message
+        handler.budget = Integer.MAX_VALUE;
+        tuple.link.bufferedAmountLow();
+        final List<Integer> ids = new ArrayList<>();
+        for (final ByteBuffer chunk : handler.chunks) {
+            ids.add(chunk.getInt(1));
+        }
+        final int chunksPerMessage = (24 + MESSAGE.length + 1) / 2;
+        for (int i = 0; i < 2; ++i) {
+            assertEquals(0, (int) ids.get(i));
+        }
+        for (int i = 2; i < 2 + chunksPerMessage; ++i) {
+            assertEquals(2, (int) ids.get(i));
+        }
+        for (int i = 2 + chunksPerMessage; i < 2 + 2 * chunksPerMessage; ++i) {
+            assertEquals(1, (int) ids.get(i));
+        }
+        for (int i = 2 + 2 * chunksPerMessage; i < ids.size(); ++i) {
+            assertEquals(0, (int) ids.get(i));
+        }
+        assertEquals(2 * chunksPerMessage + (24 + 64) / 2, ids.size());
+    }
+
+    @Test
+    @DisplayName("does not interleave messages with the ordered framing")
+    void testPriorityOrderedFraming() throws Exception {
+        final FlowControlledHandler handler = new FlowControlledHandler();
+        final TransportTuple tuple = this.createTransport(handler, this.context, true, null);
+
+        // Start sending a bulk message and queue a high priority message
+        handler.budget = 2;
+        tuple.transport.send(new byte[64], MessagePriority.LOW);
+        tuple.transport.send(MESSAGE, MessagePriority.HIGH);
+        handler.budget = Integer.MAX_VALUE;
+        tuple.link.bufferedAmountLow();
+
+        // The bulk message is completed before the high priority message
+        // (10 bytes of payload per chunk)
+        final int bulkChunks = (24 + 64 + 9) / 10;
+        assertEquals(bulkChunks + (24 + MESSAGE.length + 9) / 10, handler.chunks.size());
+        assertEquals(7, handler.chunks.get(bulkChunks - 1).get(0));
+        assertEquals(6, handler.chunks.get(bulkChunks).get(0));
+    }
+
+    @Test
+    @DisplayName("traces the stages of sent and received messages")
+    void testTracing() throws Exception {
+        final List<MessageTrace> traces = new ArrayList<>();
+        final MessageTracer tracer = new MessageTracer() {
+            @Override
+            public void onInbound(@NonNull MessageTrace trace) {
+                traces.add(trace);
+            }
+
+            @Override
+            public void onOutbound(@NonNull MessageTrace trace) {
+                traces.add(trace);
+            }
+        };
+        final FlowControlledHandler handler = new FlowControlledHandler();
+        final byte[] message = new byte[1024];
+
+        // Send via a compressing transport (the trace completes once the
+        // last chunk has been sent)
+        final TransportTuple sender = this.createTransport(handler, this.context, false,
+            new PayloadCompressor(256, Integer.MAX_VALUE));
+        sender.transport.setTracer(tracer);
+        sender.transport.send(message);
+        assertEquals(0, traces.size());
+        handler.budget = Integer.MAX_VALUE;
+        sender.transport.bufferedAmountLow();
+        assertEquals(1, traces.size());
+        final MessageTrace outbound = traces.get(0);
+        assertTrue(outbound.isOutbound());
+        assertEquals(message.length, outbound.getLength());
+        assertStagesInOrder(outbound, MessageStage.SUBMITTED, MessageStage.COMPRESSED, MessageStage.ENCRYPTED,
+            MessageStage.SCHEDULED, MessageStage.SENT);
+
+        // Receive via a decompressing transport, queued until the peer
+        // requested the handover
+        this.signaling.getHandoverState().setPeer(false);
+        final DataChannelCryptoContext context = new DataChannelCryptoContext(ID, this.signaling);
+        final TransportTuple receiver = this.createTransport(
+            new NullHandler(), context, false, new PayloadCompressor(256, Integer.MAX_VALUE));
+        receiver.transport.setTracer(tracer);
+        for (final ByteBuffer chunk : handler.chunks) {
+            receiver.link.receive(ByteBuffer.wrap(chunk.array().clone()));
+        }
+        assertEquals(1, traces.size());
+        this.signaling.getHandoverState().setPeer(true);
+        receiver.transport.flushMessageQueue();
+        assertEquals(2, traces.size());
+        final MessageTrace inbound = traces.get(1);
+        assertFalse(inbound.isOutbound());
+        assertStagesInOrder(inbound, MessageStage.CHUNK_RECEIVED, MessageStage.REASSEMBLED,
+            MessageStage.NONCE_VALIDATED, MessageStage.DECRYPTED, MessageStage.DECOMPRESSED, MessageStage.QUEUED,
+            MessageStage.DISPATCHED);
+        assertFalse(inbound.hasPassed(MessageStage.SENT));
+
+        // Feed a breakdown
+        final LatencyBreakdown breakdown = new LatencyBreakdown();
+        breakdown.onOutbound(outbound);
+        breakdown.onInbound(inbound);
+        assertEquals(1, breakdown.getTotal(true).getCount());
+        assertEquals(1, breakdown.getTotal(false).getCount());
+        assertEquals(0, breakdown.getHistogram(MessageStage.CHUNK_RECEIVED).getCount());
+        assertEquals(1, breakdown.getHistogram(MessageStage.DISPATCHED).getCount());
+        assertEquals(
+            inbound.getTimestamp(MessageStage.DISPATCHED) - inbound.getTimestamp(MessageStage.CHUNK_RECEIVED),
+            breakdown.getTotal(false).getMax(), 0.07 * breakdown.getTotal(false).getMax() + 1);
+    }
+
+    private static void assertStagesInOrder(@NonNull final MessageTrace trace, @NonNull final MessageStage... stages) {
+        long previous = Long.MIN_VALUE;
+        for (final MessageStage stage : stages) {
+            assertTrue(trace.hasPassed(stage), "Expected stage " + stage);
+            assertTrue(trace.getTimestamp(stage) >= previous, "Stage " + stage + " out of order");
+            previous = trace.getTimestamp(stage);
+        }
+    }
+
+    @Test
+    @DisplayName("sends pending chunks when closing")
+    void testSendPendingOnClose() throws Exception {
+        final FlowControlledHandler handler = new FlowControlledHandler();
+        final TransportTuple tuple = this.createTransport(handler, this.context, false, null);
+        tuple.transport.send(MESSAGE);
+        assertEquals(0, handler.chunks.size());
+        tuple.transport.close();
+        assertEquals((24 + MESSAGE.length) / 2, handler.chunks.size());
+    }
 }
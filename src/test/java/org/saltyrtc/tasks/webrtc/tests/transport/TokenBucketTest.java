@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.transport;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.tasks.webrtc.transport.RateLimit;
+import org.saltyrtc.tasks.webrtc.transport.TokenBucket;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("TokenBucket")
+class TokenBucketTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    @DisplayName("permits a burst and then the sustained rate")
+    void testBurstAndRate() {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(10, 5));
+        final long start = System.nanoTime();
+
+        // Burst
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(1, start));
+        }
+        assertFalse(bucket.tryAcquire(1, start));
+
+        // One token refills every 100 ms
+        assertFalse(bucket.tryAcquire(1, start + SECOND / 20));
+        assertTrue(bucket.tryAcquire(1, start + SECOND / 10));
+        assertFalse(bucket.tryAcquire(1, start + SECOND / 10));
+
+        // Refills up to the burst only
+        final long later = start + 10 * SECOND;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(1, later));
+        }
+        assertFalse(bucket.tryAcquire(1, later));
+    }
+
+    @Test
+    @DisplayName("acquires multiple tokens at once")
+    void testMultipleTokens() {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1000, 1000));
+        final long start = System.nanoTime();
+        assertTrue(bucket.tryAcquire(600, start));
+        assertFalse(bucket.tryAcquire(600, start));
+
+        // Rejection does not take any tokens
+        assertTrue(bucket.tryAcquire(400, start));
+        assertTrue(bucket.tryAcquire(500, start + SECOND / 2));
+    }
+
+    @Test
+    @DisplayName("always rejects more tokens than the burst")
+    void testExceedsBurst() {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1000, 100));
+        assertFalse(bucket.tryAcquire(101, System.nanoTime() + 10 * SECOND));
+        assertFalse(bucket.tryAcquire(Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("never hands out more tokens than available when contended")
+    void testConcurrent() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1, 1000));
+        final long start = System.nanoTime();
+        final AtomicInteger acquired = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    if (bucket.tryAcquire(1, start)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertEquals(1000, acquired.get());
+    }
+
+    @Test
+    @DisplayName("rejects an invalid rate limit")
+    void testInvalidLimit() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimit(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimit(1, 0));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by an operation on the current thread via the
+ * thread allocation counters of HotSpot's `ThreadMXBean`.
+ *
+ * Operations are warmed up first so the JIT compiler had a chance to apply
+ * escape analysis, since that is what matters in production.
+ */
+public class AllocationMeter {
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int ROUNDS = 10;
+
+    @Nullable private static final com.sun.management.ThreadMXBean bean;
+    static {
+        final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            bean = (com.sun.management.ThreadMXBean) threadBean;
+            bean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            bean = null;
+        }
+    }
+
+    public interface Operation {
+        /**
+         * Run the operation once.
+         *
+         * @param iteration The number of the iteration, starting at 0.
+         */
+        void run(int iteration) throws Exception;
+    }
+
+    /**
+     * Return whether the JVM supports thread allocation counters.
+     */
+    public static boolean isSupported() {
+        return bean != null;
+    }
+
+    /**
+     * Return the bytes allocated per run of an operation.
+     *
+     * The operation is run `WARMUP_ITERATIONS` times before `iterations`
+     * runs are measured in several rounds. The lowest result of all rounds
+     * is returned to filter out noise (e.g. from class loading).
+     *
+     * Note: The iteration number passed to the operation continues to count
+     *       up through the warm-up and all rounds.
+     *
+     * @param iterations The number of measured runs per round.
+     * @param operation The operation.
+     */
+    public static long bytesPerOperation(final int iterations, @NonNull final Operation operation) throws Exception {
+        if (bean == null) {
+            throw new UnsupportedOperationException("Thread allocation counters are not supported");
+        }
+        final long threadId = Thread.currentThread().getId();
+        int iteration = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run(iteration++);
+        }
+        long min = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = bean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                operation.run(iteration++);
+            }
+            final long allocated = bean.getThreadAllocatedBytes(threadId) - start;
+            min = Math.min(min, allocated / iterations);
+        }
+        return min;
+    }
+
+    /**
+     * Return the total number of runs `bytesPerOperation` does.
+     */
+    public static int totalIterations(final int iterations) {
+        return WARMUP_ITERATIONS + ROUNDS * iterations;
+    }
+}
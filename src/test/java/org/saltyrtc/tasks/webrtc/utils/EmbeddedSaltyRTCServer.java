@@ -0,0 +1,697 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.cookie.Cookie;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.signaling.CloseCode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A minimal, in-process SaltyRTC server for tests and benchmarks.
+ *
+ * It implements the server handshake (including signed keys), relays
+ * client-to-client messages, announces new and disconnected peers and
+ * handles `drop-responder`. It does not implement rate limiting, path
+ * cleanup timeouts or the WebSocket ping interval. Each connection is
+ * served by a dedicated thread.
+ *
+ * Do NOT use this outside of tests!
+ */
+public class EmbeddedSaltyRTCServer implements AutoCloseable {
+    @NonNull private static final String SUBPROTOCOL = "v1.saltyrtc.org";
+    @NonNull private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    @NonNull private static final ObjectMapper MAPPER = new ObjectMapper(new MessagePackFactory());
+    private static final int NONCE_LENGTH = 24;
+    private static final int INITIATOR_ADDRESS = 0x01;
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xa;
+    private static final int MAX_MESSAGE_LENGTH = 1 << 24;
+
+    /**
+     * Clients connected to the same path.
+     */
+    private static final class Path {
+        @Nullable Client initiator;
+        @NonNull final Map<Integer, Client> responders = new HashMap<>();
+    }
+
+    @NonNull private final CryptoProvider cryptoProvider;
+    @NonNull private final SSLContext sslContext;
+    @NonNull private final byte[] permanentPrivateKey;
+    @NonNull private final byte[] permanentPublicKey;
+    @NonNull private final Map<String, Path> paths = new HashMap<>();
+    @NonNull private final List<Client> clients = new ArrayList<>();
+    @Nullable private ServerSocket socket;
+
+    /**
+     * Create a server.
+     *
+     * @param cryptoProvider Used for all NaCl operations.
+     * @param sslContext Initialised with the server's certificate and key.
+     * @param permanentPrivateKey The server's permanent private key as a hex
+     *   string.
+     */
+    public EmbeddedSaltyRTCServer(
+        @NonNull final CryptoProvider cryptoProvider,
+        @NonNull final SSLContext sslContext,
+        @NonNull final String permanentPrivateKey
+    ) throws CryptoException {
+        this.cryptoProvider = cryptoProvider;
+        this.sslContext = sslContext;
+        this.permanentPrivateKey = fromHex(permanentPrivateKey);
+        this.permanentPublicKey = cryptoProvider.derivePublicKey(this.permanentPrivateKey);
+    }
+
+    /**
+     * Start listening on the loopback interface.
+     *
+     * @param port The port to listen on or 0 to pick a free port.
+     * @return the port the server is listening on.
+     */
+    public synchronized int start(final int port) throws IOException {
+        if (this.socket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        this.socket = this.sslContext.getServerSocketFactory()
+            .createServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        final ServerSocket socket = this.socket;
+        final Thread thread = new Thread(() -> this.accept(socket), "EmbeddedSaltyRTCServer");
+        thread.setDaemon(true);
+        thread.start();
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Stop listening and close all connections.
+     */
+    @Override
+    public void close() {
+        final List<Client> clients;
+        synchronized (this) {
+            if (this.socket != null) {
+                try {
+                    this.socket.close();
+                } catch (IOException ignored) {
+                    // Nothing we can do
+                }
+                this.socket = null;
+            }
+            clients = new ArrayList<>(this.clients);
+        }
+        for (final Client client : clients) {
+            client.close(CloseCode.GOING_AWAY);
+        }
+    }
+
+    private void accept(@NonNull final ServerSocket socket) {
+        while (!socket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = socket.accept();
+            } catch (IOException error) {
+                return;
+            }
+            final Thread thread = new Thread(() -> this.serve(connection), "EmbeddedSaltyRTCServer.Client");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(@NonNull final Socket connection) {
+        Client client = null;
+        try {
+            connection.setTcpNoDelay(true);
+            client = new Client(connection);
+            synchronized (this) {
+                this.clients.add(client);
+            }
+            client.run();
+        } catch (IOException | CryptoException | RuntimeException error) {
+            if (client != null) {
+                client.close(CloseCode.PROTOCOL_ERROR);
+            } else {
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                    // Nothing we can do
+                }
+            }
+        } finally {
+            if (client != null) {
+                this.remove(client);
+            }
+        }
+    }
+
+    /**
+     * Remove a client from its path and notify the remaining peers.
+     */
+    private void remove(@NonNull final Client client) {
+        final List<Client> notify = new ArrayList<>();
+        synchronized (this) {
+            this.clients.remove(client);
+            final Path path = this.paths.get(client.path);
+            if (path == null || client.address == 0) {
+                return;
+            }
+            if (path.initiator == client) {
+                path.initiator = null;
+                notify.addAll(path.responders.values());
+            } else if (path.responders.get(client.address) == client) {
+                path.responders.remove(client.address);
+                if (path.initiator != null) {
+                    notify.add(path.initiator);
+                }
+            } else {
+                return;
+            }
+            if (path.initiator == null && path.responders.isEmpty()) {
+                this.paths.remove(client.path);
+            }
+        }
+        for (final Client peer : notify) {
+            final Map<String, Object> message = new HashMap<>();
+            message.put("type", "disconnected");
+            message.put("id", client.address);
+            peer.sendSafe(message);
+        }
+    }
+
+    /**
+     * A connected client.
+     */
+    private final class Client {
+        @NonNull private final Socket socket;
+        @NonNull private final DataInputStream in;
+        @NonNull private final OutputStream out;
+        @NonNull private final String path;
+        @NonNull private final byte[] initiatorKey;
+        @NonNull private final byte[] sessionPublicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+        @NonNull private final byte[] sessionPrivateKey = new byte[CryptoProvider.PRIVATEKEYBYTES];
+        @NonNull private final Cookie cookie = new Cookie();
+        private long sequenceNumber = new SecureRandom().nextInt() & 0xffffffffL;
+        @Nullable private byte[] clientCookie;
+        private long clientSequenceNumber = -1;
+        @Nullable private byte[] permanentKey;
+        private int address = 0;
+        private boolean closed = false;
+
+        Client(@NonNull final Socket socket) throws IOException, CryptoException {
+            this.socket = socket;
+            this.in = new DataInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+            this.path = this.upgrade();
+            this.initiatorKey = fromHex(this.path);
+            EmbeddedSaltyRTCServer.this.cryptoProvider.generateKeypair(this.sessionPublicKey, this.sessionPrivateKey);
+        }
+
+        /**
+         * Perform the WebSocket upgrade and return the requested path.
+         */
+        @NonNull private String upgrade() throws IOException {
+            // Read request
+            final String[] lines = readHeader(this.in).split("\r\n");
+            final String[] request = lines[0].split(" ");
+            if (request.length < 2 || !request[1].startsWith("/")) {
+                throw new IOException("Invalid request line");
+            }
+            final String path = request[1].substring(1).toLowerCase(Locale.ROOT);
+            String key = null;
+            boolean subprotocol = false;
+            for (final String line : lines) {
+                final int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                final String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                final String value = line.substring(colon + 1).trim();
+                if (name.equals("sec-websocket-key")) {
+                    key = value;
+                } else if (name.equals("sec-websocket-protocol")) {
+                    for (final String protocol : value.split(",")) {
+                        subprotocol |= protocol.trim().equals(SUBPROTOCOL);
+                    }
+                }
+            }
+            if (key == null || !subprotocol || !path.matches("[0-9a-f]{64}")) {
+                this.out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+                this.out.flush();
+                throw new IOException("Invalid WebSocket upgrade request");
+            }
+
+            // Accept
+            final String accept;
+            try {
+                final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                accept = Base64.getEncoder().encodeToString(
+                    sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+            } catch (NoSuchAlgorithmException error) {
+                throw new IOException(error);
+            }
+            this.out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + accept + "\r\n" +
+                "Sec-WebSocket-Protocol: " + SUBPROTOCOL + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            this.out.flush();
+            return path;
+        }
+
+        void run() throws IOException, CryptoException {
+            // Send server-hello
+            final Map<String, Object> hello = new HashMap<>();
+            hello.put("type", "server-hello");
+            hello.put("key", this.sessionPublicKey);
+            final byte[] encoded = encode(hello);
+            this.sendFrame(OPCODE_BINARY, ByteBuffer.allocate(NONCE_LENGTH + encoded.length)
+                .put(this.nextNonce()).put(encoded).array());
+
+            // Handshake
+            // Note: Only responders send a client-hello. The initiator
+            //       continues with the (encrypted) client-auth right away.
+            byte[] message = this.receive();
+            final byte[] clientCookie = this.validateNonce(message, 0x00);
+            final Map<String, Object> clientHello = tryDecode(message, NONCE_LENGTH);
+            if (clientHello != null && "client-hello".equals(clientHello.get("type"))) {
+                final Object key = clientHello.get("key");
+                if (!(key instanceof byte[]) || ((byte[]) key).length != CryptoProvider.PUBLICKEYBYTES) {
+                    throw new IOException("Invalid client-hello");
+                }
+                this.permanentKey = (byte[]) key;
+                message = this.receive();
+                this.validateNonce(message, 0x00);
+            } else {
+                this.permanentKey = this.initiatorKey;
+            }
+            final Map<String, Object> data = this.decrypt(message);
+            if (!"client-auth".equals(data.get("type"))) {
+                throw new IOException("Expected client-auth");
+            }
+            if (Arrays.equals(clientCookie, this.cookie.getBytes())) {
+                throw new IOException("Client cookie equals server cookie");
+            }
+            final Object yourCookie = data.get("your_cookie");
+            if (!(yourCookie instanceof byte[]) || !Arrays.equals((byte[]) yourCookie, this.cookie.getBytes())) {
+                throw new IOException("Invalid cookie in client-auth");
+            }
+            final Object subprotocols = data.get("subprotocols");
+            if (!(subprotocols instanceof List) || !((List<?>) subprotocols).contains(SUBPROTOCOL)) {
+                this.close(CloseCode.NO_SHARED_SUBPROTOCOL);
+                return;
+            }
+            final Object yourKey = data.get("your_key");
+            if (yourKey != null && !(yourKey instanceof byte[]
+                && Arrays.equals((byte[]) yourKey, EmbeddedSaltyRTCServer.this.permanentPublicKey))) {
+                this.close(CloseCode.INVALID_KEY);
+                return;
+            }
+
+            // Register and send server-auth
+            if (!this.authenticate()) {
+                return;
+            }
+
+            // Handle or relay messages
+            while (true) {
+                message = this.receive();
+                if (message.length < NONCE_LENGTH) {
+                    throw new IOException("Message too short");
+                }
+                final int source = message[16] & 0xff;
+                final int destination = message[17] & 0xff;
+                if (source != this.address) {
+                    throw new IOException("Invalid source address");
+                }
+                if (destination == 0x00) {
+                    this.validateNonce(message, this.address);
+                    this.handle(this.decrypt(message));
+                } else {
+                    this.relay(destination, message);
+                }
+            }
+        }
+
+        /**
+         * Assign an address, send server-auth and announce the client to its
+         * peers.
+         *
+         * @return `false` in case the path is full.
+         */
+        private boolean authenticate() throws IOException, CryptoException {
+            final boolean initiator = Arrays.equals(this.permanentKey, this.initiatorKey);
+            final Map<String, Object> auth = new HashMap<>();
+            final List<Client> notify = new ArrayList<>();
+            Client dropped = null;
+            synchronized (EmbeddedSaltyRTCServer.this) {
+                Path path = EmbeddedSaltyRTCServer.this.paths.get(this.path);
+                if (path == null) {
+                    path = new Path();
+                    EmbeddedSaltyRTCServer.this.paths.put(this.path, path);
+                }
+                if (initiator) {
+                    dropped = path.initiator;
+                    path.initiator = this;
+                    this.address = INITIATOR_ADDRESS;
+                    auth.put("responders", new ArrayList<>(path.responders.keySet()));
+                    notify.addAll(path.responders.values());
+                } else {
+                    for (int address = 0x02; address <= 0xff; address++) {
+                        if (!path.responders.containsKey(address)) {
+                            this.address = address;
+                            break;
+                        }
+                    }
+                    if (this.address == 0) {
+                        this.close(CloseCode.PATH_FULL);
+                        return false;
+                    }
+                    path.responders.put(this.address, this);
+                    auth.put("initiator_connected", path.initiator != null);
+                    if (path.initiator != null) {
+                        notify.add(path.initiator);
+                    }
+                }
+            }
+            if (dropped != null) {
+                dropped.close(CloseCode.DROPPED_BY_INITIATOR);
+            }
+
+            // Send server-auth including the signed keys
+            auth.put("type", "server-auth");
+            auth.put("your_cookie", this.clientCookie);
+            synchronized (this) {
+                final byte[] nonce = this.nextNonce();
+                final byte[] keys = ByteBuffer.allocate(CryptoProvider.PUBLICKEYBYTES * 2)
+                    .put(this.sessionPublicKey).put(this.permanentKey).array();
+                auth.put("signed_keys", EmbeddedSaltyRTCServer.this.cryptoProvider
+                    .getInstance(EmbeddedSaltyRTCServer.this.permanentPrivateKey, this.permanentKey)
+                    .encrypt(keys, nonce));
+                this.sendEncrypted(nonce, auth);
+            }
+
+            // Announce
+            for (final Client peer : notify) {
+                final Map<String, Object> message = new HashMap<>();
+                if (initiator) {
+                    message.put("type", "new-initiator");
+                } else {
+                    message.put("type", "new-responder");
+                    message.put("id", this.address);
+                }
+                peer.sendSafe(message);
+            }
+            return true;
+        }
+
+        /**
+         * Handle a client-to-server message.
+         */
+        private void handle(@NonNull final Map<String, Object> message) throws IOException {
+            if (!"drop-responder".equals(message.get("type")) || this.address != INITIATOR_ADDRESS) {
+                throw new IOException("Unexpected message: " + message.get("type"));
+            }
+            final Object id = message.get("id");
+            final Object reason = message.get("reason");
+            final Client responder;
+            synchronized (EmbeddedSaltyRTCServer.this) {
+                final Path path = EmbeddedSaltyRTCServer.this.paths.get(this.path);
+                responder = path != null && id instanceof Integer ? path.responders.get(id) : null;
+            }
+            if (responder != null) {
+                responder.close(reason instanceof Integer ? (Integer) reason : CloseCode.DROPPED_BY_INITIATOR);
+            }
+        }
+
+        /**
+         * Relay a client-to-client message or report a send-error.
+         */
+        private void relay(final int destination, @NonNull final byte[] message) {
+            final Client peer;
+            synchronized (EmbeddedSaltyRTCServer.this) {
+                final Path path = EmbeddedSaltyRTCServer.this.paths.get(this.path);
+                if (path == null) {
+                    peer = null;
+                } else if (destination == INITIATOR_ADDRESS) {
+                    peer = this.address != INITIATOR_ADDRESS ? path.initiator : null;
+                } else {
+                    peer = this.address == INITIATOR_ADDRESS ? path.responders.get(destination) : null;
+                }
+            }
+            if (peer != null) {
+                try {
+                    peer.sendFrame(OPCODE_BINARY, message);
+                    return;
+                } catch (IOException error) {
+                    // Report below
+                }
+            }
+            final Map<String, Object> error = new HashMap<>();
+            error.put("type", "send-error");
+            error.put("id", Arrays.copyOfRange(message, 16, NONCE_LENGTH));
+            this.sendSafe(error);
+        }
+
+        /**
+         * Validate the nonce of a message destined to the server.
+         *
+         * @return the client's cookie.
+         */
+        @NonNull private byte[] validateNonce(@NonNull final byte[] message, final int source) throws IOException {
+            if (message.length < NONCE_LENGTH) {
+                throw new IOException("Message too short");
+            }
+            final ByteBuffer nonce = ByteBuffer.wrap(message, 0, NONCE_LENGTH);
+            final byte[] cookie = new byte[Cookie.COOKIE_LENGTH];
+            nonce.get(cookie);
+            if ((nonce.get() & 0xff) != source || nonce.get() != 0x00) {
+                throw new IOException("Invalid nonce addresses");
+            }
+            final long sequenceNumber = ((long) (nonce.getShort() & 0xffff) << 32) | (nonce.getInt() & 0xffffffffL);
+            if (this.clientCookie == null) {
+                this.clientCookie = cookie;
+            } else if (!Arrays.equals(this.clientCookie, cookie)) {
+                throw new IOException("Client cookie changed");
+            } else if (this.clientSequenceNumber >= 0 && sequenceNumber != this.clientSequenceNumber + 1) {
+                throw new IOException("Invalid combined sequence number");
+            }
+            this.clientSequenceNumber = sequenceNumber;
+            return cookie;
+        }
+
+        @NonNull private byte[] nextNonce() {
+            final byte[] nonce = new byte[NONCE_LENGTH];
+            ByteBuffer.wrap(nonce)
+                .put(this.cookie.getBytes())
+                .put((byte) 0x00)
+                .put((byte) this.address)
+                .putShort((short) (this.sequenceNumber >>> 32))
+                .putInt((int) this.sequenceNumber);
+            this.sequenceNumber++;
+            return nonce;
+        }
+
+        @NonNull private Map<String, Object> decrypt(@NonNull final byte[] message) throws IOException {
+            final byte[] nonce = Arrays.copyOf(message, NONCE_LENGTH);
+            final byte[] data = Arrays.copyOfRange(message, NONCE_LENGTH, message.length);
+            try {
+                final byte[] decrypted = EmbeddedSaltyRTCServer.this.cryptoProvider
+                    .getInstance(this.sessionPrivateKey, this.permanentKey)
+                    .decrypt(data, nonce);
+                return decode(decrypted, 0);
+            } catch (CryptoException error) {
+                throw new IOException("Could not decrypt message", error);
+            }
+        }
+
+        private void sendEncrypted(
+            @NonNull final byte[] nonce, @NonNull final Map<String, Object> message
+        ) throws IOException, CryptoException {
+            final byte[] encrypted = EmbeddedSaltyRTCServer.this.cryptoProvider
+                .getInstance(this.sessionPrivateKey, this.permanentKey)
+                .encrypt(encode(message), nonce);
+            this.sendFrame(OPCODE_BINARY, ByteBuffer.allocate(NONCE_LENGTH + encrypted.length)
+                .put(nonce).put(encrypted).array());
+        }
+
+        /**
+         * Encrypt and send a server-to-client message, closing the connection
+         * on failure.
+         */
+        void sendSafe(@NonNull final Map<String, Object> message) {
+            try {
+                synchronized (this) {
+                    this.sendEncrypted(this.nextNonce(), message);
+                }
+            } catch (IOException | CryptoException error) {
+                this.close(CloseCode.INTERNAL_ERROR);
+            }
+        }
+
+        /**
+         * Receive the next binary message, answering pings on the way.
+         */
+        @NonNull private byte[] receive() throws IOException {
+            final ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (true) {
+                final int head = this.in.readUnsignedByte();
+                final int opcode = head & 0x0f;
+                final boolean fin = (head & 0x80) != 0;
+                final int lengthByte = this.in.readUnsignedByte();
+                long length = lengthByte & 0x7f;
+                if (length == 126) {
+                    length = this.in.readUnsignedShort();
+                } else if (length == 127) {
+                    length = this.in.readLong();
+                }
+                if ((lengthByte & 0x80) == 0 || length < 0 || message.size() + length > MAX_MESSAGE_LENGTH) {
+                    throw new IOException("Invalid frame");
+                }
+                final byte[] mask = new byte[4];
+                this.in.readFully(mask);
+                final byte[] payload = new byte[(int) length];
+                this.in.readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+                switch (opcode) {
+                    case OPCODE_PING:
+                        this.sendFrame(OPCODE_PONG, payload);
+                        break;
+                    case OPCODE_PONG:
+                        break;
+                    case OPCODE_CLOSE:
+                        this.close(CloseCode.CLOSING_NORMAL);
+                        throw new EOFException("Closed by client");
+                    case OPCODE_BINARY:
+                    case OPCODE_CONTINUATION:
+                        message.write(payload);
+                        if (fin) {
+                            return message.toByteArray();
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unexpected opcode: " + opcode);
+                }
+            }
+        }
+
+        private void sendFrame(final int opcode, @NonNull final byte[] payload) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(10);
+            header.put((byte) (0x80 | opcode));
+            if (payload.length < 126) {
+                header.put((byte) payload.length);
+            } else if (payload.length <= 0xffff) {
+                header.put((byte) 126).putShort((short) payload.length);
+            } else {
+                header.put((byte) 127).putLong(payload.length);
+            }
+            synchronized (this.out) {
+                this.out.write(header.array(), 0, header.position());
+                this.out.write(payload);
+                this.out.flush();
+            }
+        }
+
+        /**
+         * Send a close frame and close the connection.
+         */
+        void close(final int code) {
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+            }
+            try {
+                this.sendFrame(OPCODE_CLOSE, ByteBuffer.allocate(2).putShort((short) code).array());
+            } catch (IOException ignored) {
+                // Nothing we can do
+            }
+            try {
+                this.socket.close();
+            } catch (IOException ignored) {
+                // Nothing we can do
+            }
+        }
+    }
+
+    @NonNull private static String readHeader(@NonNull final InputStream in) throws IOException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            final int b = in.read();
+            if (b < 0 || header.size() > 8192) {
+                throw new IOException("Invalid HTTP request");
+            }
+            header.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return new String(header.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @NonNull private static byte[] encode(@NonNull final Map<String, Object> message) throws IOException {
+        return MAPPER.writeValueAsBytes(message);
+    }
+
+    @NonNull private static Map<String, Object> decode(
+        @NonNull final byte[] message, final int offset
+    ) throws IOException {
+        return MAPPER.readValue(message, offset, message.length - offset, new TypeReference<Map<String, Object>>() {});
+    }
+
+    @Nullable private static Map<String, Object> tryDecode(@NonNull final byte[] message, final int offset) {
+        try {
+            return decode(message, offset);
+        } catch (IOException error) {
+            return null;
+        }
+    }
+
+    @NonNull private static byte[] fromHex(@NonNull final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * Time source and scheduler of an impaired loopback data channel.
+ */
+public interface LinkClock {
+    /**
+     * Return the current time in nanoseconds.
+     */
+    long nanoTime();
+
+    /**
+     * Run a task once the given time (in nanoseconds) has been reached.
+     * Tasks scheduled for the same time run in the order they have been
+     * scheduled.
+     */
+    void schedule(long nanoTime, @NonNull Runnable task);
+}
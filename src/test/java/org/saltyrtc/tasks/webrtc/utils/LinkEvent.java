@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * A task scheduled by a `LinkClock`. Ordered by time, then by the order of
+ * scheduling.
+ */
+final class LinkEvent implements Comparable<LinkEvent> {
+    final long time;
+    final long sequence;
+    @NonNull final Runnable task;
+
+    LinkEvent(final long time, final long sequence, @NonNull final Runnable task) {
+        this.time = time;
+        this.sequence = sequence;
+        this.task = task;
+    }
+
+    @Override
+    public int compareTo(@NonNull final LinkEvent other) {
+        final int result = Long.compare(this.time, other.time);
+        return result != 0 ? result : Long.compare(this.sequence, other.sequence);
+    }
+}
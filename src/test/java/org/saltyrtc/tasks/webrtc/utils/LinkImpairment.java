@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.Random;
+
+/**
+ * Describes the impairments of a simulated link between two loopback data
+ * channels.
+ *
+ * - Each message occupies the link for `length / bandwidth` seconds. Until
+ *   then, it counts towards the sender's buffered amount.
+ * - It arrives after the latency plus a uniformly distributed jitter of up
+ *   to +/- `jitter`.
+ * - Lost messages are dropped on unreliable channels. On reliable channels,
+ *   they are retransmitted after `max(200 ms, 3 * latency)`.
+ * - Messages on unordered channels may be reordered (delayed by another
+ *   latency) and, if unreliable, duplicated. On ordered channels, a message
+ *   never arrives before its predecessor (head-of-line blocking).
+ *
+ * The defaults describe a perfect, reliable and ordered link.
+ */
+public class LinkImpairment {
+    private static final long MIN_RETRANSMISSION_NANOS = 200_000_000L;
+
+    private long latencyNanos = 0;
+    private long jitterNanos = 0;
+    private long bandwidth = 0;
+    private double loss = 0;
+    private double reordering = 0;
+    private double duplication = 0;
+    private boolean reliable = true;
+    private boolean ordered = true;
+    private long seed = 0;
+
+    /**
+     * A typical 3G connection: 150 ms latency, 50 ms jitter, 1 Mbit/s and
+     * 1% loss.
+     */
+    @NonNull public static LinkImpairment mobile3G() {
+        return new LinkImpairment().withLatency(150).withJitter(50).withBandwidth(125_000).withLoss(0.01);
+    }
+
+    /**
+     * A typical LTE connection: 50 ms latency, 10 ms jitter, 10 Mbit/s and
+     * 0.1% loss.
+     */
+    @NonNull public static LinkImpairment lte() {
+        return new LinkImpairment().withLatency(50).withJitter(10).withBandwidth(1_250_000).withLoss(0.001);
+    }
+
+    /**
+     * Set the one-way latency in milliseconds.
+     */
+    @NonNull public LinkImpairment withLatency(final long milliseconds) {
+        this.latencyNanos = milliseconds * 1_000_000L;
+        return this;
+    }
+
+    /**
+     * Set the maximum deviation from the latency in milliseconds.
+     */
+    @NonNull public LinkImpairment withJitter(final long milliseconds) {
+        this.jitterNanos = milliseconds * 1_000_000L;
+        return this;
+    }
+
+    /**
+     * Set the bandwidth in bytes per second, 0 for unlimited.
+     */
+    @NonNull public LinkImpairment withBandwidth(final long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Set the probability of a message being lost.
+     */
+    @NonNull public LinkImpairment withLoss(final double probability) {
+        this.loss = probability;
+        return this;
+    }
+
+    /**
+     * Set the probability of a message being reordered (unordered channels
+     * only).
+     */
+    @NonNull public LinkImpairment withReordering(final double probability) {
+        this.reordering = probability;
+        return this;
+    }
+
+    /**
+     * Set the probability of a message being duplicated (unreliable
+     * channels only).
+     */
+    @NonNull public LinkImpairment withDuplication(final double probability) {
+        this.duplication = probability;
+        return this;
+    }
+
+    /**
+     * Simulate an unreliable channel (no retransmissions).
+     */
+    @NonNull public LinkImpairment unreliable() {
+        this.reliable = false;
+        return this;
+    }
+
+    /**
+     * Simulate an unordered channel.
+     */
+    @NonNull public LinkImpairment unordered() {
+        this.ordered = false;
+        return this;
+    }
+
+    /**
+     * Set the seed of the random number generator.
+     */
+    @NonNull public LinkImpairment withSeed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    boolean isReliable() {
+        return this.reliable;
+    }
+
+    boolean isOrdered() {
+        return this.ordered;
+    }
+
+    @NonNull Random createRandom() {
+        return new Random(this.seed);
+    }
+
+    long getTransmissionNanos(final int length) {
+        return this.bandwidth > 0 ? length * 1_000_000_000L / this.bandwidth : 0;
+    }
+
+    long sampleDelayNanos(@NonNull final Random random) {
+        final long jitter = this.jitterNanos > 0
+            ? (long) ((random.nextDouble() * 2 - 1) * this.jitterNanos) : 0;
+        return Math.max(0, this.latencyNanos + jitter);
+    }
+
+    long getRetransmissionNanos() {
+        return Math.max(MIN_RETRANSMISSION_NANOS, 3 * this.latencyNanos);
+    }
+
+    long getReorderingNanos() {
+        return this.latencyNanos;
+    }
+
+    boolean isLost(@NonNull final Random random) {
+        return this.loss > 0 && random.nextDouble() < this.loss;
+    }
+
+    boolean isReordered(@NonNull final Random random) {
+        return !this.ordered && this.reordering > 0 && random.nextDouble() < this.reordering;
+    }
+
+    boolean isDuplicated(@NonNull final Random random) {
+        return !this.reliable && this.duplication > 0 && random.nextDouble() < this.duplication;
+    }
+}
@@ -4,16 +4,44 @@ import org.saltyrtc.client.annotations.NonNull;
 import org.saltyrtc.client.annotations.Nullable;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 public class LoopbackDataChannel<RT extends LoopbackDataChannel> {
     @Nullable RT remote;
     @Nullable private DataChannelMessageHandler messageHandler;
     boolean closed = false;
 
+    // Impairment
+    @Nullable private LinkImpairment impairment;
+    @Nullable private LinkClock clock;
+    @Nullable private Random random;
+    private long linkFreeAt = 0;
+    private long lastArrival = 0;
+
+    // Buffered amount
+    private long bufferedAmount = 0;
+    private long maxBufferedAmount = 0;
+    private long bufferedAmountLowThreshold = 0;
+    private long bufferedAmountHighThreshold = Long.MAX_VALUE;
+
     public void attach(@NonNull final RT other) {
         this.remote = other;
     }
 
+    /**
+     * Impair outgoing messages of this channel. Messages will be delivered
+     * asynchronously once the clock reaches their time of arrival.
+     *
+     * Note: The remote channel needs to be impaired separately.
+     */
+    public synchronized void impair(@NonNull final LinkImpairment impairment, @NonNull final LinkClock clock) {
+        this.impairment = impairment;
+        this.clock = clock;
+        this.random = impairment.createRandom();
+        this.linkFreeAt = clock.nanoTime();
+        this.lastArrival = this.linkFreeAt;
+    }
+
     public void setMessageHandler(@NonNull final DataChannelMessageHandler messageHandler) {
         this.messageHandler = messageHandler;
     }
@@ -22,6 +50,34 @@ public class LoopbackDataChannel<RT extends LoopbackDataChannel> {
         return 262144;
     }
 
+    /**
+     * Return the amount of bytes that have been sent but not yet been
+     * transmitted on the (impaired) link.
+     */
+    public synchronized long getBufferedAmount() {
+        return this.bufferedAmount;
+    }
+
+    /**
+     * Return the highest buffered amount that has been observed.
+     */
+    public synchronized long getMaxBufferedAmount() {
+        return this.maxBufferedAmount;
+    }
+
+    public synchronized long getBufferedAmountHighThreshold() {
+        return this.bufferedAmountHighThreshold;
+    }
+
+    /**
+     * Set the thresholds of the buffered amount. `onBufferedAmountLow` will
+     * be called once the buffered amount decreases to the low threshold.
+     */
+    public synchronized void setBufferedAmountThresholds(final long low, final long high) {
+        this.bufferedAmountLowThreshold = low;
+        this.bufferedAmountHighThreshold = high;
+    }
+
     public void close() {
         if (this.closed) {
             throw new RuntimeException("Already closed");
@@ -44,7 +100,81 @@ public class LoopbackDataChannel<RT extends LoopbackDataChannel> {
         }
 
         // Forward to the remote channel's link
-        this.remote.receive(message);
+        if (this.impairment == null) {
+            this.remote.receive(message);
+        } else {
+            this.transmit(message);
+        }
+    }
+
+    private synchronized void transmit(@NonNull final ByteBuffer message) {
+        final LinkImpairment impairment = this.impairment;
+        final LinkClock clock = this.clock;
+        final Random random = this.random;
+        assert impairment != null && clock != null && random != null;
+
+        // Copy the message since the caller may reuse the buffer
+        final int length = message.remaining();
+        final ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(message.duplicate());
+        copy.flip();
+
+        // The message is buffered until it has been put on the wire
+        final long departure = Math.max(clock.nanoTime(), this.linkFreeAt) + impairment.getTransmissionNanos(length);
+        this.linkFreeAt = departure;
+        this.bufferedAmount += length;
+        this.maxBufferedAmount = Math.max(this.maxBufferedAmount, this.bufferedAmount);
+        clock.schedule(departure, () -> this.drained(length));
+
+        // Determine time of arrival
+        long arrival = departure + impairment.sampleDelayNanos(random);
+        if (impairment.isLost(random)) {
+            if (!impairment.isReliable()) {
+                return;
+            }
+            arrival += impairment.getRetransmissionNanos();
+        }
+        if (impairment.isReordered(random)) {
+            arrival += impairment.getReorderingNanos();
+        }
+        if (impairment.isOrdered()) {
+            arrival = Math.max(arrival, this.lastArrival);
+            this.lastArrival = arrival;
+        }
+        this.deliver(arrival, copy);
+        if (impairment.isDuplicated(random)) {
+            this.deliver(arrival + impairment.sampleDelayNanos(random), copy.duplicate());
+        }
+    }
+
+    private void deliver(final long arrival, @NonNull final ByteBuffer message) {
+        assert this.clock != null;
+        this.clock.schedule(arrival, () -> {
+            if (!this.closed && this.remote != null) {
+                this.remote.receive(message);
+            }
+        });
+    }
+
+    private void drained(final int length) {
+        final boolean low;
+        synchronized (this) {
+            final long before = this.bufferedAmount;
+            this.bufferedAmount -= length;
+            low = before > this.bufferedAmountLowThreshold
+                && this.bufferedAmount <= this.bufferedAmountLowThreshold;
+        }
+        if (low && !this.closed) {
+            this.onBufferedAmountLow();
+        }
+    }
+
+    /**
+     * Will be called once the buffered amount decreased to the low
+     * threshold.
+     */
+    protected void onBufferedAmountLow() {
+        // Do nothing by default
     }
 
     protected void receive(@NonNull final ByteBuffer message) {
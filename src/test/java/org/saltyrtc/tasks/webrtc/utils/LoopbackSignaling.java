@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.cookie.Cookie;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.exceptions.SignalingException;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SignalingInterface;
+import org.saltyrtc.client.signaling.SignalingRole;
+import org.saltyrtc.client.signaling.state.HandoverState;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-process signalling peer. Two instances are connected directly to
+ * each other, replacing the SaltyRTC server and the WebSocket connection.
+ *
+ * Task messages are MessagePack encoded and, until the handover, encrypted
+ * with the peers' session keys. Nonces carry each peer's cookie and combined
+ * sequence number which are validated by the receiving peer. Once the local
+ * handover state has been set, task messages are handed to the task for
+ * transmission over the signalling data channel instead.
+ *
+ * All messages are delivered synchronously.
+ */
+public class LoopbackSignaling implements SignalingInterface {
+    @NonNull private static final ObjectMapper MAPPER = new ObjectMapper(new MessagePackFactory());
+    private static final int NONCE_LENGTH = 24;
+
+    @NonNull private final CryptoProvider cryptoProvider;
+    @NonNull private final SignalingRole role;
+    @NonNull private final Task task;
+    @NonNull private final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+    @NonNull private final byte[] privateKey = new byte[CryptoProvider.PRIVATEKEYBYTES];
+    @NonNull private final Cookie cookie = new Cookie();
+    @NonNull private final HandoverState handoverState = new HandoverState();
+    @NonNull private SignalingState state = SignalingState.NEW;
+    @Nullable private LoopbackSignaling remote;
+    @Nullable private CryptoInstance crypto;
+    private long sequenceNumber = 0;
+    private long remoteSequenceNumber = -1;
+    @Nullable private Integer closeCode;
+
+    public LoopbackSignaling(
+        @NonNull final CryptoProvider cryptoProvider,
+        @NonNull final SignalingRole role,
+        @NonNull final Task task
+    ) throws CryptoException {
+        this.cryptoProvider = cryptoProvider;
+        this.role = role;
+        this.task = task;
+        cryptoProvider.generateKeypair(this.publicKey, this.privateKey);
+    }
+
+    /**
+     * Exchange session keys, initialise both tasks with the data of the
+     * respective other task and move both peers into the `TASK` state.
+     */
+    public static void connect(
+        @NonNull final LoopbackSignaling initiator,
+        @NonNull final LoopbackSignaling responder
+    ) throws CryptoException, ValidationError {
+        if (initiator.role != SignalingRole.Initiator || responder.role != SignalingRole.Responder) {
+            throw new IllegalArgumentException("Expected an initiator and a responder");
+        }
+        if (initiator.cookie.equals(responder.cookie)) {
+            throw new IllegalStateException("Cookies must differ");
+        }
+
+        // Exchange keys
+        initiator.remote = responder;
+        responder.remote = initiator;
+        initiator.crypto = initiator.cryptoProvider.getInstance(initiator.privateKey, responder.publicKey);
+        responder.crypto = responder.cryptoProvider.getInstance(responder.privateKey, initiator.publicKey);
+
+        // Initialise tasks
+        initiator.state = SignalingState.PEER_HANDSHAKE;
+        responder.state = SignalingState.PEER_HANDSHAKE;
+        initiator.task.init(initiator, responder.task.getData());
+        responder.task.init(responder, initiator.task.getData());
+        initiator.state = SignalingState.TASK;
+        responder.state = SignalingState.TASK;
+        initiator.task.onPeerHandshakeDone();
+        responder.task.onPeerHandshakeDone();
+    }
+
+    /**
+     * Return the close code in case the connection has been closed or reset.
+     */
+    @Nullable public Integer getCloseCode() {
+        return this.closeCode;
+    }
+
+    @Override
+    public SignalingState getState() {
+        return this.state;
+    }
+
+    @Override
+    public void setState(final SignalingState state) {
+        this.state = state;
+    }
+
+    @Override
+    public HandoverState getHandoverState() {
+        return this.handoverState;
+    }
+
+    @Override
+    public SignalingRole getRole() {
+        return this.role;
+    }
+
+    @Override
+    public void sendTaskMessage(final TaskMessage message) throws SignalingException, ConnectionException {
+        if (this.state != SignalingState.TASK || this.remote == null) {
+            throw new ConnectionException("Not connected");
+        }
+        final byte[] payload = encode(message);
+
+        // Send via the signalling data channel after handover
+        if (this.handoverState.getLocal()) {
+            this.task.sendSignalingMessage(payload);
+            return;
+        }
+
+        // Encrypt and deliver to the remote peer
+        final Box box;
+        try {
+            box = this.encryptForPeer(payload, this.nextNonce());
+        } catch (CryptoException error) {
+            throw new SignalingException(CloseCode.INTERNAL_ERROR, "Could not encrypt task message", error);
+        }
+        this.remote.receiveFromServer(box);
+    }
+
+    @Override
+    public Box encryptForPeer(final byte[] data, final byte[] nonce) throws CryptoException {
+        if (this.crypto == null) {
+            throw new CryptoException("Not connected");
+        }
+        return new Box(nonce, this.crypto.encrypt(data, nonce));
+    }
+
+    @Override
+    public byte[] decryptFromPeer(final Box box) throws CryptoException {
+        if (this.crypto == null) {
+            throw new CryptoException("Not connected");
+        }
+        return this.crypto.decrypt(box.getData(), box.getNonce());
+    }
+
+    @Override
+    public void onSignalingPeerMessage(final byte[] decryptedBytes) {
+        final TaskMessage message;
+        try {
+            message = decode(decryptedBytes);
+        } catch (ValidationError error) {
+            this.resetConnection(CloseCode.PROTOCOL_ERROR);
+            return;
+        }
+        this.task.onTaskMessage(message);
+    }
+
+    @Override
+    public void sendClose(final int reason) {
+        this.close(reason);
+        if (this.remote != null) {
+            this.remote.close(reason);
+        }
+    }
+
+    @Override
+    public void resetConnection(@Nullable final Integer reason) {
+        this.close(reason != null ? reason : CloseCode.CLOSING_NORMAL);
+    }
+
+    private void close(final int reason) {
+        if (this.state == SignalingState.CLOSED) {
+            return;
+        }
+        this.state = SignalingState.CLOSED;
+        this.closeCode = reason;
+        this.task.close(reason);
+    }
+
+    /**
+     * Build the next nonce: cookie (16 bytes), source and destination
+     * address (1 byte each), overflow number (2 bytes) and sequence number
+     * (4 bytes).
+     */
+    @NonNull private byte[] nextNonce() {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        ByteBuffer.wrap(nonce)
+            .put(this.cookie.getBytes())
+            .put((byte) (this.role == SignalingRole.Initiator ? 0x01 : 0x02))
+            .put((byte) (this.role == SignalingRole.Initiator ? 0x02 : 0x01))
+            .putShort((short) (this.sequenceNumber >>> 32))
+            .putInt((int) this.sequenceNumber);
+        this.sequenceNumber++;
+        return nonce;
+    }
+
+    /**
+     * Validate, decrypt and dispatch a message that would have been relayed
+     * by the server.
+     */
+    private void receiveFromServer(@NonNull final Box box) {
+        if (this.remote == null || this.state != SignalingState.TASK) {
+            return;
+        }
+
+        // Validate cookie and combined sequence number
+        final ByteBuffer nonce = ByteBuffer.wrap(box.getNonce());
+        final byte[] cookie = new byte[Cookie.COOKIE_LENGTH];
+        nonce.get(cookie);
+        nonce.position(nonce.position() + 2);
+        final long sequenceNumber = ((long) (nonce.getShort() & 0xffff) << 32) | (nonce.getInt() & 0xffffffffL);
+        if (!Arrays.equals(cookie, this.remote.cookie.getBytes()) || sequenceNumber <= this.remoteSequenceNumber) {
+            this.resetConnection(CloseCode.PROTOCOL_ERROR);
+            return;
+        }
+        this.remoteSequenceNumber = sequenceNumber;
+
+        // Decrypt and dispatch
+        final byte[] decrypted;
+        try {
+            decrypted = this.decryptFromPeer(box);
+        } catch (CryptoException error) {
+            this.resetConnection(CloseCode.PROTOCOL_ERROR);
+            return;
+        }
+        this.onSignalingPeerMessage(decrypted);
+    }
+
+    @NonNull private static byte[] encode(@NonNull final TaskMessage message) throws SignalingException {
+        final Map<String, Object> map = new HashMap<>(message.getData());
+        map.put("type", message.getType());
+        try {
+            return MAPPER.writeValueAsBytes(map);
+        } catch (IOException error) {
+            throw new SignalingException(CloseCode.INTERNAL_ERROR, "Could not encode task message", error);
+        }
+    }
+
+    @NonNull private static TaskMessage decode(@NonNull final byte[] payload) throws ValidationError {
+        final Map<String, Object> map;
+        try {
+            map = MAPPER.readValue(payload, new TypeReference<Map<String, Object>>() {});
+        } catch (IOException error) {
+            throw new ValidationError("Could not decode task message");
+        }
+        final Object type = map.get("type");
+        if (!(type instanceof String)) {
+            throw new ValidationError("Task message type missing");
+        }
+        return new TaskMessage((String) type, map);
+    }
+}
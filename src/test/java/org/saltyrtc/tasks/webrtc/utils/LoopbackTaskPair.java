@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.signaling.SignalingRole;
+import org.saltyrtc.tasks.webrtc.WebRTCTask;
+
+/**
+ * Two `WebRTCTask` instances connected via `LoopbackSignaling`, entirely
+ * in-process. After `handover`, signalling messages are exchanged via a
+ * pair of `SignalingLoopbackDataChannel` instances.
+ */
+public class LoopbackTaskPair {
+    @NonNull public final WebRTCTask initiatorTask;
+    @NonNull public final WebRTCTask responderTask;
+    @NonNull public final LoopbackSignaling initiator;
+    @NonNull public final LoopbackSignaling responder;
+    @Nullable public SignalingLoopbackDataChannel initiatorChannel;
+    @Nullable public SignalingLoopbackDataChannel responderChannel;
+
+    public LoopbackTaskPair(
+        @NonNull final CryptoProvider cryptoProvider,
+        @NonNull final WebRTCTask initiatorTask,
+        @NonNull final WebRTCTask responderTask
+    ) throws CryptoException, ValidationError {
+        this.initiatorTask = initiatorTask;
+        this.responderTask = responderTask;
+        this.initiator = new LoopbackSignaling(cryptoProvider, SignalingRole.Initiator, initiatorTask);
+        this.responder = new LoopbackSignaling(cryptoProvider, SignalingRole.Responder, responderTask);
+        LoopbackSignaling.connect(this.initiator, this.responder);
+    }
+
+    /**
+     * Create and attach the signalling data channels and hand over both
+     * peers. Since all messages are delivered synchronously, the handover
+     * has been completed once this returns.
+     */
+    public void handover() {
+        this.initiatorChannel = new SignalingLoopbackDataChannel(this.initiatorTask.getTransportLink());
+        this.responderChannel = new SignalingLoopbackDataChannel(this.responderTask.getTransportLink());
+        this.initiatorChannel.attach(this.responderChannel);
+        this.responderChannel.attach(this.initiatorChannel);
+        this.initiatorTask.handover(this.initiatorChannel);
+        this.responderTask.handover(this.responderChannel);
+    }
+
+    /**
+     * Like `handover`, but impair both signalling data channels. The
+     * handover will only be completed once the clock has advanced far
+     * enough for the handover messages to arrive.
+     */
+    public void handover(@NonNull final LinkImpairment impairment, @NonNull final LinkClock clock) {
+        this.initiatorChannel = new SignalingLoopbackDataChannel(this.initiatorTask.getTransportLink());
+        this.responderChannel = new SignalingLoopbackDataChannel(this.responderTask.getTransportLink());
+        this.initiatorChannel.attach(this.responderChannel);
+        this.responderChannel.attach(this.initiatorChannel);
+        this.initiatorChannel.impair(impairment, clock);
+        this.responderChannel.impair(impairment, clock);
+        this.initiatorTask.handover(this.initiatorChannel);
+        this.responderTask.handover(this.responderChannel);
+    }
+}
@@ -18,8 +18,10 @@ import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 
+import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 
@@ -58,4 +60,29 @@ public class SSLContextHelper {
 
         return sslContext;
     }
+
+    /**
+     * Return an SSL context for the embedded server, containing the key and
+     * certificate of "saltyrtc-server.p12".
+     */
+    @NonNull public static SSLContext getServerSSLContext() throws KeyStoreException, CertificateException,
+        NoSuchAlgorithmException, IOException, KeyManagementException, UnrecoverableKeyException {
+        final File kf = new File("saltyrtc-server.p12");
+        final char[] password = "saltyrtc".toCharArray();
+
+        // Initialize KeyStore
+        final java.security.KeyStore ks = java.security.KeyStore.getInstance("PKCS12");
+        try (final FileInputStream stream = new FileInputStream(kf)) {
+            ks.load(stream, password);
+        }
+
+        // Initialize KeyManager
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, password);
+
+        // Initialize SSLContext
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        return sslContext;
+    }
 }
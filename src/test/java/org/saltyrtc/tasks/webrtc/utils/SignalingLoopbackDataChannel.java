@@ -3,13 +3,13 @@ package org.saltyrtc.tasks.webrtc.utils;
 import org.saltyrtc.client.annotations.NonNull;
 import org.saltyrtc.tasks.webrtc.exceptions.IllegalStateError;
 import org.saltyrtc.tasks.webrtc.exceptions.UntiedException;
-import org.saltyrtc.tasks.webrtc.transport.SignalingTransportHandler;
+import org.saltyrtc.tasks.webrtc.transport.FlowControlledSignalingTransportHandler;
 import org.saltyrtc.tasks.webrtc.transport.SignalingTransportLink;
 
 import java.nio.ByteBuffer;
 
 public class SignalingLoopbackDataChannel extends LoopbackDataChannel<SignalingLoopbackDataChannel>
-    implements SignalingTransportHandler {
+    implements FlowControlledSignalingTransportHandler {
     @NonNull private final SignalingTransportLink link;
 
     public SignalingLoopbackDataChannel(@NonNull final SignalingTransportLink link) {
@@ -38,6 +38,15 @@ public class SignalingLoopbackDataChannel extends LoopbackDataChannel<SignalingL
         }
     }
 
+    @Override
+    protected void onBufferedAmountLow() {
+        try {
+            this.link.bufferedAmountLow();
+        } catch (UntiedException error) {
+            throw new IllegalStateError(error.getMessage());
+        }
+    }
+
     protected void receive(@NonNull final ByteBuffer message) {
         super.receive(message);
         try {
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.PriorityQueue;
+
+/**
+ * A clock running in real time. Scheduled tasks run on a dedicated thread.
+ */
+public class SystemLinkClock implements LinkClock, AutoCloseable {
+    @NonNull private final PriorityQueue<LinkEvent> events = new PriorityQueue<>();
+    private long sequence = 0;
+    private boolean closed = false;
+
+    public SystemLinkClock() {
+        final Thread thread = new Thread(this::loop, "SystemLinkClock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public synchronized void schedule(final long nanoTime, @NonNull final Runnable task) {
+        this.events.add(new LinkEvent(nanoTime, this.sequence++, task));
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.events.clear();
+        this.notifyAll();
+    }
+
+    private void loop() {
+        while (true) {
+            LinkEvent event = null;
+            synchronized (this) {
+                try {
+                    while (event == null) {
+                        if (this.closed) {
+                            return;
+                        }
+                        final LinkEvent next = this.events.peek();
+                        if (next == null) {
+                            this.wait();
+                            continue;
+                        }
+                        final long delay = next.time - System.nanoTime();
+                        if (delay > 0) {
+                            this.wait(delay / 1000000, (int) (delay % 1000000));
+                        } else {
+                            event = this.events.poll();
+                        }
+                    }
+                } catch (InterruptedException error) {
+                    return;
+                }
+            }
+            event.task.run();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.utils;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.PriorityQueue;
+
+/**
+ * A clock that only advances when being told to, for deterministic runs.
+ * Scheduled tasks run on the thread that advances the clock.
+ */
+public class VirtualClock implements LinkClock {
+    @NonNull private final PriorityQueue<LinkEvent> events = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    @Override
+    public synchronized long nanoTime() {
+        return this.now;
+    }
+
+    @Override
+    public synchronized void schedule(final long nanoTime, @NonNull final Runnable task) {
+        this.events.add(new LinkEvent(Math.max(nanoTime, this.now), this.sequence++, task));
+    }
+
+    /**
+     * Advance the clock by the given amount of nanoseconds, running all
+     * tasks that are due.
+     */
+    public void advance(final long nanos) {
+        final long until;
+        synchronized (this) {
+            until = this.now + nanos;
+        }
+        this.runUntil(until);
+        synchronized (this) {
+            this.now = Math.max(this.now, until);
+        }
+    }
+
+    /**
+     * Advance the clock until no tasks are left.
+     */
+    public void run() {
+        this.runUntil(Long.MAX_VALUE);
+    }
+
+    private void runUntil(final long until) {
+        while (true) {
+            final LinkEvent event;
+            synchronized (this) {
+                event = this.events.peek();
+                if (event == null || event.time > until) {
+                    return;
+                }
+                this.events.poll();
+                this.now = event.time;
+            }
+            event.task.run();
+        }
+    }
+}
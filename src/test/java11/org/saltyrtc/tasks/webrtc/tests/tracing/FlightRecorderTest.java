@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016-2019 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.tasks.webrtc.tests.tracing;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.tasks.webrtc.tracing.FlightRecorder;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the Java 11 variant of the flight recorder. Only runs on Java 11+.
+ */
+@DisplayName("FlightRecorder (Java 11)")
+class FlightRecorderTest {
+    private static final String PREFIX = "org.saltyrtc.webrtc.";
+    @NonNull private static final List<String> EVENTS = Arrays.asList(
+        "ChunkSent", "ChunkReceived", "MessageReassembled", "Encrypt", "Decrypt",
+        "HandoverStarted", "HandoverFinished", "QueueFlushed", "TransportDied"
+    );
+
+    /**
+     * Emit each event once.
+     */
+    private static void emitAll() {
+        final long start = FlightRecorder.start();
+        FlightRecorder.chunkSent(1, 10, start);
+        FlightRecorder.chunkReceived(1, 11);
+        FlightRecorder.messageReassembled(1, 12);
+        FlightRecorder.encrypted(1, 13, start);
+        FlightRecorder.decrypted(1, 14, start);
+        FlightRecorder.handoverStarted(1);
+        FlightRecorder.handoverFinished(1, start);
+        FlightRecorder.queueFlushed(1, 15, start);
+        FlightRecorder.transportDied(1, "test");
+    }
+
+    @Test
+    @DisplayName("returns a timestamp")
+    void testStart() {
+        // The Java 8 variant returns 0
+        assertNotEquals(0, FlightRecorder.start());
+    }
+
+    @Test
+    @DisplayName("registers the events")
+    void testRegistered() {
+        emitAll();
+        final Set<String> names = new HashSet<>();
+        for (final EventType type : jdk.jfr.FlightRecorder.getFlightRecorder().getEventTypes()) {
+            names.add(type.getName());
+        }
+        for (final String event : EVENTS) {
+            assertTrue(names.contains(PREFIX + event), event);
+        }
+    }
+
+    @Test
+    @DisplayName("emits the events")
+    void testEmitted() throws Exception {
+        final Path file = Files.createTempFile("saltyrtc-events", ".jfr");
+        try {
+            try (final Recording recording = new Recording()) {
+                for (final String event : EVENTS) {
+                    recording.enable(PREFIX + event);
+                }
+                recording.start();
+                emitAll();
+                recording.stop();
+                recording.dump(file);
+            }
+
+            final Map<String, RecordedEvent> recorded = new HashMap<>();
+            for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                recorded.put(event.getEventType().getName(), event);
+            }
+            for (final String event : EVENTS) {
+                final RecordedEvent recordedEvent = recorded.get(PREFIX + event);
+                assertNotNull(recordedEvent, event);
+                assertEquals(1, recordedEvent.getInt("channelId"));
+            }
+            assertEquals(10, recorded.get(PREFIX + "ChunkSent").getLong("length"));
+            assertEquals(15, recorded.get(PREFIX + "QueueFlushed").getInt("messages"));
+            assertEquals("test", recorded.get(PREFIX + "TransportDied").getString("reason"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}